@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.MemcachedNode;
+
+/**
+ * Unconnected nodes for the benchmarks that only need node identities.
+ */
+final class BenchmarkNodes {
+
+  private BenchmarkNodes() {
+    // Empty
+  }
+
+  /**
+   * Create the given number of nodes, which only answer to
+   * {@link MemcachedNode#getSocketAddress()}, equals, hashCode and toString.
+   */
+  static List<MemcachedNode> create(int count) {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>(count);
+    for (int i = 0; i < count; i++) {
+      final InetSocketAddress sa = new InetSocketAddress("10.0."
+        + (i / 250) + "." + (i % 250 + 1), 11211);
+      nodes.add((MemcachedNode) Proxy.newProxyInstance(
+        MemcachedNode.class.getClassLoader(),
+        new Class<?>[] {MemcachedNode.class}, new InvocationHandler() {
+          public Object invoke(Object proxy, Method m, Object[] args) {
+            String name = m.getName();
+            if (name.equals("getSocketAddress")) {
+              return sa;
+            } else if (name.equals("equals")) {
+              return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+              return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+              return "{BenchmarkNode " + sa + "}";
+            }
+            throw new UnsupportedOperationException(name);
+          }
+        }));
+    }
+    return nodes;
+  }
+}
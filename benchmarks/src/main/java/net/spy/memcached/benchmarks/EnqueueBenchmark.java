@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Sets from many threads against an in-process server, one at a time and
+ * in batches through {@link MemcachedConnection#enqueueBatch}. Next to the
+ * throughput, each run reports the selector wakeups, a syscall each, per
+ * operation as the "wakeupsPerOp" counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class EnqueueBenchmark {
+
+  private static final int BATCH_SIZE = 64;
+
+  private EmbeddedMemcachedServer server;
+  private MemcachedClient client;
+  private OperationFactory opFact;
+  private final AtomicLong ops = new AtomicLong();
+  private byte[] value;
+
+  /**
+   * The wakeups per operation of an iteration. The counter is per thread
+   * and JMH sums it up, so every thread reports its share of the ratio.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Wakeups {
+
+    public double wakeupsPerOp;
+    private long ops;
+    private long wakeups;
+
+    @Setup(Level.Iteration)
+    public void start(EnqueueBenchmark b) {
+      wakeupsPerOp = 0;
+      ops = b.ops.get();
+      wakeups = b.client.getConnection().getWakeupCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void end(EnqueueBenchmark b, BenchmarkParams params) {
+      long n = b.ops.get() - ops;
+      if (n > 0) {
+        long w = b.client.getConnection().getWakeupCount() - wakeups;
+        wakeupsPerOp = (double) w / n / params.getThreads();
+      }
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new EmbeddedMemcachedServer().start();
+    ConnectionFactory cf = new ConnectionFactoryBuilder().setDaemon(true)
+      .build();
+    client = new MemcachedClient(cf,
+      Collections.singletonList(server.getAddress()));
+    opFact = cf.getOperationFactory();
+    value = "value".getBytes();
+    client.set("key", 0, value).get();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    client.shutdown();
+    server.close();
+  }
+
+  @Benchmark
+  public Object set(Wakeups wakeups) throws Exception {
+    ops.incrementAndGet();
+    return client.set("key", 0, value).get();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void setBatch(Wakeups wakeups) throws Exception {
+    final CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+    StoreOperation.Callback cb = new StoreOperation.Callback() {
+      public void gotData(String key, long cas) {
+      }
+
+      public void receivedStatus(OperationStatus status) {
+      }
+
+      public void complete() {
+        latch.countDown();
+      }
+    };
+    List<KeyedOperation> batch = new ArrayList<KeyedOperation>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      batch.add(opFact.store(StoreType.set, "key" + i, 0, 0, value, cb));
+    }
+    ops.addAndGet(BATCH_SIZE);
+    client.getConnection().enqueueBatch(batch);
+    latch.await();
+  }
+}
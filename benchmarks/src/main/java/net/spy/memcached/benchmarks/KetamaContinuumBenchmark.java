@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.benchmarks;
+
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.KetamaNodeLocator;
+import net.spy.memcached.MemcachedNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hash to node lookups on the Ketama continuum, against the sorted map
+ * lookup the continuum used to do. The hashes are computed up front so only
+ * the search itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KetamaContinuumBenchmark {
+
+  @Param({"100"})
+  private int nodes;
+
+  private KetamaNodeLocator locator;
+  private TreeMap<Long, MemcachedNode> map;
+  private long[] hashes;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    locator = new KetamaNodeLocator(BenchmarkNodes.create(nodes),
+      DefaultHashAlgorithm.KETAMA_HASH);
+    map = locator.getKetamaNodes();
+    Random random = new Random(42);
+    hashes = new long[4096];
+    for (int i = 0; i < hashes.length; i++) {
+      hashes[i] = random.nextLong() & 0xffffffffL;
+    }
+  }
+
+  @Benchmark
+  public MemcachedNode continuum() {
+    return locator.getNodeForKey(hashes[next++ & (hashes.length - 1)]);
+  }
+
+  @Benchmark
+  public MemcachedNode sortedMap() {
+    long hash = hashes[next++ & (hashes.length - 1)];
+    if (!map.containsKey(hash)) {
+      SortedMap<Long, MemcachedNode> tailMap = map.tailMap(hash);
+      if (tailMap.isEmpty()) {
+        hash = map.firstKey();
+      } else {
+        hash = tailMap.firstKey();
+      }
+    }
+    return map.get(hash);
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder.Locator;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.HashAlgorithm;
+import net.spy.memcached.JumpHashNodeLocator;
+import net.spy.memcached.KetamaNodeLocator;
+import net.spy.memcached.KeyHashCache;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.RendezvousNodeLocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Key to node lookups with the consistent node locators, with and without a
+ * cache of the key hashes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeLocatorBenchmark {
+
+  @Param({"CONSISTENT", "JUMP", "RENDEZVOUS"})
+  private Locator type;
+
+  @Param({"10", "100"})
+  private int nodes;
+
+  @Param({"KETAMA_HASH", "FNV1A_32_HASH"})
+  private DefaultHashAlgorithm hash;
+
+  @Param({"0", "4096"})
+  private int keyHashCacheSize;
+
+  private NodeLocator locator;
+  private String[] keys;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    HashAlgorithm alg = keyHashCacheSize > 0
+      ? new KeyHashCache(hash, keyHashCacheSize) : hash;
+    List<MemcachedNode> n = BenchmarkNodes.create(nodes);
+    switch (type) {
+    case JUMP:
+      locator = new JumpHashNodeLocator(n, alg);
+      break;
+    case RENDEZVOUS:
+      locator = new RendezvousNodeLocator(n, alg);
+      break;
+    default:
+      locator = new KetamaNodeLocator(n, alg);
+    }
+    keys = new String[1024];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "user:session:" + i;
+    }
+  }
+
+  @Benchmark
+  public MemcachedNode getPrimary() {
+    return locator.getPrimary(keys[next++ & (keys.length - 1)]);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.benchmarks;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.DefaultConnectionFactory;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.MpscOperationQueueFactory;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The input queue of a node under contention: 64 threads adding operations
+ * while the IO thread drains them, like the default
+ * {@link ArrayOperationQueueFactory} against the lock-free
+ * {@link MpscOperationQueueFactory}.
+ *
+ * Producers give up on a full queue instead of blocking, so the "offer"
+ * score counts the attempts and a full queue shows up as a lower "poll"
+ * score.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationQueueBenchmark {
+
+  @Param({"array", "mpsc"})
+  private String queue;
+
+  private BlockingQueue<Operation> q;
+  private Operation op;
+
+  @Setup
+  public void setUp() {
+    int cap = DefaultConnectionFactory.DEFAULT_OP_QUEUE_LEN;
+    OperationQueueFactory factory = "mpsc".equals(queue)
+      ? new MpscOperationQueueFactory(cap)
+      : new ArrayOperationQueueFactory(cap);
+    q = factory.create();
+    op = new BinaryOperationFactory().noop(null);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(64)
+  public boolean offer() {
+    return q.offer(op);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public Operation poll() {
+    return q.poll();
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Synchronous get and set through a full client against an in-process
+ * server, covering operation creation, the IO thread, the socket and the
+ * response parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RoundTripBenchmark {
+
+  @Param({"TEXT", "BINARY", "META"})
+  private Protocol protocol;
+
+  @Param({"100"})
+  private int valueSize;
+
+  private EmbeddedMemcachedServer server;
+  private MemcachedClient client;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new EmbeddedMemcachedServer().start();
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(protocol).setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+    StringBuilder sb = new StringBuilder(valueSize);
+    for (int i = 0; i < valueSize; i++) {
+      sb.append('x');
+    }
+    client.set("hit", 0, sb.toString()).get();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    client.shutdown();
+    server.close();
+  }
+
+  @Benchmark
+  public Object get() {
+    return client.get("hit");
+  }
+
+  @Benchmark
+  public Object getMiss() {
+    return client.get("miss");
+  }
+
+  @Benchmark
+  public Object set() throws Exception {
+    return client.set("key", 0, "value").get();
+  }
+}
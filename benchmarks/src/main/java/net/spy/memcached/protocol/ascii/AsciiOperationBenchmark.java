@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.ascii;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of ascii get responses, including the creation of the operation
+ * and its request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsciiOperationBenchmark {
+
+  @Param({"1", "16"})
+  private int keyCount;
+
+  @Param({"100", "4096"})
+  private int valueSize;
+
+  private final AsciiOperationFactory ofact = new AsciiOperationFactory();
+  private List<String> keys;
+  private ByteBuffer response;
+
+  @Setup
+  public void setUp() {
+    String[] k = new String[keyCount];
+    StringBuilder sb = new StringBuilder();
+    char[] value = new char[valueSize];
+    Arrays.fill(value, 'x');
+    for (int i = 0; i < keyCount; i++) {
+      k[i] = "user:session:" + i;
+      sb.append("VALUE ").append(k[i]).append(" 0 ").append(valueSize)
+        .append("\r\n").append(value).append("\r\n");
+    }
+    sb.append("END\r\n");
+    keys = Arrays.asList(k);
+    response = ByteBuffer.wrap(sb.toString().getBytes());
+  }
+
+  @Benchmark
+  public Operation parseGetResponse(final Blackhole bh) throws IOException {
+    Operation op = ofact.get(keys, new GetOperation.Callback() {
+      public void gotData(String key, int flags, byte[] data) {
+        bh.consume(data);
+      }
+
+      public void receivedStatus(OperationStatus status) {
+        bh.consume(status);
+      }
+
+      public void complete() {
+      }
+    });
+    op.initialize();
+    response.clear();
+    op.readFromBuffer(response);
+    return op;
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Binary protocol operations: parsing a get response and building the
+ * optimized multi get and multi set operations the node merges queued
+ * operations into.
+ *
+ * Lives in the protocol package to reach the package private operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryOperationBenchmark {
+
+  @Param({"100", "4096"})
+  private int valueSize;
+
+  @Param({"16"})
+  private int batch;
+
+  private ByteBuffer getResponse;
+  private byte[] value;
+  private String[] keys;
+
+  @Setup
+  public void setUp() {
+    value = new byte[valueSize];
+    getResponse = ByteBuffer.allocate(OperationImpl.MIN_RECV_PACKET
+      + GetOperationImpl.EXTRA_HDR_LEN + valueSize);
+    getResponse.put(OperationImpl.RES_MAGIC);
+    getResponse.put(GetOperationImpl.GET_CMD);
+    getResponse.putShort((short) 0); // key length
+    getResponse.put((byte) GetOperationImpl.EXTRA_HDR_LEN);
+    getResponse.put((byte) 0); // data type
+    getResponse.putShort((short) 0); // status
+    getResponse.putInt(GetOperationImpl.EXTRA_HDR_LEN + valueSize);
+    getResponse.putInt(0); // opaque, set per operation
+    getResponse.putLong(1); // cas
+    getResponse.putInt(0); // flags
+    getResponse.put(value);
+    keys = new String[batch];
+    for (int i = 0; i < batch; i++) {
+      keys[i] = "user:session:" + i;
+    }
+  }
+
+  @Benchmark
+  public void parseGetResponse(Blackhole bh) throws IOException {
+    GetOperationImpl op = new GetOperationImpl(keys[0], new GetCallback(bh));
+    getResponse.clear();
+    getResponse.putInt(12, op.opaque);
+    op.readFromBuffer(getResponse);
+    bh.consume(op);
+  }
+
+  @Benchmark
+  public ByteBuffer buildOptimizedGet(Blackhole bh) {
+    GetCallback cb = new GetCallback(bh);
+    OptimizedGetImpl og = new OptimizedGetImpl(
+      new GetOperationImpl(keys[0], cb));
+    for (int i = 1; i < batch; i++) {
+      og.addOperation(new GetOperationImpl(keys[i], cb));
+    }
+    og.initialize();
+    return og.getBuffer();
+  }
+
+  @Benchmark
+  public ByteBuffer buildOptimizedSet(Blackhole bh) {
+    StoreCallback cb = new StoreCallback(bh);
+    OptimizedSetImpl os = new OptimizedSetImpl(new StoreOperationImpl(
+      StoreType.set, keys[0], 0, 0, value, 0, cb));
+    for (int i = 1; i < batch; i++) {
+      os.addOperation(new StoreOperationImpl(StoreType.set, keys[i], 0, 0,
+        value, 0, cb));
+    }
+    os.initialize();
+    return os.getBuffer();
+  }
+
+  private static final class GetCallback implements GetOperation.Callback {
+    private final Blackhole bh;
+
+    GetCallback(Blackhole b) {
+      bh = b;
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      bh.consume(data);
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      bh.consume(status);
+    }
+
+    public void complete() {
+    }
+  }
+
+  private static final class StoreCallback implements StoreOperation.Callback {
+    private final Blackhole bh;
+
+    StoreCallback(Blackhole b) {
+      bh = b;
+    }
+
+    public void gotData(String key, long cas) {
+      bh.consume(cas);
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      bh.consume(status);
+    }
+
+    public void complete() {
+    }
+  }
+}
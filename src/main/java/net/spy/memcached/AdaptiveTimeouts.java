@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derives the operation timeout of each server from its recent latencies.
+ *
+ * <p>
+ * The latencies of the operations of a server go into a streaming
+ * log-linear histogram covering its last {@link #WINDOW} to twice as many
+ * operations. Like the timeout they govern, they run from the enqueue of
+ * an operation to its response, queueing included. Its timeout is a multiple of the 99th percentile of that
+ * histogram, bounded by a floor and by the configured operation timeout, so
+ * callers give up on a degraded server long before the operation timeout
+ * while a healthy one keeps plenty of headroom. Operations timing out count
+ * as taking as long as the timeout they exceeded, which lets the timeout of
+ * a server grow back when all of its operations start timing out.
+ * </p>
+ *
+ * <p>
+ * Servers with fewer than {@link #MIN_SAMPLES} latencies recorded use the
+ * operation timeout.
+ * </p>
+ */
+class AdaptiveTimeouts {
+
+  /**
+   * The number of latencies after which the oldest half of a histogram is
+   * dropped.
+   */
+  static final int WINDOW = 1024;
+
+  /**
+   * The number of latencies a server needs before its timeout adapts.
+   */
+  static final int MIN_SAMPLES = 100;
+
+  static final double PERCENTILE = 99;
+
+  private static final int RECOMPUTE_INTERVAL = 32;
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  private final double multiplier;
+  private final long floor;
+  private final long ceiling;
+  private final ConcurrentMap<SocketAddress, Histogram> histograms =
+    new ConcurrentHashMap<SocketAddress, Histogram>();
+
+  /**
+   * Create adaptive timeouts.
+   *
+   * @param m the multiple of the 99th percentile latency to time out after
+   * @param floorMillis the shortest timeout in milliseconds
+   * @param ceilingMillis the longest timeout in milliseconds
+   */
+  AdaptiveTimeouts(double m, long floorMillis, long ceilingMillis) {
+    if (!(m >= 1)) {
+      throw new IllegalArgumentException("Multiplier must be at least 1");
+    }
+    if (floorMillis <= 0 || floorMillis > ceilingMillis) {
+      throw new IllegalArgumentException("Floor must be positive and at most "
+        + ceilingMillis);
+    }
+    multiplier = m;
+    floor = floorMillis;
+    ceiling = ceilingMillis;
+  }
+
+  /**
+   * Record the latency of an operation of the given server.
+   *
+   * @param sa the address of the server
+   * @param latencyNanos the time from the enqueue of the operation to its
+   *        response in nanoseconds
+   */
+  void record(SocketAddress sa, long latencyNanos) {
+    Histogram h = histograms.get(sa);
+    if (h == null) {
+      Histogram created = new Histogram();
+      h = histograms.putIfAbsent(sa, created);
+      if (h == null) {
+        h = created;
+      }
+    }
+    h.record(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+  }
+
+  /**
+   * Record that an operation of the given server exceeded its timeout.
+   *
+   * @param sa the address of the server
+   */
+  void timedOut(SocketAddress sa) {
+    record(sa, TimeUnit.MILLISECONDS.toNanos(getTimeout(sa)));
+  }
+
+  /**
+   * Get the timeout in milliseconds of the operations of the given server.
+   *
+   * @param sa the address of the server
+   */
+  long getTimeout(SocketAddress sa) {
+    Histogram h = histograms.get(sa);
+    return h == null ? ceiling : h.timeout;
+  }
+
+  /**
+   * Get the bucket of the given latency.
+   */
+  static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int e = 63 - Long.numberOfLeadingZeros(micros);
+    return (e - SUB_BITS + 1) * SUB_BUCKETS
+      + (int) ((micros >>> (e - SUB_BITS)) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * Get the largest latency falling into the given bucket.
+   */
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+  /**
+   * The latencies of one server, in a current and a previous half.
+   */
+  private final class Histogram {
+    private long[] current = new long[BUCKETS];
+    private long[] previous = new long[BUCKETS];
+    private int currentCount;
+    private int previousCount;
+    private volatile long timeout = ceiling;
+
+    synchronized void record(long micros) {
+      current[bucketOf(micros)]++;
+      currentCount++;
+      int total = currentCount + previousCount;
+      if (total >= MIN_SAMPLES && total % RECOMPUTE_INTERVAL == 0) {
+        long p = percentile(total);
+        long t = (long) Math.ceil(multiplier * p / 1000);
+        timeout = Math.max(floor, Math.min(ceiling, t));
+      }
+      if (currentCount == WINDOW) {
+        long[] dropped = previous;
+        Arrays.fill(dropped, 0);
+        previous = current;
+        previousCount = currentCount;
+        current = dropped;
+        currentCount = 0;
+      }
+    }
+
+    private long percentile(int total) {
+      long rank = (long) Math.ceil(PERCENTILE / 100 * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += current[i] + previous[i];
+        if (seen >= rank) {
+          return upperBoundOf(i);
+        }
+      }
+      return upperBoundOf(BUCKETS - 1);
+    }
+  }
+}
@@ -43,7 +43,7 @@ public final class ArrayModNodeLocator implements NodeLocator {
    * the given hash algorithm.
    *
    * @param n the array of nodes
-   * @param alg the hash algorithm
+   * @param alg the hash algorithm, possibly behind a {@link KeyHashCache}
    */
   public ArrayModNodeLocator(List<MemcachedNode> n, HashAlgorithm alg) {
     super();
@@ -0,0 +1,603 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A {@link CompletionStage} based view of a {@link MemcachedClient}.
+ *
+ * <p>
+ * The stages returned are completed straight from the operation callbacks,
+ * there is no latch to wait on and no thread is needed per pending request.
+ * By default completion, including decoding the value, runs on the IO
+ * thread that read the response, so dependent stages should either be cheap
+ * or switch to their own executor with the *Async variants. Alternatively an
+ * {@link Executor} can be given to decode values and complete every stage
+ * on. Stages of values failing to decode complete exceptionally.
+ * </p>
+ *
+ * <p>
+ * Stages fail with a {@link CheckedOperationTimeoutException} once the
+ * connection expires their operations after the operation timeout of the
+ * client, and cancelling a stage cancels its operation.
+ * </p>
+ *
+ * <pre>
+ * AsyncMemcachedClient async = new AsyncMemcachedClient(client);
+ * async.get("someKey").thenAccept(v -&gt; ...);
+ * </pre>
+ */
+public class AsyncMemcachedClient extends SpyObject {
+
+  private final MemcachedClient client;
+  private final Executor executor;
+
+  /**
+   * Create a facade completing stages on the IO threads.
+   *
+   * @param c the client to send the operations through
+   */
+  public AsyncMemcachedClient(MemcachedClient c) {
+    this(c, null);
+  }
+
+  /**
+   * Create a facade completing stages on the given executor.
+   *
+   * @param c the client to send the operations through
+   * @param e the executor to complete on, or null for the IO threads
+   */
+  public AsyncMemcachedClient(MemcachedClient c, Executor e) {
+    client = c;
+    executor = e;
+  }
+
+  /**
+   * Get the client operations are sent through.
+   */
+  public MemcachedClient getClient() {
+    return client;
+  }
+
+  /**
+   * Get with a single key.
+   *
+   * @param key the key to get
+   * @param tc the transcoder to decode the value
+   * @return a stage completed with the value, or null if there is none
+   */
+  public <T> CompletionStage<T> get(final String key,
+      final Transcoder<T> tc) {
+    final CompletableFuture<T> rv = new CompletableFuture<T>();
+    final GetCompletion<T> cb = new GetCompletion<T>(rv) {
+      private int flags;
+      private byte[] data;
+
+      @Override
+      public void gotData(String k, int f, byte[] d) {
+        flags = f;
+        data = d;
+      }
+
+      @Override
+      protected T result() {
+        return data == null ? null
+          : tc.decode(new CachedData(flags, data, tc.getMaxSize()));
+      }
+    };
+    return enqueue(key, client.opFact.get(key, cb), cb);
+  }
+
+  /**
+   * Get with a single key using the default transcoder.
+   */
+  public CompletionStage<Object> get(String key) {
+    return get(key, client.getTranscoder());
+  }
+
+  /**
+   * Get a value with its CAS identifier.
+   *
+   * @param key the key to get
+   * @param tc the transcoder to decode the value
+   * @return a stage completed with the value and its cas, or null if there is
+   *         none
+   */
+  public <T> CompletionStage<CASValue<T>> gets(final String key,
+      final Transcoder<T> tc) {
+    final CompletableFuture<CASValue<T>> rv =
+      new CompletableFuture<CASValue<T>>();
+    final GetsCompletion<T> cb = new GetsCompletion<T>(rv) {
+      private int flags;
+      private long cas;
+      private byte[] data;
+
+      @Override
+      public void gotData(String k, int f, long c, byte[] d) {
+        flags = f;
+        cas = c;
+        data = d;
+      }
+
+      @Override
+      protected CASValue<T> result() {
+        return data == null ? null : new CASValue<T>(cas,
+          tc.decode(new CachedData(flags, data, tc.getMaxSize())));
+      }
+    };
+    return enqueue(key, client.opFact.gets(key, cb), cb);
+  }
+
+  /**
+   * Get a value with its CAS identifier using the default transcoder.
+   */
+  public CompletionStage<CASValue<Object>> gets(String key) {
+    return gets(key, client.getTranscoder());
+  }
+
+  /**
+   * Get the values of several keys, in one request per server.
+   *
+   * @param keys the keys to get
+   * @param tc the transcoder to decode the values
+   * @return a stage completed with the values found
+   */
+  public <T> CompletionStage<Map<String, T>> getBulk(Collection<String> keys,
+      final Transcoder<T> tc) {
+    final CompletableFuture<Map<String, T>> rv =
+      new CompletableFuture<Map<String, T>>();
+    final Map<String, CachedData> values =
+      new ConcurrentHashMap<String, CachedData>();
+
+    final Map<MemcachedNode, Collection<String>> chunks =
+      new HashMap<MemcachedNode, Collection<String>>();
+    NodeLocator locator = client.mconn.getLocator();
+    for (String key : keys) {
+      MemcachedNode node = client.bulkGetNode(locator, key);
+      Collection<String> ks = chunks.get(node);
+      if (ks == null) {
+        ks = new ArrayList<String>();
+        chunks.put(node, ks);
+      }
+      ks.add(key);
+    }
+    if (chunks.isEmpty()) {
+      rv.complete(new HashMap<String, T>());
+      return rv;
+    }
+
+    final AtomicInteger pending = new AtomicInteger(chunks.size());
+    final Collection<Operation> ops = new ArrayList<Operation>(chunks.size());
+    GetOperation.Callback cb = new GetOperation.Callback() {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        // Misses are simply left out.
+      }
+
+      @Override
+      public void gotData(String k, int flags, byte[] data) {
+        // The size is checked against the transcoder once decoded.
+        values.put(k, new CachedData(flags, data, Integer.MAX_VALUE));
+      }
+
+      @Override
+      public void complete() {
+        if (pending.decrementAndGet() == 0) {
+          finish(rv, new Runnable() {
+            public void run() {
+              for (Operation op : ops) {
+                if (failed(rv, op)) {
+                  return;
+                }
+              }
+              Map<String, T> decoded = new HashMap<String, T>();
+              try {
+                for (Map.Entry<String, CachedData> me : values.entrySet()) {
+                  CachedData d = me.getValue();
+                  decoded.put(me.getKey(), tc.decode(new CachedData(
+                    d.getFlags(), d.getData(), tc.getMaxSize())));
+                }
+              } catch (RuntimeException e) {
+                rv.completeExceptionally(e);
+                return;
+              }
+              rv.complete(decoded);
+            }
+          });
+        }
+      }
+    };
+
+    Map<MemcachedNode, Operation> mops =
+      new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, Collection<String>> me
+      : chunks.entrySet()) {
+      Operation op = client.opFact.get(me.getValue(), cb);
+      mops.put(me.getKey(), op);
+      ops.add(op);
+    }
+    cancelOnCancel(rv, ops);
+    client.mconn.checkState();
+    client.mconn.addOperations(mops);
+    return rv;
+  }
+
+  /**
+   * Get the values of several keys using the default transcoder.
+   */
+  public CompletionStage<Map<String, Object>> getBulk(
+      Collection<String> keys) {
+    return getBulk(keys, client.getTranscoder());
+  }
+
+  /**
+   * Set a value.
+   *
+   * @return a stage completed with true if the value was stored
+   */
+  public <T> CompletionStage<Boolean> set(String key, int exp, T value,
+      Transcoder<T> tc) {
+    return store(StoreType.set, key, exp, value, tc);
+  }
+
+  /**
+   * Set a value using the default transcoder.
+   */
+  public CompletionStage<Boolean> set(String key, int exp, Object value) {
+    return set(key, exp, value, client.getTranscoder());
+  }
+
+  /**
+   * Add a value if none is stored for the key.
+   *
+   * @return a stage completed with true if the value was stored
+   */
+  public <T> CompletionStage<Boolean> add(String key, int exp, T value,
+      Transcoder<T> tc) {
+    return store(StoreType.add, key, exp, value, tc);
+  }
+
+  /**
+   * Add a value using the default transcoder.
+   */
+  public CompletionStage<Boolean> add(String key, int exp, Object value) {
+    return add(key, exp, value, client.getTranscoder());
+  }
+
+  /**
+   * Replace the value stored for the key.
+   *
+   * @return a stage completed with true if the value was stored
+   */
+  public <T> CompletionStage<Boolean> replace(String key, int exp, T value,
+      Transcoder<T> tc) {
+    return store(StoreType.replace, key, exp, value, tc);
+  }
+
+  /**
+   * Replace a value using the default transcoder.
+   */
+  public CompletionStage<Boolean> replace(String key, int exp,
+      Object value) {
+    return replace(key, exp, value, client.getTranscoder());
+  }
+
+  /**
+   * Compare and set.
+   *
+   * @return a stage completed with the outcome of the CAS
+   */
+  public <T> CompletionStage<CASResponse> cas(String key, long casId,
+      int exp, T value, Transcoder<T> tc) {
+    CachedData co = tc.encode(value);
+    final CompletableFuture<CASResponse> rv =
+      new CompletableFuture<CASResponse>();
+    final StoreCompletion<CASResponse> cb = new StoreCompletion<CASResponse>(rv) {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        if (status instanceof CASOperationStatus) {
+          value = ((CASOperationStatus) status).getCASResponse();
+        }
+      }
+    };
+    return enqueue(key, client.opFact.cas(StoreType.set, key, casId,
+      co.getFlags(), exp, co.getData(), cb), cb);
+  }
+
+  /**
+   * Compare and set using the default transcoder.
+   */
+  public CompletionStage<CASResponse> cas(String key, long casId, int exp,
+      Object value) {
+    return cas(key, casId, exp, value, client.getTranscoder());
+  }
+
+  /**
+   * Delete a key.
+   *
+   * @return a stage completed with true if the key was deleted
+   */
+  public CompletionStage<Boolean> delete(String key) {
+    final CompletableFuture<Boolean> rv = new CompletableFuture<Boolean>();
+    final DeleteCompletion cb = new DeleteCompletion(rv);
+    return enqueue(key, client.opFact.delete(key, cb), cb);
+  }
+
+  /**
+   * Reset the expiration of a key.
+   *
+   * @return a stage completed with true if the key was touched
+   */
+  public CompletionStage<Boolean> touch(String key, int exp) {
+    final CompletableFuture<Boolean> rv = new CompletableFuture<Boolean>();
+    final Completion<Boolean> cb = new SuccessCompletion(rv);
+    return enqueue(key, client.opFact.touch(key, exp, cb), cb);
+  }
+
+  /**
+   * Increment a counter.
+   *
+   * @return a stage completed with the new value, or -1 if the key does not
+   *         exist
+   */
+  public CompletionStage<Long> incr(String key, long by) {
+    return mutate(Mutator.incr, key, by, 0, -1);
+  }
+
+  /**
+   * Increment a counter, creating it with the given default and expiration
+   * if it does not exist (binary and meta protocol only).
+   *
+   * @throws UnsupportedOperationException on the text protocol
+   */
+  public CompletionStage<Long> incr(String key, long by, long def, int exp) {
+    return mutate(Mutator.incr, key, by, def, exp);
+  }
+
+  /**
+   * Decrement a counter.
+   *
+   * @return a stage completed with the new value, or -1 if the key does not
+   *         exist
+   */
+  public CompletionStage<Long> decr(String key, long by) {
+    return mutate(Mutator.decr, key, by, 0, -1);
+  }
+
+  /**
+   * Decrement a counter, creating it with the given default and expiration
+   * if it does not exist (binary and meta protocol only).
+   *
+   * @throws UnsupportedOperationException on the text protocol
+   */
+  public CompletionStage<Long> decr(String key, long by, long def, int exp) {
+    return mutate(Mutator.decr, key, by, def, exp);
+  }
+
+  private <T> CompletionStage<Boolean> store(StoreType type, String key,
+      int exp, T value, Transcoder<T> tc) {
+    CachedData co = tc.encode(value);
+    final CompletableFuture<Boolean> rv = new CompletableFuture<Boolean>();
+    final StoreCompletion<Boolean> cb = new StoreCompletion<Boolean>(rv) {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        value = status.isSuccess();
+      }
+    };
+    return enqueue(key, client.opFact.store(type, key, co.getFlags(), exp,
+      co.getData(), cb), cb);
+  }
+
+  private CompletionStage<Long> mutate(Mutator m, String key, long by,
+      long def, int exp) {
+    if (!(client.opFact instanceof BinaryOperationFactory)
+      && !(client.opFact instanceof MetaOperationFactory)
+      && (def != 0 || exp != -1)) {
+      throw new UnsupportedOperationException("Default value or expiration "
+        + "time are not supported on the text protocol. Use either the "
+        + "binary or meta protocol or the sync variant.");
+    }
+    final CompletableFuture<Long> rv = new CompletableFuture<Long>();
+    final Completion<Long> cb = new Completion<Long>(rv) {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        value = status.isSuccess() ? Long.valueOf(status.getMessage()) : -1L;
+      }
+    };
+    return enqueue(key, client.opFact.mutate(m, key, by, def, exp, cb), cb);
+  }
+
+  private <T> CompletionStage<T> enqueue(String key, Operation op,
+      Completion<T> cb) {
+    cb.op = op;
+    cancelOnCancel(cb.future, Collections.singleton(op));
+    client.enqueueOperation(key, op);
+    return cb.future;
+  }
+
+  /**
+   * Cancel the operations if the stage is cancelled. Timeouts are left to
+   * the connection, which completes the callbacks of expired operations.
+   */
+  private void cancelOnCancel(final CompletableFuture<?> rv,
+      final Collection<Operation> ops) {
+    rv.whenComplete(new BiConsumer<Object, Throwable>() {
+      public void accept(Object v, Throwable t) {
+        if (rv.isCancelled()) {
+          for (Operation op : ops) {
+            op.cancel();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Run the given completion on the executor if there is one.
+   */
+  private void finish(CompletableFuture<?> rv, Runnable r) {
+    if (rv.isDone()) {
+      return;
+    }
+    if (executor == null) {
+      r.run();
+    } else {
+      executor.execute(r);
+    }
+  }
+
+  /**
+   * Complete the stage exceptionally if the operation did not succeed.
+   */
+  private static boolean failed(CompletableFuture<?> rv, Operation op) {
+    if (op.isCancelled()) {
+      rv.completeExceptionally(new CancellationException("Cancelled"));
+    } else if (op.hasErrored()) {
+      rv.completeExceptionally(op.getException());
+    } else if (op.isTimedOut()) {
+      rv.completeExceptionally(new CheckedOperationTimeoutException(
+        "Operation timed out.", op));
+    } else {
+      MemcachedConnection.opSucceeded(op);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Callback completing a stage with the value gathered from the operation.
+   */
+  private abstract class Completion<T> implements OperationCallback {
+
+    protected final CompletableFuture<T> future;
+    protected T value;
+    private Operation op;
+
+    Completion(CompletableFuture<T> f) {
+      future = f;
+    }
+
+    public void receivedStatus(OperationStatus status) {
+      // Most completions only care about the data.
+    }
+
+    public void complete() {
+      finish(future, new Runnable() {
+        public void run() {
+          if (failed(future, op)) {
+            return;
+          }
+          try {
+            future.complete(result());
+          } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+          }
+        }
+      });
+    }
+
+    /**
+     * Get the value to complete the stage with, where the stage is
+     * completed, so decoding does not hold up the IO thread when there is
+     * an executor.
+     */
+    protected T result() {
+      return value;
+    }
+  }
+
+  private abstract class GetCompletion<T> extends Completion<T>
+    implements GetOperation.Callback {
+    GetCompletion(CompletableFuture<T> f) {
+      super(f);
+    }
+  }
+
+  private abstract class GetsCompletion<T> extends Completion<CASValue<T>>
+    implements GetsOperation.Callback {
+    GetsCompletion(CompletableFuture<CASValue<T>> f) {
+      super(f);
+    }
+  }
+
+  private abstract class StoreCompletion<T> extends Completion<T>
+    implements StoreOperation.Callback {
+    StoreCompletion(CompletableFuture<T> f) {
+      super(f);
+    }
+
+    public void gotData(String key, long cas) {
+      // Not exposed
+    }
+  }
+
+  private class SuccessCompletion extends Completion<Boolean> {
+    SuccessCompletion(CompletableFuture<Boolean> f) {
+      super(f);
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus status) {
+      value = status.isSuccess();
+    }
+  }
+
+  private class DeleteCompletion extends SuccessCompletion
+    implements DeleteOperation.Callback {
+    DeleteCompletion(CompletableFuture<Boolean> f) {
+      super(f);
+    }
+
+    public void gotData(long cas) {
+      // Not exposed
+    }
+  }
+}
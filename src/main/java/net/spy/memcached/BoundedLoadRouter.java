@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.spy.memcached.metrics.MetricCollector;
+
+/**
+ * Routes reads with consistent hashing with bounded loads.
+ *
+ * <p>
+ * A read stays on the node its key is located on unless that node has more
+ * than (1 + epsilon) times the mean number of outstanding operations of all
+ * nodes. It then moves on to the first active node of the key's sequence
+ * that is within that bound, so a few hot keys can not fill up the queues
+ * of one node while the others are idle. Nodes with at most
+ * {@link #MIN_LOAD} outstanding operations are never considered overloaded,
+ * which keeps keys on their node while the client is lightly loaded.
+ * </p>
+ *
+ * <p>
+ * Only reads are moved and a moved read misses unless the other node has the
+ * key as well, so this is meant for cache-aside keys only.
+ * </p>
+ *
+ * @see <a href="https://arxiv.org/abs/1608.01350">Consistent Hashing with
+ *      Bounded Loads</a>
+ */
+class BoundedLoadRouter {
+
+  /**
+   * Nodes with at most this many outstanding operations keep their reads.
+   */
+  static final int MIN_LOAD = 32;
+
+  static final String OVERFLOW_METRIC = "[MEM] Bounded Load Overflow Rate";
+
+  private final double factor;
+  private final MetricCollector metrics;
+  private final ConcurrentMap<SocketAddress, LongAdder> overflows =
+    new ConcurrentHashMap<SocketAddress, LongAdder>();
+
+  /**
+   * Create a router allowing a node epsilon times more outstanding
+   * operations than the mean.
+   *
+   * @param epsilon the allowed overload, a positive fraction of the mean
+   * @param collector the collector for the overflow rate
+   */
+  BoundedLoadRouter(double epsilon, MetricCollector collector) {
+    if (!(epsilon > 0)) {
+      throw new IllegalArgumentException("Epsilon must be positive.");
+    }
+    factor = 1 + epsilon;
+    metrics = collector;
+    metrics.addMeter(OVERFLOW_METRIC);
+  }
+
+  /**
+   * Get the node to send a read of the given key to.
+   *
+   * @param locator the locator of the key
+   * @param key the key
+   * @param primary the node the key is located on
+   * @return the primary node, or the node the read overflows to
+   */
+  MemcachedNode route(NodeLocator locator, String key,
+    MemcachedNode primary) {
+    int load = loadOf(primary);
+    if (load <= MIN_LOAD) {
+      return primary;
+    }
+    Collection<MemcachedNode> all = locator.getAll();
+    long total = 0;
+    for (MemcachedNode n : all) {
+      total += loadOf(n);
+    }
+    double bound = factor * total / all.size();
+    if (load <= bound) {
+      return primary;
+    }
+    Iterator<MemcachedNode> i = locator.getSequence(key);
+    while (i.hasNext()) {
+      MemcachedNode n = i.next();
+      if (n != primary && n.isActive() && loadOf(n) <= bound) {
+        overflowed(primary);
+        return n;
+      }
+    }
+    return primary;
+  }
+
+  /**
+   * Get the number of outstanding operations of the given node.
+   */
+  protected int loadOf(MemcachedNode node) {
+    return node.getOutstandingOperationCount();
+  }
+
+  private void overflowed(MemcachedNode node) {
+    SocketAddress sa = node.getSocketAddress();
+    LongAdder count = overflows.get(sa);
+    if (count == null) {
+      LongAdder created = new LongAdder();
+      count = overflows.putIfAbsent(sa, created);
+      if (count == null) {
+        count = created;
+      }
+    }
+    count.increment();
+    metrics.markMeter(OVERFLOW_METRIC);
+  }
+
+  /**
+   * Get the number of reads moved off each node so far.
+   */
+  Map<SocketAddress, Long> getOverflowCounts() {
+    Map<SocketAddress, Long> rv = new HashMap<SocketAddress, Long>();
+    for (Map.Entry<SocketAddress, LongAdder> me : overflows.entrySet()) {
+      rv.put(me.getKey(), me.getValue().sum());
+    }
+    return rv;
+  }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a circuit breaker for each server, driven by the outcomes of its
+ * recent operations.
+ *
+ * <p>
+ * The outcomes of the last {@link #WINDOW} operations of a server are kept
+ * in a ring. Once at least {@link #MIN_CALLS} of them are known and the
+ * ratio of failures reaches the configured ratio, the circuit of the server
+ * opens. After the open time the next operation for the server moves its
+ * circuit to half-open, which sends a probe: the circuit closes when the
+ * probe succeeds and opens again otherwise. The outcomes of regular
+ * operations are ignored while the circuit is not closed, those are mostly
+ * operations sent before it opened.
+ * </p>
+ */
+class CircuitBreakers {
+
+  /**
+   * The number of recent outcomes kept for each server.
+   */
+  static final int WINDOW = 100;
+
+  /**
+   * The number of outcomes a server needs before its circuit may open.
+   */
+  static final int MIN_CALLS = 20;
+
+  /**
+   * Notified of the transitions of the circuits, outside of their locks.
+   */
+  interface Listener {
+
+    /**
+     * The circuit of the given server changed state.
+     */
+    void stateChanged(SocketAddress sa, CircuitState from, CircuitState to);
+  }
+
+  private final double failureRatio;
+  private final long openNanos;
+  private final Listener listener;
+  private final ConcurrentMap<SocketAddress, Circuit> circuits =
+    new ConcurrentHashMap<SocketAddress, Circuit>();
+
+  /**
+   * Create circuit breakers.
+   *
+   * @param ratio the ratio of failed operations a circuit opens at
+   * @param openMillis the time in milliseconds before an open circuit is
+   *          probed
+   * @param l the listener of the transitions
+   */
+  CircuitBreakers(double ratio, long openMillis, Listener l) {
+    if (!(ratio > 0 && ratio <= 1)) {
+      throw new IllegalArgumentException("Failure ratio must be in (0, 1]");
+    }
+    if (openMillis <= 0) {
+      throw new IllegalArgumentException("Open time must be positive");
+    }
+    failureRatio = ratio;
+    openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    listener = l;
+  }
+
+  /**
+   * Record that an operation of the given server succeeded.
+   *
+   * @param sa the address of the server
+   */
+  void succeeded(SocketAddress sa) {
+    record(sa, false);
+  }
+
+  /**
+   * Record that an operation of the given server failed or timed out.
+   *
+   * @param sa the address of the server
+   */
+  void failed(SocketAddress sa) {
+    record(sa, true);
+  }
+
+  private void record(SocketAddress sa, boolean failure) {
+    Circuit c = circuits.get(sa);
+    if (c == null) {
+      Circuit created = new Circuit();
+      c = circuits.putIfAbsent(sa, created);
+      if (c == null) {
+        c = created;
+      }
+    }
+    boolean opened;
+    synchronized (c) {
+      opened = c.record(failure);
+    }
+    if (opened) {
+      listener.stateChanged(sa, CircuitState.CLOSED, CircuitState.OPEN);
+    }
+  }
+
+  /**
+   * Get the state of the circuit of the given server.
+   *
+   * @param sa the address of the server
+   */
+  CircuitState getState(SocketAddress sa) {
+    Circuit c = circuits.get(sa);
+    return c == null ? CircuitState.CLOSED : c.state;
+  }
+
+  /**
+   * Check if operations may be sent to the given server.
+   *
+   * @param sa the address of the server
+   * @return true if its circuit is closed
+   */
+  boolean allows(SocketAddress sa) {
+    Circuit c = circuits.get(sa);
+    return c == null || c.state == CircuitState.CLOSED;
+  }
+
+  /**
+   * Move the circuit of the given server to half-open if it has been open
+   * for the open time.
+   *
+   * @param sa the address of the server
+   * @param nowNanos the current {@link System#nanoTime()}
+   * @return true if the circuit moved, the caller then sends the probe
+   */
+  boolean startProbe(SocketAddress sa, long nowNanos) {
+    Circuit c = circuits.get(sa);
+    if (c == null) {
+      return false;
+    }
+    synchronized (c) {
+      if (c.state != CircuitState.OPEN || nowNanos - c.openedAt < openNanos) {
+        return false;
+      }
+      c.state = CircuitState.HALF_OPEN;
+    }
+    listener.stateChanged(sa, CircuitState.OPEN, CircuitState.HALF_OPEN);
+    return true;
+  }
+
+  /**
+   * Record the outcome of the probe of the given server, closing its circuit
+   * if it succeeded and opening it again otherwise.
+   *
+   * @param sa the address of the server
+   * @param success true if the probe succeeded
+   */
+  void probed(SocketAddress sa, boolean success) {
+    Circuit c = circuits.get(sa);
+    if (c == null) {
+      return;
+    }
+    CircuitState to = success ? CircuitState.CLOSED : CircuitState.OPEN;
+    synchronized (c) {
+      if (c.state != CircuitState.HALF_OPEN) {
+        return;
+      }
+      if (success) {
+        c.close();
+      } else {
+        c.open();
+      }
+    }
+    listener.stateChanged(sa, CircuitState.HALF_OPEN, to);
+  }
+
+  /**
+   * Forget the circuits of the servers which are no longer part of the
+   * cluster, so their addresses do not pile up as nodes come and go.
+   *
+   * @param index the nodes of the cluster
+   */
+  void retain(NodeIndex index) {
+    Iterator<SocketAddress> it = circuits.keySet().iterator();
+    while (it.hasNext()) {
+      if (!index.containsAddress(it.next())) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * The circuit of one server, guarded by its own monitor. Only the state is
+   * read without it.
+   */
+  private final class Circuit {
+    private final boolean[] failures = new boolean[WINDOW];
+    private int next;
+    private int count;
+    private int failed;
+    private long openedAt;
+    private volatile CircuitState state = CircuitState.CLOSED;
+
+    /**
+     * Record an outcome.
+     *
+     * @return true if the circuit opened
+     */
+    boolean record(boolean failure) {
+      if (state != CircuitState.CLOSED) {
+        return false;
+      }
+      if (count == WINDOW) {
+        if (failures[next]) {
+          failed--;
+        }
+      } else {
+        count++;
+      }
+      failures[next] = failure;
+      if (failure) {
+        failed++;
+      }
+      next = (next + 1) % WINDOW;
+      if (failure && count >= MIN_CALLS && failed >= failureRatio * count) {
+        open();
+        return true;
+      }
+      return false;
+    }
+
+    void open() {
+      state = CircuitState.OPEN;
+      openedAt = System.nanoTime();
+    }
+
+    void close() {
+      next = 0;
+      count = 0;
+      failed = 0;
+      state = CircuitState.CLOSED;
+    }
+  }
+}
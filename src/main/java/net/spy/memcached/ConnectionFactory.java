@@ -40,6 +40,7 @@ import java.util.concurrent.ExecutorService;
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.ops.BufferAllocator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.transcoders.Transcoder;
 
@@ -139,6 +140,17 @@ public interface ConnectionFactory {
    */
   boolean isDaemon();
 
+  /**
+   * Get the number of IO threads (each running its own selector) the nodes
+   * of a connection are spread across.
+   */
+  int getIoThreadCount();
+
+  /**
+   * Get the number of connections opened to each memcached server.
+   */
+  int getConnectionsPerNode();
+
   /**
    * If true, the nagle algorithm will be used on connected sockets.
    *
@@ -186,11 +198,120 @@ public interface ConnectionFactory {
    */
   int getReadBufSize();
 
+  /**
+   * Get the maximum number of bytes handed to a single gathering write on
+   * non-TLS connections.
+   */
+  int getGatheringWriteLimit();
+
+  /**
+   * Get the allocator for the request buffers of operations.
+   */
+  BufferAllocator getBufferAllocator();
+
   /**
    * Get the hash algorithm to be used.
    */
   HashAlgorithm getHashAlg();
 
+  /**
+   * Get the maximum number of key hashes the node locator caches, 0 when
+   * keys are hashed on every lookup.
+   */
+  int getKeyHashCacheSize();
+
+  /**
+   * Get the fraction of the mean outstanding operations a node may exceed
+   * before reads of its keys move on to the next node of their sequence, 0
+   * when reads always go to the node of their key.
+   *
+   * <p>
+   * Moved reads miss unless the other node has the key as well, so this is
+   * only meant for clients used with cache-aside keys.
+   * </p>
+   */
+  double getBoundedLoadEpsilon();
+
+  /**
+   * Get the maximum number of bytes of values the client keeps in its near
+   * cache, 0 when every get goes to the servers.
+   */
+  long getNearCacheMaxBytes();
+
+  /**
+   * Get the maximum time (in milliseconds) a value is served from the near
+   * cache before it is fetched from the servers again.
+   *
+   * <p>
+   * Writes made through the same client invalidate their keys right away,
+   * so this only bounds how long writes of other clients go unnoticed.
+   * </p>
+   */
+  long getNearCacheMaxStaleness();
+
+  /**
+   * If true, concurrent gets of the same key with the same transcoder share
+   * a single operation.
+   *
+   * <p>
+   * The gets joining an operation in flight share its outcome, including a
+   * cancellation through any of their futures.
+   * </p>
+   */
+  boolean shouldCoalesceGets();
+
+  /**
+   * Get the percentile of the get latencies after which a get is sent to
+   * the next active node of its key as well, 0 when gets are not hedged.
+   *
+   * <p>
+   * The hedge only finds the key if the other node has it too, so this is
+   * only meant for replicated or cache-aside keys.
+   * </p>
+   */
+  double getHedgePercentile();
+
+  /**
+   * Get the maximum number of hedges sent per get.
+   */
+  double getHedgeBudget();
+
+  /**
+   * Get the multiple of the 99th percentile of the recent latencies of a
+   * server its operations time out after, 0 when all operations time out
+   * after the operation timeout.
+   *
+   * <p>
+   * Adaptive timeouts never exceed the operation timeout, and operations
+   * timing out on them count towards the timeout exception threshold.
+   * </p>
+   */
+  double getAdaptiveTimeoutMultiplier();
+
+  /**
+   * Get the shortest adaptive timeout in milliseconds.
+   */
+  long getAdaptiveTimeoutFloor();
+
+  /**
+   * Get the ratio of failed or timed out operations among the recent
+   * operations of a server at which its circuit opens, 0 when circuits never
+   * open.
+   *
+   * <p>
+   * Operations on the keys of a server with an open circuit fail fast, or go
+   * to the next node of their key with {@link FailureMode#Redistribute},
+   * until a noop sent to the server after the open time succeeds.
+   * </p>
+   */
+  double getCircuitBreakerFailureRatio();
+
+  /**
+   * Get the time in milliseconds a circuit stays open before its server is
+   * probed.
+   */
+  long getCircuitBreakerOpenTime();
+
   /**
    * Maximum number of milliseconds to wait between reconnect attempts.
    */
@@ -37,9 +37,11 @@ import java.util.concurrent.ExecutorService;
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.ops.BufferAllocator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationQueueFactory;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.Transcoder;
 
@@ -68,14 +70,28 @@ public class ConnectionFactoryBuilder {
   protected Locator locator = Locator.ARRAY_MOD;
   protected long opTimeout = -1;
   protected boolean isDaemon = false;
+  protected int ioThreadCount = -1;
+  protected int connectionsPerNode = -1;
   protected boolean shouldOptimize = false;
+  protected boolean coalesceGets = false;
   protected boolean useNagle = false;
   protected boolean keepAlive = false;
   protected long maxReconnectDelay =
       DefaultConnectionFactory.DEFAULT_MAX_RECONNECT_DELAY;
 
   protected int readBufSize = -1;
+  protected int gatheringWriteLimit = -1;
   protected HashAlgorithm hashAlg;
+  protected int keyHashCacheSize = -1;
+  protected double boundedLoadEpsilon = -1;
+  protected long nearCacheMaxBytes = -1;
+  protected long nearCacheMaxStaleness = -1;
+  protected double hedgePercentile = -1;
+  protected double hedgeBudget = -1;
+  protected double adaptiveTimeoutMultiplier = -1;
+  protected long adaptiveTimeoutFloor = -1;
+  protected double circuitBreakerFailureRatio = -1;
+  protected long circuitBreakerOpenTime = -1;
   protected AuthDescriptor authDescriptor = null;
   protected long opQueueMaxBlockTime = -1;
 
@@ -84,6 +100,7 @@ public class ConnectionFactoryBuilder {
 
   protected MetricType metricType = null;
   protected MetricCollector collector = null;
+  protected BufferAllocator bufferAllocator = null;
   protected ExecutorService executorService = null;
   protected long authWaitTime = DefaultConnectionFactory.DEFAULT_AUTH_WAIT_TIME;
 
@@ -103,14 +120,29 @@ public class ConnectionFactoryBuilder {
     setClientMode(cf.getClientMode());
     setAuthDescriptor(cf.getAuthDescriptor());
     setDaemon(cf.isDaemon());
+    setIoThreadCount(cf.getIoThreadCount());
+    setConnectionsPerNode(cf.getConnectionsPerNode());
     setFailureMode(cf.getFailureMode());
     setHashAlg(cf.getHashAlg());
+    setKeyHashCacheSize(cf.getKeyHashCacheSize());
+    setBoundedLoadEpsilon(cf.getBoundedLoadEpsilon());
+    setNearCacheMaxBytes(cf.getNearCacheMaxBytes());
+    setNearCacheMaxStaleness(cf.getNearCacheMaxStaleness());
+    setHedgePercentile(cf.getHedgePercentile());
+    setHedgeBudget(cf.getHedgeBudget());
+    setAdaptiveTimeoutMultiplier(cf.getAdaptiveTimeoutMultiplier());
+    setAdaptiveTimeoutFloor(cf.getAdaptiveTimeoutFloor());
+    setCircuitBreakerFailureRatio(cf.getCircuitBreakerFailureRatio());
+    setCircuitBreakerOpenTime(cf.getCircuitBreakerOpenTime());
     setInitialObservers(cf.getInitialObservers());
     setMaxReconnectDelay(cf.getMaxReconnectDelay());
     setOpQueueMaxBlockTime(cf.getOpQueueMaxBlockTime());
     setOpTimeout(cf.getOperationTimeout());
     setReadBufferSize(cf.getReadBufSize());
+    setGatheringWriteLimit(cf.getGatheringWriteLimit());
+    setBufferAllocator(cf.getBufferAllocator());
     setShouldOptimize(cf.shouldOptimize());
+    setCoalesceGets(cf.shouldCoalesceGets());
     setTimeoutExceptionThreshold(cf.getTimeoutExceptionThreshold());
     setTranscoder(cf.getDefaultTranscoder());
     setUseNagleAlgorithm(cf.useNagleAlgorithm());
@@ -205,6 +237,14 @@ public class ConnectionFactoryBuilder {
   
   /**
    * Set the default operation timeout in milliseconds.
+   *
+   * <p>
+   * Operations are timed out by the connection once this time, or the
+   * adaptive timeout of their node if enabled, passed since they were
+   * enqueued, whether or not anybody waits on them. Waiting on their future
+   * with a longer timeout does not extend it: the wait ends with a timeout
+   * after this time.
+   * </p>
    */
   public ConnectionFactoryBuilder setOpTimeout(long t) {
     opTimeout = t;
@@ -219,6 +259,37 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set the number of IO threads the nodes are spread across (defaults to 1).
+   *
+   * Each IO thread runs its own selector and owns a fixed subset of the
+   * nodes, so reads, writes and callbacks for different servers can proceed
+   * in parallel. There is no benefit in using more threads than servers.
+   */
+  public ConnectionFactoryBuilder setIoThreadCount(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("IO thread count must be positive.");
+    }
+    ioThreadCount = count;
+    return this;
+  }
+
+  /**
+   * Set the number of connections opened to each server (defaults to 1).
+   *
+   * Keyed operations are sent over the connection with the fewest
+   * outstanding operations, so a slow response (like a large value) only
+   * holds up the requests queued behind it on the same connection.
+   */
+  public ConnectionFactoryBuilder setConnectionsPerNode(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException(
+        "Connections per node must be positive.");
+    }
+    connectionsPerNode = count;
+    return this;
+  }
+
   /**
    * Set to false if the default operation optimization is not desirable.
    */
@@ -227,6 +298,15 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set to true to have concurrent gets of the same key share a single
+   * operation.
+   */
+  public ConnectionFactoryBuilder setCoalesceGets(boolean to) {
+    coalesceGets = to;
+    return this;
+  }
+
   /**
    * Set the read buffer size.
    */
@@ -235,6 +315,19 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set the maximum number of bytes written to a non-TLS connection with a
+   * single gathering write.
+   */
+  public ConnectionFactoryBuilder setGatheringWriteLimit(int to) {
+    if (to < 1) {
+      throw new IllegalArgumentException(
+        "Gathering write limit must be positive.");
+    }
+    gatheringWriteLimit = to;
+    return this;
+  }
+
   /**
    * Set the hash algorithm.
    */
@@ -243,6 +336,162 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set the maximum number of key hashes cached by the node locator, 0 to
+   * hash keys on every lookup.
+   */
+  public ConnectionFactoryBuilder setKeyHashCacheSize(int to) {
+    if (to < 0) {
+      throw new IllegalArgumentException(
+        "Key hash cache size must not be negative.");
+    }
+    keyHashCacheSize = to;
+    return this;
+  }
+
+  /**
+   * Set the fraction of the mean outstanding operations a node may exceed
+   * before reads of its keys move on to the next node of their sequence, 0
+   * to always read from the node of the key.
+   *
+   * <p>
+   * Moved reads miss unless the other node has the key as well, so only
+   * enable this for cache-aside keys.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setBoundedLoadEpsilon(double to) {
+    if (!(to >= 0)) {
+      throw new IllegalArgumentException(
+        "Bounded load epsilon must not be negative.");
+    }
+    boundedLoadEpsilon = to;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of bytes of values kept in the near cache in
+   * front of the servers, 0 to send every get to the servers.
+   *
+   * <p>
+   * Near cached values are shared between all callers getting them, so only
+   * enable this for immutable values.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setNearCacheMaxBytes(long to) {
+    if (to < 0) {
+      throw new IllegalArgumentException(
+        "Near cache size must not be negative.");
+    }
+    nearCacheMaxBytes = to;
+    return this;
+  }
+
+  /**
+   * Set the maximum time (in milliseconds) a value is served from the near
+   * cache.
+   */
+  public ConnectionFactoryBuilder setNearCacheMaxStaleness(long to) {
+    if (to <= 0) {
+      throw new IllegalArgumentException(
+        "Near cache staleness must be positive.");
+    }
+    nearCacheMaxStaleness = to;
+    return this;
+  }
+
+  /**
+   * Set the percentile of the get latencies after which a get is sent to
+   * the next active node of its key as well, 0 to never hedge gets.
+   *
+   * <p>
+   * The hedge only finds the key if the other node has it too, so only
+   * enable this for replicated or cache-aside keys.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setHedgePercentile(double to) {
+    if (!(to >= 0 && to < 100)) {
+      throw new IllegalArgumentException(
+        "Hedge percentile must be in [0, 100).");
+    }
+    hedgePercentile = to;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of hedges sent per get.
+   */
+  public ConnectionFactoryBuilder setHedgeBudget(double to) {
+    if (!(to >= 0 && to <= 1)) {
+      throw new IllegalArgumentException("Hedge budget must be in [0, 1].");
+    }
+    hedgeBudget = to;
+    return this;
+  }
+
+  /**
+   * Set the multiple of the 99th percentile of the recent latencies of a
+   * server its operations time out after, 0 to time out all operations after
+   * the operation timeout.
+   *
+   * <p>
+   * Adaptive timeouts never exceed the operation timeout, so this only ever
+   * makes callers give up on a degraded server sooner.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setAdaptiveTimeoutMultiplier(double to) {
+    if (!(to == 0 || to >= 1)) {
+      throw new IllegalArgumentException(
+        "Adaptive timeout multiplier must be 0 or at least 1.");
+    }
+    adaptiveTimeoutMultiplier = to;
+    return this;
+  }
+
+  /**
+   * Set the shortest adaptive timeout in milliseconds.
+   */
+  public ConnectionFactoryBuilder setAdaptiveTimeoutFloor(long to) {
+    if (to <= 0) {
+      throw new IllegalArgumentException(
+        "Adaptive timeout floor must be positive.");
+    }
+    adaptiveTimeoutFloor = to;
+    return this;
+  }
+
+  /**
+   * Set the ratio of failed or timed out operations among the recent
+   * operations of a server at which its circuit opens, 0 to never open
+   * circuits.
+   *
+   * <p>
+   * While the circuit of a server is open its operations fail fast instead
+   * of waiting for the operation timeout, unless the failure mode is
+   * {@link FailureMode#Redistribute} and another node can take them.
+   * </p>
+   */
+  public ConnectionFactoryBuilder setCircuitBreakerFailureRatio(double to) {
+    if (!(to >= 0 && to <= 1)) {
+      throw new IllegalArgumentException(
+        "Circuit breaker failure ratio must be in [0, 1].");
+    }
+    circuitBreakerFailureRatio = to;
+    return this;
+  }
+
+  /**
+   * Set the time in milliseconds a circuit stays open before its server is
+   * probed with a noop.
+   */
+  public ConnectionFactoryBuilder setCircuitBreakerOpenTime(long to) {
+    if (to <= 0) {
+      throw new IllegalArgumentException(
+        "Circuit breaker open time must be positive.");
+    }
+    circuitBreakerOpenTime = to;
+    return this;
+  }
+
   /**
    * Set to true if you'd like to enable the Nagle algorithm.
    */
@@ -267,6 +516,9 @@ public class ConnectionFactoryBuilder {
     case BINARY:
       opFact = new BinaryOperationFactory();
       break;
+    case META:
+      opFact = new MetaOperationFactory();
+      break;
     default:
       assert false : "Unhandled protocol: " + prot;
     }
@@ -353,6 +605,19 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set a custom {@link BufferAllocator} for the request buffers of
+   * operations, such as a {@link net.spy.memcached.ops.PooledBufferAllocator}
+   * (by default every request gets a new heap buffer).
+   *
+   * @param allocator the buffer allocator to use.
+   */
+  public ConnectionFactoryBuilder setBufferAllocator(
+    BufferAllocator allocator) {
+    bufferAllocator = allocator;
+    return this;
+  }
+
   /**
    * Set a custom {@link ExecutorService} to execute the listener callbacks.
    *
@@ -411,9 +676,13 @@ public class ConnectionFactoryBuilder {
       public NodeLocator createLocator(List<MemcachedNode> nodes) {
         switch (locator) {
         case ARRAY_MOD:
-          return new ArrayModNodeLocator(nodes, getHashAlg());
+          return new ArrayModNodeLocator(nodes, getLocatorHashAlg());
         case CONSISTENT:
-          return new KetamaNodeLocator(nodes, getHashAlg());
+          return new KetamaNodeLocator(nodes, getLocatorHashAlg());
+        case JUMP:
+          return new JumpHashNodeLocator(nodes, getLocatorHashAlg());
+        case RENDEZVOUS:
+          return new RendezvousNodeLocator(nodes, getLocatorHashAlg());
         default:
           throw new IllegalStateException("Unhandled locator type: " + locator);
         }
@@ -453,16 +722,97 @@ public class ConnectionFactoryBuilder {
         return readBufSize == -1 ? super.getReadBufSize() : readBufSize;
       }
 
+      @Override
+      public double getBoundedLoadEpsilon() {
+        return boundedLoadEpsilon < 0 ? super.getBoundedLoadEpsilon()
+          : boundedLoadEpsilon;
+      }
+
+      @Override
+      public double getHedgePercentile() {
+        return hedgePercentile < 0 ? super.getHedgePercentile()
+          : hedgePercentile;
+      }
+
+      @Override
+      public double getHedgeBudget() {
+        return hedgeBudget < 0 ? super.getHedgeBudget() : hedgeBudget;
+      }
+
+      @Override
+      public double getAdaptiveTimeoutMultiplier() {
+        return adaptiveTimeoutMultiplier < 0
+          ? super.getAdaptiveTimeoutMultiplier() : adaptiveTimeoutMultiplier;
+      }
+
+      @Override
+      public long getAdaptiveTimeoutFloor() {
+        return adaptiveTimeoutFloor < 0 ? super.getAdaptiveTimeoutFloor()
+          : adaptiveTimeoutFloor;
+      }
+
+      @Override
+      public double getCircuitBreakerFailureRatio() {
+        return circuitBreakerFailureRatio < 0
+          ? super.getCircuitBreakerFailureRatio() : circuitBreakerFailureRatio;
+      }
+
+      @Override
+      public long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime < 0 ? super.getCircuitBreakerOpenTime()
+          : circuitBreakerOpenTime;
+      }
+
+      @Override
+      public long getNearCacheMaxBytes() {
+        return nearCacheMaxBytes == -1 ? super.getNearCacheMaxBytes()
+          : nearCacheMaxBytes;
+      }
+
+      @Override
+      public long getNearCacheMaxStaleness() {
+        return nearCacheMaxStaleness == -1 ? super.getNearCacheMaxStaleness()
+          : nearCacheMaxStaleness;
+      }
+
+      @Override
+      public int getKeyHashCacheSize() {
+        return keyHashCacheSize == -1 ? super.getKeyHashCacheSize()
+          : keyHashCacheSize;
+      }
+
+      @Override
+      public int getGatheringWriteLimit() {
+        return gatheringWriteLimit == -1 ? super.getGatheringWriteLimit()
+          : gatheringWriteLimit;
+      }
+
       @Override
       public boolean isDaemon() {
         return isDaemon;
       }
 
+      @Override
+      public int getIoThreadCount() {
+        return ioThreadCount == -1 ? super.getIoThreadCount() : ioThreadCount;
+      }
+
+      @Override
+      public int getConnectionsPerNode() {
+        return connectionsPerNode == -1 ? super.getConnectionsPerNode()
+          : connectionsPerNode;
+      }
+
       @Override
       public boolean shouldOptimize() {
         return shouldOptimize;
       }
 
+      @Override
+      public boolean shouldCoalesceGets() {
+        return coalesceGets;
+      }
+
       @Override
       public boolean useNagleAlgorithm() {
         return useNagle;
@@ -519,6 +869,12 @@ public class ConnectionFactoryBuilder {
         return collector == null ? super.getMetricCollector() : collector;
       }
 
+      @Override
+      public BufferAllocator getBufferAllocator() {
+        return bufferAllocator == null ? super.getBufferAllocator()
+          : bufferAllocator;
+      }
+
       @Override
       public ExecutorService getListenerExecutorService() {
         return executorService == null ? super.getListenerExecutorService() : executorService;
@@ -548,7 +904,11 @@ public class ConnectionFactoryBuilder {
     /**
      * Use the binary protocol.
      */
-    BINARY
+    BINARY,
+    /**
+     * Use the meta text protocol (memcached 1.6 and later).
+     */
+    META
   }
 
   /**
@@ -569,6 +929,20 @@ public class ConnectionFactoryBuilder {
     /**
      * VBucket support.
      */
-    VBUCKET
+    VBUCKET,
+    /**
+     * Jump consistent hash.
+     *
+     * Needs no memory beyond the node list and only moves the keys of added
+     * or removed nodes.
+     */
+    JUMP,
+    /**
+     * Rendezvous (highest random weight) hashing.
+     *
+     * Scores every node per key; the ranking doubles as the failover
+     * sequence.
+     */
+    RENDEZVOUS
   }
 }
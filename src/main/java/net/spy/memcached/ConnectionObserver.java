@@ -39,10 +39,35 @@ public interface ConnectionObserver {
    */
   void connectionEstablished(SocketAddress sa, int reconnectCount);
 
+  /**
+   * A connection has just successfully been established to the given node.
+   *
+   * With several connections per server all of them share the same socket
+   * address, this tells them apart. Delegates to
+   * {@link #connectionEstablished(SocketAddress, int)} by default.
+   *
+   * @param node the node whose connection was established
+   * @param reconnectCount the number of attempts before the connection was
+   *          established
+   */
+  default void connectionEstablished(MemcachedNode node, int reconnectCount) {
+    connectionEstablished(node.getSocketAddress(), reconnectCount);
+  }
+
   /**
    * A connection was just lost on the given socket.
    *
    * @param sa the address of the node whose connection was lost
    */
   void connectionLost(SocketAddress sa);
+
+  /**
+   * The circuit breaker of the given socket changed state. Only called when
+   * circuit breakers are enabled, does nothing by default.
+   *
+   * @param sa the address of the node whose circuit changed state
+   * @param state the new state of the circuit
+   */
+  default void circuitStateChanged(SocketAddress sa, CircuitState state) {
+  }
 }
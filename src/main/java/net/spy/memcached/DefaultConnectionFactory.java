@@ -46,9 +46,13 @@ import net.spy.memcached.metrics.DefaultMetricCollector;
 import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.ops.BufferAllocator;
+import net.spy.memcached.ops.HeapBufferAllocator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.ascii.MetaMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.SerializingTranscoder;
@@ -121,6 +125,71 @@ public class DefaultConnectionFactory extends SpyObject implements
    */
   public static final int DEFAULT_MAX_TIMEOUTEXCEPTION_THRESHOLD = 998;
 
+  /**
+   * Number of IO threads (and selectors) used by default.
+   */
+  public static final int DEFAULT_IO_THREAD_COUNT = 1;
+
+  /**
+   * Number of connections opened to each server by default.
+   */
+  public static final int DEFAULT_CONNECTIONS_PER_NODE = 1;
+
+  /**
+   * Maximum number of bytes gathered into a single socket write by default.
+   */
+  public static final int DEFAULT_GATHERING_WRITE_LIMIT = 65536;
+
+  /**
+   * Key hashes are not cached by default.
+   */
+  public static final int DEFAULT_KEY_HASH_CACHE_SIZE = 0;
+
+  /**
+   * Reads always go to the node of their key by default.
+   */
+  public static final double DEFAULT_BOUNDED_LOAD_EPSILON = 0;
+
+  /**
+   * Gets are not served from a near cache by default.
+   */
+  public static final long DEFAULT_NEAR_CACHE_MAX_BYTES = 0;
+
+  /**
+   * Maximum time in milliseconds a near cached value is served.
+   */
+  public static final long DEFAULT_NEAR_CACHE_MAX_STALENESS = 1000;
+
+  /**
+   * Gets are not hedged by default.
+   */
+  public static final double DEFAULT_HEDGE_PERCENTILE = 0;
+
+  /**
+   * Hedge at most one in twenty gets.
+   */
+  public static final double DEFAULT_HEDGE_BUDGET = 0.05;
+
+  /**
+   * Operations time out after the operation timeout by default.
+   */
+  public static final double DEFAULT_ADAPTIVE_TIMEOUT_MULTIPLIER = 0;
+
+  /**
+   * Never time out operations after less than 100 milliseconds.
+   */
+  public static final long DEFAULT_ADAPTIVE_TIMEOUT_FLOOR = 100;
+
+  /**
+   * Circuits never open by default.
+   */
+  public static final double DEFAULT_CIRCUIT_BREAKER_FAILURE_RATIO = 0;
+
+  /**
+   * Probe servers with an open circuit after a second.
+   */
+  public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 1000;
+
   /**
    * Turn off metric collection by default.
    */
@@ -139,6 +208,8 @@ public class DefaultConnectionFactory extends SpyObject implements
 
   private MetricCollector metrics;
 
+  private final BufferAllocator bufferAllocator = new HeapBufferAllocator();
+
   /**
    * The ExecutorService in which the listener callbacks will be executed.
    */
@@ -223,7 +294,17 @@ public class DefaultConnectionFactory extends SpyObject implements
     if (getAuthDescriptor() != null) {
       doAuth = true;
     }
-    if (of instanceof AsciiOperationFactory) {
+    if (of instanceof MetaOperationFactory) {
+      return new MetaMemcachedNodeImpl(sa, c, bufSize,
+          createReadOperationQueue(),
+          createWriteOperationQueue(),
+          createOperationQueue(),
+          getOpQueueMaxBlockTime(),
+          doAuth,
+          getOperationTimeout(),
+          getAuthWaitTime(),
+          this);
+    } else if (of instanceof AsciiOperationFactory) {
       return new AsciiMemcachedNodeImpl(sa, c, bufSize,
           createReadOperationQueue(),
           createWriteOperationQueue(),
@@ -301,7 +382,19 @@ public class DefaultConnectionFactory extends SpyObject implements
    * @see net.spy.memcached.ConnectionFactory#createLocator(java.util.List)
    */
   public NodeLocator createLocator(List<MemcachedNode> nodes) {
-    return new ArrayModNodeLocator(nodes, getHashAlg());
+    return new ArrayModNodeLocator(nodes, getLocatorHashAlg());
+  }
+
+  /**
+   * Get the hash algorithm a new node locator hashes keys with: the
+   * configured one, behind a {@link KeyHashCache} when key hashes should be
+   * cached.
+   */
+  protected HashAlgorithm getLocatorHashAlg() {
+    int size = getKeyHashCacheSize();
+    return size > 0
+      ? new KeyHashCache(getHashAlg(), size, getMetricCollector())
+      : getHashAlg();
   }
 
   /**
@@ -375,6 +468,24 @@ public class DefaultConnectionFactory extends SpyObject implements
     return readBufSize;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getGatheringWriteLimit()
+   */
+  public int getGatheringWriteLimit() {
+    return DEFAULT_GATHERING_WRITE_LIMIT;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getBufferAllocator()
+   */
+  public BufferAllocator getBufferAllocator() {
+    return bufferAllocator;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -384,6 +495,96 @@ public class DefaultConnectionFactory extends SpyObject implements
     return hashAlg;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getKeyHashCacheSize()
+   */
+  public int getKeyHashCacheSize() {
+    return DEFAULT_KEY_HASH_CACHE_SIZE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getBoundedLoadEpsilon()
+   */
+  public double getBoundedLoadEpsilon() {
+    return DEFAULT_BOUNDED_LOAD_EPSILON;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getNearCacheMaxBytes()
+   */
+  public long getNearCacheMaxBytes() {
+    return DEFAULT_NEAR_CACHE_MAX_BYTES;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getNearCacheMaxStaleness()
+   */
+  public long getNearCacheMaxStaleness() {
+    return DEFAULT_NEAR_CACHE_MAX_STALENESS;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getHedgePercentile()
+   */
+  public double getHedgePercentile() {
+    return DEFAULT_HEDGE_PERCENTILE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getHedgeBudget()
+   */
+  public double getHedgeBudget() {
+    return DEFAULT_HEDGE_BUDGET;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getAdaptiveTimeoutMultiplier()
+   */
+  public double getAdaptiveTimeoutMultiplier() {
+    return DEFAULT_ADAPTIVE_TIMEOUT_MULTIPLIER;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getAdaptiveTimeoutFloor()
+   */
+  public long getAdaptiveTimeoutFloor() {
+    return DEFAULT_ADAPTIVE_TIMEOUT_FLOOR;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getCircuitBreakerFailureRatio()
+   */
+  public double getCircuitBreakerFailureRatio() {
+    return DEFAULT_CIRCUIT_BREAKER_FAILURE_RATIO;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getCircuitBreakerOpenTime()
+   */
+  public long getCircuitBreakerOpenTime() {
+    return DEFAULT_CIRCUIT_BREAKER_OPEN_TIME;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -411,6 +612,24 @@ public class DefaultConnectionFactory extends SpyObject implements
     return false;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getIoThreadCount()
+   */
+  public int getIoThreadCount() {
+    return DEFAULT_IO_THREAD_COUNT;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getConnectionsPerNode()
+   */
+  public int getConnectionsPerNode() {
+    return DEFAULT_CONNECTIONS_PER_NODE;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -456,6 +675,15 @@ public class DefaultConnectionFactory extends SpyObject implements
     return false;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#shouldCoalesceGets()
+   */
+  public boolean shouldCoalesceGets() {
+    return false;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -536,14 +764,28 @@ public class DefaultConnectionFactory extends SpyObject implements
   @Override
   public String toString() {
     return "Failure Mode: " + getFailureMode().name() + ", Hash Algorithm: "
-      + ((DefaultHashAlgorithm)getHashAlg()).name() + " Max Reconnect Delay: "
+      + ((DefaultHashAlgorithm)getHashAlg()).name() + ", Key Hash Cache Size: "
+      + getKeyHashCacheSize() + ", Bounded Load Epsilon: "
+      + getBoundedLoadEpsilon() + ", Near Cache Max Bytes: "
+      + getNearCacheMaxBytes() + ", Near Cache Max Staleness: "
+      + getNearCacheMaxStaleness() + ", Hedge Percentile: "
+      + getHedgePercentile() + ", Hedge Budget: " + getHedgeBudget()
+      + ", Adaptive Timeout Multiplier: " + getAdaptiveTimeoutMultiplier()
+      + ", Adaptive Timeout Floor: " + getAdaptiveTimeoutFloor()
+      + ", Circuit Breaker Failure Ratio: " + getCircuitBreakerFailureRatio()
+      + ", Circuit Breaker Open Time: " + getCircuitBreakerOpenTime()
+      + " Max Reconnect Delay: "
       + getMaxReconnectDelay() + ", Max Op Timeout: " + getOperationTimeout()
       + ", Op Queue Length: " + getOpQueueLen() + ", Op Max Queue Block Time"
       + getOpQueueMaxBlockTime() + ", Max Timeout Exception Threshold: "
       + getTimeoutExceptionThreshold() + ", Read Buffer Size: "
-      + getReadBufSize() + ", Transcoder: " + getDefaultTranscoder()
+      + getReadBufSize() + ", Gathering Write Limit: "
+      + getGatheringWriteLimit() + ", Transcoder: " + getDefaultTranscoder()
       + ", Operation Factory: " + getOperationFactory() + " isDaemon: "
-      + isDaemon() + ", Optimized: " + shouldOptimize() + ", Using Nagle: "
+      + isDaemon() + ", IO Threads: " + getIoThreadCount()
+      + ", Connections per Node: " + getConnectionsPerNode()
+      + ", Optimized: " + shouldOptimize() + ", Coalesced Gets: "
+      + shouldCoalesceGets() + ", Using Nagle: "
       + useNagleAlgorithm() + ", KeepAlive: " + getKeepAlive() + ", SSLContext: " + getSSLContext() + ", ConnectionFactory: " + getName();
   }
 }
@@ -78,15 +78,17 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
   private static final long FNV_32_INIT = 2166136261L;
   private static final long FNV_32_PRIME = 16777619;
 
-  private static MessageDigest msgHashDigest = null;
-
-  static {
-    try {
-      msgHashDigest = MessageDigest.getInstance("SHA-384");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("SHA-384 not supported", e);
-    }
-  }
+  private static final ThreadLocal<MessageDigest> MSG_HASH_DIGEST =
+    new ThreadLocal<MessageDigest>() {
+      @Override
+      protected MessageDigest initialValue() {
+        try {
+          return MessageDigest.getInstance("SHA-384");
+        } catch (NoSuchAlgorithmException e) {
+          throw new RuntimeException("SHA-384 not supported", e);
+        }
+      }
+    };
 
   /**
    * Compute the hash for the given key.
@@ -150,14 +152,12 @@ public enum DefaultHashAlgorithm implements HashAlgorithm {
 
   /**
    * Get the hash digest of the given key.
+   *
+   * Each thread reuses its own digest, which is reset by computing the
+   * digest.
    */
   public static byte[] computeHashDigest(String k) {
-    MessageDigest msgDigest;
-    try {
-      msgDigest = (MessageDigest) msgHashDigest.clone();
-    } catch (CloneNotSupportedException e) {
-      throw new RuntimeException("clone of SHA-384 not supported", e);
-    }
+    MessageDigest msgDigest = MSG_HASH_DIGEST.get();
     msgDigest.update(KeyUtil.getKeyBytes(k));
     return msgDigest.digest();
   }
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.ops.CancelledOperationStatus;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.TimedOutOperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Keeps track of the gets in flight so concurrent gets of a key share one
+ * operation.
+ *
+ * <p>
+ * The first get of a key starts a {@link Flight} carrying its operation;
+ * gets of the key with the same transcoder arriving before the operation
+ * completes join the flight instead of sending their own. On completion the
+ * flight hands the (lazily decoded) value to the futures of all of them.
+ * </p>
+ *
+ * <p>
+ * Each future tracks its own view of the shared operation, so cancelling
+ * it or timing out waiting for it only lets go of that one future; the
+ * operation itself is cancelled once no future is left waiting for it. A
+ * write of a key detaches the flight of the key, so gets after the write
+ * do not join a get sent before it.
+ * </p>
+ */
+class GetCoalescer {
+
+  static final String ISSUED_METRIC = "[MEM] Coalesced Get Rate: Issued";
+  static final String JOINED_METRIC = "[MEM] Coalesced Get Rate: Joined";
+
+  private final ConcurrentHashMap<String, Flight<?>> flights =
+    new ConcurrentHashMap<String, Flight<?>>();
+  private final MetricCollector metrics;
+  private final LongAdder issued = new LongAdder();
+  private final LongAdder joined = new LongAdder();
+
+  GetCoalescer(MetricCollector collector) {
+    metrics = collector;
+    metrics.addMeter(ISSUED_METRIC);
+    metrics.addMeter(JOINED_METRIC);
+  }
+
+  /**
+   * Create the flight of a get; it is not visible to other gets before it
+   * is {@link #start(Flight)}ed.
+   */
+  <T> Flight<T> newFlight(String key, Transcoder<T> tc, GetFuture<T> rv,
+    CountDownLatch latch) {
+    return new Flight<T>(key, tc, rv, latch);
+  }
+
+  /**
+   * Start the given flight unless a flight of the same key and transcoder
+   * is in flight already, in which case the get of the given flight joins
+   * that one instead.
+   *
+   * @return true if the operation of the given flight has to be sent
+   */
+  <T> boolean start(Flight<T> flight) {
+    while (true) {
+      Flight<?> other = flights.putIfAbsent(flight.key, flight);
+      if (other == null || other.tc != flight.tc) {
+        issued.increment();
+        metrics.markMeter(ISSUED_METRIC);
+        return true;
+      }
+      @SuppressWarnings("unchecked")
+      Flight<T> same = (Flight<T>) other;
+      Flight<T>.Member first = flight.members.get(0);
+      if (same.join(first.future, first.latch)) {
+        joined.increment();
+        metrics.markMeter(JOINED_METRIC);
+        return false;
+      }
+      // The other flight completed and is gone from the map by now.
+    }
+  }
+
+  /**
+   * Stop gets of the given key from joining the flight in progress, if any;
+   * the gets that joined it already still get its answer.
+   */
+  void detach(String key) {
+    flights.remove(key);
+  }
+
+  /**
+   * Stop gets of any key from joining the flights in progress.
+   */
+  void clear() {
+    flights.clear();
+  }
+
+  /**
+   * Get the number of gets that sent their own operation.
+   */
+  long getIssuedCount() {
+    return issued.sum();
+  }
+
+  /**
+   * Get the number of gets that joined an operation in flight.
+   */
+  long getJoinedCount() {
+    return joined.sum();
+  }
+
+  /**
+   * Get the number of keys with a get in flight.
+   */
+  int size() {
+    return flights.size();
+  }
+
+  /**
+   * The futures waiting for the result of one get operation.
+   */
+  final class Flight<T> {
+    private final String key;
+    private final Transcoder<T> tc;
+    private final List<Member> members = new ArrayList<Member>(1);
+    private volatile Operation op;
+    private boolean done;
+
+    Flight(String k, Transcoder<T> t, GetFuture<T> rv, CountDownLatch l) {
+      key = k;
+      tc = t;
+      members.add(new Member(rv, l));
+    }
+
+    /**
+     * Set the operation the futures of this flight track: the operation of
+     * the flight before it is started, or the one that answered it.
+     */
+    void setOperation(Operation o) {
+      op = o;
+    }
+
+    private synchronized boolean join(GetFuture<T> rv, CountDownLatch l) {
+      if (done) {
+        return false;
+      }
+      members.add(new Member(rv, l));
+      return true;
+    }
+
+    /**
+     * Complete the futures of all gets of this flight.
+     */
+    void complete(Future<T> val, OperationStatus status) {
+      flights.remove(key, this);
+      synchronized (this) {
+        done = true;
+      }
+      for (Member m : members) {
+        m.future.set(val, status);
+        m.latch.countDown();
+        m.future.signalComplete();
+      }
+    }
+
+    /**
+     * The shared operation as seen by the future of one get.
+     */
+    final class Member implements Operation {
+      private final GetFuture<T> future;
+      private final CountDownLatch latch;
+      private volatile boolean cancelled;
+      private volatile boolean timedOut;
+
+      Member(GetFuture<T> rv, CountDownLatch l) {
+        future = rv;
+        latch = l;
+        rv.setOperation(this);
+      }
+
+      /**
+       * Complete this future alone with the given status and, if no other
+       * future is waiting for it, cancel or time out the shared operation.
+       */
+      private void leave(boolean wasCancelled, OperationStatus status) {
+        boolean last;
+        synchronized (Flight.this) {
+          if (done || !members.remove(this)) {
+            return;
+          }
+          if (wasCancelled) {
+            cancelled = true;
+          } else {
+            timedOut = true;
+          }
+          last = members.isEmpty();
+          done = last;
+        }
+        future.set(null, status);
+        latch.countDown();
+        if (last) {
+          flights.remove(key, Flight.this);
+          if (wasCancelled) {
+            op.cancel();
+          } else {
+            op.timeOut();
+          }
+        }
+      }
+
+      public void cancel() {
+        leave(true, new CancelledOperationStatus());
+      }
+
+      public void timeOut() {
+        leave(false, new TimedOutOperationStatus());
+      }
+
+      public boolean isCancelled() {
+        return cancelled || op.isCancelled();
+      }
+
+      public boolean isTimedOut() {
+        return timedOut || op.isTimedOut();
+      }
+
+      public boolean isTimedOut(long ttlMillis) {
+        return isTimedOut();
+      }
+
+      public boolean isTimedOutUnsent() {
+        return !timedOut && op.isTimedOutUnsent();
+      }
+
+      public boolean hasErrored() {
+        return op.hasErrored();
+      }
+
+      public OperationException getException() {
+        return op.getException();
+      }
+
+      public OperationCallback getCallback() {
+        return op.getCallback();
+      }
+
+      public OperationState getState() {
+        return op.getState();
+      }
+
+      public ByteBuffer getBuffer() {
+        return op.getBuffer();
+      }
+
+      public void writing() {
+        op.writing();
+      }
+
+      public void writeComplete() {
+        op.writeComplete();
+      }
+
+      public void initialize() {
+        op.initialize();
+      }
+
+      public void readFromBuffer(ByteBuffer data) throws IOException {
+        op.readFromBuffer(data);
+      }
+
+      public void handleRead(ByteBuffer data) {
+        op.handleRead(data);
+      }
+
+      public MemcachedNode getHandlingNode() {
+        return op.getHandlingNode();
+      }
+
+      public void setHandlingNode(MemcachedNode to) {
+        op.setHandlingNode(to);
+      }
+
+      public long getWriteCompleteTimestamp() {
+        return op.getWriteCompleteTimestamp();
+      }
+
+      public byte[] getErrorMsg() {
+        return op.getErrorMsg();
+      }
+
+      public void addClone(Operation o) {
+        op.addClone(o);
+      }
+
+      public int getCloneCount() {
+        return op.getCloneCount();
+      }
+
+      public void setCloneCount(int count) {
+        op.setCloneCount(count);
+      }
+
+      @Override
+      public String toString() {
+        return String.valueOf(op);
+      }
+    }
+  }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.spy.memcached.internal.BasicThreadFactory;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Sends a second get of a key to another node when the first one takes
+ * longer than most gets do.
+ *
+ * <p>
+ * The hedge delay is a percentile of the latencies of the last
+ * {@value #WINDOW} first gets, so only the slowest few percent of the gets
+ * are hedged. On top of that every get adds the configured budget to a
+ * bucket of tokens and each hedge takes a whole one, which bounds the extra
+ * load to that fraction of the gets even when a node is slow for all of
+ * them.
+ * </p>
+ */
+class HedgedGets {
+
+  static final String SENT_METRIC = "[MEM] Hedged Get Rate: Sent";
+  static final String WON_METRIC = "[MEM] Hedged Get Rate: Won";
+
+  /**
+   * Number of latencies the hedge delay is computed from.
+   */
+  static final int WINDOW = 1024;
+
+  /**
+   * Number of latencies needed before any get is hedged.
+   */
+  static final int MIN_SAMPLES = 100;
+
+  /**
+   * Gets are never hedged sooner than this, in nanoseconds.
+   */
+  static final long MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final int RECOMPUTE_INTERVAL = 64;
+  private static final long TOKEN = 1000;
+  private static final long MAX_TOKENS = 10 * TOKEN;
+
+  private final double percentile;
+  private final long deposit;
+  private final MetricCollector metrics;
+  private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+  private final AtomicLong sampleCount = new AtomicLong();
+  private final AtomicLong tokens = new AtomicLong(TOKEN);
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder won = new LongAdder();
+  private final ScheduledThreadPoolExecutor timer;
+  private volatile long delay = -1;
+
+  /**
+   * @param p the percentile of the get latencies to hedge after
+   * @param budget the maximum number of hedges per get
+   * @param collector the collector for the hedge metrics
+   * @param daemon true if the timer thread should be a daemon thread
+   */
+  HedgedGets(double p, double budget, MetricCollector collector,
+    boolean daemon) {
+    percentile = p;
+    deposit = Math.round(budget * TOKEN);
+    metrics = collector;
+    metrics.addMeter(SENT_METRIC);
+    metrics.addMeter(WON_METRIC);
+    timer = new ScheduledThreadPoolExecutor(1,
+      new BasicThreadFactory("hedged-gets", daemon));
+    timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Record the latency of a first get, in nanoseconds.
+   */
+  void record(long latency) {
+    long n = sampleCount.getAndIncrement() + 1;
+    samples.set((int) ((n - 1) % WINDOW), latency);
+    if (n >= MIN_SAMPLES && n % RECOMPUTE_INTERVAL == 0) {
+      int size = (int) Math.min(n, WINDOW);
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = samples.get(i);
+      }
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(percentile / 100 * size) - 1;
+      delay = Math.max(MIN_DELAY, sorted[Math.max(0, rank)]);
+    }
+  }
+
+  /**
+   * Get the time in nanoseconds after which gets are hedged, -1 while there
+   * are too few latencies to tell.
+   */
+  long getDelay() {
+    return delay;
+  }
+
+  private void deposit() {
+    long t;
+    do {
+      t = tokens.get();
+      if (t >= MAX_TOKENS) {
+        return;
+      }
+    } while (!tokens.compareAndSet(t, Math.min(MAX_TOKENS, t + deposit)));
+  }
+
+  private boolean tryAcquire() {
+    long t;
+    do {
+      t = tokens.get();
+      if (t < TOKEN) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(t, t - TOKEN));
+    return true;
+  }
+
+  /**
+   * Get the number of hedges sent.
+   */
+  long getSentCount() {
+    return sent.sum();
+  }
+
+  /**
+   * Get the number of hedges that answered before the first get.
+   */
+  long getWonCount() {
+    return won.sum();
+  }
+
+  /**
+   * Stop the timer, the hedges not sent by then are not sent.
+   */
+  void shutdown() {
+    timer.shutdownNow();
+  }
+
+  /**
+   * The first get of a key and its hedge, if any. The first of them to find
+   * the key completes the get; if neither does, the answer of the first get
+   * does.
+   */
+  abstract static class Race<T> {
+    private final HedgedGets hedging;
+    private final long start = System.nanoTime();
+    private int pending = 1;
+    private boolean done;
+    private boolean hedged;
+    private ScheduledFuture<?> hedge;
+    private Future<T> missVal;
+    private int missSize;
+    private OperationStatus missStatus;
+
+    Race(HedgedGets h) {
+      hedging = h;
+      hedging.deposit();
+    }
+
+    /**
+     * Run the given task after the hedge delay unless the race is over by
+     * then; nothing is scheduled while the delay is unknown.
+     */
+    void schedule(Runnable task) {
+      long d = hedging.getDelay();
+      if (d < 0) {
+        return;
+      }
+      ScheduledFuture<?> f = hedging.timer.schedule(task, d,
+        TimeUnit.NANOSECONDS);
+      synchronized (this) {
+        if (!done) {
+          hedge = f;
+          return;
+        }
+      }
+      f.cancel(false);
+    }
+
+    /**
+     * Claim the hedge of this race.
+     *
+     * @return false if the race is over or the hedge budget is spent
+     */
+    boolean startHedge() {
+      synchronized (this) {
+        if (done || hedged) {
+          return false;
+        }
+      }
+      if (!hedging.tryAcquire()) {
+        return false;
+      }
+      synchronized (this) {
+        if (done) {
+          return false;
+        }
+        hedged = true;
+        pending++;
+      }
+      hedging.sent.increment();
+      hedging.metrics.markMeter(SENT_METRIC);
+      return true;
+    }
+
+    /**
+     * Take the answer of the first get or of its hedge.
+     */
+    void answer(Future<T> val, int size, OperationStatus status,
+      boolean first) {
+      if (first) {
+        hedging.record(System.nanoTime() - start);
+      }
+      boolean hit = val != null && status != null && status.isSuccess();
+      ScheduledFuture<?> h;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        if (!hit) {
+          pending--;
+          if (first || missStatus == null) {
+            missVal = val;
+            missSize = size;
+            missStatus = status;
+          }
+          if (pending > 0) {
+            return;
+          }
+        }
+        done = true;
+        h = hedge;
+      }
+      if (h != null) {
+        h.cancel(false);
+      }
+      if (!hit) {
+        // Both gets answered by now, the first one included.
+        finish(missVal, missSize, missStatus, true);
+        return;
+      }
+      if (!first) {
+        hedging.won.increment();
+        hedging.metrics.markMeter(WON_METRIC);
+      }
+      finish(val, size, status, first);
+    }
+
+    /**
+     * Complete the get with the winning answer.
+     *
+     * @param first false if the hedge won, while the first get may still be
+     *          in flight
+     */
+    abstract void finish(Future<T> val, int size, OperationStatus status,
+      boolean first);
+  }
+}
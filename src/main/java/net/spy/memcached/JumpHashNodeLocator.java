@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * NodeLocator implementation using the jump consistent hash of Lamping and
+ * Veach.
+ *
+ * <p>
+ * A key is mapped to one of the n slots in O(ln n) steps without any lookup
+ * structure. Growing from n to n + 1 slots only moves keys to the new slot,
+ * and shrinking from the last slot only moves the keys of that slot. To keep
+ * it that way across {@link #updateLocator(List)}, nodes keep their slots: a
+ * new node takes the slot of a removed one, a removed node without
+ * replacement is replaced by the node of the last slot, and the remaining
+ * new nodes are added at the end.
+ * </p>
+ *
+ * <p>
+ * The backup sequence of a key follows the same rule: the next node is the
+ * one the key would map to once the previous one is removed.
+ * </p>
+ *
+ * @see <a href="https://arxiv.org/abs/1406.2294">A Fast, Minimal Memory,
+ *      Consistent Hash Algorithm</a>
+ */
+public final class JumpHashNodeLocator implements NodeLocator {
+
+  private final HashAlgorithm hashAlg;
+
+  private volatile MemcachedNode[] nodes;
+
+  /**
+   * Create a new JumpHashNodeLocator placing the given nodes in the given
+   * order.
+   *
+   * @param n the nodes
+   * @param alg the hash algorithm to hash keys with, possibly behind a
+   *          {@link KeyHashCache}
+   */
+  public JumpHashNodeLocator(List<MemcachedNode> n, HashAlgorithm alg) {
+    this(n.toArray(new MemcachedNode[n.size()]), alg);
+  }
+
+  private JumpHashNodeLocator(MemcachedNode[] n, HashAlgorithm alg) {
+    super();
+    nodes = n;
+    hashAlg = alg;
+  }
+
+  public Collection<MemcachedNode> getAll() {
+    return Collections.unmodifiableList(Arrays.asList(nodes));
+  }
+
+  public MemcachedNode getPrimary(String k) {
+    MemcachedNode[] n = nodes;
+    return n[jump(keyHash(k), n.length)];
+  }
+
+  public Iterator<MemcachedNode> getSequence(String k) {
+    return new JumpIterator(keyHash(k), nodes);
+  }
+
+  public NodeLocator getReadonlyCopy() {
+    MemcachedNode[] n = nodes;
+    MemcachedNode[] ro = new MemcachedNode[n.length];
+    for (int i = 0; i < n.length; i++) {
+      ro[i] = new MemcachedNodeROImpl(n[i]);
+    }
+    return new JumpHashNodeLocator(ro, hashAlg);
+  }
+
+  @Override
+  public void updateLocator(List<MemcachedNode> newNodes) {
+    Map<MemcachedNode, Boolean> added =
+      new IdentityHashMap<MemcachedNode, Boolean>();
+    for (MemcachedNode node : newNodes) {
+      added.put(node, Boolean.TRUE);
+    }
+    List<MemcachedNode> slots =
+      new ArrayList<MemcachedNode>(Arrays.asList(nodes));
+    List<Integer> holes = new ArrayList<Integer>();
+    for (int i = 0; i < slots.size(); i++) {
+      if (added.remove(slots.get(i)) == null) {
+        holes.add(i);
+      }
+    }
+    // Keep the new nodes in the order they were given.
+    List<MemcachedNode> fresh = new ArrayList<MemcachedNode>(added.size());
+    for (MemcachedNode node : newNodes) {
+      if (added.containsKey(node)) {
+        fresh.add(node);
+      }
+    }
+    Iterator<MemcachedNode> f = fresh.iterator();
+    for (int h = 0; h < holes.size(); h++) {
+      if (f.hasNext()) {
+        slots.set(holes.get(h), f.next());
+      } else {
+        // Fill the remaining holes with the nodes of the last slots.
+        for (int r = holes.size() - 1; r >= h; r--) {
+          int last = slots.size() - 1;
+          int hole = holes.get(r);
+          if (hole != last) {
+            slots.set(hole, slots.get(last));
+          }
+          slots.remove(last);
+        }
+        break;
+      }
+    }
+    while (f.hasNext()) {
+      slots.add(f.next());
+    }
+    nodes = slots.toArray(new MemcachedNode[slots.size()]);
+  }
+
+  private long keyHash(String k) {
+    return HashMixer.mix64(hashAlg.hash(k));
+  }
+
+  /**
+   * Get the slot in [0, buckets) the given key hash maps to.
+   */
+  static int jump(long key, int buckets) {
+    long b = -1;
+    long j = 0;
+    while (j < buckets) {
+      b = j;
+      key = key * 2862933555777941757L + 1;
+      j = (long) ((b + 1) * ((double) (1L << 31)
+        / (double) ((key >>> 33) + 1)));
+    }
+    return (int) b;
+  }
+
+  private static final class JumpIterator implements Iterator<MemcachedNode> {
+
+    private final long key;
+    private final MemcachedNode[] slots;
+    private int remaining;
+
+    JumpIterator(long k, MemcachedNode[] n) {
+      key = k;
+      slots = n.clone();
+      remaining = n.length;
+      if (remaining > 0) {
+        // The primary is not a backup.
+        advance();
+      }
+    }
+
+    private MemcachedNode advance() {
+      int b = jump(key, remaining);
+      MemcachedNode rv = slots[b];
+      slots[b] = slots[--remaining];
+      return rv;
+    }
+
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    public MemcachedNode next() {
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      return advance();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("Can't remove a node");
+    }
+  }
+}
@@ -106,7 +106,7 @@ public class KetamaConnectionFactory extends DefaultConnectionFactory {
    */
   @Override
   public NodeLocator createLocator(List<MemcachedNode> nodes) {
-        return new KetamaNodeLocator(nodes, getHashAlg(),
+        return new KetamaNodeLocator(nodes, getLocatorHashAlg(),
                 getKetamaNodeKeyFormat(), getWeights());
     }
 
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable Ketama continuum, holding the sorted point positions and the
+ * node owning each point in two parallel arrays.
+ *
+ * A lookup is a single binary search over the positions, with no boxing of
+ * the hash and no tree walks.
+ */
+final class KetamaContinuum {
+
+  private final long[] positions;
+  private final MemcachedNode[] nodes;
+
+  /**
+   * Create a continuum holding the points of the given map.
+   *
+   * @param points the node owning each point, keyed by its position
+   */
+  KetamaContinuum(SortedMap<Long, MemcachedNode> points) {
+    positions = new long[points.size()];
+    nodes = new MemcachedNode[points.size()];
+    int i = 0;
+    for (Map.Entry<Long, MemcachedNode> me : points.entrySet()) {
+      positions[i] = me.getKey();
+      nodes[i] = me.getValue();
+      i++;
+    }
+  }
+
+  private KetamaContinuum(long[] p, MemcachedNode[] n) {
+    positions = p;
+    nodes = n;
+  }
+
+  /**
+   * Get the node owning the first point at or after the given hash, wrapping
+   * around to the first point past the end of the continuum.
+   */
+  MemcachedNode getNodeForKey(long hash) {
+    int i = Arrays.binarySearch(positions, hash);
+    if (i < 0) {
+      i = -i - 1;
+      if (i == positions.length) {
+        i = 0;
+      }
+    }
+    return nodes[i];
+  }
+
+  /**
+   * Get the position of the last point on the continuum.
+   */
+  long getMaxKey() {
+    return positions[positions.length - 1];
+  }
+
+  /**
+   * Get the number of points on the continuum.
+   */
+  int size() {
+    return positions.length;
+  }
+
+  /**
+   * Get a copy of the continuum with every node wrapped in a read only
+   * view.
+   */
+  KetamaContinuum readonlyCopy() {
+    Map<MemcachedNode, MemcachedNode> ro =
+      new IdentityHashMap<MemcachedNode, MemcachedNode>();
+    MemcachedNode[] n = new MemcachedNode[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      MemcachedNode node = ro.get(nodes[i]);
+      if (node == null) {
+        node = new MemcachedNodeROImpl(nodes[i]);
+        ro.put(nodes[i], node);
+      }
+      n[i] = node;
+    }
+    return new KetamaContinuum(positions, n);
+  }
+
+  /**
+   * Get the points of the continuum as a map, keyed by their position.
+   */
+  TreeMap<Long, MemcachedNode> toMap() {
+    TreeMap<Long, MemcachedNode> rv = new TreeMap<Long, MemcachedNode>();
+    for (int i = 0; i < positions.length; i++) {
+      rv.put(positions[i], nodes[i]);
+    }
+    return rv;
+  }
+}
@@ -34,7 +34,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
@@ -49,10 +48,11 @@ import java.util.TreeMap;
  */
 public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
 
-  private volatile TreeMap<Long, MemcachedNode> ketamaNodes;
+  private volatile KetamaContinuum ketamaNodes;
   private volatile Collection<MemcachedNode> allNodes;
 
   private final HashAlgorithm hashAlg;
+  private final HashAlgorithm keyHashAlg;
   private final Map<InetSocketAddress, Integer> weights;
   private final boolean isWeightedKetama;
   private final KetamaNodeLocatorConfiguration config;
@@ -111,7 +111,9 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
    * @param nodes The List of nodes to use in the Ketama consistent hash
    *          continuum
    * @param alg The hash algorithm to use when choosing a node in the Ketama
-   *          consistent hash continuum
+   *          consistent hash continuum. When it is a {@link KeyHashCache},
+   *          keys are hashed through the cache while nodes are placed with
+   *          the algorithm behind it.
    * @param nodeWeights node weights for ketama, a map from InetSocketAddress to
    *          weight as Integer
    * @param configuration node locator configuration
@@ -121,21 +123,23 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
             KetamaNodeLocatorConfiguration configuration) {
     super();
     allNodes = nodes;
-    hashAlg = alg;
+    hashAlg = KeyHashCache.unwrap(alg);
+    keyHashAlg = alg;
     config = configuration;
     weights = nodeWeights;
     isWeightedKetama = !weights.isEmpty();
     setKetamaNodes(nodes);
   }
 
-  private KetamaNodeLocator(TreeMap<Long, MemcachedNode> smn,
+  private KetamaNodeLocator(KetamaContinuum smn,
       Collection<MemcachedNode> an, HashAlgorithm alg,
       Map<InetSocketAddress, Integer> nodeWeights,
       KetamaNodeLocatorConfiguration conf) {
     super();
     ketamaNodes = smn;
     allNodes = an;
-    hashAlg = alg;
+    hashAlg = KeyHashCache.unwrap(alg);
+    keyHashAlg = alg;
     config = conf;
     weights = nodeWeights;
     isWeightedKetama = !weights.isEmpty();
@@ -146,54 +150,43 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
   }
 
   public MemcachedNode getPrimary(final String k) {
-    MemcachedNode rv = getNodeForKey(hashAlg.hash(k));
+    MemcachedNode rv = getNodeForKey(keyHashAlg.hash(k));
     assert rv != null : "Found no node for key " + k;
     return rv;
   }
 
   long getMaxKey() {
-    return getKetamaNodes().lastKey();
+    return ketamaNodes.getMaxKey();
   }
 
-  MemcachedNode getNodeForKey(long hash) {
-    final MemcachedNode rv;
-    if (!ketamaNodes.containsKey(hash)) {
-      // Java 1.6 adds a ceilingKey method, but I'm still stuck in 1.5
-      // in a lot of places, so I'm doing this myself.
-      SortedMap<Long, MemcachedNode> tailMap = getKetamaNodes().tailMap(hash);
-      if (tailMap.isEmpty()) {
-        hash = getKetamaNodes().firstKey();
-      } else {
-        hash = tailMap.firstKey();
-      }
-    }
-    rv = getKetamaNodes().get(hash);
-    return rv;
+  /**
+   * Find the node owning the given hash on the continuum, for tests and
+   * benchmarks of the lookup.
+   *
+   * @param hash the hash of a key
+   * @return the first node at or after the hash, wrapping around
+   */
+  public MemcachedNode getNodeForKey(long hash) {
+    return ketamaNodes.getNodeForKey(hash);
   }
 
   public Iterator<MemcachedNode> getSequence(String k) {
     // Seven searches gives us a 1 in 2^7 chance of hitting the
     // same dead node all of the time.
-    return new KetamaIterator(k, 7, getKetamaNodes(), hashAlg);
+    return new KetamaIterator(k, 7, ketamaNodes, hashAlg);
   }
 
   public NodeLocator getReadonlyCopy() {
-    TreeMap<Long, MemcachedNode> smn =
-        new TreeMap<Long, MemcachedNode>(getKetamaNodes());
+    KetamaContinuum smn = ketamaNodes.readonlyCopy();
     Collection<MemcachedNode> an =
         new ArrayList<MemcachedNode>(allNodes.size());
 
-    // Rewrite the values a copy of the map.
-    for (Map.Entry<Long, MemcachedNode> me : smn.entrySet()) {
-      smn.put(me.getKey(), new MemcachedNodeROImpl(me.getValue()));
-    }
-
     // Copy the allNodes collection.
     for (MemcachedNode n : allNodes) {
       an.add(new MemcachedNodeROImpl(n));
     }
 
-    return new KetamaNodeLocator(smn, an, hashAlg, weights, config);
+    return new KetamaNodeLocator(smn, an, keyHashAlg, weights, config);
   }
 
   @Override
@@ -204,10 +197,11 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
   }
 
   /**
-   * @return the ketamaNodes
+   * @return a copy of the ketamaNodes, keyed by their position on the
+   *         continuum
    */
-  protected TreeMap<Long, MemcachedNode> getKetamaNodes() {
-    return ketamaNodes;
+  public TreeMap<Long, MemcachedNode> getKetamaNodes() {
+    return ketamaNodes.toMap();
   }
 
   /**
@@ -261,7 +255,7 @@ public final class KetamaNodeLocator extends SpyObject implements NodeLocator {
       }
     }
     assert newNodeMap.size() == numReps * nodes.size();
-    ketamaNodes = newNodeMap;
+    ketamaNodes = new KetamaContinuum(newNodeMap);
   }
 
   private List<Long> ketamaNodePositionsAtIteration(MemcachedNode node, int iteration) {
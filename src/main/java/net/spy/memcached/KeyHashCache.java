@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.NoopMetricCollector;
+
+/**
+ * A bounded cache of key hashes in front of another {@link HashAlgorithm}.
+ *
+ * <p>
+ * Node locators use it for the keys of operations so a hot key is hashed
+ * (and encoded) once instead of on every lookup. The cache keeps two
+ * generations of at most half the configured size each: new hashes go into
+ * the young generation, hits in the old generation are promoted, and once the
+ * young generation is full it replaces the old one. Keys that are not looked
+ * up again within a generation are dropped that way, without any per-entry
+ * bookkeeping.
+ * </p>
+ *
+ * <p>
+ * Locators place their nodes with the wrapped algorithm, see
+ * {@link #unwrap(HashAlgorithm)}, so the cache never changes where a key
+ * goes.
+ * </p>
+ */
+public final class KeyHashCache implements HashAlgorithm {
+
+  static final String SIZE_METRIC = "[MEM] Key Hash Cache Size";
+  static final String HIT_METRIC = "[MEM] Key Hash Cache Rate: Hit";
+  static final String MISS_METRIC = "[MEM] Key Hash Cache Rate: Miss";
+
+  private final HashAlgorithm hashAlg;
+  private final int generationSize;
+  private final MetricCollector metrics;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private volatile ConcurrentHashMap<String, Long> young;
+  private volatile ConcurrentHashMap<String, Long> old;
+
+  /**
+   * Create a cache holding up to the given number of key hashes.
+   *
+   * @param alg the hash algorithm computing the hashes
+   * @param maxSize the maximum number of cached hashes
+   */
+  public KeyHashCache(HashAlgorithm alg, int maxSize) {
+    this(alg, maxSize, new NoopMetricCollector());
+  }
+
+  /**
+   * Create a cache holding up to the given number of key hashes, reporting
+   * its size and hit and miss rates to the given collector.
+   *
+   * @param alg the hash algorithm computing the hashes
+   * @param maxSize the maximum number of cached hashes
+   * @param collector the collector for the cache metrics
+   */
+  public KeyHashCache(HashAlgorithm alg, int maxSize,
+    MetricCollector collector) {
+    if (alg == null) {
+      throw new NullPointerException("Hash algorithm required");
+    }
+    if (maxSize < 2) {
+      throw new IllegalArgumentException(
+        "Key hash cache size must be at least 2.");
+    }
+    hashAlg = unwrap(alg);
+    generationSize = maxSize / 2;
+    metrics = collector;
+    young = new ConcurrentHashMap<String, Long>(generationSize);
+    old = new ConcurrentHashMap<String, Long>();
+    metrics.addCounter(SIZE_METRIC);
+    metrics.addMeter(HIT_METRIC);
+    metrics.addMeter(MISS_METRIC);
+  }
+
+  /**
+   * Get the hash of the given key, computing it only if it is not cached.
+   */
+  public long hash(final String k) {
+    Long rv = young.get(k);
+    if (rv != null) {
+      hits.increment();
+      metrics.markMeter(HIT_METRIC);
+      return rv;
+    }
+    rv = old.get(k);
+    if (rv != null) {
+      hits.increment();
+      metrics.markMeter(HIT_METRIC);
+    } else {
+      misses.increment();
+      metrics.markMeter(MISS_METRIC);
+      rv = hashAlg.hash(k);
+    }
+    add(k, rv);
+    return rv;
+  }
+
+  private void add(String k, Long h) {
+    ConcurrentHashMap<String, Long> gen = young;
+    if (gen.putIfAbsent(k, h) == null) {
+      metrics.incrementCounter(SIZE_METRIC);
+      if (gen.size() >= generationSize) {
+        rotate(gen);
+      }
+    }
+  }
+
+  private synchronized void rotate(ConcurrentHashMap<String, Long> full) {
+    if (young == full) {
+      int dropped = old.size();
+      old = full;
+      young = new ConcurrentHashMap<String, Long>(generationSize);
+      metrics.decrementCounter(SIZE_METRIC, dropped);
+    }
+  }
+
+  /**
+   * Get the hash algorithm computing the cached hashes.
+   */
+  public HashAlgorithm getHashAlgorithm() {
+    return hashAlg;
+  }
+
+  /**
+   * Get the number of hashes currently cached.
+   */
+  public int size() {
+    return young.size() + old.size();
+  }
+
+  /**
+   * Get the number of lookups answered from the cache.
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of lookups that had to compute the hash.
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the fraction of lookups answered from the cache, 0 before the first
+   * lookup.
+   */
+  public double getHitRate() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  /**
+   * Drop all cached hashes.
+   */
+  public synchronized void clear() {
+    int dropped = size();
+    young = new ConcurrentHashMap<String, Long>(generationSize);
+    old = new ConcurrentHashMap<String, Long>();
+    metrics.decrementCounter(SIZE_METRIC, dropped);
+  }
+
+  /**
+   * Get the algorithm a cache computes its hashes with, or the given
+   * algorithm itself when it is not a cache.
+   */
+  public static HashAlgorithm unwrap(HashAlgorithm alg) {
+    return alg instanceof KeyHashCache
+      ? ((KeyHashCache) alg).getHashAlgorithm() : alg;
+  }
+
+  @Override
+  public String toString() {
+    return "KeyHashCache{" + hashAlg + ", size=" + size() + ", hitRate="
+      + getHitRate() + "}";
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A value stored by {@link MemcachedClient#getOrLoad}, along with when it
+ * expires and how long it took to load.
+ *
+ * <p>
+ * The value is kept on the server past its expiration, so it can be served
+ * stale while one caller loads it again. Callers refresh it early with a
+ * probability growing as the expiration gets closer and the longer loading
+ * takes ("XFetch"), which spreads the reloads of hot keys out instead of
+ * having them all expire at once.
+ * </p>
+ */
+final class LoadedValue<T> {
+
+  /**
+   * Scales how early values are refreshed, 1 being the optimum for a
+   * single refresh per expiration.
+   */
+  static final double BETA = 1.0;
+
+  /**
+   * Put in front of the hash of a key to form the key of its lease.
+   */
+  static final String LEASE_PREFIX = "lease:";
+
+  /**
+   * The value of leases.
+   */
+  static final String LEASE = "1";
+
+  /**
+   * Seconds a lease is held at least, and while loading a key for the first
+   * time.
+   */
+  static final int MIN_LEASE_TIME = 3;
+
+  /**
+   * Milliseconds between the gets of callers waiting for the first load of
+   * a key.
+   */
+  static final long LEASE_POLL_INTERVAL = 20;
+
+  /**
+   * The largest relative expiration memcached accepts, in seconds.
+   */
+  static final int MAX_EXPIRATION = 60 * 60 * 24 * 30;
+
+  private final T value;
+  private final long expiresAt;
+  private final int delta;
+
+  /**
+   * @param v the value
+   * @param exp the time in milliseconds the value expires at
+   * @param d the time in milliseconds it took to load the value
+   */
+  LoadedValue(T v, long exp, int d) {
+    value = v;
+    expiresAt = exp;
+    delta = d;
+  }
+
+  T getValue() {
+    return value;
+  }
+
+  long getExpiresAt() {
+    return expiresAt;
+  }
+
+  int getDelta() {
+    return delta;
+  }
+
+  /**
+   * Get the key of the lease of the given key. It is built from a hash of
+   * the key so it has a fixed length, and is valid for keys up to the
+   * longest allowed.
+   */
+  static String leaseKey(String key) {
+    byte[] digest = DefaultHashAlgorithm.computeHashDigest(key);
+    StringBuilder sb =
+      new StringBuilder(LEASE_PREFIX.length() + digest.length * 2);
+    sb.append(LEASE_PREFIX);
+    for (byte b : digest) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Get the number of seconds to lease a key for while loading it, a few
+   * times what it took to load the current value.
+   */
+  static int leaseTime(LoadedValue<?> current) {
+    if (current == null) {
+      return MIN_LEASE_TIME;
+    }
+    return (int) Math.max(MIN_LEASE_TIME, (current.delta * 3L + 999) / 1000);
+  }
+
+  /**
+   * Get the expiration a loaded value is stored with: long enough to serve
+   * it stale for as long again as it was fresh.
+   */
+  static int storedExpiration(int exp) {
+    return (int) Math.min(2L * exp, MAX_EXPIRATION);
+  }
+
+  /**
+   * Decide whether the caller should refresh the value at the given time.
+   * Values without an expiration are never refreshed.
+   */
+  boolean shouldRefresh(long now) {
+    return shouldRefresh(now, 1.0 - ThreadLocalRandom.current().nextDouble());
+  }
+
+  /**
+   * Decide whether the value should be refreshed at the given time, with
+   * the given uniform random number in (0, 1].
+   */
+  boolean shouldRefresh(long now, double random) {
+    return expiresAt != 0
+      && now - delta * BETA * Math.log(random) >= expiresAt;
+  }
+
+  /**
+   * Stores loaded values as a header with their expiration and load time in
+   * front of the data of the value's own transcoder.
+   *
+   * <p>
+   * Data without the header, e.g. written by a plain set, decodes to null
+   * so it is loaded again.
+   * </p>
+   */
+  static final class Codec<T> implements Transcoder<LoadedValue<T>> {
+    private static final int MAGIC = 0x4c565631;
+    private static final int HEADER_SIZE = 16;
+
+    private final Transcoder<T> tc;
+
+    Codec(Transcoder<T> t) {
+      tc = t;
+    }
+
+    public boolean asyncDecode(CachedData d) {
+      return tc.asyncDecode(d);
+    }
+
+    public CachedData encode(LoadedValue<T> o) {
+      CachedData d = tc.encode(o.value);
+      byte[] data = d.getData();
+      ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + data.length);
+      b.putInt(MAGIC).putLong(o.expiresAt).putInt(o.delta).put(data);
+      return new CachedData(d.getFlags(), b.array(), getMaxSize());
+    }
+
+    public LoadedValue<T> decode(CachedData d) {
+      ByteBuffer b = ByteBuffer.wrap(d.getData());
+      if (b.remaining() < HEADER_SIZE || b.getInt() != MAGIC) {
+        return null;
+      }
+      long expiresAt = b.getLong();
+      int delta = b.getInt();
+      byte[] data = new byte[b.remaining()];
+      b.get(data);
+      T value = tc.decode(new CachedData(d.getFlags(), data, getMaxSize()));
+      return new LoadedValue<T>(value, expiresAt, delta);
+    }
+
+    public int getMaxSize() {
+      return tc.getMaxSize() + HEADER_SIZE;
+    }
+  }
+}
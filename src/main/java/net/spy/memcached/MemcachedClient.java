@@ -36,10 +36,12 @@ import net.spy.memcached.ConfigurationPoller;
 import net.spy.memcached.config.NodeEndPoint;
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.BulkMutationFuture;
 import net.spy.memcached.internal.GetConfigFuture;
 import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.internal.SingleElementInfiniteIterator;
+import net.spy.memcached.ops.BulkMutationOperation;
 import net.spy.memcached.ops.CASOperationStatus;
 import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.ConcatenationType;
@@ -62,6 +64,7 @@ import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.ops.StoreOperation;
 import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.ops.TimedOutOperationStatus;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.SerializingTranscoder;
 import net.spy.memcached.transcoders.TranscodeService;
@@ -78,10 +81,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
@@ -169,6 +175,9 @@ import java.util.concurrent.atomic.AtomicReference;
 public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     ConnectionObserver {
 
+  private static final OperationStatus QUEUE_FULL = new OperationStatus(false,
+    "Queue full", StatusCode.REJECTED);
+
   protected final ClientMode clientMode;
   
   protected volatile boolean shuttingDown;
@@ -191,6 +200,15 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   protected final ExecutorService executorService;
 
+  protected final NearCache nearCache;
+
+  private final GetCoalescer coalescer;
+
+  private final ConcurrentMap<Transcoder<?>, LoadedValue.Codec<?>> codecs =
+    new ConcurrentHashMap<Transcoder<?>, LoadedValue.Codec<?>>();
+
+  private final HedgedGets hedging;
+
   private NodeEndPoint configurationNode;
   //Set default value to true to attempt config API first. The value is set to false if
   //OperationNotSupportedException is thrown.
@@ -285,16 +303,29 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     transcoder = cf.getDefaultTranscoder();
     opFact = cf.getOperationFactory();
     assert opFact != null : "Connection factory failed to make op factory";
+    operationTimeout = cf.getOperationTimeout();
+    executorService = cf.getListenerExecutorService();
+    nearCache = cf.getNearCacheMaxBytes() > 0
+      ? new NearCache(cf.getNearCacheMaxBytes(),
+        cf.getNearCacheMaxStaleness(), cf.getMetricCollector())
+      : null;
+    coalescer = cf.shouldCoalesceGets()
+      ? new GetCoalescer(cf.getMetricCollector()) : null;
+    hedging = cf.getHedgePercentile() > 0
+      ? new HedgedGets(cf.getHedgePercentile(), cf.getHedgeBudget(),
+        cf.getMetricCollector(), cf.isDaemon())
+      : null;
 
     if(clientMode == ClientMode.Dynamic){
       initializeClientUsingConfigEndPoint(cf, addrs.get(0));
     } else {
       setupConnection(cf, addrs);
     }
+    if (nearCache != null) {
+      mconn.setNearCache(nearCache);
+    }
 
-    operationTimeout = cf.getOperationTimeout();
     authDescriptor = cf.getAuthDescriptor();
-    executorService = cf.getListenerExecutorService();
 
     if (authDescriptor != null) {
       addObserver(this);
@@ -448,6 +479,39 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Get the number of reads moved off each server because it had too many
+   * outstanding operations.
+   *
+   * @return the reads moved off each server so far, empty unless bounded
+   *         loads are enabled
+   * @see ConnectionFactoryBuilder#setBoundedLoadEpsilon(double)
+   */
+  public Map<SocketAddress, Long> getBoundedLoadOverflows() {
+    return mconn.getBoundedLoadOverflows();
+  }
+
+  /**
+   * Get the state of the circuit breaker of each server.
+   *
+   * @return the state of the circuit of each server, empty unless circuit
+   *         breakers are enabled
+   * @see ConnectionFactoryBuilder#setCircuitBreakerFailureRatio(double)
+   */
+  public Map<SocketAddress, CircuitState> getCircuitStates() {
+    return mconn.getCircuitStates();
+  }
+
+  /**
+   * Get the near cache gets are served from.
+   *
+   * @return the near cache, null unless it is enabled
+   * @see ConnectionFactoryBuilder#setNearCacheMaxBytes(long)
+   */
+  public NearCache getNearCache() {
+    return nearCache;
+  }
+
   /**
    * Get a read-only wrapper around the node locator wrapping this instance.
    *
@@ -490,6 +554,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   private <T> OperationFuture<Boolean> asyncStore(StoreType storeType,
       String key, int exp, T value, Transcoder<T> tc) {
+    return asyncStore(storeType, key, exp, value, tc, false);
+  }
+
+  private <T> OperationFuture<Boolean> asyncStore(StoreType storeType,
+      String key, int exp, T value, Transcoder<T> tc, boolean rejectWhenFull) {
     CachedData co = tc.encode(value);
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv =
@@ -513,7 +582,13 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
             }
           });
     rv.setOperation(op);
-    enqueueOperation(key, op);
+    if (!rejectWhenFull) {
+      enqueueOperation(key, op);
+    } else if (!tryEnqueueOperation(key, op)) {
+      rv.set(false, QUEUE_FULL);
+      latch.countDown();
+      rv.signalComplete();
+    }
     return rv;
   }
 
@@ -1117,6 +1192,78 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncStore(StoreType.set, key, exp, o, transcoder);
   }
 
+  /**
+   * Set an object in the cache unless the queue of the server of its key is
+   * full.
+   *
+   * <p>
+   * Unlike {@link #set(String, int, Object, Transcoder)} this never blocks
+   * waiting for room on the queue, nor throws an IllegalStateException when
+   * there is none. A rejected set returns a completed future with a value of
+   * false and a status with the code {@link StatusCode#REJECTED}, and
+   * {@link #awaitCapacity(String)} tells when it is worth trying again.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key under which this object should be added.
+   * @param exp the expiration of this object
+   * @param o the object to store
+   * @param tc the transcoder to serialize and unserialize the value
+   * @return a future representing the processing of this operation
+   */
+  public <T> OperationFuture<Boolean> trySet(String key, int exp, T o,
+      Transcoder<T> tc) {
+    return asyncStore(StoreType.set, key, exp, o, tc, true);
+  }
+
+  /**
+   * Set an object in the cache (using the default transcoder) unless the
+   * queue of the server of its key is full.
+   *
+   * @param key the key under which this object should be added.
+   * @param exp the expiration of this object
+   * @param o the object to store
+   * @return a future representing the processing of this operation
+   * @see #trySet(String, int, Object, Transcoder)
+   */
+  public OperationFuture<Boolean> trySet(String key, int exp, Object o) {
+    return asyncStore(StoreType.set, key, exp, o, transcoder, true);
+  }
+
+  /**
+   * Get a stage completed once the server of the given key has room on its
+   * queue for another operation.
+   *
+   * <p>
+   * The stage is completed on an IO thread, and other threads may take the
+   * room first, so operations should still be sent with a non-blocking
+   * method like {@link #trySet(String, int, Object)}.
+   * </p>
+   *
+   * @param key the key operations are going to operate upon
+   * @return the stage
+   */
+  public CompletionStage<Void> awaitCapacity(String key) {
+    checkState();
+    return mconn.awaitCapacity(key);
+  }
+
+  /**
+   * Get the number of operations queued for each server that have not been
+   * picked up by an IO thread yet.
+   *
+   * <p>
+   * Producers can throttle themselves on these before the queues fill up
+   * and operations start blocking.
+   * </p>
+   *
+   * @return the depth of the queue of each server
+   * @see ConnectionFactoryBuilder#setOpQueueMaxBlockTime(long)
+   */
+  public Map<SocketAddress, Integer> getQueueDepths() {
+    return mconn.getInputQueueDepths();
+  }
+
   /**
    * Replace an object with the given value iff there is already a value for the
    * given key.
@@ -1204,34 +1351,166 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   @Override
   public <T> GetFuture<T> asyncGet(final String key, final Transcoder<T> tc) {
+    if (nearCache != null) {
+      Future<T> cached = nearCache.get(key, tc);
+      if (cached != null) {
+        GetFuture<T> rv = new GetFuture<T>(new CountDownLatch(0),
+          operationTimeout, key, executorService);
+        rv.set(cached, NearCache.HIT_STATUS);
+        return rv;
+      }
+    }
 
+    final long stamp = nearCache == null ? 0 : nearCache.stamp(key);
     final CountDownLatch latch = new CountDownLatch(1);
     final GetFuture<T> rv = new GetFuture<T>(latch, operationTimeout, key,
       executorService);
-    Operation op = opFact.get(key, new GetOperation.Callback() {
-      private Future<T> val;
-
+    final GetCoalescer.Flight<T> flight = coalescer == null ? null
+      : coalescer.newFlight(key, tc, rv, latch);
+    final GetCompletion<T> completion =
+      new GetCompletion<T>(key, tc, stamp, rv, latch, flight);
+    final AtomicReference<Operation> hedgeOp =
+      new AtomicReference<Operation>();
+    final HedgedGets.Race<T> race = hedging == null ? null
+      : new HedgedGets.Race<T>(hedging) {
+        @Override
+        void finish(Future<T> val, int size, OperationStatus status,
+            boolean first) {
+          completion.finish(val, size, status, first ? null : hedgeOp.get());
+        }
+      };
+    final Operation op = opFact.get(key, new GetAnswer<T>(key, tc) {
       @Override
-      public void receivedStatus(OperationStatus status) {
-        rv.set(val, status);
+      void answered(Future<T> val, int size, OperationStatus status) {
+        if (race != null) {
+          race.answer(val, size, status, true);
+        } else {
+          completion.finish(val, size, status, null);
+        }
       }
-
-      @Override
-      public void gotData(String k, int flags, byte[] data) {
-        assert key.equals(k) : "Wrong key returned";
-        val =
-            tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize()));
+    });
+    if (flight == null) {
+      rv.setOperation(op);
+      enqueueOperation(key, op);
+    } else {
+      flight.setOperation(op);
+      if (!coalescer.start(flight)) {
+        return rv;
+      }
+      try {
+        enqueueOperation(key, op);
+      } catch (RuntimeException e) {
+        // Fail the gets that joined already, the caller gets the exception.
+        flight.complete(null, new OperationStatus(false, e.getMessage(),
+          StatusCode.ERR_CLIENT));
+        throw e;
       }
+    }
+    if (race != null) {
+      race.schedule(new Runnable() {
+        @Override
+        public void run() {
+          MemcachedNode node = mconn.hedgeNode(key, op.getHandlingNode());
+          if (node != null && race.startHedge()) {
+            Operation hedge = opFact.get(key, new GetAnswer<T>(key, tc) {
+              @Override
+              void answered(Future<T> val, int size, OperationStatus status) {
+                race.answer(val, size, status, false);
+              }
+            });
+            hedgeOp.set(hedge);
+            mconn.addOperations(Collections.singletonMap(node, hedge));
+          }
+        }
+      });
+    }
+    return rv;
+  }
 
-      @Override
-      public void complete() {
+  /**
+   * Collects the answer of a get operation until it completes.
+   */
+  private abstract class GetAnswer<T> implements GetOperation.Callback {
+    private final String key;
+    private final Transcoder<T> tc;
+    private Future<T> val;
+    private int size;
+    private OperationStatus status;
+
+    GetAnswer(String k, Transcoder<T> t) {
+      key = k;
+      tc = t;
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    @Override
+    public void gotData(String k, int flags, byte[] data) {
+      assert key.equals(k) : "Wrong key returned";
+      val = tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize()));
+      size = data.length;
+    }
+
+    @Override
+    public void complete() {
+      answered(val, size, status);
+    }
+
+    /**
+     * Take the answer of the completed operation.
+     */
+    abstract void answered(Future<T> val, int size, OperationStatus status);
+  }
+
+  /**
+   * Completes a get with the answer of its operation, or of the operation
+   * it shares or races with, and keeps the value in the near cache.
+   */
+  private final class GetCompletion<T> {
+    private final String key;
+    private final Transcoder<T> tc;
+    private final long stamp;
+    private final GetFuture<T> rv;
+    private final CountDownLatch latch;
+    private final GetCoalescer.Flight<T> flight;
+
+    GetCompletion(String k, Transcoder<T> t, long st, GetFuture<T> f,
+        CountDownLatch l, GetCoalescer.Flight<T> fl) {
+      key = k;
+      tc = t;
+      stamp = st;
+      rv = f;
+      latch = l;
+      flight = fl;
+    }
+
+    /**
+     * @param winner the hedge that answered instead of the first get, which
+     *          the future tracks from now on; null if the first get did
+     */
+    void finish(Future<T> val, int size, OperationStatus status,
+        Operation winner) {
+      if (nearCache != null && val != null && status != null
+          && status.isSuccess()) {
+        nearCache.put(key, tc, val, size, stamp);
+      }
+      if (flight != null) {
+        if (winner != null) {
+          flight.setOperation(winner);
+        }
+        flight.complete(val, status);
+      } else {
+        if (winner != null) {
+          rv.setOperation(winner);
+        }
+        rv.set(val, status);
         latch.countDown();
         rv.signalComplete();
       }
-    });
-    rv.setOperation(op);
-    enqueueOperation(key, op);
-    return rv;
+    }
   }
   
   /**
@@ -1490,6 +1769,156 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     }
   }
 
+  /**
+   * Get the value of the given key, loading and storing it when it is
+   * missing or expired.
+   *
+   * <p>
+   * Only one caller at a time loads a key, holding a short lease on it
+   * taken with an add of a companion key. Meanwhile the other callers get
+   * the expired value, kept on the server for as long again as it was
+   * fresh, or wait for the loaded value if there is none. Values are
+   * reloaded a little before they expire, with a probability growing as
+   * their expiration gets closer and with the time it took to load them, so
+   * the reloads of hot keys spread out instead of all happening at once.
+   * </p>
+   *
+   * <p>
+   * Loaded values are stored with a small header, so keys read through this
+   * method should only be written through it too. The client keeps the
+   * codec adding the header for every transcoder passed in, so transcoders
+   * should be long-lived rather than created per call.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key to get
+   * @param exp the expiration of loaded values in seconds, 0 for none
+   * @param loader computes the value of the key, null values are not stored
+   * @param tc the transcoder to serialize and unserialize the value
+   * @return the cached or loaded value
+   * @throws OperationTimeoutException if the global operation timeout is
+   *           exceeded
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws RuntimeException wrapping any checked exception of the loader
+   */
+  @Override
+  public <T> T getOrLoad(String key, int exp, Callable<T> loader,
+      Transcoder<T> tc) {
+    if (exp < 0 || exp > LoadedValue.MAX_EXPIRATION) {
+      throw new IllegalArgumentException(
+        "Expiration must be relative and at most 30 days.");
+    }
+    Transcoder<LoadedValue<T>> ltc = loadedCodec(tc);
+    LoadedValue<T> current = get(key, ltc);
+    if (current != null
+        && !current.shouldRefresh(System.currentTimeMillis())) {
+      return current.getValue();
+    }
+
+    String leaseKey = LoadedValue.leaseKey(key);
+    int leaseTime = LoadedValue.leaseTime(current);
+    if (waitFor(add(leaseKey, leaseTime, LoadedValue.LEASE))) {
+      try {
+        return load(key, exp, loader, ltc);
+      } finally {
+        delete(leaseKey);
+      }
+    }
+    if (current != null) {
+      return current.getValue();
+    }
+
+    // Wait for the lease holder, but load anyway once its lease runs out.
+    long deadline = System.currentTimeMillis() + leaseTime * 1000L;
+    while (System.currentTimeMillis() < deadline) {
+      try {
+        Thread.sleep(LoadedValue.LEASE_POLL_INTERVAL);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted waiting for value", e);
+      }
+      current = get(key, ltc);
+      if (current != null) {
+        return current.getValue();
+      }
+    }
+    return load(key, exp, loader, ltc);
+  }
+
+  /**
+   * Get the value of the given key, loading and storing it when it is
+   * missing or expired, using the default transcoder.
+   *
+   * @param <T>
+   * @param key the key to get
+   * @param exp the expiration of loaded values in seconds, 0 for none
+   * @param loader computes the value of the key, null values are not stored
+   * @return the cached or loaded value
+   * @throws OperationTimeoutException if the global operation timeout is
+   *           exceeded
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws RuntimeException wrapping any checked exception of the loader
+   * @see #getOrLoad(String, int, Callable, Transcoder)
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T getOrLoad(String key, int exp, Callable<T> loader) {
+    return getOrLoad(key, exp, loader, (Transcoder<T>) transcoder);
+  }
+
+  /**
+   * Get the codec of loaded values wrapping the given transcoder. There is
+   * one per transcoder, so gets of loaded values share their flights and
+   * near cache entries like other gets with the same transcoder do.
+   */
+  @SuppressWarnings("unchecked")
+  <T> Transcoder<LoadedValue<T>> loadedCodec(Transcoder<T> tc) {
+    LoadedValue.Codec<?> codec = codecs.get(tc);
+    if (codec == null) {
+      LoadedValue.Codec<T> c = new LoadedValue.Codec<T>(tc);
+      codec = codecs.putIfAbsent(tc, c);
+      if (codec == null) {
+        codec = c;
+      }
+    }
+    return (Transcoder<LoadedValue<T>>) codec;
+  }
+
+  private <T> T load(String key, int exp, Callable<T> loader,
+      Transcoder<LoadedValue<T>> ltc) {
+    long start = System.currentTimeMillis();
+    T value;
+    try {
+      value = loader.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException("Exception loading value", e);
+    }
+    long end = System.currentTimeMillis();
+    if (value != null) {
+      int delta = (int) Math.min(end - start, Integer.MAX_VALUE);
+      long expiresAt = exp == 0 ? 0 : end + exp * 1000L;
+      set(key, LoadedValue.storedExpiration(exp),
+        new LoadedValue<T>(value, expiresAt, delta), ltc);
+    }
+    return value;
+  }
+
+  private boolean waitFor(Future<Boolean> f) {
+    try {
+      return f.get(operationTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted waiting for value", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Exception waiting for value", e);
+    } catch (TimeoutException e) {
+      throw new OperationTimeoutException("Timeout waiting for value", e);
+    }
+  }
+
   /**
    * Get with a single key and decode using the default transcoder.
    *
@@ -1530,6 +1959,8 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     // used only to read the transcoder for a key.
     final Map<String, Transcoder<T>> tcMap =
         new HashMap<String, Transcoder<T>>();
+    // Same for the near cache stamps of the keys it could not serve.
+    final Map<String, Long> stamps = new HashMap<String, Long>();
 
     // Break the gets down into groups by key
     final Map<MemcachedNode, Collection<String>> chunks =
@@ -1538,25 +1969,18 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
     while (keyIter.hasNext() && tcIter.hasNext()) {
       String key = keyIter.next();
-      tcMap.put(key, tcIter.next());
-      StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
-      final MemcachedNode primaryNode = locator.getPrimary(key);
-      MemcachedNode node = null;
-      if (primaryNode.isActive()) {
-        node = primaryNode;
-      } else {
-        for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
-            && i.hasNext();) {
-          MemcachedNode n = i.next();
-          if (n.isActive()) {
-            node = n;
-          }
-        }
-        if (node == null) {
-          node = primaryNode;
+      Transcoder<T> tc = tcIter.next();
+      if (nearCache != null) {
+        Future<T> cached = nearCache.get(key, tc);
+        if (cached != null) {
+          m.put(key, cached);
+          continue;
         }
+        stamps.put(key, nearCache.stamp(key));
       }
-      assert node != null : "Didn't find a node for " + key;
+      tcMap.put(key, tc);
+      MemcachedNode node =
+        mconn.routeRead(locator, key, bulkGetNode(locator, key));
       Collection<String> ks = chunks.get(node);
       if (ks == null) {
         ks = new ArrayList<String>();
@@ -1584,8 +2008,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       @Override
       public void gotData(String k, int flags, byte[] data) {
         Transcoder<T> tc = tcMap.get(k);
-        m.put(k,
-            tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize())));
+        Future<T> val =
+            tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize()));
+        m.put(k, val);
+        if (nearCache != null) {
+          nearCache.put(k, tc, val, data.length, stamps.get(k));
+        }
       }
 
       @Override
@@ -1725,6 +2153,209 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncGetBulk(Arrays.asList(keys), transcoder);
   }
 
+  /**
+   * Asynchronously set a bunch of objects in the cache.
+   *
+   * <p>
+   * The items are grouped by the server they belong to and each server gets
+   * a single pipelined operation for all of its items, instead of one
+   * operation per item. The items are encoded up front, so very large
+   * batches should be split by the caller to bound memory use.
+   * </p>
+   *
+   * @param <T>
+   * @param items the items to store, by key
+   * @param exp the expiration of every item
+   * @param tc the transcoder to serialize the values
+   * @return a Future result with the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> BulkFuture<Map<String, OperationStatus>> asyncSetBulk(
+      Map<String, T> items, int exp, Transcoder<T> tc) {
+    return asyncStoreBulk(StoreType.set, items, exp, tc);
+  }
+
+  /**
+   * Asynchronously set a bunch of objects in the cache using the default
+   * transcoder.
+   *
+   * @param items the items to store, by key
+   * @param exp the expiration of every item
+   * @return a Future result with the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public BulkFuture<Map<String, OperationStatus>> asyncSetBulk(
+      Map<String, ?> items, int exp) {
+    return asyncStoreBulk(StoreType.set, items, exp, transcoder);
+  }
+
+  /**
+   * Asynchronously delete a bunch of keys, with a single pipelined operation
+   * per server.
+   *
+   * @param keys the keys to delete
+   * @return a Future result with the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public BulkFuture<Map<String, OperationStatus>> asyncDeleteBulk(
+      Collection<String> keys) {
+    final Map<MemcachedNode, Collection<String>> chunks = chunkKeys(keys);
+    invalidateReads(keys);
+    return asyncMutateBulk(chunks.keySet(), new BulkMutationOpFactory() {
+      @Override
+      public Operation newOp(MemcachedNode n,
+          BulkMutationOperation.Callback cb) {
+        return opFact.deleteBulk(chunks.get(n), cb);
+      }
+    });
+  }
+
+  /**
+   * Asynchronously reset the expiration time of a bunch of keys, with a
+   * single pipelined operation per server.
+   *
+   * @param keys the keys to touch
+   * @param exp the new expiration of every key
+   * @return a Future result with the status of every key
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public BulkFuture<Map<String, OperationStatus>> asyncTouchBulk(
+      Collection<String> keys, final int exp) {
+    final Map<MemcachedNode, Collection<String>> chunks = chunkKeys(keys);
+    invalidateReads(keys);
+    return asyncMutateBulk(chunks.keySet(), new BulkMutationOpFactory() {
+      @Override
+      public Operation newOp(MemcachedNode n,
+          BulkMutationOperation.Callback cb) {
+        return opFact.touchBulk(chunks.get(n), exp, cb);
+      }
+    });
+  }
+
+  private <T> BulkFuture<Map<String, OperationStatus>> asyncStoreBulk(
+      final StoreType storeType, Map<String, ? extends T> items, final int exp,
+      Transcoder<T> tc) {
+    final Map<MemcachedNode, Map<String, CachedData>> chunks =
+        new HashMap<MemcachedNode, Map<String, CachedData>>();
+    final NodeLocator locator = mconn.getLocator();
+    for (Map.Entry<String, ? extends T> me : items.entrySet()) {
+      MemcachedNode node = bulkGetNode(locator, me.getKey());
+      Map<String, CachedData> values = chunks.get(node);
+      if (values == null) {
+        values = new HashMap<String, CachedData>();
+        chunks.put(node, values);
+      }
+      values.put(me.getKey(), tc.encode(me.getValue()));
+    }
+    invalidateReads(items.keySet());
+    return asyncMutateBulk(chunks.keySet(), new BulkMutationOpFactory() {
+      @Override
+      public Operation newOp(MemcachedNode n,
+          BulkMutationOperation.Callback cb) {
+        return opFact.storeBulk(storeType, chunks.get(n), exp, cb);
+      }
+    });
+  }
+
+  /**
+   * Drop the given keys from the near cache and detach their gets in flight
+   * before they are written.
+   */
+  private void invalidateReads(Collection<String> keys) {
+    for (String key : keys) {
+      invalidateRead(key);
+    }
+  }
+
+  private void invalidateRead(String key) {
+    if (nearCache != null) {
+      nearCache.invalidate(key);
+    }
+    if (coalescer != null) {
+      coalescer.detach(key);
+    }
+  }
+
+  /**
+   * Break the given keys down into groups by node.
+   */
+  private Map<MemcachedNode, Collection<String>> chunkKeys(
+      Collection<String> keys) {
+    final Map<MemcachedNode, Collection<String>> chunks =
+        new HashMap<MemcachedNode, Collection<String>>();
+    final NodeLocator locator = mconn.getLocator();
+    for (String key : keys) {
+      MemcachedNode node = bulkGetNode(locator, key);
+      Collection<String> ks = chunks.get(node);
+      if (ks == null) {
+        ks = new LinkedHashSet<String>();
+        chunks.put(node, ks);
+      }
+      ks.add(key);
+    }
+    return chunks;
+  }
+
+  /**
+   * Enqueue one bulk mutation per node, all reporting to a single future.
+   */
+  private BulkFuture<Map<String, OperationStatus>> asyncMutateBulk(
+      Collection<MemcachedNode> nodes, BulkMutationOpFactory of) {
+    final Map<String, OperationStatus> m =
+        new ConcurrentHashMap<String, OperationStatus>();
+    final AtomicInteger pendingChunks = new AtomicInteger(nodes.size());
+    final CountDownLatch latch = new CountDownLatch(nodes.isEmpty() ? 0 : 1);
+    final Collection<Operation> ops = new ArrayList<Operation>(nodes.size());
+    final BulkMutationFuture rv =
+        new BulkMutationFuture(m, ops, latch, executorService);
+
+    BulkMutationOperation.Callback cb = new BulkMutationOperation.Callback() {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        rv.setStatus(status);
+      }
+
+      @Override
+      public void gotStatus(String key, OperationStatus status) {
+        m.put(key, status);
+      }
+
+      @Override
+      public void complete() {
+        if (pendingChunks.decrementAndGet() <= 0) {
+          latch.countDown();
+          rv.signalComplete();
+        }
+      }
+    };
+
+    final Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (MemcachedNode node : nodes) {
+      Operation op = of.newOp(node, cb);
+      mops.put(node, op);
+      ops.add(op);
+    }
+    mconn.checkState();
+    mconn.addOperations(mops);
+    return rv;
+  }
+
+  /**
+   * Creates the bulk mutation for the keys of one node.
+   */
+  private interface BulkMutationOpFactory {
+    Operation newOp(MemcachedNode n, BulkMutationOperation.Callback cb);
+  }
+
   /**
    * Get the given key to reset its expiration time.
    *
@@ -1898,10 +2529,55 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return getBulk(Arrays.asList(keys), transcoder);
   }
   
-  private void enqueueOperation(String key, Operation op){
+  void enqueueOperation(String key, Operation op){
     checkState();
+    invalidateReads(key, op);
     mconn.enqueueOperation(key, op);
   }
+
+  /**
+   * Enqueue an operation unless the queue of its node is full.
+   *
+   * @return false if the operation was rejected
+   */
+  boolean tryEnqueueOperation(String key, Operation op) {
+    checkState();
+    invalidateReads(key, op);
+    return mconn.tryEnqueueOperation(key, op);
+  }
+
+  private void invalidateReads(String key, Operation op) {
+    // Anything but a plain read may change the value or expiration.
+    if (!(op instanceof GetOperation || op instanceof GetsOperation)) {
+      invalidateRead(key);
+    }
+  }
+
+  /**
+   * Find the node a key of a bulk get is sent to: its primary node if
+   * active, otherwise the first active node of its sequence.
+   */
+  MemcachedNode bulkGetNode(NodeLocator locator, String key) {
+    StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+    final MemcachedNode primaryNode = locator.getPrimary(key);
+    MemcachedNode node = null;
+    if (primaryNode.isActive()) {
+      node = primaryNode;
+    } else {
+      for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
+          && i.hasNext();) {
+        MemcachedNode n = i.next();
+        if (n.isActive()) {
+          node = n;
+        }
+      }
+      if (node == null) {
+        node = primaryNode;
+      }
+    }
+    assert node != null : "Didn't find a node for " + key;
+    return node;
+  }
   
   private void checkState() {
     if (clientMode == ClientMode.Dynamic && !isConfigurationInitialized) {
@@ -2400,10 +3076,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   private OperationFuture<Long> asyncMutate(Mutator m, String key, long by,
       long def, int exp) {
-    if (!(opFact instanceof BinaryOperationFactory) && (def != 0 || exp != -1)) {
+    if (!(opFact instanceof BinaryOperationFactory)
+      && !(opFact instanceof MetaOperationFactory)
+      && (def != 0 || exp != -1)) {
       throw new UnsupportedOperationException("Default value or expiration "
         + "time are not supported on the async mutate methods. Use either the "
-        + "binary protocol or the sync variant.");
+        + "binary or meta protocol or the sync variant.");
     }
 
     final CountDownLatch latch = new CountDownLatch(1);
@@ -2771,6 +3449,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   @Override
   public OperationFuture<Boolean> flush(final int delay) {
+    if (nearCache != null) {
+      nearCache.clear();
+    }
+    if (coalescer != null) {
+      coalescer.clear();
+    }
     final AtomicReference<Boolean> flushResult =
         new AtomicReference<Boolean>(null);
     final ConcurrentLinkedQueue<Operation> ops =
@@ -2974,6 +3658,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         mconn.shutdown();
         mconn.setName(baseName + " - SHUTTING DOWN (informed client)");
         tcService.shutdown();
+        if (hedging != null) {
+          hedging.shutdown();
+        }
         //terminate all pending Auth Threads
         authMonitor.interruptAllPendingAuth();
       } catch (IOException e) {
@@ -3025,7 +3712,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    * Add a connection observer.
    *
    * If connections are already established, your observer will be called with
-   * the address and -1.
+   * each of them and -1.
    *
    * @param obs the ConnectionObserver you wish to add
    * @return true if the observer was added.
@@ -3035,8 +3722,10 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     boolean rv = mconn.addObserver(obs);
     if (rv) {
       for (MemcachedNode node : mconn.getLocator().getAll()) {
-        if (node.isActive()) {
-          obs.connectionEstablished(node.getSocketAddress(), -1);
+        for (MemcachedNode member : mconn.getPool(node)) {
+          if (member.isActive()) {
+            obs.connectionEstablished(member, -1);
+          }
         }
       }
     }
@@ -3056,23 +3745,17 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   @Override
   public void connectionEstablished(SocketAddress sa, int reconnectCount) {
+    // Handled by connectionEstablished(MemcachedNode, int).
+  }
+
+  @Override
+  public void connectionEstablished(MemcachedNode node, int reconnectCount) {
     if (authDescriptor != null) {
       if (authDescriptor.authThresholdReached()) {
         shutdown();
       }
-      authMonitor.authConnection(mconn, opFact, authDescriptor, findNode(sa));
-    }
-  }
-
-  private MemcachedNode findNode(SocketAddress sa) {
-    MemcachedNode node = null;
-    for (MemcachedNode n : mconn.getLocator().getAll()) {
-      if (n.getSocketAddress().equals(sa)) {
-        node = n;
-      }
+      authMonitor.authConnection(mconn, opFact, authDescriptor, node);
     }
-    assert node != null : "Couldn't find node connected to " + sa;
-    return node;
   }
 
   private String buildTimeoutMessage(long timeWaited, TimeUnit unit) {
@@ -25,6 +25,7 @@ package net.spy.memcached;
 
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.transcoders.Transcoder;
 
 import java.net.SocketAddress;
@@ -32,6 +33,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -126,6 +128,10 @@ public interface MemcachedClientIF {
 
   Object get(String key);
 
+  <T> T getOrLoad(String key, int exp, Callable<T> loader, Transcoder<T> tc);
+
+  <T> T getOrLoad(String key, int exp, Callable<T> loader);
+
   <T> BulkFuture<Map<String, T>> asyncGetBulk(Iterator<String> keys,
       Iterator<Transcoder<T>> tcs);
   <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
@@ -143,6 +149,18 @@ public interface MemcachedClientIF {
 
   BulkFuture<Map<String, Object>> asyncGetBulk(String... keys);
 
+  <T> BulkFuture<Map<String, OperationStatus>> asyncSetBulk(
+      Map<String, T> items, int exp, Transcoder<T> tc);
+
+  BulkFuture<Map<String, OperationStatus>> asyncSetBulk(Map<String, ?> items,
+      int exp);
+
+  BulkFuture<Map<String, OperationStatus>> asyncDeleteBulk(
+      Collection<String> keys);
+
+  BulkFuture<Map<String, OperationStatus>> asyncTouchBulk(
+      Collection<String> keys, int exp);
+
   <T> Map<String, T> getBulk(Iterator<String> keys, Transcoder<T> tc);
   <T> Map<String, T> getBulk(Collection<String> keys, Transcoder<T> tc);
 
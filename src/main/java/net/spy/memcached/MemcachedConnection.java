@@ -35,6 +35,7 @@ import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.metrics.MetricCollector;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
 import net.spy.memcached.ops.KeyedOperation;
 import net.spy.memcached.ops.NoopOperation;
 import net.spy.memcached.ops.Operation;
@@ -42,6 +43,7 @@ import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationException;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.OptimizedOperation;
 import net.spy.memcached.ops.TapOperation;
 import net.spy.memcached.ops.VBucketAware;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
@@ -66,20 +68,28 @@ import java.nio.channels.SocketChannel;
 import java.nio.channels.UnresolvedAddressException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -160,6 +170,10 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     "[MEM] Response Rate: Failure";
   private static final String OVERALL_RESPONSE_SUCC_METRIC =
     "[MEM] Response Rate: Success";
+  private static final String OPEN_CIRCUITS_METRIC =
+    "[MEM] Open Circuits";
+  private static final String CIRCUIT_OPENED_METRIC =
+    "[MEM] Circuit Open Rate";
 
   /**
    * If the connection is alread shut down or shutting down.
@@ -172,15 +186,78 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
   private final boolean shouldOptimize;
 
   /**
-   * Holds the current {@link Selector} to use.
+   * Holds the current {@link Selector} to use for the primary IO loop.
    */
   protected Selector selector = null;
 
+  /**
+   * The IO loops the nodes are spread across. The first loop runs on this
+   * thread and uses {@link #selector} and {@link #addedQueue}, every further
+   * loop runs on its own {@link IoLoopThread}.
+   */
+  private final IoLoop[] ioLoops;
+
+  /**
+   * Maps each node to the IO loop owning its channel.
+   */
+  private final Map<MemcachedNode, IoLoop> nodeLoops;
+
+  /**
+   * The number of connections opened to each server.
+   */
+  private final int connectionsPerNode;
+
+  /**
+   * All connections to a server, keyed by the node known to the locator
+   * (which is the first member of its pool). Only used with more than one
+   * connection per node.
+   */
+  private final Map<MemcachedNode, MemcachedNode[]> pools;
+
+  /**
+   * Maps the additional connections of a pool to the node known to the
+   * locator.
+   */
+  private final Map<MemcachedNode, MemcachedNode> poolPrimaries;
+
+  /**
+   * Moves reads off overloaded nodes, null unless bounded loads are
+   * enabled.
+   */
+  private final BoundedLoadRouter boundedLoad;
+
+  /**
+   * Times out the operations of each server after a multiple of its recent
+   * latencies, null unless adaptive timeouts are enabled.
+   */
+  private final AdaptiveTimeouts adaptiveTimeouts;
+
+  /**
+   * Keeps operations away from failing servers, null unless circuit breakers
+   * are enabled.
+   */
+  private final CircuitBreakers circuitBreakers;
+
+  /**
+   * The near cache of the client, null unless enabled.
+   */
+  private volatile NearCache nearCache;
+
+  /**
+   * The number of times a selector was actually woken up.
+   */
+  private final LongAdder wakeups = new LongAdder();
+
   /**
    * The {@link NodeLocator} to use for this connection.
    */
   protected NodeLocator locator;
 
+  /**
+   * The nodes of {@link #locator}, replaced whenever they change.
+   */
+  private volatile NodeIndex nodeIndex;
+
   /**
    * The configured {@link FailureMode}.
    */
@@ -191,12 +268,6 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    */
   private final long maxDelay;
 
-  /**
-   * Contains the current number of empty select() calls, which could indicate
-   * bugs.
-   */
-  private int emptySelects = 0;
-
   /**
    * The buffer size that will be used when reading from the server.
    */
@@ -208,17 +279,11 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
   private final ConnectionFactory connectionFactory;
 
   /**
-   * AddedQueue is used to track the QueueAttachments for which operations
-   * have recently been queued.
+   * AddedQueue is used to track the QueueAttachments of the primary IO loop
+   * for which operations have recently been queued.
    */
   protected final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
 
-  /**
-   * reconnectQueue contains the attachments that need to be reconnected.
-   * The key is the time at which they are eligible for reconnect.
-   */
-  private final SortedMap<Long, MemcachedNode> reconnectQueue;
-
   /**
    * True if not shutting down or shut down.
    */
@@ -241,6 +306,11 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    */
   private final int timeoutExceptionThreshold;
 
+  /**
+   * The time after which the IO loops expire operations still in flight.
+   */
+  private final long operationTimeout;
+
   /**
    * Holds operations that need to be retried.
    */
@@ -321,14 +391,38 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
       final List<InetSocketAddress> socketAddressList, final Collection<ConnectionObserver> obs,
       final FailureMode fm, final OperationFactory opfactory) throws IOException {
     connObservers.addAll(obs);
-    reconnectQueue = new TreeMap<Long, MemcachedNode>();
     addedQueue = new ConcurrentLinkedQueue<MemcachedNode>();
     failureMode = fm;
     shouldOptimize = f.shouldOptimize();
     maxDelay = TimeUnit.SECONDS.toMillis(f.getMaxReconnectDelay());
     opFact = opfactory;
     timeoutExceptionThreshold = f.getTimeoutExceptionThreshold();
+    operationTimeout = f.getOperationTimeout();
+    adaptiveTimeouts = f.getAdaptiveTimeoutMultiplier() > 0
+      ? new AdaptiveTimeouts(f.getAdaptiveTimeoutMultiplier(),
+        Math.min(f.getAdaptiveTimeoutFloor(), operationTimeout),
+        operationTimeout)
+      : null;
+    circuitBreakers = f.getCircuitBreakerFailureRatio() > 0
+      ? new CircuitBreakers(f.getCircuitBreakerFailureRatio(),
+        f.getCircuitBreakerOpenTime(), new CircuitBreakers.Listener() {
+          public void stateChanged(SocketAddress sa, CircuitState from,
+              CircuitState to) {
+            circuitStateChanged(sa, from, to);
+          }
+        })
+      : null;
     selector = Selector.open();
+    ioLoops = new IoLoop[Math.max(1, f.getIoThreadCount())];
+    ioLoops[0] = new IoLoop(selector, addedQueue);
+    for (int i = 1; i < ioLoops.length; i++) {
+      ioLoops[i] = new IoLoop(Selector.open(),
+        new ConcurrentLinkedQueue<MemcachedNode>());
+    }
+    nodeLoops = new ConcurrentHashMap<MemcachedNode, IoLoop>();
+    connectionsPerNode = Math.max(1, f.getConnectionsPerNode());
+    pools = new ConcurrentHashMap<MemcachedNode, MemcachedNode[]>();
+    poolPrimaries = new ConcurrentHashMap<MemcachedNode, MemcachedNode>();
     retryOps = Collections.synchronizedList(new ArrayList<Operation>());
     lockForNodeUpdates = new ReentrantLock();
     conditionLock = new ReentrantLock();
@@ -345,6 +439,22 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
 
     registerMetrics();
 
+    boundedLoad = f.getBoundedLoadEpsilon() > 0
+      ? new BoundedLoadRouter(f.getBoundedLoadEpsilon(), metrics) {
+        @Override
+        protected int loadOf(MemcachedNode node) {
+          MemcachedNode[] pool = pools.get(node);
+          if (pool == null) {
+            return node.getOutstandingOperationCount();
+          }
+          int rv = 0;
+          for (MemcachedNode member : pool) {
+            rv += member.getOutstandingOperationCount();
+          }
+          return rv;
+        }
+      } : null;
+
     isTlsMode = f.getSSLContext() != null;
 
     String verifyAlive = System.getProperty("net.spy.verifyAliveOnConnect");
@@ -373,9 +483,17 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     
     List<MemcachedNode> connections = createConnections(endPoints);
     locator = f.createLocator(connections);
+    nodeIndex = new NodeIndex(locator.getAll());
 
     setName("Memcached IO over " + this);
     setDaemon(f.isDaemon());
+    ioLoops[0].thread = this;
+    for (int i = 1; i < ioLoops.length; i++) {
+      IoLoopThread t = new IoLoopThread(ioLoops[i], getName() + " #" + i);
+      t.setDaemon(f.isDaemon());
+      ioLoops[i].thread = t;
+      t.start();
+    }
     start();
   }
 
@@ -423,8 +541,7 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
       lockForNodeUpdates.unlock();
     }
     
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    wakeUp(ioLoops[0]);
   }
 
   /**
@@ -442,6 +559,8 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
       metrics.addHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC);
       metrics.addMeter(OVERALL_RESPONSE_METRIC);
       metrics.addMeter(OVERALL_REQUEST_METRIC);
+      metrics.addCounter(OPEN_CIRCUITS_METRIC);
+      metrics.addMeter(CIRCUIT_OPENED_METRIC);
 
       if (metricType.equals(MetricType.DEBUG)) {
         metrics.addCounter(RECON_QUEUE_METRIC);
@@ -462,44 +581,83 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     List<MemcachedNode> connections = new ArrayList<MemcachedNode>(endPoints.size());
     
     for (NodeEndPoint endPoint : endPoints) {
-      SocketAddress sa = endPoint.getInetSocketAddress();
-      SocketChannel ch = SocketChannel.open();
-      ch.configureBlocking(false);
-      MemcachedNode qa =
-          this.connectionFactory.createMemcachedNode(sa, ch, bufSize);
+      MemcachedNode primary = createNode(endPoint);
+      if (connectionsPerNode > 1) {
+        MemcachedNode[] pool = new MemcachedNode[connectionsPerNode];
+        pool[0] = primary;
+        for (int i = 1; i < pool.length; i++) {
+          pool[i] = createNode(endPoint);
+          poolPrimaries.put(pool[i], primary);
+        }
+        pools.put(primary, pool);
+      }
+      connections.add(primary);
+    }
 
-      qa.setNodeEndPoint(endPoint);
-      int ops = 0;
+    return connections;
+  }
 
-      Socket socket = ch.socket();
-      socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
-      socket.setKeepAlive(connectionFactory.getKeepAlive());
+  /**
+   * Create a single node for the given end point and start connecting it.
+   *
+   * @param endPoint the end point to connect to.
+   * @return the new node.
+   * @throws IOException if the channel could not be opened.
+   */
+  private MemcachedNode createNode(final NodeEndPoint endPoint)
+    throws IOException {
+    SocketAddress sa = endPoint.getInetSocketAddress();
+    final SocketChannel ch = SocketChannel.open();
+    ch.configureBlocking(false);
+    final MemcachedNode qa =
+        this.connectionFactory.createMemcachedNode(sa, ch, bufSize);
 
-      try {
-        if (ch.connect(sa)) {
-          getLogger().info("Connected to %s immediately", qa);
-          connected(qa);
-        } else {
-          getLogger().info("Added %s to connect queue", qa);
-          ops = SelectionKey.OP_CONNECT;
-        }
+    qa.setNodeEndPoint(endPoint);
+    final IoLoop loop = assignLoop(qa);
+    int ops = 0;
 
-        selector.wakeup();
-        qa.setSk(ch.register(selector, ops, qa));
+    Socket socket = ch.socket();
+    socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
+    socket.setKeepAlive(connectionFactory.getKeepAlive());
+
+    try {
+      if (ch.connect(sa)) {
+        getLogger().info("Connected to %s immediately", qa);
+        connected(qa);
+      } else {
+        getLogger().info("Added %s to connect queue", qa);
+        ops = SelectionKey.OP_CONNECT;
+      }
+
+      if (loop.inLoop()) {
+        loop.selector.wakeup();
+        qa.setSk(ch.register(loop.selector, ops, qa));
         assert ch.isConnected()
             || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
             : "Not connected, and not wanting to connect";
-      } catch (SocketException e) {
-        getLogger().warn("Socket error on initial connect", e);
-        queueReconnect(qa);
-      } catch (UnresolvedAddressException e) {
-        getLogger().warn("Unresolved Address error on initial connect", e);
-        queueReconnect(qa);
+      } else {
+        // Channels are registered by the thread running the owning loop,
+        // registering from here would contend with its select().
+        final int interestOps = ops;
+        execute(loop, new Runnable() {
+          public void run() {
+            try {
+              qa.setSk(ch.register(loop.selector, interestOps, qa));
+            } catch (ClosedChannelException e) {
+              getLogger().warn("Channel closed before registering", e);
+              queueReconnect(qa);
+            }
+          }
+        });
       }
-      connections.add(qa);
-    }
-
-    return connections;
+    } catch (SocketException e) {
+      getLogger().warn("Socket error on initial connect", e);
+      queueReconnect(qa);
+    } catch (UnresolvedAddressException e) {
+      getLogger().warn("Unresolved Address error on initial connect", e);
+      queueReconnect(qa);
+    }
+    return qa;
   }
 
   /**
@@ -507,8 +665,15 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    *
    * @return true if they do.
    */
-  private boolean selectorsMakeSense() {
-    for (MemcachedNode qa : locator.getAll()) {
+  private boolean selectorsMakeSense(final IoLoop loop) {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+    for (MemcachedNode primary : locator.getAll()) {
+      Collections.addAll(nodes, poolOf(primary));
+    }
+    for (MemcachedNode qa : nodes) {
+      if (loopFor(qa) != loop) {
+        continue;
+      }
       if (qa.getSk() != null && qa.getSk().isValid()) {
         if (qa.getChannel().isConnected()) {
           int sops = qa.getSk().interestOps();
@@ -542,36 +707,55 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    * dispatches the underlying read/write calls if needed.
    */
   public void handleIO() throws IOException {
+    handleIO(ioLoops[0]);
+  }
+
+  /**
+   * Handle one round of IO for the nodes owned by the given loop.
+   *
+   * @param loop the loop to run the selector of.
+   * @throws IOException if an error happens during selecting.
+   */
+  private void handleIO(final IoLoop loop) throws IOException {
     if (shutDown) {
       getLogger().debug("No IO while shut down.");
       return;
     }
 
-    handleInputQueue();
+    // Anything queued from here on needs a new wakeup, anything queued
+    // before is picked up below or by the wakeup already issued.
+    loop.wakeupPending.set(false);
+    handleLoopTasks(loop);
+    handleInputQueue(loop);
     getLogger().debug("Done dealing with queue.");
 
     long delay = wakeupDelay;
-    if (!reconnectQueue.isEmpty()) {
+    if (!loop.reconnectQueue.isEmpty()) {
       long now = System.currentTimeMillis();
-      long then = reconnectQueue.firstKey();
+      long then = loop.reconnectQueue.firstKey();
       delay = Math.max(then - now, 1);
     }
+    if (!loop.timeouts.isEmpty()) {
+      delay = Math.min(delay, loop.timeouts.getTickMillis());
+    }
     getLogger().debug("Selecting with delay of %sms", delay);
-    assert selectorsMakeSense() : "Selectors don't make sense.";
-    int selected = selector.select(delay);
+    assert selectorsMakeSense(loop) : "Selectors don't make sense.";
+    int selected = loop.selector.select(delay);
 
     if (shutDown) {
       return;
-    } else if (selected == 0 && addedQueue.isEmpty()) {
+    } else if (selected == 0 && loop.addedQueue.isEmpty()
+      && loop.tasks.isEmpty()) {
       handleWokenUpSelector();
-    } else if (selector.selectedKeys().isEmpty()) {
-      handleEmptySelects();
+    } else if (loop.selector.selectedKeys().isEmpty()) {
+      handleEmptySelects(loop);
     } else {
       getLogger().debug("Selected %d, selected %d keys", selected,
-        selector.selectedKeys().size());
-      emptySelects = 0;
+        loop.selector.selectedKeys().size());
+      loop.emptySelects = 0;
 
-      Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+      Iterator<SelectionKey> iterator =
+        loop.selector.selectedKeys().iterator();
       while(iterator.hasNext()) {
         SelectionKey sk = iterator.next();
         handleIO(sk);
@@ -579,7 +763,19 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
       }
     }
 
-    handleOperationalTasks();
+    handleOperationalTasks(loop);
+  }
+
+  /**
+   * Run the tasks other threads handed to the given loop.
+   *
+   * @param loop the loop to run the tasks of.
+   */
+  private void handleLoopTasks(final IoLoop loop) {
+    Runnable task;
+    while ((task = loop.tasks.poll()) != null) {
+      task.run();
+    }
   }
 
   /**
@@ -593,7 +789,8 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    *
    * <p>Note that there is no guarantee that this method is at all or in the
    * regular interval called, so all overriding implementations need to take
-   * that into account. Also, it needs to take into account that it may be
+   * that into account. With more than one IO thread configured, it is called
+   * from each of them. Also, it needs to take into account that it may be
    * called very often under heavy workloads, so it should not perform extensive
    * tasks in the same thread.</p>
    */
@@ -604,33 +801,43 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    * needs to be checked on a regular basis that has nothing to do directly
    * with reading and writing data.
    *
-   * @throws IOException if an error happens during shutdown queue handling.
+   * Node list updates, the retry queue and the shutdown queue are only
+   * handled by the primary loop.
+   *
+   * @param loop the loop to handle the tasks for.
    */
-  private void handleOperationalTasks() throws IOException {
-    checkPotentiallyTimedOutConnection();
+  private void handleOperationalTasks(final IoLoop loop) {
+    boolean primary = loop == ioLoops[0];
+    if (primary) {
+      updateNodeList();
+    }
+    expireTimedOutOperations(loop);
+    checkPotentiallyTimedOutConnection(loop);
 
-    if (!shutDown && !reconnectQueue.isEmpty()) {
-      attemptReconnects();
+    if (!shutDown && !loop.reconnectQueue.isEmpty()) {
+      attemptReconnects(loop);
     }
 
-    if (!retryOps.isEmpty()) {
+    if (primary && !retryOps.isEmpty()) {
       ArrayList<Operation> operations = new ArrayList<Operation>(retryOps);
       retryOps.clear();
       redistributeOperations(operations);
     }
 
-    handleShutdownQueue();
+    if (primary) {
+      handleShutdownQueue();
+    }
   }
 
   /**
    * Helper method for {@link #handleIO()} to handle empty select calls.
    */
-  private void handleEmptySelects() {
+  private void handleEmptySelects(final IoLoop loop) {
     getLogger().debug("No selectors ready, interrupted: %b",
       Thread.interrupted());
 
-    if (++emptySelects > DOUBLE_CHECK_EMPTY) {
-      for (SelectionKey sk : selector.keys()) {
+    if (++loop.emptySelects > DOUBLE_CHECK_EMPTY) {
+      for (SelectionKey sk : loop.selector.keys()) {
         getLogger().debug("%s has %s, interested in %s", sk, sk.readyOps(),
           sk.interestOps());
         if (sk.readyOps() != 0) {
@@ -640,38 +847,66 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
           lostConnection((MemcachedNode) sk.attachment());
         }
       }
-      assert emptySelects < EXCESSIVE_EMPTY : "Too many empty selects";
+      assert loop.emptySelects < EXCESSIVE_EMPTY : "Too many empty selects";
     }
   }
 
   /**
-   * Check if nodes need to be shut down and do so if needed.
-   *
-   * @throws IOException if the channel could not be closed properly.
+   * Check if nodes need to be shut down and hand them to their loops to do
+   * so if needed.
    */
-  private void handleShutdownQueue() throws IOException {
+  private void handleShutdownQueue() {
     for (MemcachedNode qa : nodesToShutdown) {
-      if (!addedQueue.contains(qa)) {
+      if (!loopFor(qa).addedQueue.contains(qa)) {
         nodesToShutdown.remove(qa);
         metrics.decrementCounter(SHUTD_QUEUE_METRIC);
-        Collection<Operation> notCompletedOperations = shutdownNode(qa);
-        redistributeOperations(notCompletedOperations);
+        shutdownAndRedistribute(qa);
       }
     }
   }
 
   /**
-   * Check if one or more nodes exceeded the timeout Threshold.
+   * Time out the operations of the given loop which are past their deadline,
+   * whether or not anybody is waiting on them.
+   *
+   * Operations which have not been written yet are marked as timed out
+   * unsent and dropped once they reach the head of the write queue, others
+   * count towards the continuous timeout of their node. Their responses are
+   * still read, to keep the connection in sync.
+   *
+   * @param loop the loop to expire the operations of.
    */
-  private void checkPotentiallyTimedOutConnection() {
-    updateNodeList();
-    Collection<MemcachedNode> nodes = locator.getAll();
+  private void expireTimedOutOperations(final IoLoop loop) {
+    for (Operation op : loop.timeouts.expire(System.nanoTime())) {
+      synchronized (op) {
+        if (op.getState() == OperationState.WRITE_QUEUED) {
+          op.isTimedOut(timeoutFor(op.getHandlingNode()));
+        } else {
+          if (adaptiveTimeouts != null) {
+            adaptiveTimeouts.timedOut(op.getHandlingNode().getSocketAddress());
+          }
+          opTimedOut(op);
+          op.timeOut();
+        }
+      }
+      if (circuitBreakers != null && op.isTimedOut()) {
+        circuitBreakers.failed(op.getHandlingNode().getSocketAddress());
+      }
+      getLogger().debug("Expired %s", op);
+    }
+  }
+
+  /**
+   * Check if one or more nodes of the given loop exceeded the timeout
+   * Threshold.
+   */
+  private void checkPotentiallyTimedOutConnection(final IoLoop loop) {
     boolean stillCheckingTimeouts = true;
     while (stillCheckingTimeouts) {
       try {
-        for (SelectionKey sk : selector.keys()) {
+        for (SelectionKey sk : loop.selector.keys()) {
           MemcachedNode mn = (MemcachedNode) sk.attachment();
-          if(nodes.contains(mn)){
+          if(isLiveNode(mn)){
             if (mn.getContinuousTimeout() > timeoutExceptionThreshold) {
               getLogger().warn("%s exceeded continuous timeout threshold", sk);
               lostConnection(mn);
@@ -721,8 +956,10 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
                ||
                (endPointFromCurrentNode.getIpAddress() == null  && newEndPoint.getIpAddress() != null)
               ){
-              currentNode.setNodeEndPoint(newEndPoint);
-              queueReconnect(currentNode);
+              for (MemcachedNode member : poolOf(currentNode)) {
+                member.setNodeEndPoint(newEndPoint);
+                queueReconnect(member);
+              }
             }
             
             newNodes.add(currentNode);
@@ -742,17 +979,19 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
       }
       
       //currentNodes list is left with the nodes to delete after finishing the above matching process.
-      if(currentNodes.size() > 0){
-        Collection<Operation> opsToRequeue = new ArrayList<Operation>();
-        for(MemcachedNode qa : currentNodes){
-          Collection<Operation> pendingOps = shutdownNode(qa);
-          opsToRequeue.addAll(pendingOps);
+      for(MemcachedNode qa : currentNodes){
+        for (MemcachedNode member : poolOf(qa)) {
+          shutdownAndRedistribute(member);
         }
-        redistributeOperations(opsToRequeue);
-        opsToRequeue.clear();
       }
       
+      // Index the new nodes first, so none of them is ever taken for a
+      // node which left the cluster.
+      nodeIndex = new NodeIndex(newNodes);
       locator.updateLocator(newNodes);
+      if (circuitBreakers != null) {
+        circuitBreakers.retain(nodeIndex);
+      }
 
     }catch(Exception e){
       getLogger().error("Error encountered while updating the node list. Adding back to endpoint list for reattempt.", e);
@@ -778,7 +1017,31 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     }
   }
   
+  /**
+   * Shut down the given node on the thread of its loop and redistribute the
+   * operations it did not complete.
+   *
+   * @param node the node to shut down.
+   */
+  private void shutdownAndRedistribute(final MemcachedNode node) {
+    execute(loopFor(node), new Runnable() {
+      public void run() {
+        try {
+          redistributeOperations(shutdownNode(node));
+        } catch (IOException e) {
+          getLogger().warn("Exception shutting down %s", node, e);
+        }
+      }
+    });
+  }
+
   private Collection<Operation> shutdownNode(MemcachedNode node) throws IOException{
+    IoLoop loop = nodeLoops.remove(node);
+    if (loop != null) {
+      loop.nodeCount.decrementAndGet();
+    }
+    pools.remove(node);
+    poolPrimaries.remove(node);
     Collection<Operation> notCompletedOperations = node.destroyInputQueue();
     if (node.getChannel() != null) {
       node.getChannel().close();
@@ -794,23 +1057,24 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
   }
 
   /**
-   * Handle any requests that have been made against the client.
+   * Handle any requests that have been made against the nodes of the loop.
    */
-  private void handleInputQueue() {
-    if (!addedQueue.isEmpty()) {
+  private void handleInputQueue(final IoLoop loop) {
+    ConcurrentLinkedQueue<MemcachedNode> queue = loop.addedQueue;
+    if (!queue.isEmpty()) {
       getLogger().debug("Handling queue");
       Collection<MemcachedNode> toAdd = new HashSet<MemcachedNode>();
       Collection<MemcachedNode> todo = new HashSet<MemcachedNode>();
 
       MemcachedNode qaNode;
-      while ((qaNode = addedQueue.poll()) != null) {
+      while ((qaNode = queue.poll()) != null) {
+        loop.queuedNodes.remove(qaNode);
         todo.add(qaNode);
       }
 
-      Collection<MemcachedNode> nodeList = locator.getAll();
       // Now process the queue.
       for (MemcachedNode node : todo) {
-        if(!nodeList.contains(node)){
+        if(!isLiveNode(node)){
           continue;
         }
         boolean readyForIO = false;
@@ -835,7 +1099,9 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
         }
         node.fixupOps();
       }
-      addedQueue.addAll(toAdd);
+      for (MemcachedNode node : toAdd) {
+        loop.queue(node);
+      }
     }
   }
 
@@ -868,7 +1134,7 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     node.connected();
 
     for (ConnectionObserver observer : connObservers) {
-      observer.connectionEstablished(node.getSocketAddress(), rt);
+      observer.connectionEstablished(node, rt);
     }
   }
 
@@ -891,12 +1157,7 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    * currently connected cluster.
    */
   boolean belongsToCluster(final MemcachedNode node) {
-    for (MemcachedNode n : locator.getAll()) {
-      if (n.getSocketAddress().equals(node.getSocketAddress())) {
-        return true;
-      }
-    }
-    return false;
+    return nodeIndex.containsAddress(node.getSocketAddress());
   }
 
   /**
@@ -913,8 +1174,7 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    */
   private void handleIO(final SelectionKey sk) {
     MemcachedNode node = (MemcachedNode) sk.attachment();
-    Collection<MemcachedNode> nodeList = locator.getAll();
-    if(!nodeList.contains(node)){
+    if(!isLiveNode(node)){
       return; 
     }
     
@@ -1035,7 +1295,7 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     }
 
     connected(node);
-    addedQueue.offer(node);
+    loopFor(node).queue(node);
     if (node.getWbuf().hasRemaining()) {
       handleWrites(node);
     }
@@ -1132,6 +1392,9 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    */
   private void readBufferAndLogMetrics(final Operation currentOp,
     final ByteBuffer rbuf, final MemcachedNode node) throws IOException {
+    if (nearCache != null) {
+      invalidateWritten(currentOp);
+    }
     currentOp.readFromBuffer(rbuf);
     if (currentOp.getState() == OperationState.COMPLETE) {
       getLogger().debug("Completed read op: %s and giving the next %d "
@@ -1139,11 +1402,32 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
       Operation op = node.removeCurrentReadOp();
       assert op == currentOp : "Expected to pop " + currentOp + " got "
         + op;
+      OperationTimeoutWheel timeouts = loopFor(node).timeouts;
+      long scheduled = timeouts.completed(op);
+      if (op instanceof OptimizedOperation) {
+        for (Operation folded
+          : ((OptimizedOperation) op).getOptimizedOperations()) {
+          timeouts.completed(folded);
+        }
+      }
+      // The timeout runs from the enqueue, so the latencies it adapts to
+      // include the time spent in the queues too.
+      if (adaptiveTimeouts != null && scheduled != -1) {
+        adaptiveTimeouts.record(node.getSocketAddress(),
+          System.nanoTime() - scheduled);
+      }
 
       if (op.hasErrored()) {
         metrics.markMeter(OVERALL_RESPONSE_FAIL_METRIC);
+        if (circuitBreakers != null) {
+          circuitBreakers.failed(node.getSocketAddress());
+        }
       } else {
         metrics.markMeter(OVERALL_RESPONSE_SUCC_METRIC);
+        // Late responses were counted as failures when they timed out.
+        if (circuitBreakers != null && !op.isTimedOut()) {
+          circuitBreakers.succeeded(node.getSocketAddress());
+        }
       }
     } else if (currentOp.getState() == OperationState.RETRY) {
       handleRetryInformation(currentOp.getErrorMsg());
@@ -1160,6 +1444,41 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     }
   }
 
+  /**
+   * Drop the keys written by the given operation from the near cache.
+   *
+   * This is called as the response of the operation is read, so the server
+   * applied the write by now and its callback did not run yet: fetches
+   * sent before the write reached the server, and answered since, must not
+   * cache the overwritten value nor serve it to whoever waited for the
+   * write.
+   *
+   * @param op the operation whose response is read.
+   */
+  private void invalidateWritten(final Operation op) {
+    if (op instanceof OptimizedOperation) {
+      for (Operation folded
+        : ((OptimizedOperation) op).getOptimizedOperations()) {
+        invalidateWritten(folded);
+      }
+    } else if (op instanceof KeyedOperation && !(op instanceof GetOperation
+        || op instanceof GetsOperation)) {
+      for (String key : ((KeyedOperation) op).getKeys()) {
+        nearCache.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Set the near cache to drop the keys of writes from once they are
+   * applied, on top of the client dropping them as they are sent.
+   *
+   * @param cache the near cache of the client.
+   */
+  void setNearCache(final NearCache cache) {
+    nearCache = cache;
+  }
+
   /**
    * Deal with an operation where the channel reached the end of a stream.
    *
@@ -1230,6 +1549,16 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     if (shutDown) {
       return;
     }
+    final IoLoop loop = loopFor(node);
+    if (!loop.inLoop()) {
+      execute(loop, new Runnable() {
+        public void run() {
+          queueReconnect(node);
+        }
+      });
+      return;
+    }
+    SortedMap<Long, MemcachedNode> reconnectQueue = loop.reconnectQueue;
     getLogger().warn("Closing, and reopening %s, attempt %d.", node,
       node.getReconnectCount());
 
@@ -1322,6 +1651,11 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
       return;
     }
 
+    // The operation was written, its retries and clones take its place and
+    // are timed out on their own.
+    for (IoLoop loop : ioLoops) {
+      loop.timeouts.forget(op);
+    }
     if (op instanceof MultiGetOperationImpl) {
       for (String key : ((MultiGetOperationImpl) op).getRetryKeys()) {
         addOperation(key, opFact.get(key,
@@ -1361,8 +1695,10 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    *
    * Note that if a socket error arises during reconnect, the node is scheduled
    * for re-reconnect immediately.
+   *
+   * @param loop the loop whose reconnect queue should be worked on.
    */
-  private void attemptReconnects() {
+  private void attemptReconnects(final IoLoop loop) {
     final long now = System.currentTimeMillis();
     final Map<MemcachedNode, Boolean> seen =
       new IdentityHashMap<MemcachedNode, Boolean>();
@@ -1370,7 +1706,8 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     SocketChannel ch = null;
 
 
-    Iterator<MemcachedNode> i = reconnectQueue.headMap(now).values().iterator();
+    Iterator<MemcachedNode> i =
+      loop.reconnectQueue.headMap(now).values().iterator();
     while(i.hasNext()) {
       final MemcachedNode node = i.next();
       i.remove();
@@ -1404,13 +1741,13 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
           }
           if (ch.connect(sa)) {
             connected(node);
-            addedQueue.offer(node);
+            loop.queue(node);
             getLogger().info("Immediately reconnected to %s", node);
             assert ch.isConnected();
           } else {
             ops = SelectionKey.OP_CONNECT;
           }
-          node.registerChannel(ch, ch.register(selector, ops, node));
+          node.registerChannel(ch, ch.register(loop.selector, ops, node));
           assert node.getChannel() == ch : "Channel was lost.";
         } else {
           getLogger().debug("Skipping duplicate reconnect request for %s",
@@ -1474,6 +1811,88 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     checkState();
     addOperation(addr, o);
   }
+
+  /**
+   * Enqueue an operation on the node of the given key unless the queue of
+   * that node is full, without ever blocking for room on it.
+   *
+   * The node is chosen like {@link #enqueueOperation(String, Operation)}
+   * does, so the operation may still be cancelled or retried later according
+   * to the {@link FailureMode}.
+   *
+   * @param key the key the operation is operating upon.
+   * @param o the operation to add.
+   * @return false if the queue was full, in which case the operation is not
+   *         enqueued and may be given again, true otherwise.
+   * @see #awaitCapacity(String)
+   */
+  public boolean tryEnqueueOperation(final String key, final Operation o) {
+    checkState();
+    StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+    MemcachedNode placeIn = placeOperation(key, o);
+    if (placeIn == null) {
+      return true;
+    }
+    if (!placeIn.isAuthenticated()) {
+      retryOperation(o);
+      return true;
+    }
+    o.setHandlingNode(placeIn);
+    o.initialize();
+    if (!placeIn.tryAddOp(o)) {
+      o.setHandlingNode(null);
+      return false;
+    }
+    IoLoop loop = loopFor(placeIn);
+    if (!(o instanceof TapOperation)) {
+      // Scheduled only once queued, the wheel skips it if it completed since.
+      loop.timeouts.schedule(o, timeoutFor(placeIn));
+    }
+    loop.queue(placeIn);
+    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    getLogger().debug("Added %s to %s", o, placeIn);
+    wakeUp(loop);
+    return true;
+  }
+
+  /**
+   * Get a stage completed once the node operations on the given key go to
+   * has room on its queue.
+   *
+   * @param key the key operations are going to operate upon.
+   * @return the stage, completed on the IO thread.
+   * @see MemcachedNode#awaitInputQueueCapacity()
+   */
+  public CompletionStage<Void> awaitCapacity(final String key) {
+    MemcachedNode node = selectPoolMember(locator.getPrimary(key));
+    if (!node.isActive() && failureMode == FailureMode.Redistribute) {
+      Iterator<MemcachedNode> i = locator.getSequence(key);
+      while (i.hasNext()) {
+        MemcachedNode n = selectPoolMember(i.next());
+        if (n.isActive()) {
+          node = n;
+          break;
+        }
+      }
+    }
+    return node.awaitInputQueueCapacity();
+  }
+
+  /**
+   * Get the number of operations waiting to be picked up by the IO threads
+   * for each server, summed over the connections to it.
+   */
+  public Map<SocketAddress, Integer> getInputQueueDepths() {
+    Map<SocketAddress, Integer> rv = new HashMap<SocketAddress, Integer>();
+    for (MemcachedNode node : locator.getAll()) {
+      int depth = 0;
+      for (MemcachedNode member : poolOf(node)) {
+        depth += member.getInputQueueDepth();
+      }
+      rv.put(node.getSocketAddress(), depth);
+    }
+    return rv;
+  }
   
   /**
    * Add an operation to a connection identified by the given key.
@@ -1491,61 +1910,237 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    * @param o the operation to add.
    */
   protected void addOperation(final String key, final Operation o) {
+    MemcachedNode placeIn = placeOperation(key, o);
+    if (placeIn != null) {
+      addOperation(placeIn, o);
+    }
+  }
+
+  /**
+   * Find the node to add an operation on the given key to, as described in
+   * {@link #addOperation(String, Operation)}.
+   *
+   * @param key the key the operation is operating upon.
+   * @param o the operation to place.
+   * @return the node, null if the operation was cancelled.
+   */
+  private MemcachedNode placeOperation(final String key, final Operation o) {
     MemcachedNode placeIn = null;
-    MemcachedNode primary = locator.getPrimary(key);
+    MemcachedNode located = locator.getPrimary(key);
+    if (o instanceof GetOperation) {
+      located = routeRead(locator, key, located);
+    }
+    MemcachedNode primary = selectPoolMember(located);
+    boolean closed = isCircuitClosed(primary);
 
-    if (primary.isActive() || failureMode == FailureMode.Retry) {
+    if (closed && (primary.isActive() || failureMode == FailureMode.Retry)) {
       placeIn = primary;
-    } else if (failureMode == FailureMode.Cancel) {
+    } else if (failureMode != FailureMode.Redistribute) {
+      // Cancelled right away when the circuit is open, even when retrying.
       o.cancel();
     } else {
       Iterator<MemcachedNode> i = locator.getSequence(key);
       while (placeIn == null && i.hasNext()) {
-        MemcachedNode n = i.next();
-        if (n.isActive()) {
+        MemcachedNode n = selectPoolMember(i.next());
+        if (n.isActive() && isCircuitClosed(n)) {
           placeIn = n;
         }
       }
 
-      if (placeIn == null) {
+      if (placeIn == null && closed) {
         placeIn = primary;
         this.getLogger().warn("Could not redistribute to another node, "
           + "retrying primary node for %s.", key);
+      } else if (placeIn == null) {
+        o.cancel();
       }
     }
 
-    assert o.isCancelled() || placeIn != null : "No node found for key " + key;
-    if (placeIn != null) {
-      addOperation(placeIn, o);
-    } else {
-      assert o.isCancelled() : "No node found for " + key + " (and not "
-        + "immediately cancelled)";
+    assert o.isCancelled() || placeIn != null : "No node found for " + key
+      + " (and not immediately cancelled)";
+    return placeIn;
+  }
+
+  /**
+   * Check if the circuit of the given node lets operations through. An open
+   * circuit due for a probe moves to half-open and sends a noop to the node,
+   * the operation at hand is kept away from it regardless.
+   *
+   * @param node the node operations are about to be sent to.
+   * @return true if circuit breakers are disabled or the circuit is closed.
+   */
+  private boolean isCircuitClosed(final MemcachedNode node) {
+    if (circuitBreakers == null) {
+      return true;
+    }
+    final SocketAddress sa = node.getSocketAddress();
+    if (circuitBreakers.allows(sa)) {
+      return true;
+    }
+    if (circuitBreakers.startProbe(sa, System.nanoTime())) {
+      NoopOperation probe = opFact.noop(new OperationCallback() {
+        private volatile boolean success;
+
+        public void receivedStatus(OperationStatus status) {
+          success = status.isSuccess();
+        }
+
+        public void complete() {
+          circuitBreakers.probed(sa, success);
+        }
+      });
+      addOperation(node, probe);
     }
+    return false;
   }
-  
-  protected void addOperation(final InetSocketAddress addr, final Operation o) {
 
-    Collection<MemcachedNode> nodes = locator.getAll();
-    boolean foundNode = false;
-    for(MemcachedNode node : nodes){
-      NodeEndPoint endpoint = node.getNodeEndPoint();
-      String hostName = addr.getHostName();
-      String ipAddress = null;
-      if(addr.getAddress() != null){
-        ipAddress = addr.getAddress().getHostAddress();
+  /**
+   * Report a transition of the circuit of a server to the metrics and the
+   * connection observers.
+   *
+   * @param sa the address of the server.
+   * @param from the previous state of its circuit.
+   * @param to the new state of its circuit.
+   */
+  private void circuitStateChanged(final SocketAddress sa,
+      final CircuitState from, final CircuitState to) {
+    if (to == CircuitState.OPEN) {
+      getLogger().warn("Opened the circuit of %s", sa);
+      metrics.markMeter(CIRCUIT_OPENED_METRIC);
+      if (from == CircuitState.CLOSED) {
+        metrics.incrementCounter(OPEN_CIRCUITS_METRIC);
       }
-      
-      if((hostName != null && hostName.equals(endpoint.getHostName()))
-          || (ipAddress != null && ipAddress.equals(endpoint.getIpAddress())) ){
-        addOperation(node, o);
-        foundNode = true;
-        break;
+    } else if (to == CircuitState.CLOSED) {
+      getLogger().info("Closed the circuit of %s", sa);
+      metrics.decrementCounter(OPEN_CIRCUITS_METRIC);
+    }
+    for (ConnectionObserver observer : connObservers) {
+      observer.circuitStateChanged(sa, to);
+    }
+  }
+
+  /**
+   * Get the state of the circuit of each server, empty unless circuit
+   * breakers are enabled.
+   */
+  public Map<SocketAddress, CircuitState> getCircuitStates() {
+    if (circuitBreakers == null) {
+      return Collections.emptyMap();
+    }
+    Map<SocketAddress, CircuitState> rv =
+      new HashMap<SocketAddress, CircuitState>();
+    for (MemcachedNode node : locator.getAll()) {
+      SocketAddress sa = node.getSocketAddress();
+      rv.put(sa, circuitBreakers.getState(sa));
+    }
+    return rv;
+  }
+
+  /**
+   * Enqueue a batch of operations, each on the node of its key.
+   *
+   * This places every operation like {@link #enqueueOperation(String,
+   * Operation)} does, but wakes up each IO loop at most once for the whole
+   * batch instead of once per operation.
+   *
+   * @param ops the operations, each operating upon exactly one key.
+   * @throws IllegalArgumentException if an operation does not have exactly
+   *         one key or a key is invalid, in which case nothing is enqueued.
+   */
+  public void enqueueBatch(final Collection<? extends KeyedOperation> ops) {
+    checkState();
+    boolean binary = opFact instanceof BinaryOperationFactory;
+    for (KeyedOperation o : ops) {
+      if (o.getKeys().size() != 1) {
+        throw new IllegalArgumentException("Batched operations must operate "
+          + "upon exactly one key: " + o);
+      }
+      StringUtils.validateKey(o.getKeys().iterator().next(), binary);
+    }
+    Map<IoLoop, Boolean> touched = new IdentityHashMap<IoLoop, Boolean>();
+    for (KeyedOperation o : ops) {
+      MemcachedNode placeIn = placeOperation(o.getKeys().iterator().next(), o);
+      if (placeIn != null) {
+        IoLoop loop = queueOperation(placeIn, o);
+        if (loop != null) {
+          touched.put(loop, Boolean.TRUE);
+        }
       }
     }
-    
-    if(!foundNode){
+    for (IoLoop loop : touched.keySet()) {
+      wakeUp(loop);
+    }
+  }
+  
+  /**
+   * Get the node to send a read of the given key to: the given node, unless
+   * bounded loads are enabled and it is overloaded.
+   *
+   * @param l the locator the node was located with
+   * @param key the key to read
+   * @param node the node of the key
+   * @return the node to read the key from
+   */
+  MemcachedNode routeRead(NodeLocator l, String key, MemcachedNode node) {
+    return boundedLoad == null || !node.isActive() ? node
+      : boundedLoad.route(l, key, node);
+  }
+
+  /**
+   * Get the node to send the hedge of a read of the given key to: the first
+   * active node of its sequence other than the one the read went to.
+   *
+   * @param key the key read
+   * @param busy the node the read went to, may be null
+   * @return the node, null if there is none
+   */
+  MemcachedNode hedgeNode(String key, MemcachedNode busy) {
+    SocketAddress avoid = busy == null ? null : busy.getSocketAddress();
+    Iterator<MemcachedNode> i = locator.getSequence(key);
+    while (i.hasNext()) {
+      MemcachedNode n = i.next();
+      if (n.isActive() && !n.getSocketAddress().equals(avoid)) {
+        return n;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the time in milliseconds after which the operations of the given node
+   * time out: the operation timeout, unless adaptive timeouts are enabled.
+   *
+   * @param node the node
+   * @return the timeout in milliseconds
+   */
+  long timeoutFor(MemcachedNode node) {
+    return adaptiveTimeouts == null || node == null ? operationTimeout
+      : adaptiveTimeouts.getTimeout(node.getSocketAddress());
+  }
+
+  /**
+   * Get the number of reads moved off each node because it had too many
+   * outstanding operations, empty unless bounded loads are enabled.
+   */
+  public Map<SocketAddress, Long> getBoundedLoadOverflows() {
+    return boundedLoad == null ? Collections.<SocketAddress, Long>emptyMap()
+      : boundedLoad.getOverflowCounts();
+  }
+
+  /**
+   * Enqueue an operation on the node with the host name or IP address of
+   * the given address.
+   *
+   * @param addr the address of the node.
+   * @param o the operation to add.
+   * @throws IllegalArgumentException if no node has that address.
+   */
+  protected void addOperation(final InetSocketAddress addr, final Operation o) {
+    MemcachedNode node = nodeIndex.find(addr);
+    if(node == null){
       throw new IllegalArgumentException("The specified address does not belong to the cluster");
     }
+    addOperation(selectPoolMember(node), o);
   }
 
   /**
@@ -1558,11 +2153,11 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     o.setHandlingNode(node);
     o.initialize();
     node.insertOp(o);
-    addedQueue.offer(node);
+    IoLoop loop = loopFor(node);
+    loop.queue(node);
     metrics.markMeter(OVERALL_REQUEST_METRIC);
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    wakeUp(loop);
     getLogger().debug("Added %s to %s", o, node);
   }
 
@@ -1573,29 +2168,57 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    * @param o the operation to add.
    */
   protected void addOperation(final MemcachedNode node, final Operation o) {
+    IoLoop loop = queueOperation(node, o);
+    if (loop != null) {
+      wakeUp(loop);
+    }
+  }
+
+  /**
+   * Enqueue an operation on the given node without waking up its loop.
+   *
+   * @param node the node where to enqueue the {@link Operation}.
+   * @param o the operation to add.
+   * @return the loop to wake up, null if the operation is retried later.
+   */
+  private IoLoop queueOperation(final MemcachedNode node, final Operation o) {
     if (!node.isAuthenticated()) {
       retryOperation(o);
-      return;
+      return null;
     }
     o.setHandlingNode(node);
     o.initialize();
+    IoLoop loop = loopFor(node);
+    if (!(o instanceof TapOperation)) {
+      loop.timeouts.schedule(o, timeoutFor(node));
+    }
     node.addOp(o);
-    addedQueue.offer(node);
+    loop.queue(node);
     metrics.markMeter(OVERALL_REQUEST_METRIC);
-
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
     getLogger().debug("Added %s to %s", o, node);
+    return loop;
   }
 
   /**
-   * Enqueue the given list of operations on each handling node.
+   * Enqueue the given list of operations on each handling node, waking up
+   * each IO loop at most once.
+   *
+   * If more than one connection per node is used, each operation goes to
+   * the connection of that node with the fewest outstanding operations.
    *
    * @param ops the operations for each node.
    */
   public void addOperations(final Map<MemcachedNode, Operation> ops) {
+    Map<IoLoop, Boolean> touched = new IdentityHashMap<IoLoop, Boolean>();
     for (Map.Entry<MemcachedNode, Operation> me : ops.entrySet()) {
-      addOperation(me.getKey(), me.getValue());
+      IoLoop loop = queueOperation(selectPoolMember(me.getKey()),
+        me.getValue());
+      if (loop != null) {
+        touched.put(loop, Boolean.TRUE);
+      }
+    }
+    for (IoLoop loop : touched.keySet()) {
+      wakeUp(loop);
     }
   }
 
@@ -1618,19 +2241,24 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
   public CountDownLatch broadcastOperation(final BroadcastOpFactory of,
     final Collection<MemcachedNode> nodes) {
     final CountDownLatch latch = new CountDownLatch(nodes.size());
+    final Map<IoLoop, Boolean> touched =
+      new IdentityHashMap<IoLoop, Boolean>();
 
     for (MemcachedNode node : nodes) {
       getLogger().debug("broadcast Operation: node = " + node);
       Operation op = of.newOp(node, latch);
+      op.setHandlingNode(node);
       op.initialize();
       node.addOp(op);
-      op.setHandlingNode(node);
-      addedQueue.offer(node);
+      IoLoop loop = loopFor(node);
+      loop.queue(node);
+      touched.put(loop, Boolean.TRUE);
       metrics.markMeter(OVERALL_REQUEST_METRIC);
     }
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    for (IoLoop loop : touched.keySet()) {
+      wakeUp(loop);
+    }
     return latch;
   }
 
@@ -1640,9 +2268,14 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
   public void shutdown() throws IOException {
     shutDown = true;
     try {
-      Selector s = selector.wakeup();
-      assert s == selector : "Wakeup returned the wrong selector.";
-      for (MemcachedNode node : locator.getAll()) {
+      for (IoLoop loop : ioLoops) {
+        wakeUp(loop);
+      }
+      List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+      for (MemcachedNode primary : locator.getAll()) {
+        Collections.addAll(nodes, poolOf(primary));
+      }
+      for (MemcachedNode node : nodes) {
         if (node.getChannel() != null) {
           node.getChannel().close();
           node.setSk(null);
@@ -1654,8 +2287,10 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
         }
       }
 
-      selector.close();
-      getLogger().debug("Shut down selector %s", selector);
+      for (IoLoop loop : ioLoops) {
+        loop.selector.close();
+        getLogger().debug("Shut down selector %s", loop.selector);
+      }
     } finally {
       running = false;
     }
@@ -1756,9 +2391,19 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
    */
   @Override
   public void run() {
+    runLoop(ioLoops[0]);
+    getLogger().info("Shut down memcached client");
+  }
+
+  /**
+   * Run the given IO loop until the connection is shut down.
+   *
+   * @param loop the loop to run.
+   */
+  private void runLoop(final IoLoop loop) {
     while (running) {
       try {
-        handleIO();
+        handleIO(loop);
       } catch (IOException e) {
         logRunException(e);
       } catch (CancelledKeyException e) {
@@ -1771,7 +2416,6 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
         logRunException(e);
       }
     }
-    getLogger().info("Shut down memcached client");
   }
 
   /**
@@ -1817,4 +2461,263 @@ public class MemcachedConnection extends SpyThread implements ClusterConfigurati
     retryOps.add(op);
   }
 
+  /**
+   * Returns all connections of the pool of the given node.
+   *
+   * @param node a node known to the locator.
+   * @return the node and any additional connections to the same server.
+   */
+  private MemcachedNode[] poolOf(final MemcachedNode node) {
+    MemcachedNode[] pool = pools.get(node);
+    return pool == null ? new MemcachedNode[] { node } : pool;
+  }
+
+  /**
+   * Select the connection of the given node's pool with the fewest
+   * outstanding operations.
+   *
+   * Only active and authenticated connections are considered, if there are
+   * none the given node is returned so the {@link FailureMode} applies.
+   *
+   * @param node a node known to the locator.
+   * @return the connection to send the next operation over.
+   */
+  private MemcachedNode selectPoolMember(final MemcachedNode node) {
+    MemcachedNode[] pool = pools.get(node);
+    if (pool == null) {
+      return node;
+    }
+    MemcachedNode selected = null;
+    int fewest = Integer.MAX_VALUE;
+    for (MemcachedNode member : pool) {
+      if (member.isActive() && member.isAuthenticated()) {
+        int outstanding = member.getOutstandingOperationCount();
+        if (outstanding < fewest) {
+          selected = member;
+          fewest = outstanding;
+        }
+      }
+    }
+    return selected == null ? node : selected;
+  }
+
+  /**
+   * True if the given node (or the pool it belongs to) is part of the
+   * current node list.
+   *
+   * @param node the node to check.
+   */
+  private boolean isLiveNode(final MemcachedNode node) {
+    MemcachedNode primary = poolPrimaries.get(node);
+    return nodeIndex.contains(primary == null ? node : primary);
+  }
+
+  /**
+   * Returns the IO loop owning the given node.
+   *
+   * Nodes unknown to this connection are handled by the primary loop.
+   *
+   * @param node the node to look up.
+   * @return the owning loop.
+   */
+  private IoLoop loopFor(final MemcachedNode node) {
+    IoLoop loop = nodeLoops.get(node);
+    return loop == null ? ioLoops[0] : loop;
+  }
+
+  /**
+   * Assign a new node to the IO loop currently owning the fewest nodes.
+   *
+   * @param node the node to assign.
+   * @return the loop the node was assigned to.
+   */
+  private IoLoop assignLoop(final MemcachedNode node) {
+    IoLoop target = ioLoops[0];
+    for (IoLoop loop : ioLoops) {
+      if (loop.nodeCount.get() < target.nodeCount.get()) {
+        target = loop;
+      }
+    }
+    target.nodeCount.incrementAndGet();
+    nodeLoops.put(node, target);
+    return target;
+  }
+
+  /**
+   * Run the given task on the thread of the given loop.
+   *
+   * If called from that thread (or before the loop runs), the task is run
+   * right away, otherwise it is queued and the loop is woken up.
+   *
+   * @param loop the loop to run the task on.
+   * @param task the task to run.
+   */
+  private void execute(final IoLoop loop, final Runnable task) {
+    if (loop.inLoop()) {
+      task.run();
+    } else {
+      loop.tasks.offer(task);
+      wakeUp(loop);
+    }
+  }
+
+  /**
+   * Wake up the selector of the given loop, unless it has been woken up
+   * since it last looked at its queues.
+   *
+   * @param loop the loop to wake up.
+   */
+  private void wakeUp(final IoLoop loop) {
+    if (loop.wakeupPending.compareAndSet(false, true)) {
+      wakeups.increment();
+      Selector s = loop.selector.wakeup();
+      assert s == loop.selector : "Wakeup returned the wrong selector.";
+    }
+  }
+
+  /**
+   * Returns the number of times a selector was woken up, for tests and
+   * benchmarks of the enqueue path.
+   *
+   * @return the number of selector wakeups since this connection started.
+   */
+  public long getWakeupCount() {
+    return wakeups.sum();
+  }
+
+  /**
+   * Returns the number of IO loops (and threads) of this connection.
+   *
+   * @return the number of IO loops.
+   */
+  public int getIoThreadCount() {
+    return ioLoops.length;
+  }
+
+  /**
+   * Returns all connections to the server of the given node.
+   */
+  List<MemcachedNode> getPool(final MemcachedNode node) {
+    return Arrays.asList(poolOf(node));
+  }
+
+  /**
+   * Returns the index of the IO loop owning the given node.
+   */
+  int getIoLoopIndex(final MemcachedNode node) {
+    IoLoop loop = loopFor(node);
+    for (int i = 0; i < ioLoops.length; i++) {
+      if (ioLoops[i] == loop) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * A {@link Selector} together with the bookkeeping for the nodes it owns.
+   *
+   * Channel registration, reads, writes and reconnects of a node are only
+   * ever handled on the thread running its loop, other threads hand work
+   * over through the task queue.
+   */
+  private final class IoLoop {
+
+    /**
+     * The selector all channels of this loop are registered with.
+     */
+    final Selector selector;
+
+    /**
+     * Nodes of this loop for which operations have recently been queued.
+     */
+    final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
+
+    /**
+     * The nodes currently in {@link #addedQueue}, so each is in there once.
+     */
+    final Set<MemcachedNode> queuedNodes = Collections.newSetFromMap(
+      new ConcurrentHashMap<MemcachedNode, Boolean>());
+
+    /**
+     * True from the first wakeup of the selector until the loop looks at
+     * its queues again, later wakeups are redundant.
+     */
+    final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /**
+     * Nodes of this loop that need to be reconnected, keyed by the time at
+     * which they are eligible for reconnect.
+     */
+    final SortedMap<Long, MemcachedNode> reconnectQueue =
+      new TreeMap<Long, MemcachedNode>();
+
+    /**
+     * Work handed over from other threads.
+     */
+    final ConcurrentLinkedQueue<Runnable> tasks =
+      new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * Deadlines of the operations queued on the nodes of this loop.
+     */
+    final OperationTimeoutWheel timeouts = new OperationTimeoutWheel();
+
+    /**
+     * The number of nodes currently owned by this loop.
+     */
+    final AtomicInteger nodeCount = new AtomicInteger();
+
+    /**
+     * The current number of empty select() calls, which could indicate bugs.
+     */
+    int emptySelects = 0;
+
+    /**
+     * The thread running this loop.
+     */
+    volatile Thread thread;
+
+    IoLoop(final Selector selector,
+      final ConcurrentLinkedQueue<MemcachedNode> addedQueue) {
+      this.selector = selector;
+      this.addedQueue = addedQueue;
+    }
+
+    /**
+     * Queue the given node for IO unless it is queued already.
+     */
+    void queue(final MemcachedNode node) {
+      if (queuedNodes.add(node)) {
+        addedQueue.offer(node);
+      }
+    }
+
+    /**
+     * True if the calling thread may work on the nodes of this loop.
+     */
+    boolean inLoop() {
+      Thread t = thread;
+      return t == null || t == Thread.currentThread() || !t.isAlive();
+    }
+  }
+
+  /**
+   * Runs a secondary {@link IoLoop}.
+   */
+  private final class IoLoopThread extends SpyThread {
+
+    private final IoLoop loop;
+
+    IoLoopThread(final IoLoop loop, final String name) {
+      super(name);
+      this.loop = loop;
+    }
+
+    @Override
+    public void run() {
+      runLoop(loop);
+      getLogger().info("Shut down memcached IO thread %s", getName());
+    }
+  }
 }
@@ -35,8 +35,10 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 
 import net.spy.memcached.config.NodeEndPoint;
+import net.spy.memcached.ops.BufferAllocator;
 import net.spy.memcached.ops.Operation;
 
 /**
@@ -108,12 +110,43 @@ public interface MemcachedNode {
    */
   boolean hasWriteOp();
 
+  /**
+   * Get the number of operations queued on this node that have not
+   * completed yet, i.e. those waiting to be written or waiting for a response.
+   */
+  int getOutstandingOperationCount();
+
   /**
    * Add an operation to the queue. Authentication operations should never be
    * added to the queue, but this is not checked.
    */
   void addOp(Operation op);
 
+  /**
+   * Add an operation to the queue if it has room for it, without waiting.
+   *
+   * @return false if the queue is full or the node is authenticating, in
+   *         which case the operation is left as is
+   */
+  boolean tryAddOp(Operation op);
+
+  /**
+   * Get the number of operations waiting in the queue to be picked up by the
+   * IO thread.
+   */
+  int getInputQueueDepth();
+
+  /**
+   * Get a stage completed once the queue has room for another operation.
+   *
+   * <p>
+   * The stage is completed on the IO thread, and the room may be taken by
+   * another thread by the time it runs, so operations should still be added
+   * with {@link #tryAddOp(Operation)}.
+   * </p>
+   */
+  CompletionStage<Void> awaitInputQueueCapacity();
+
   /**
    * Insert an operation to the beginning of the queue.
    *
@@ -137,6 +170,14 @@ public interface MemcachedNode {
    */
   ByteBuffer getWbuf();
 
+  /**
+   * Get the allocator operations handled by this node allocate their request
+   * buffers from.
+   *
+   * @return the allocator, or null to allocate buffers as usual.
+   */
+  BufferAllocator getBufferAllocator();
+
   /**
    * Do handshake for connecting to this node when TLS enabled.
    * 
@@ -34,8 +34,10 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 
 import net.spy.memcached.config.NodeEndPoint;
+import net.spy.memcached.ops.BufferAllocator;
 import net.spy.memcached.ops.Operation;
 
 public class MemcachedNodeROImpl implements MemcachedNode {
@@ -56,6 +58,14 @@ public class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
+  public boolean tryAddOp(Operation op) {
+    throw new UnsupportedOperationException();
+  }
+
+  public CompletionStage<Void> awaitInputQueueCapacity() {
+    throw new UnsupportedOperationException();
+  }
+
   public void insertOp(Operation op) {
     throw new UnsupportedOperationException();
   }
@@ -132,6 +142,10 @@ public class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
+  public BufferAllocator getBufferAllocator() {
+    return root.getBufferAllocator();
+  }
+
   public boolean hasReadOp() {
     return root.hasReadOp();
   }
@@ -140,6 +154,14 @@ public class MemcachedNodeROImpl implements MemcachedNode {
     return root.hasReadOp();
   }
 
+  public int getOutstandingOperationCount() {
+    return root.getOutstandingOperationCount();
+  }
+
+  public int getInputQueueDepth() {
+    return root.getInputQueueDepth();
+  }
+
   public boolean isActive() {
     return root.isActive();
   }
@@ -0,0 +1,475 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A size bounded cache of fetched values in front of the servers.
+ *
+ * <p>
+ * The client keeps the decode futures of the values it fetched, so a value
+ * is decoded once and every hit shares the decoded object. Entries are
+ * served for at most the configured staleness; writes through the client
+ * invalidate their keys as they are sent and again as their response is
+ * read, once the server applied them.
+ * </p>
+ *
+ * <p>
+ * Keys are spread over independently locked stripes. Each stripe is a
+ * segmented LRU: new entries go into a probation segment and move into a
+ * protected segment, of at most 80% of the stripe, on their first hit.
+ * Evictions take the least recently used probation entry first, so a scan
+ * of keys read once does not push out the keys read over and over. As all
+ * entries live equally long, the stripes also keep them in write order and
+ * drop expired entries from its head before evicting live ones.
+ * </p>
+ *
+ * <p>
+ * A fetch takes a {@link #stamp(String)} of the key before it is sent and
+ * only populates the cache if the key was not invalidated in the meantime,
+ * which keeps a read racing a write from caching the overwritten value.
+ * Each stripe remembers its most recently invalidated keys for this, so
+ * writes only hold back the fetches of the keys written. Fetches older than
+ * the invalidations a stripe still remembers are not cached.
+ * </p>
+ */
+public class NearCache {
+
+  static final String SIZE_METRIC = "[MEM] Near Cache Bytes";
+  static final String HIT_METRIC = "[MEM] Near Cache Rate: Hit";
+  static final String MISS_METRIC = "[MEM] Near Cache Rate: Miss";
+  static final String EVICTION_METRIC = "[MEM] Near Cache Rate: Eviction";
+
+  /**
+   * The status of gets served from the near cache.
+   */
+  public static final OperationStatus HIT_STATUS = new OperationStatus(true,
+    "Near cache hit", StatusCode.SUCCESS);
+
+  /**
+   * Approximate number of bytes an entry takes besides its key and value.
+   */
+  static final int ENTRY_OVERHEAD = 128;
+
+  private static final int MAX_STRIPES = 16;
+  private static final long MIN_STRIPE_BYTES = 64 * 1024;
+  private static final int PROTECTED_PERCENT = 80;
+  private static final int MAX_INVALIDATIONS = 1024;
+
+  private final Stripe[] stripes;
+  private final long maxStaleness;
+  private final MetricCollector metrics;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Create a near cache.
+   *
+   * @param maxBytes the maximum number of bytes of keys and values cached
+   * @param maxStaleness the maximum time in milliseconds a value is served
+   */
+  public NearCache(long maxBytes, long maxStaleness) {
+    this(maxBytes, maxStaleness, new NoopMetricCollector());
+  }
+
+  /**
+   * Create a near cache reporting its size and hit, miss and eviction rates
+   * to the given collector.
+   *
+   * @param maxBytes the maximum number of bytes of keys and values cached
+   * @param maxStaleness the maximum time in milliseconds a value is served
+   * @param collector the collector for the cache metrics
+   */
+  public NearCache(long maxBytes, long maxStaleness,
+    MetricCollector collector) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Near cache size must be positive.");
+    }
+    if (maxStaleness <= 0) {
+      throw new IllegalArgumentException(
+        "Near cache staleness must be positive.");
+    }
+    int n = 1;
+    while (n < MAX_STRIPES && maxBytes / (n * 2) >= MIN_STRIPE_BYTES) {
+      n *= 2;
+    }
+    stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      stripes[i] = new Stripe(maxBytes / n);
+    }
+    this.maxStaleness = TimeUnit.MILLISECONDS.toNanos(maxStaleness);
+    metrics = collector;
+    metrics.addCounter(SIZE_METRIC);
+    metrics.addMeter(HIT_METRIC);
+    metrics.addMeter(MISS_METRIC);
+    metrics.addMeter(EVICTION_METRIC);
+  }
+
+  /**
+   * Get the cached value of the given key.
+   *
+   * @param key the key
+   * @param tc the transcoder the value has to be decoded with
+   * @return the future of the decoded value, null on a miss
+   */
+  public <T> Future<T> get(String key, Transcoder<T> tc) {
+    Stripe s = stripeFor(key);
+    Entry e;
+    synchronized (s) {
+      s.expire(nanoTime());
+      e = s.entries.get(key);
+      if (e != null && (e.tc != tc || e.value.isCancelled())) {
+        e = null;
+      }
+      if (e != null) {
+        s.touch(e);
+      }
+    }
+    if (e == null) {
+      misses.increment();
+      metrics.markMeter(MISS_METRIC);
+      return null;
+    }
+    hits.increment();
+    metrics.markMeter(HIT_METRIC);
+    @SuppressWarnings("unchecked")
+    Future<T> rv = (Future<T>) e.view;
+    return rv;
+  }
+
+  /**
+   * Get the stamp a fetch of the given key hands to
+   * {@link #put(String, Transcoder, Future, int, long)}.
+   */
+  public long stamp(String key) {
+    return stripeFor(key).clock;
+  }
+
+  /**
+   * Cache the fetched value of a key unless the key was invalidated since
+   * the stamp was taken.
+   *
+   * @param key the key
+   * @param tc the transcoder decoding the value
+   * @param value the future of the decoded value
+   * @param size the size of the encoded value in bytes
+   * @param stamp the stamp taken before the value was fetched
+   * @return true if the value was cached
+   */
+  public <T> boolean put(String key, Transcoder<T> tc, Future<T> value,
+    int size, long stamp) {
+    Stripe s = stripeFor(key);
+    long weight = ENTRY_OVERHEAD + 2L * key.length() + size;
+    if (weight > s.maxBytes) {
+      return false;
+    }
+    synchronized (s) {
+      if (s.isInvalidatedSince(key, stamp)) {
+        return false;
+      }
+      long now = nanoTime();
+      s.remove(key);
+      s.expire(now);
+      s.add(new Entry(key, tc, value, weight, now + maxStaleness));
+      while (s.bytes > s.maxBytes) {
+        s.evict();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Drop the cached value of the given key and keep the fetches of it in
+   * flight from caching what they get.
+   */
+  public void invalidate(String key) {
+    Stripe s = stripeFor(key);
+    synchronized (s) {
+      s.invalidated(key);
+      s.remove(key);
+    }
+  }
+
+  /**
+   * Drop all cached values and keep the fetches in flight from caching what
+   * they get.
+   */
+  public void clear() {
+    for (Stripe s : stripes) {
+      synchronized (s) {
+        s.clock++;
+        s.floor = s.clock;
+        s.invalidations.clear();
+        while (!s.entries.isEmpty()) {
+          s.remove(s.entries.keySet().iterator().next());
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the number of cached values.
+   */
+  public int size() {
+    int rv = 0;
+    for (Stripe s : stripes) {
+      synchronized (s) {
+        rv += s.entries.size();
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Get the approximate number of bytes taken by the cached values.
+   */
+  public long getBytes() {
+    long rv = 0;
+    for (Stripe s : stripes) {
+      synchronized (s) {
+        rv += s.bytes;
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Get the number of gets served from the cache.
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of gets the cache could not serve.
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the number of values dropped to make room or because they expired.
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * The clock entries expire by.
+   */
+  protected long nanoTime() {
+    return System.nanoTime();
+  }
+
+  private Stripe stripeFor(String key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    return stripes[h & (stripes.length - 1)];
+  }
+
+  /**
+   * A segmented LRU over part of the keys, guarded by its own monitor.
+   */
+  private final class Stripe {
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    // All entries in write order, which is their expiration order too.
+    private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>();
+    private final LinkedHashMap<String, Entry> probation =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedEntries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // The clock value of the most recent invalidation of each key, oldest
+    // first.
+    private final LinkedHashMap<String, Long> invalidations =
+      new LinkedHashMap<String, Long>();
+    private long bytes;
+    private long protectedBytes;
+    private volatile long clock;
+    // Fetches stamped before this may have missed an invalidation.
+    private long floor;
+
+    Stripe(long max) {
+      maxBytes = max;
+      maxProtectedBytes = max / 100 * PROTECTED_PERCENT;
+    }
+
+    /**
+     * Record an invalidation of the given key, forgetting the oldest one if
+     * there are too many.
+     */
+    void invalidated(String key) {
+      clock++;
+      invalidations.remove(key);
+      invalidations.put(key, clock);
+      if (invalidations.size() > MAX_INVALIDATIONS) {
+        Iterator<Long> i = invalidations.values().iterator();
+        floor = i.next();
+        i.remove();
+      }
+    }
+
+    /**
+     * True if the key may have been invalidated after the given stamp.
+     */
+    boolean isInvalidatedSince(String key, long stamp) {
+      if (stamp < floor) {
+        return true;
+      }
+      Long at = invalidations.get(key);
+      return at != null && at > stamp;
+    }
+
+    void add(Entry e) {
+      entries.put(e.key, e);
+      probation.put(e.key, e);
+      bytes += e.weight;
+      metrics.incrementCounter(SIZE_METRIC, (int) e.weight);
+    }
+
+    Entry remove(String key) {
+      Entry e = entries.remove(key);
+      if (e != null) {
+        if (e.isProtected) {
+          protectedEntries.remove(key);
+          protectedBytes -= e.weight;
+        } else {
+          probation.remove(key);
+        }
+        bytes -= e.weight;
+        metrics.decrementCounter(SIZE_METRIC, (int) e.weight);
+      }
+      return e;
+    }
+
+    /**
+     * Record a hit, promoting a probation entry to the protected segment.
+     */
+    void touch(Entry e) {
+      if (e.isProtected) {
+        protectedEntries.get(e.key);
+        return;
+      }
+      probation.remove(e.key);
+      protectedEntries.put(e.key, e);
+      e.isProtected = true;
+      protectedBytes += e.weight;
+      while (protectedBytes > maxProtectedBytes) {
+        Iterator<Entry> i = protectedEntries.values().iterator();
+        Entry demoted = i.next();
+        i.remove();
+        demoted.isProtected = false;
+        protectedBytes -= demoted.weight;
+        probation.put(demoted.key, demoted);
+      }
+    }
+
+    void expire(long now) {
+      while (!entries.isEmpty()) {
+        Entry e = entries.values().iterator().next();
+        if (e.expiresAt - now > 0) {
+          return;
+        }
+        remove(e.key);
+        evictions.increment();
+        metrics.markMeter(EVICTION_METRIC);
+      }
+    }
+
+    void evict() {
+      LinkedHashMap<String, Entry> segment =
+        probation.isEmpty() ? protectedEntries : probation;
+      remove(segment.keySet().iterator().next());
+      evictions.increment();
+      metrics.markMeter(EVICTION_METRIC);
+    }
+  }
+
+  private static final class Entry {
+    private final String key;
+    private final Transcoder<?> tc;
+    private final Future<?> value;
+    private final Future<?> view;
+    private final long weight;
+    private final long expiresAt;
+    private boolean isProtected;
+
+    <T> Entry(String k, Transcoder<T> t, Future<T> v, long w, long exp) {
+      key = k;
+      tc = t;
+      value = v;
+      view = new SharedFuture<T>(v);
+      weight = w;
+      expiresAt = exp;
+    }
+  }
+
+  /**
+   * The view of a cached value handed out on hits, which the callers must
+   * not be able to cancel for each other.
+   */
+  private static final class SharedFuture<T> implements Future<T> {
+    private final Future<T> value;
+
+    SharedFuture(Future<T> v) {
+      value = v;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return false;
+    }
+
+    public boolean isDone() {
+      return value.isDone();
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+      return value.get();
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+      ExecutionException, TimeoutException {
+      return value.get(timeout, unit);
+    }
+  }
+}
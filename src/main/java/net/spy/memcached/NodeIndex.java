@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.spy.memcached.config.NodeEndPoint;
+
+/**
+ * An immutable snapshot of the nodes of a {@link MemcachedConnection}.
+ *
+ * <p>
+ * The IO loop checks whether a node is still part of the cluster for every
+ * selected key and every queued node, and operations targeted at an address
+ * need the node of that address. Scanning the node list for each of those
+ * makes every loop iteration quadratic in the number of nodes, so the
+ * connection keeps one of these and replaces it as a whole whenever its node
+ * list changes.
+ * </p>
+ */
+final class NodeIndex {
+
+  private final Set<MemcachedNode> nodes;
+  private final Set<SocketAddress> addresses;
+  private final Map<String, MemcachedNode> byHostName;
+  private final Map<String, MemcachedNode> byIpAddress;
+
+  /**
+   * Index the given nodes.
+   *
+   * @param all the nodes, in the order of the locator; the first node of a
+   *        host name or IP address wins.
+   */
+  NodeIndex(final Collection<MemcachedNode> all) {
+    Set<MemcachedNode> n = Collections.newSetFromMap(
+      new IdentityHashMap<MemcachedNode, Boolean>(all.size()));
+    Set<SocketAddress> a = new HashSet<SocketAddress>(all.size() * 2);
+    Map<String, MemcachedNode> hosts =
+      new HashMap<String, MemcachedNode>(all.size() * 2);
+    Map<String, MemcachedNode> ips =
+      new HashMap<String, MemcachedNode>(all.size() * 2);
+    for (MemcachedNode node : all) {
+      n.add(node);
+      a.add(node.getSocketAddress());
+      NodeEndPoint endPoint = node.getNodeEndPoint();
+      if (endPoint != null) {
+        if (endPoint.getHostName() != null
+          && !hosts.containsKey(endPoint.getHostName())) {
+          hosts.put(endPoint.getHostName(), node);
+        }
+        if (endPoint.getIpAddress() != null
+          && !ips.containsKey(endPoint.getIpAddress())) {
+          ips.put(endPoint.getIpAddress(), node);
+        }
+      }
+    }
+    nodes = n;
+    addresses = a;
+    byHostName = hosts;
+    byIpAddress = ips;
+  }
+
+  /**
+   * True if the given node itself is one of the indexed nodes.
+   */
+  boolean contains(final MemcachedNode node) {
+    return nodes.contains(node);
+  }
+
+  /**
+   * True if one of the indexed nodes has the given address.
+   */
+  boolean containsAddress(final SocketAddress sa) {
+    return addresses.contains(sa);
+  }
+
+  /**
+   * Find the node with the host name or IP address of the given address,
+   * without any name service lookup.
+   *
+   * @param addr the address
+   * @return the node, null if there is none
+   */
+  MemcachedNode find(final InetSocketAddress addr) {
+    MemcachedNode rv = byHostName.get(addr.getHostString());
+    if (rv == null && addr.getAddress() != null) {
+      rv = byIpAddress.get(addr.getAddress().getHostAddress());
+    }
+    return rv;
+  }
+}
@@ -28,6 +28,10 @@
 
 package net.spy.memcached;
 
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -288,6 +292,41 @@ public interface OperationFactory {
    */
   TouchOperation touch(String key, int expiration, OperationCallback cb);
 
+  /**
+   * Store many items on a single server in one pipelined operation.
+   *
+   * @param storeType the type of store operation
+   * @param values the encoded items to store, by key
+   * @param exp the expiration time of every item
+   * @param cb the callback receiving the status of each key
+   * @return the new bulk store operation
+   */
+  BulkStoreOperation storeBulk(StoreType storeType,
+      Map<String, CachedData> values, int exp,
+      BulkMutationOperation.Callback cb);
+
+  /**
+   * Delete many keys on a single server in one pipelined operation.
+   *
+   * @param keys the keys to delete
+   * @param cb the callback receiving the status of each key
+   * @return the new bulk delete operation
+   */
+  BulkDeleteOperation deleteBulk(Collection<String> keys,
+      BulkMutationOperation.Callback cb);
+
+  /**
+   * Reset the expiration time of many keys on a single server in one
+   * pipelined operation.
+   *
+   * @param keys the keys to touch
+   * @param expiration the new expiration time of every key
+   * @param cb the callback receiving the status of each key
+   * @return the new bulk touch operation
+   */
+  BulkTouchOperation touchBulk(Collection<String> keys, int expiration,
+      BulkMutationOperation.Callback cb);
+
   /**
    * Refresh the TLS certificate
    * @param cb The status callback
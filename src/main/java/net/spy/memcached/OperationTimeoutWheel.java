@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+
+/**
+ * A hashed timing wheel tracking the deadlines of the operations of one
+ * {@link MemcachedConnection} IO loop.
+ *
+ * <p>
+ * Operations may be scheduled and forgotten from any thread, everything
+ * else is only ever called from the thread running the loop. Scheduling, completing and
+ * expiring an operation are all constant time, an operation completing
+ * before its deadline is unlinked from its slot right away.
+ * </p>
+ */
+final class OperationTimeoutWheel {
+
+  /**
+   * The default resolution of the wheel in milliseconds.
+   */
+  static final long DEFAULT_TICK_MILLIS = 10;
+
+  /**
+   * The default number of slots of the wheel.
+   */
+  static final int DEFAULT_SLOTS = 512;
+
+  private final long startNanos;
+  private final long tickNanos;
+  private final Entry[] slots;
+  private final int mask;
+  private final ConcurrentLinkedQueue<Entry> pending =
+    new ConcurrentLinkedQueue<Entry>();
+  private final ConcurrentLinkedQueue<Operation> forgotten =
+    new ConcurrentLinkedQueue<Operation>();
+  private final Map<Operation, Entry> scheduled =
+    new IdentityHashMap<Operation, Entry>();
+  private long processedTick;
+
+  OperationTimeoutWheel() {
+    this(DEFAULT_TICK_MILLIS, DEFAULT_SLOTS);
+  }
+
+  /**
+   * Create a wheel.
+   *
+   * @param tickMillis the resolution in milliseconds
+   * @param slotCount the number of slots, rounded up to a power of two
+   */
+  OperationTimeoutWheel(long tickMillis, int slotCount) {
+    if (tickMillis < 1) {
+      throw new IllegalArgumentException("Tick must be at least 1ms");
+    }
+    if (slotCount < 1) {
+      throw new IllegalArgumentException("There must be at least one slot");
+    }
+    int n = Integer.highestOneBit(slotCount);
+    if (n < slotCount) {
+      n <<= 1;
+    }
+    startNanos = System.nanoTime();
+    tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    slots = new Entry[n];
+    mask = n - 1;
+  }
+
+  /**
+   * Get the resolution of the wheel in milliseconds.
+   */
+  long getTickMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+  }
+
+  /**
+   * Schedule the given operation to time out after the given time. This may
+   * be called from any thread.
+   *
+   * @param op the operation
+   * @param timeoutMillis the timeout in milliseconds, operations with a
+   *        timeout too large to track are never expired
+   */
+  void schedule(Operation op, long timeoutMillis) {
+    if (timeoutMillis > Integer.MAX_VALUE) {
+      return;
+    }
+    // Round up and skip the partial current tick, so an operation never
+    // expires before its timeout elapsed.
+    long ticks = (TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+      + tickNanos - 1) / tickNanos;
+    long now = System.nanoTime();
+    pending.offer(new Entry(op, now, tickOf(now) + ticks + 1));
+  }
+
+  /**
+   * Forget the given operation since it completed.
+   *
+   * @param op the operation
+   * @return the {@link System#nanoTime()} the operation was scheduled at,
+   *         -1 if it was not tracked
+   */
+  long completed(Operation op) {
+    // Operations folded into an optimized one complete without changing
+    // their state, so they must not be linked in after this.
+    drainPending();
+    Entry e = scheduled.remove(op);
+    if (e == null) {
+      return -1;
+    }
+    unlink(e);
+    return e.scheduledNanos;
+  }
+
+  /**
+   * Forget the given operation since other operations took its place, like
+   * the clones of a redistributed operation. This may be called from any
+   * thread, the operation is dropped the next time the loop looks at the
+   * wheel.
+   *
+   * @param op the operation
+   */
+  void forget(Operation op) {
+    forgotten.offer(op);
+  }
+
+  /**
+   * True if there are no operations waiting for their deadline.
+   */
+  boolean isEmpty() {
+    return scheduled.isEmpty() && pending.isEmpty() && forgotten.isEmpty();
+  }
+
+  /**
+   * Advance the wheel to the given time.
+   *
+   * @param nowNanos the current {@link System#nanoTime()}
+   * @return the operations past their deadline that did not finish yet
+   */
+  List<Operation> expire(long nowNanos) {
+    drainPending();
+    long now = tickOf(nowNanos);
+    if (now <= processedTick) {
+      return Collections.emptyList();
+    }
+    List<Operation> rv = null;
+    long last = Math.min(now, processedTick + slots.length);
+    for (long tick = processedTick + 1; tick <= last; tick++) {
+      Entry e = slots[(int) (tick & mask)];
+      while (e != null) {
+        Entry next = e.next;
+        if (e.deadline <= now) {
+          unlink(e);
+          scheduled.remove(e.op);
+          if (isPending(e.op)) {
+            if (rv == null) {
+              rv = new ArrayList<Operation>();
+            }
+            rv.add(e.op);
+          }
+        }
+        e = next;
+      }
+    }
+    processedTick = now;
+    return rv == null ? Collections.<Operation>emptyList() : rv;
+  }
+
+  /**
+   * Move the operations scheduled by other threads into their slots.
+   */
+  private void drainPending() {
+    Entry e;
+    Operation op;
+    while ((e = pending.poll()) != null) {
+      if (!isPending(e.op) || scheduled.containsKey(e.op)) {
+        continue;
+      }
+      if (e.deadline <= processedTick) {
+        e.deadline = processedTick + 1;
+      }
+      int idx = (int) (e.deadline & mask);
+      e.slot = idx;
+      e.next = slots[idx];
+      if (e.next != null) {
+        e.next.prev = e;
+      }
+      slots[idx] = e;
+      scheduled.put(e.op, e);
+    }
+    // Operations are scheduled before they can be replaced, so their entry
+    // is linked in by now.
+    while ((op = forgotten.poll()) != null) {
+      e = scheduled.remove(op);
+      if (e != null) {
+        unlink(e);
+      }
+    }
+  }
+
+  private void unlink(Entry e) {
+    if (e.prev != null) {
+      e.prev.next = e.next;
+    } else {
+      slots[e.slot] = e.next;
+    }
+    if (e.next != null) {
+      e.next.prev = e.prev;
+    }
+    e.prev = null;
+    e.next = null;
+  }
+
+  private long tickOf(long nanos) {
+    return (nanos - startNanos) / tickNanos;
+  }
+
+  private static boolean isPending(Operation op) {
+    return op.getState() != OperationState.COMPLETE && !op.isCancelled()
+      && !op.isTimedOut();
+  }
+
+  /**
+   * An operation linked into one of the slots.
+   */
+  private static final class Entry {
+    private final Operation op;
+    private final long scheduledNanos;
+    private long deadline;
+    private int slot;
+    private Entry prev;
+    private Entry next;
+
+    Entry(Operation o, long s, long d) {
+      op = o;
+      scheduledNanos = s;
+      deadline = d;
+    }
+  }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * NodeLocator implementation using rendezvous (highest random weight)
+ * hashing.
+ *
+ * <p>
+ * Every node scores every key and the key goes to the node with the highest
+ * score. Adding or removing a node only moves the keys that node wins or
+ * held, and the backup sequence of a key is simply the rest of the nodes by
+ * descending score. A lookup scores all nodes, so it costs O(n) but needs no
+ * lookup structure to be rebuilt when the nodes change.
+ * </p>
+ *
+ * <p>
+ * Nodes may be weighted by their socket address; a node with twice the
+ * weight of another gets twice its share of the keys. Nodes are identified
+ * by their socket address, so a node keeps its keys across updates of the
+ * locator.
+ * </p>
+ */
+public final class RendezvousNodeLocator implements NodeLocator {
+
+  private final HashAlgorithm hashAlg;
+  private final Map<InetSocketAddress, Integer> weights;
+  private final boolean isWeighted;
+
+  private volatile Members members;
+
+  /**
+   * Create a new RendezvousNodeLocator over the given nodes, all with the
+   * same weight.
+   *
+   * @param nodes the nodes
+   * @param alg the hash algorithm to hash keys with, possibly behind a
+   *          {@link KeyHashCache}
+   */
+  public RendezvousNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg) {
+    this(nodes, alg, new HashMap<InetSocketAddress, Integer>());
+  }
+
+  /**
+   * Create a new RendezvousNodeLocator over the given weighted nodes.
+   *
+   * @param nodes the nodes
+   * @param alg the hash algorithm to hash keys with, possibly behind a
+   *          {@link KeyHashCache}
+   * @param nodeWeights node weights, a map from InetSocketAddress to a
+   *          positive weight. Nodes without weight get a weight of 1.
+   */
+  public RendezvousNodeLocator(List<MemcachedNode> nodes, HashAlgorithm alg,
+      Map<InetSocketAddress, Integer> nodeWeights) {
+    super();
+    hashAlg = alg;
+    weights = nodeWeights;
+    isWeighted = !weights.isEmpty();
+    members = createMembers(nodes.toArray(new MemcachedNode[nodes.size()]));
+  }
+
+  private RendezvousNodeLocator(Members m, HashAlgorithm alg,
+      Map<InetSocketAddress, Integer> nodeWeights) {
+    super();
+    hashAlg = alg;
+    weights = nodeWeights;
+    isWeighted = !weights.isEmpty();
+    members = m;
+  }
+
+  public Collection<MemcachedNode> getAll() {
+    return Collections.unmodifiableList(Arrays.asList(members.nodes));
+  }
+
+  public MemcachedNode getPrimary(String k) {
+    Members m = members;
+    long key = hashAlg.hash(k);
+    int best = 0;
+    if (isWeighted) {
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < m.seeds.length; i++) {
+        double score = weightedScore(key, m.seeds[i], m.weights[i]);
+        if (score > bestScore) {
+          bestScore = score;
+          best = i;
+        }
+      }
+    } else {
+      long bestScore = -1;
+      for (int i = 0; i < m.seeds.length; i++) {
+        long score = score(key, m.seeds[i]);
+        if (score > bestScore) {
+          bestScore = score;
+          best = i;
+        }
+      }
+    }
+    return m.nodes[best];
+  }
+
+  public Iterator<MemcachedNode> getSequence(String k) {
+    Members m = members;
+    long key = hashAlg.hash(k);
+    int n = m.nodes.length;
+    double[] scores = new double[n];
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      scores[i] = isWeighted ? weightedScore(key, m.seeds[i], m.weights[i])
+        : score(key, m.seeds[i]);
+      order[i] = i;
+    }
+    Arrays.sort(order, new ScoreComparator(scores));
+    return new RankIterator(m.nodes, order);
+  }
+
+  public NodeLocator getReadonlyCopy() {
+    Members m = members;
+    MemcachedNode[] ro = new MemcachedNode[m.nodes.length];
+    for (int i = 0; i < ro.length; i++) {
+      ro[i] = new MemcachedNodeROImpl(m.nodes[i]);
+    }
+    return new RendezvousNodeLocator(new Members(ro, m.seeds, m.weights),
+      hashAlg, weights);
+  }
+
+  @Override
+  public void updateLocator(List<MemcachedNode> nodes) {
+    members = createMembers(nodes.toArray(new MemcachedNode[nodes.size()]));
+  }
+
+  private Members createMembers(MemcachedNode[] nodes) {
+    long[] seeds = new long[nodes.length];
+    double[] w = new double[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      SocketAddress sa = nodes[i].getSocketAddress();
+      seeds[i] = seedFor(sa);
+      Integer weight = isWeighted ? weights.get(sa) : null;
+      w[i] = weight == null ? 1 : weight;
+    }
+    return new Members(nodes, seeds, w);
+  }
+
+  /**
+   * Get the seed of a node, a 64 bit FNV-1a hash of its address.
+   */
+  private static long seedFor(SocketAddress sa) {
+    String name = String.valueOf(sa);
+    if (name.startsWith("/")) {
+      name = name.substring(1);
+    }
+    long rv = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      rv ^= name.charAt(i);
+      rv *= 0x100000001b3L;
+    }
+    return HashMixer.mix64(rv);
+  }
+
+  /**
+   * Score a key on a weighted node, -weight / ln(u) for a uniform u in
+   * (0, 1) derived from the key and the node.
+   */
+  private static double weightedScore(long key, long seed, double weight) {
+    double u = (score(key, seed) + 0.5) / (1L << 53);
+    return -weight / Math.log(u);
+  }
+
+  /**
+   * Score a key on a node, 53 bits derived from the key and the node so
+   * that it converts to a double exactly.
+   */
+  private static long score(long key, long seed) {
+    return HashMixer.mix64(key ^ seed) >>> 11;
+  }
+
+  private static final class Members {
+    private final MemcachedNode[] nodes;
+    private final long[] seeds;
+    private final double[] weights;
+
+    Members(MemcachedNode[] n, long[] s, double[] w) {
+      nodes = n;
+      seeds = s;
+      weights = w;
+    }
+  }
+
+  private static final class ScoreComparator implements Comparator<Integer> {
+    private final double[] scores;
+
+    ScoreComparator(double[] s) {
+      scores = s;
+    }
+
+    public int compare(Integer a, Integer b) {
+      int rv = Double.compare(scores[b], scores[a]);
+      return rv != 0 ? rv : a.compareTo(b);
+    }
+  }
+
+  private static final class RankIterator implements Iterator<MemcachedNode> {
+    private final MemcachedNode[] nodes;
+    private final Integer[] order;
+    // The primary is not a backup.
+    private int next = 1;
+
+    RankIterator(MemcachedNode[] n, Integer[] o) {
+      nodes = n;
+      order = o;
+    }
+
+    public boolean hasNext() {
+      return next < order.length;
+    }
+
+    public MemcachedNode next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return nodes[order[next++]];
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("Can't remove a node");
+    }
+  }
+}
@@ -147,12 +147,21 @@ public class BulkGetFuture<T>
     if (!latch.await(to, unit)) {
       for (Operation op : ops) {
         if (op.getState() != OperationState.COMPLETE) {
-          MemcachedConnection.opTimedOut(op);
+          if (!op.isTimedOut()) {
+            MemcachedConnection.opTimedOut(op);
+          }
           timedoutOps.add(op);
         } else {
           MemcachedConnection.opSucceeded(op);
         }
       }
+    } else {
+      // Operations expired by the connection released the latch too.
+      for (Operation op : ops) {
+        if (op.isTimedOut()) {
+          timedoutOps.add(op);
+        }
+      }
     }
     for (Operation op : ops) {
       if (op.isCancelled()) {
@@ -162,6 +171,14 @@ public class BulkGetFuture<T>
         throw new ExecutionException(op.getException());
       }
     }
+    return getResults();
+  }
+
+  /**
+   * Collect the results once all operations completed.
+   */
+  protected Map<String, T> getResults() throws InterruptedException,
+      ExecutionException {
     Map<String, T> m = new HashMap<String, T>();
     for (Map.Entry<String, Future<T>> me : rvMap.entrySet()) {
       m.put(me.getKey(), me.getValue().get());
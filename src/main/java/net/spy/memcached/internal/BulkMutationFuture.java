@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Future for handling results from bulk sets, deletes and touches.
+ *
+ * The result maps each key to the status the server answered it with.
+ *
+ * Not intended for general use.
+ */
+public class BulkMutationFuture extends BulkGetFuture<OperationStatus> {
+
+  private final Map<String, OperationStatus> statuses;
+
+  public BulkMutationFuture(Map<String, OperationStatus> m,
+      Collection<Operation> ops, CountDownLatch l, ExecutorService service) {
+    super(Collections.<String, Future<OperationStatus>>emptyMap(), ops, l,
+      service);
+    statuses = m;
+  }
+
+  @Override
+  protected Map<String, OperationStatus> getResults() {
+    return new HashMap<String, OperationStatus>(statuses);
+  }
+}
@@ -64,6 +64,14 @@ public class GetFuture<T>
     return v == null ? null : v.get();
   }
 
+  /**
+   * Get the value, waiting at most the given time for it.
+   *
+   * The connection times out the get after its operation timeout, see
+   * {@link net.spy.memcached.ConnectionFactory#getOperationTimeout()}, or
+   * the adaptive timeout of its node, so waiting longer than that ends with
+   * a timeout all the same.
+   */
   public T get(long duration, TimeUnit units) throws InterruptedException,
       TimeoutException, ExecutionException {
     Future<T> v = rv.get(duration, units);
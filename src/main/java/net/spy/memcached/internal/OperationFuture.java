@@ -107,7 +107,9 @@ public class OperationFuture<T>
    * @return true if the operation has not yet been written to the network
    */
   public boolean cancel(boolean ign) {
-    assert op != null : "No operation";
+    if (op == null) { // completed without an operation
+      return false;
+    }
     op.cancel();
     notifyListeners();
     return op.getState() == OperationState.WRITE_QUEUED;
@@ -119,7 +121,9 @@ public class OperationFuture<T>
    * @return true if the operation has not yet been written to the network
    */
   public boolean cancel() {
-    assert op != null : "No operation";
+    if (op == null) { // completed without an operation
+      return false;
+    }
     op.cancel();
     notifyListeners();
     return op.getState() == OperationState.WRITE_QUEUED;
@@ -149,6 +153,11 @@ public class OperationFuture<T>
    * As with the Future interface, this call will block until the results of
    * the future operation has been received.
    *
+   * The connection times out the operation after its operation timeout,
+   * see {@link net.spy.memcached.ConnectionFactory#getOperationTimeout()},
+   * or the adaptive timeout of its node, so waiting longer than that ends
+   * with a timeout all the same.
+   *
    * @param duration amount of time to wait
    * @param units unit of time to wait
    * @return the operation results of this OperationFuture
@@ -166,6 +175,11 @@ public class OperationFuture<T>
       }
       throw new CheckedOperationTimeoutException(
           "Timed out waiting for operation", op);
+    } else if (op != null && op.isTimedOut() && !op.isTimedOutUnsent()) {
+      // the connection expired the operation while in flight and already
+      // counted it towards the continuous timeout.
+      throw new CheckedOperationTimeoutException(
+          "Timed out waiting for operation", op);
     } else {
       // continuous timeout counter will be reset
       MemcachedConnection.opSucceeded(op);
@@ -290,8 +304,7 @@ public class OperationFuture<T>
    * @return true if the Operation has been canceled
    */
   public boolean isCancelled() {
-    assert op != null : "No operation";
-    return op.isCancelled();
+    return op != null && op.isCancelled();
   }
 
   /**
@@ -305,9 +318,8 @@ public class OperationFuture<T>
    * @return true if the Operation is done
    */
   public boolean isDone() {
-    assert op != null : "No operation";
-    return latch.getCount() == 0 || op.isCancelled()
-        || op.getState() == OperationState.COMPLETE;
+    return latch.getCount() == 0 || op != null && (op.isCancelled()
+        || op.getState() == OperationState.COMPLETE);
   }
 
   @Override
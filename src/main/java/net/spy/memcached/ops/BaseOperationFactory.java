@@ -23,11 +23,14 @@
 
 package net.spy.memcached.ops;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.OperationFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Base class for operation factories.
@@ -100,6 +103,8 @@ public abstract class BaseOperationFactory implements OperationFactory {
       GetlOperation gl = (GetlOperation) op;
       rv.add(getl(first(gl.getKeys()), gl.getExpiration(),
           (GetlOperation.Callback) gl.getCallback()));
+    } else if (op instanceof BulkMutationOperation) {
+      rv.addAll(cloneBulkMutation((BulkMutationOperation) op));
     } else if (op instanceof ObserveOperation) {
       ObserveOperation oo = (ObserveOperation) op;
       rv.add(observe(first(oo.getKeys()), oo.getCasValue(), oo.getIndex(),
@@ -122,6 +127,32 @@ public abstract class BaseOperationFactory implements OperationFactory {
     return rv;
   }
 
+  /**
+   * Split a bulk mutation into one operation per key, reporting back to the
+   * original callback once all of them completed.
+   */
+  private Collection<Operation> cloneBulkMutation(BulkMutationOperation op) {
+    Collection<Operation> rv = new ArrayList<Operation>(op.getKeys().size());
+    BulkMutationOperation.Callback cb = new MultiBulkMutationOperationCallback(
+        op.getCallback(), op.getKeys().size());
+    for (String k : op.getKeys()) {
+      if (op instanceof BulkStoreOperation) {
+        BulkStoreOperation so = (BulkStoreOperation) op;
+        Map<String, CachedData> value =
+          Collections.singletonMap(k, so.getValues().get(k));
+        rv.add(storeBulk(so.getStoreType(), value, so.getExpiration(), cb));
+      } else if (op instanceof BulkTouchOperation) {
+        rv.add(touchBulk(Collections.singleton(k),
+          ((BulkTouchOperation) op).getExpiration(), cb));
+      } else {
+        assert op instanceof BulkDeleteOperation : "Unhandled operation type: "
+          + op.getClass();
+        rv.add(deleteBulk(Collections.singleton(k), cb));
+      }
+    }
+    return rv;
+  }
+
   protected abstract Collection<? extends Operation>
   cloneGet(KeyedOperation op);
 }
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates the buffers operations write their requests into.
+ *
+ * Buffers are allocated from whichever thread initializes an operation and
+ * released by the IO thread once their contents have been written (or the
+ * operation was dropped before being written), so implementations need to
+ * be thread safe.
+ */
+public interface BufferAllocator {
+
+  /**
+   * Allocate a heap buffer with a position of zero and a limit of the given
+   * size. Its capacity may be larger and its contents are undefined.
+   *
+   * @param size the number of bytes needed
+   * @return the buffer
+   */
+  ByteBuffer allocate(int size);
+
+  /**
+   * Give a buffer previously returned by {@link #allocate(int)} back to this
+   * allocator. The caller must not touch the buffer afterwards.
+   *
+   * @param buffer the buffer to release
+   */
+  void release(ByteBuffer buffer);
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.ops;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded multi-producer, single-consumer queue of operations.
+ *
+ * <p>
+ * Producers claim a slot by advancing the tail with a compare-and-set and
+ * publish their operation into it, they never take a lock. A full queue
+ * makes blocking producers back off and retry until their timeout, so
+ * {@link #offer(Operation, long, TimeUnit)} keeps honoring the maximum
+ * block time of the input queue of a node.
+ * </p>
+ *
+ * <p>
+ * The consumer side is meant for the IO thread of the node. It is guarded
+ * by a lock nonetheless, uncontended unless another thread occasionally
+ * drains the queue, like authentication inserting an operation at its head
+ * does.
+ * </p>
+ */
+public final class MpscOperationQueue extends AbstractQueue<Operation>
+  implements BlockingQueue<Operation> {
+
+  private static final long MAX_BACKOFF = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<Operation> slots;
+  private final AtomicLong tail = new AtomicLong();
+  private final Object consumerLock = new Object();
+  private volatile long head;
+
+  /**
+   * Create a queue holding at most the given number of operations.
+   *
+   * @param cap the capacity
+   */
+  public MpscOperationQueue(int cap) {
+    if (cap < 1 || cap > 1 << 30) {
+      throw new IllegalArgumentException("Capacity must be in [1, 2^30]");
+    }
+    int n = Integer.highestOneBit(cap);
+    if (n < cap) {
+      n <<= 1;
+    }
+    capacity = cap;
+    mask = n - 1;
+    slots = new AtomicReferenceArray<Operation>(n);
+  }
+
+  public boolean offer(Operation o) {
+    if (o == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      long t = tail.get();
+      if (t - head >= capacity) {
+        return false;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        slots.lazySet((int) t & mask, o);
+        return true;
+      }
+    }
+  }
+
+  public boolean offer(Operation o, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    if (offer(o)) {
+      return true;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long backoff = 1000;
+    while (true) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      LockSupport.parkNanos(Math.min(backoff, remaining));
+      if (offer(o)) {
+        return true;
+      }
+      backoff = Math.min(backoff * 2, MAX_BACKOFF);
+    }
+  }
+
+  public void put(Operation o) throws InterruptedException {
+    while (!offer(o, Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+      continue;
+    }
+  }
+
+  public Operation poll() {
+    synchronized (consumerLock) {
+      long h = head;
+      Operation o = awaitSlot(h);
+      if (o != null) {
+        // Clear the slot before publishing the new head, a producer may
+        // claim it as soon as it sees that.
+        slots.lazySet((int) h & mask, null);
+        head = h + 1;
+      }
+      return o;
+    }
+  }
+
+  public Operation peek() {
+    synchronized (consumerLock) {
+      return awaitSlot(head);
+    }
+  }
+
+  public Operation poll(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long backoff = 1000;
+    Operation o;
+    while ((o = poll()) == null) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return null;
+      }
+      LockSupport.parkNanos(Math.min(backoff, remaining));
+      backoff = Math.min(backoff * 2, MAX_BACKOFF);
+    }
+    return o;
+  }
+
+  public Operation take() throws InterruptedException {
+    return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  public int drainTo(Collection<? super Operation> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super Operation> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    synchronized (consumerLock) {
+      long h = head;
+      int n = 0;
+      Operation o;
+      while (n < maxElements && (o = awaitSlot(h)) != null) {
+        slots.lazySet((int) h & mask, null);
+        c.add(o);
+        h++;
+        n++;
+      }
+      head = h;
+      return n;
+    }
+  }
+
+  public int size() {
+    long h = head;
+    long t = tail.get();
+    return (int) Math.max(0, Math.min(capacity, t - h));
+  }
+
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+
+  /**
+   * Returns a weakly consistent snapshot iterator, which does not support
+   * removal.
+   */
+  public Iterator<Operation> iterator() {
+    List<Operation> snapshot = new ArrayList<Operation>();
+    synchronized (consumerLock) {
+      long t = tail.get();
+      for (long h = head; h < t; h++) {
+        Operation o = slots.get((int) h & mask);
+        if (o == null) {
+          break;
+        }
+        snapshot.add(o);
+      }
+    }
+    final Iterator<Operation> i = snapshot.iterator();
+    return new Iterator<Operation>() {
+      public boolean hasNext() {
+        return i.hasNext();
+      }
+
+      public Operation next() {
+        return i.next();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Get the operation at the given index, waiting for its producer to
+   * publish it if the slot has been claimed already.
+   *
+   * @return the operation, null if the queue is empty at that index
+   */
+  private Operation awaitSlot(long h) {
+    int i = (int) h & mask;
+    Operation o = slots.get(i);
+    while (o == null) {
+      if (tail.get() == h) {
+        return null;
+      }
+      Thread.yield();
+      o = slots.get(i);
+    }
+    return o;
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * BufferAllocator that keeps released buffers in power-of-two size classes.
+ *
+ * Requests larger than the biggest size class are allocated (and dropped)
+ * as usual. Each size class keeps at most a configured number of bytes, any
+ * buffer released beyond that is left to the garbage collector.
+ */
+public class PooledBufferAllocator implements BufferAllocator {
+
+  /**
+   * The size of the smallest size class.
+   */
+  public static final int DEFAULT_MIN_SIZE = 64;
+
+  /**
+   * The size of the biggest size class.
+   */
+  public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+
+  /**
+   * The maximum number of bytes pooled per size class.
+   */
+  public static final int DEFAULT_MAX_POOLED_BYTES = 4 * 1024 * 1024;
+
+  private final int minShift;
+  private final BlockingQueue<ByteBuffer>[] pools;
+
+  /**
+   * Create a PooledBufferAllocator with the default sizes.
+   */
+  public PooledBufferAllocator() {
+    this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_POOLED_BYTES);
+  }
+
+  /**
+   * Create a PooledBufferAllocator.
+   *
+   * @param minSize the size of the smallest size class (a power of two)
+   * @param maxSize the size of the biggest size class (a power of two)
+   * @param maxPooledBytes the maximum number of bytes kept per size class
+   */
+  public PooledBufferAllocator(int minSize, int maxSize, int maxPooledBytes) {
+    if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1
+      || minSize > maxSize) {
+      throw new IllegalArgumentException("Size classes must be powers of two"
+        + " with minSize <= maxSize.");
+    }
+    minShift = Integer.numberOfTrailingZeros(minSize);
+    int classes = Integer.numberOfTrailingZeros(maxSize) - minShift + 1;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BlockingQueue<ByteBuffer>[] p = new BlockingQueue[classes];
+    for (int i = 0; i < classes; i++) {
+      int size = minSize << i;
+      p[i] = new ArrayBlockingQueue<ByteBuffer>(
+        Math.max(1, maxPooledBytes / size));
+    }
+    pools = p;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ops.BufferAllocator#allocate(int)
+   */
+  public ByteBuffer allocate(int size) {
+    int sizeClass = sizeClass(size);
+    if (sizeClass >= pools.length) {
+      return ByteBuffer.allocate(size);
+    }
+    ByteBuffer b = pools[sizeClass].poll();
+    if (b == null) {
+      b = ByteBuffer.allocate(1 << (minShift + sizeClass));
+    }
+    b.clear();
+    b.limit(size);
+    b.order(ByteOrder.BIG_ENDIAN);
+    return b;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ops.BufferAllocator#release(java.nio.ByteBuffer)
+   */
+  public void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (buffer.isDirect() || buffer.isReadOnly()
+      || Integer.bitCount(capacity) != 1) {
+      return;
+    }
+    int sizeClass = sizeClass(capacity);
+    if (sizeClass < pools.length && capacity == 1 << (minShift + sizeClass)) {
+      pools[sizeClass].offer(buffer);
+    }
+  }
+
+  /**
+   * Returns the index of the smallest size class fitting the given size.
+   */
+  private int sizeClass(int size) {
+    if (size <= 1 << minShift) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+  }
+
+  @Override
+  public String toString() {
+    return "PooledBufferAllocator{min=" + (1 << minShift) + ", max="
+      + (1 << (minShift + pools.length - 1)) + "}";
+  }
+}
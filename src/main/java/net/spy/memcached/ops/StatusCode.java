@@ -45,7 +45,8 @@ public enum StatusCode {
   CANCELLED,
   INTERRUPTED,
   TIMEDOUT,
-  ERR_CLIENT;
+  ERR_CLIENT,
+  REJECTED;
 
   public static StatusCode fromBinaryCode(int code) {
     switch(code) {
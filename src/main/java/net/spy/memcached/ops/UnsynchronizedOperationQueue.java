@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.ops;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An unbounded array deque of operations without any synchronization.
+ *
+ * <p>
+ * The read and write queues of a node are only ever changed by the IO thread
+ * of the node, so they need neither the lock nor the per operation nodes of
+ * a {@link java.util.concurrent.LinkedBlockingQueue}. Other threads may
+ * still call {@link #size()} and {@link #peek()}, for statistics and log
+ * messages, and get an approximate answer rather than an exception. Nothing
+ * else is safe to call from another thread.
+ * </p>
+ *
+ * <p>
+ * Since no other thread adds operations, waiting for one would wait
+ * forever: {@link #take()} is not supported and the timed
+ * {@link #poll(long, TimeUnit)} does not wait.
+ * </p>
+ */
+public final class UnsynchronizedOperationQueue extends AbstractQueue<Operation>
+  implements BlockingQueue<Operation> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Operation[] elements = new Operation[INITIAL_CAPACITY];
+  private int head;
+  private int tail;
+  private int modCount;
+
+  public boolean offer(Operation o) {
+    if (o == null) {
+      throw new NullPointerException();
+    }
+    elements[tail] = o;
+    tail = (tail + 1) & (elements.length - 1);
+    if (tail == head) {
+      grow();
+    }
+    modCount++;
+    return true;
+  }
+
+  public boolean offer(Operation o, long timeout, TimeUnit unit) {
+    return offer(o);
+  }
+
+  public void put(Operation o) {
+    offer(o);
+  }
+
+  public Operation poll() {
+    Operation[] es = elements;
+    Operation o = es[head];
+    if (o != null) {
+      es[head] = null;
+      head = (head + 1) & (es.length - 1);
+      modCount++;
+    }
+    return o;
+  }
+
+  public Operation peek() {
+    Operation[] es = elements;
+    return es[head & (es.length - 1)];
+  }
+
+  public Operation poll(long timeout, TimeUnit unit) {
+    return poll();
+  }
+
+  public Operation take() {
+    throw new UnsupportedOperationException("Nothing would ever be added "
+      + "while waiting");
+  }
+
+  public int drainTo(Collection<? super Operation> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super Operation> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int n = 0;
+    Operation o;
+    while (n < maxElements && (o = poll()) != null) {
+      c.add(o);
+      n++;
+    }
+    return n;
+  }
+
+  public int size() {
+    return (tail - head) & (elements.length - 1);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return peek() == null;
+  }
+
+  public int remainingCapacity() {
+    return Integer.MAX_VALUE;
+  }
+
+  public Iterator<Operation> iterator() {
+    return new Iterator<Operation>() {
+      private int cursor = head;
+      private final int expectedModCount = modCount;
+
+      public boolean hasNext() {
+        return cursor != tail;
+      }
+
+      public Operation next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (cursor == tail) {
+          throw new NoSuchElementException();
+        }
+        Operation o = elements[cursor];
+        cursor = (cursor + 1) & (elements.length - 1);
+        return o;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Double the array once it is full, moving the operations to its start.
+   */
+  private void grow() {
+    Operation[] es = elements;
+    int n = es.length;
+    Operation[] grown = new Operation[n << 1];
+    System.arraycopy(es, head, grown, 0, n - head);
+    System.arraycopy(es, 0, grown, n - head, head);
+    head = 0;
+    tail = n;
+    elements = grown;
+  }
+}
@@ -35,6 +35,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.BufferAllocator;
 import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
@@ -59,6 +60,8 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
       new TimedOutOperationStatus();
   private volatile OperationState state = OperationState.WRITE_QUEUED;
   private ByteBuffer cmd = null;
+  private ByteBuffer allocatedBuffer = null;
+  private BufferAllocator bufferAllocator = null;
   private boolean cancelled = false;
   private OperationException exception = null;
   protected OperationCallback callback = null;
@@ -152,6 +155,44 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     cmd.mark();
   }
 
+  /**
+   * Allocate a buffer for the request of this operation.
+   *
+   * The buffer comes from the {@link BufferAllocator} of the handling node
+   * (if set) and is handed back to it by the node once it has been written.
+   *
+   * @param size the size of the request.
+   * @return a buffer with a position of zero and a limit of size.
+   */
+  protected final synchronized ByteBuffer allocateBuffer(int size) {
+    MemcachedNode node = getHandlingNode();
+    BufferAllocator allocator = node == null ? null
+      : node.getBufferAllocator();
+    if (allocator == null) {
+      return ByteBuffer.allocate(size);
+    }
+    allocatedBuffer = allocator.allocate(size);
+    bufferAllocator = allocator;
+    return allocatedBuffer;
+  }
+
+  /**
+   * Return the buffer allocated through {@link #allocateBuffer(int)} to its
+   * allocator.
+   *
+   * Only to be called once the request has been written or the operation is
+   * known to never be written.
+   */
+  final synchronized void releaseBuffer() {
+    if (allocatedBuffer != null) {
+      if (cmd == allocatedBuffer) {
+        cmd = null;
+      }
+      bufferAllocator.release(allocatedBuffer);
+      allocatedBuffer = null;
+    }
+  }
+
   /**
    * Transition the state of this operation to the given state.
    */
@@ -163,7 +204,8 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
         && state != OperationState.WRITING) {
       cmd = null;
     }
-    if (state == OperationState.COMPLETE) {
+    // A timed out operation already completed its callback.
+    if (state == OperationState.COMPLETE && !timedout) {
       callback.complete();
     }
   }
@@ -239,7 +281,7 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   public synchronized boolean isTimedOut(long ttlMillis) {
     long elapsed = System.nanoTime();
     long ttlNanos = ttlMillis * 1000 * 1000;
-    if (elapsed - creationTime > ttlNanos) {
+    if (!timedout && elapsed - creationTime > ttlNanos) {
       timedOutUnsent = true;
       timedout = true;
       callback.receivedStatus(TIMED_OUT);
@@ -39,8 +39,11 @@ public class ProxyCallback implements GetOperation.Callback {
       new HashMap<String, Collection<GetOperation.Callback>>();
   private final Collection<GetOperation.Callback> allCallbacks =
       new ArrayList<GetOperation.Callback>();
+  private final Collection<GetOperation> operations =
+      new ArrayList<GetOperation>();
 
   public void addCallbacks(GetOperation o) {
+    operations.add(o);
     GetOperation.Callback c =
         new GetCallbackWrapper(o.getKeys().size(),
             (GetOperation.Callback) o.getCallback());
@@ -82,4 +85,8 @@ public class ProxyCallback implements GetOperation.Callback {
   public int numCallbacks() {
     return allCallbacks.size();
   }
+
+  public Collection<GetOperation> getOperations() {
+    return operations;
+  }
 }
@@ -35,8 +35,12 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -48,6 +52,7 @@ import net.spy.memcached.MemcachedConnection;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.config.NodeEndPoint;
+import net.spy.memcached.ops.BufferAllocator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.protocol.binary.TapAckOperationImpl;
@@ -73,12 +78,20 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   protected final BlockingQueue<Operation> writeQ;
   private final BlockingQueue<Operation> readQ;
   private final BlockingQueue<Operation> inputQueue;
+  private final ConcurrentLinkedQueue<CompletableFuture<Void>> capacityWaiters =
+    new ConcurrentLinkedQueue<CompletableFuture<Void>>();
   private final long opQueueMaxBlockTime;
   private final long authWaitTime;
   private final ConnectionFactory connectionFactory;
   private AtomicInteger reconnectAttempt = new AtomicInteger(1);
   private SocketChannel channel;
   private int toWrite = 0;
+  private final int gatheringWriteLimit;
+  private final BufferAllocator bufferAllocator;
+  private ByteBuffer[] gathered = new ByteBuffer[16];
+  private Operation[] gatheredOps = new Operation[16];
+  private int gatheredOffset = 0;
+  private int gatheredCount = 0;
   protected Operation optimizedOp = null;
   private volatile SelectionKey sk = null;
   private boolean shouldAuth = false;
@@ -112,6 +125,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     setChannel(c);
 
     this.bufSize = bufSize;
+    gatheringWriteLimit = fact.getGatheringWriteLimit();
+    bufferAllocator = fact.getBufferAllocator();
     
     rbuf = ByteBuffer.allocateDirect(bufSize);
     wbuf = ByteBuffer.allocateDirect(bufSize);
@@ -137,6 +152,9 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     // don't drain more than we have space to place
     inputQueue.drainTo(tmp, writeQ.remainingCapacity());
     writeQ.addAll(tmp);
+    if (!tmp.isEmpty()) {
+      releaseCapacityWaiters();
+    }
   }
 
   /*
@@ -147,6 +165,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   public Collection<Operation> destroyInputQueue() {
     Collection<Operation> rv = new ArrayList<Operation>();
     inputQueue.drainTo(rv);
+    releaseCapacityWaiters();
     return rv;
   }
 
@@ -188,6 +207,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
 
     getWbuf().clear();
     getRbuf().clear();
+    clearGathered();
     toWrite = 0;
   }
 
@@ -215,22 +235,26 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   public final void fillWriteBuffer(boolean shouldOptimize) throws IOException {
     if (toWrite == 0 && readQ.remainingCapacity() > 0) {
       getWbuf().clear();
+      clearGathered();
       Operation o=getNextWritableOp();
 
+      // Without TLS the operation buffers are handed to the channel as they
+      // are (see writeSome()), only TLS records are staged in the wbuf.
+      int limit = tlsConnectionHandler == null ? gatheringWriteLimit
+        : getWbuf().capacity();
       boolean isTlsBufferOverflow = false;
-      while(o != null && toWrite < getWbuf().capacity() && !isTlsBufferOverflow) {
+      while(o != null && toWrite < limit && !isTlsBufferOverflow) {
         synchronized(o) {
           assert o.getState() == OperationState.WRITING;
 
           ByteBuffer obuf = o.getBuffer();
           if (tlsConnectionHandler == null) {
             assert obuf != null : "Didn't get a write buffer from " + o;
-            int bytesToCopy = Math.min(getWbuf().remaining(), obuf.remaining());
-            byte[] b = new byte[bytesToCopy];
-            obuf.get(b);
-            getWbuf().put(b);
-            getLogger().debug("After copying stuff from %s: %s", o, getWbuf());
-            toWrite += bytesToCopy;
+            int bytesToGather = Math.min(limit - toWrite, obuf.remaining());
+            gather(o, obuf, bytesToGather);
+            getLogger().debug("After gathering %d bytes from %s", bytesToGather,
+              o);
+            toWrite += bytesToGather;
           } else {
             int bytesProduced = tlsConnectionHandler.encryptNextTLSDataRecord(obuf, wbuf);
             if (bytesProduced == -1) {
@@ -242,6 +266,9 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
 
           if (!o.getBuffer().hasRemaining()) {
             o.writeComplete();
+            if (tlsConnectionHandler != null) {
+              releaseBuffer(o);
+            }
             transitionWriteItem();
 
             preparePending();
@@ -254,9 +281,9 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
         }
       }
       getWbuf().flip();
-      assert toWrite <= getWbuf().capacity() : "toWrite exceeded capacity: "
-          + this;
-      assert toWrite == getWbuf().remaining() : "Expected " + toWrite
+      assert toWrite <= limit : "toWrite exceeded limit: " + this;
+      assert tlsConnectionHandler == null
+          || toWrite == getWbuf().remaining() : "Expected " + toWrite
           + " remaining, got " + getWbuf().remaining();
     } else {
       getLogger().debug("Buffer is full, skipping");
@@ -264,6 +291,50 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   }
 
 
+  /**
+   * Queue the next bytes of the given operation buffer for the gathering
+   * write, consuming them from the operation's point of view.
+   *
+   * @param o the operation being written.
+   * @param obuf the buffer of the operation being written.
+   * @param length the number of bytes to take from it.
+   */
+  private void gather(Operation o, ByteBuffer obuf, int length) {
+    ByteBuffer b = obuf.duplicate();
+    b.limit(b.position() + length);
+    obuf.position(b.limit());
+    if (gatheredCount == gathered.length) {
+      gathered = Arrays.copyOf(gathered, gathered.length * 2);
+      gatheredOps = Arrays.copyOf(gatheredOps, gatheredOps.length * 2);
+    }
+    // The operation's buffer is released once its last bytes are written.
+    gatheredOps[gatheredCount] = obuf.hasRemaining() ? null : o;
+    gathered[gatheredCount++] = b;
+  }
+
+  /**
+   * Drop all buffers queued for the gathering write.
+   *
+   * Buffers of operations that were not completely written are not released
+   * but left to the garbage collector, as they may be written again after a
+   * reconnect.
+   */
+  private void clearGathered() {
+    Arrays.fill(gathered, 0, gatheredCount, null);
+    Arrays.fill(gatheredOps, 0, gatheredCount, null);
+    gatheredOffset = 0;
+    gatheredCount = 0;
+  }
+
+  /**
+   * Give the request buffer of the given operation back to its allocator.
+   */
+  private void releaseBuffer(Operation o) {
+    if (o instanceof BaseOperationImpl) {
+      ((BaseOperationImpl) o).releaseBuffer();
+    }
+  }
+
   private Operation getNextWritableOp() {
     Operation o = getCurrentWriteOp();
     while (o != null && o.getState() == OperationState.WRITE_QUEUED) {
@@ -272,10 +343,12 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
           getLogger().debug("Not writing cancelled op.");
           Operation cancelledOp = removeCurrentWriteOp();
           assert o == cancelledOp;
+          releaseBuffer(o);
         } else if (o.isTimedOut(defaultOpTimeout)) {
           getLogger().debug("Not writing timed out op.");
           Operation timedOutOp = removeCurrentWriteOp();
           assert o == timedOutOp;
+          releaseBuffer(o);
         } else {
           o.writing();
           if (!(o instanceof TapAckOperationImpl)) {
@@ -365,6 +438,16 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     return !(optimizedOp == null && writeQ.isEmpty());
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getOutstandingOperationCount()
+   */
+  public final int getOutstandingOperationCount() {
+    return inputQueue.size() + writeQ.size() + readQ.size()
+      + (optimizedOp == null ? 0 : 1);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -400,6 +483,60 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     }
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * net.spy.memcached.MemcachedNode#tryAddOp(net.spy.memcached.ops.Operation)
+   */
+  public final boolean tryAddOp(Operation op) {
+    if (!isAuthenticated() || !inputQueue.offer(op)) {
+      // Hand the request back, it is initialized again if retried.
+      releaseBuffer(op);
+      return false;
+    }
+    return true;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getInputQueueDepth()
+   */
+  public final int getInputQueueDepth() {
+    return inputQueue.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#awaitInputQueueCapacity()
+   */
+  public final CompletionStage<Void> awaitInputQueueCapacity() {
+    CompletableFuture<Void> rv = new CompletableFuture<Void>();
+    capacityWaiters.add(rv);
+    // The queue may have been drained before the waiter was added.
+    if (isAuthenticated() && inputQueue.remainingCapacity() > 0) {
+      releaseCapacityWaiters();
+    }
+    return rv;
+  }
+
+  /**
+   * Complete the stages waiting for room on the input queue, if there is
+   * any. All of them are released at once, those losing the race for the
+   * room are expected to wait again.
+   */
+  private void releaseCapacityWaiters() {
+    if (capacityWaiters.isEmpty() || inputQueue.remainingCapacity() == 0) {
+      return;
+    }
+    CompletableFuture<Void> waiter;
+    while ((waiter = capacityWaiters.poll()) != null) {
+      waiter.complete(null);
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -442,6 +579,15 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     return rbuf;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getBufferAllocator()
+   */
+  public final BufferAllocator getBufferAllocator() {
+    return bufferAllocator;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -661,7 +807,21 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#writeSome()
    */
   public final int writeSome() throws IOException {
-    int wrote = channel.write(wbuf);
+    int wrote;
+    if (tlsConnectionHandler == null) {
+      wrote = (int) channel.write(gathered, gatheredOffset,
+        gatheredCount - gatheredOffset);
+      while (gatheredOffset < gatheredCount
+        && !gathered[gatheredOffset].hasRemaining()) {
+        if (gatheredOps[gatheredOffset] != null) {
+          releaseBuffer(gatheredOps[gatheredOffset]);
+          gatheredOps[gatheredOffset] = null;
+        }
+        gathered[gatheredOffset++] = null;
+      }
+    } else {
+      wrote = channel.write(wbuf);
+    }
     assert wrote >= 0 : "Wrote negative bytes?";
     toWrite -= wrote;
     assert toWrite >= 0 : "toWrite went negative after writing " + wrote
@@ -710,6 +870,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
       inputQueue.addAll(reconnectBlocked);
     }
     authLatch.countDown();
+    releaseCapacityWaiters();
   }
 
   public final void setupForAuth() {
@@ -65,6 +65,7 @@ public final class AsciiMemcachedNodeImpl extends TCPMemcachedNodeImpl {
         }
 
         // Initialize the new mega get
+        optimizedOp.setHandlingNode(this);
         optimizedOp.initialize();
         assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
         ProxyCallback pcb = (ProxyCallback) og.getCallback();
@@ -28,7 +28,12 @@
 
 package net.spy.memcached.protocol.ascii;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -168,6 +173,22 @@ public class AsciiOperationFactory extends BaseOperationFactory {
     return new TouchOperationImpl(key, expiration, cb);
   }
 
+  public BulkStoreOperation storeBulk(StoreType storeType,
+      Map<String, CachedData> values, int exp,
+      BulkMutationOperation.Callback cb) {
+    return new BulkStoreOperationImpl(storeType, values, exp, cb);
+  }
+
+  public BulkDeleteOperation deleteBulk(Collection<String> keys,
+      BulkMutationOperation.Callback cb) {
+    return new BulkDeleteOperationImpl(keys, cb);
+  }
+
+  public BulkTouchOperation touchBulk(Collection<String> keys, int expiration,
+      BulkMutationOperation.Callback cb) {
+    return new BulkTouchOperationImpl(keys, expiration, cb);
+  }
+
   public VersionOperation version(OperationCallback cb) {
     return new VersionOperationImpl(cb);
   }
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationErrorType;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.util.StringUtils;
+
+/**
+ * Base class for operations pipelining the same command for a bunch of keys.
+ *
+ * The commands are not sent with noreply, since the server would then hide
+ * failures as well. Replies come back in the order the keys were sent in.
+ */
+abstract class BaseBulkMutationOperationImpl extends OperationImpl implements
+    BulkMutationOperation {
+
+  private static final OperationStatus DONE = new OperationStatus(true, "OK",
+      StatusCode.SUCCESS);
+
+  private final String cmd;
+  private final String[] keys;
+  private int replies = 0;
+
+  protected BaseBulkMutationOperationImpl(String c, Collection<String> k,
+      OperationCallback cb) {
+    super(cb);
+    cmd = c;
+    keys = k.toArray(new String[k.size()]);
+  }
+
+  /**
+   * Get an upper bound of the bytes needed for the request of a key.
+   */
+  protected abstract int requestSize(String key);
+
+  /**
+   * Write the request for the given key.
+   */
+  protected abstract void putRequest(ByteBuffer bb, String key);
+
+  /**
+   * Get the status matching the reply for a key.
+   */
+  protected abstract OperationStatus statusFor(String line);
+
+  @Override
+  public void initialize() {
+    int size = 0;
+    for (String k : keys) {
+      size += requestSize(k);
+    }
+    ByteBuffer bb = allocateBuffer(size);
+    for (String k : keys) {
+      putRequest(bb, k);
+    }
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  /**
+   * A SERVER_ERROR only concerns the key it answers, so it is handed to
+   * {@link #handleLine(String)} as that key's status.
+   */
+  @Override
+  OperationErrorType classifyError(String line) {
+    OperationErrorType rv = super.classifyError(line);
+    return rv == OperationErrorType.SERVER ? null : rv;
+  }
+
+  @Override
+  public void handleLine(String line) {
+    BulkMutationOperation.Callback cb =
+      (BulkMutationOperation.Callback) getCallback();
+    cb.gotStatus(keys[replies++], statusFor(line));
+    if (replies == keys.length) {
+      cb.receivedStatus(DONE);
+      transitionState(OperationState.COMPLETE);
+    }
+  }
+
+  protected static int keyLength(String key) {
+    return KeyUtil.getKeyBytes(key).length;
+  }
+
+  public Collection<String> getKeys() {
+    return Arrays.asList(keys);
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: " + cmd + " Keys: " + StringUtils.join(getKeys(), " ");
+  }
+}
@@ -23,6 +23,7 @@
 
 package net.spy.memcached.protocol.ascii;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
@@ -51,8 +52,13 @@ public abstract class BaseGetOpImpl extends OperationImpl {
       "LOCK_ERROR", StatusCode.ERR_TEMP_FAIL);
   private static final byte[] RN_BYTES = "\r\n".getBytes();
   private static final byte[] EMPTY_BYTES = new byte[0];
+  private static final byte[] END_BYTES = "END".getBytes();
+  private static final byte[] VALUE_BYTES = "VALUE ".getBytes();
   private final String cmd;
   private final Collection<String> keys;
+  private String[] keyNames = null;
+  private byte[][] keyTable = null;
+  private int keyCursor = 0;
   private String currentKey = null;
 
   private long casValue = 0;
@@ -83,28 +89,16 @@ public abstract class BaseGetOpImpl extends OperationImpl {
   @Override
   public final void handleLine(String line) {
     if (line.equals("END")) {
-      getLogger().debug("Get complete!");
-      if (hasValue) {
-        getCallback().receivedStatus(END);
-      } else {
-        getCallback().receivedStatus(NOT_FOUND);
-      }
-      transitionState(OperationState.COMPLETE);
-      data = null;
+      handleEnd();
     } else if (line.startsWith("VALUE ")) {
       getLogger().debug("Got line %s", line);
       String[] stuff = line.split(" ");
       assert stuff[0].equals("VALUE");
-      currentKey = stuff[1];
-      currentFlags = Integer.parseInt(stuff[2]);
-      data = new byte[Integer.parseInt(stuff[3])];
       if (stuff.length > 4) {
         casValue = Long.parseLong(stuff[4]);
       }
-      readOffset = 0;
-      hasValue = true;
-      getLogger().debug("Set read type to data");
-      setReadType(OperationReadType.DATA);
+      handleValue(stuff[1], Integer.parseInt(stuff[2]),
+        Integer.parseInt(stuff[3]));
     } else if (line.equals("LOCK_ERROR")) {
       getCallback().receivedStatus(LOCK_ERROR);
       transitionState(OperationState.COMPLETE);
@@ -113,6 +107,80 @@ public abstract class BaseGetOpImpl extends OperationImpl {
     }
   }
 
+  /**
+   * Parse END and VALUE lines straight from the line bytes, resolving the
+   * key against the requested keys instead of decoding it. Anything else
+   * goes through the regular String based handling.
+   */
+  @Override
+  protected final void handleLine(byte[] line, int length)
+    throws IOException {
+    if (regionMatches(line, 0, length, END_BYTES)
+      && length == END_BYTES.length) {
+      handleEnd();
+    } else if (regionMatches(line, 0, length, VALUE_BYTES)) {
+      int pos = VALUE_BYTES.length;
+      int end = indexOf(line, pos, length, (byte) ' ');
+      String key = lookupKey(line, pos, end);
+      pos = end + 1;
+      end = indexOf(line, pos, length, (byte) ' ');
+      int flags = (int) parseNumber(line, pos, end);
+      pos = end + 1;
+      end = indexOf(line, pos, length, (byte) ' ');
+      int bytes = (int) parseNumber(line, pos, end);
+      if (end < length) {
+        pos = end + 1;
+        casValue = parseNumber(line, pos, indexOf(line, pos, length,
+          (byte) ' '));
+      }
+      handleValue(key, flags, bytes);
+    } else {
+      super.handleLine(line, length);
+    }
+  }
+
+  private void handleEnd() {
+    getLogger().debug("Get complete!");
+    if (hasValue) {
+      getCallback().receivedStatus(END);
+    } else {
+      getCallback().receivedStatus(NOT_FOUND);
+    }
+    transitionState(OperationState.COMPLETE);
+    data = null;
+  }
+
+  private void handleValue(String key, int flags, int length) {
+    currentKey = key;
+    currentFlags = flags;
+    data = new byte[length];
+    readOffset = 0;
+    hasValue = true;
+    getLogger().debug("Set read type to data");
+    setReadType(OperationReadType.DATA);
+  }
+
+  /**
+   * Find the requested key matching the given bytes. Values come back in
+   * the order they were asked for, so the search starts right after the
+   * previous match.
+   */
+  private String lookupKey(byte[] line, int start, int end)
+    throws IOException {
+    if (keyTable != null) {
+      int n = keyTable.length;
+      for (int i = 0; i < n; i++) {
+        int idx = (keyCursor + i) % n;
+        byte[] k = keyTable[idx];
+        if (k.length == end - start && regionMatches(line, start, end, k)) {
+          keyCursor = idx + 1;
+          return keyNames[idx];
+        }
+      }
+    }
+    return new String(line, start, end - start, "UTF-8");
+  }
+
   @Override
   public final void handleRead(ByteBuffer b) {
     assert currentKey != null;
@@ -193,10 +261,13 @@ public abstract class BaseGetOpImpl extends OperationImpl {
       size += k.length;
       size++;
     }
+    keyNames = keys.toArray(new String[keys.size()]);
+    keyTable = keyBytes.toArray(new byte[keyBytes.size()][]);
+    keyCursor = 0;
     byte[] before = extraBytesBefore();
     byte[] after = extraBytesAfter();
     size += before.length + after.length;
-    ByteBuffer b = ByteBuffer.allocate(size);
+    ByteBuffer b = allocateBuffer(size);
     b.put(cmd.getBytes());
     b.put(before);
     for (byte[] k : keyBytes) {
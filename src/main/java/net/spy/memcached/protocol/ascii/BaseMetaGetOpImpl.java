@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.util.StringUtils;
+
+/**
+ * Base class for meta protocol retrievals (mg).
+ *
+ * A single key is sent as a plain mg request. Several keys are pipelined
+ * as quiet mg requests, so misses are not answered at all, terminated by a
+ * mn request whose MN response ends the operation. Every request carries
+ * the index of its key as opaque, which is how responses are matched to
+ * keys.
+ */
+abstract class BaseMetaGetOpImpl extends OperationImpl {
+
+  private static final OperationStatus END = new OperationStatus(true, "END",
+    StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+    "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+  private static final byte[] MG_BYTES = "mg ".getBytes();
+  private static final byte[] QUIET_BYTES = " q".getBytes();
+  private static final byte[] OPAQUE_BYTES = " O".getBytes();
+  private static final byte[] MN_BYTES = "mn\r\n".getBytes();
+  private static final byte[] VA_BYTES = "VA ".getBytes();
+  private static final byte[] HD_BYTES = "HD".getBytes();
+  private static final byte[] EN_BYTES = "EN".getBytes();
+  private static final byte[] MN_RESPONSE_BYTES = "MN".getBytes();
+
+  private final Collection<String> keys;
+  private final String flags;
+  private String[] keyNames = null;
+  private boolean pipelined;
+
+  private String currentKey = null;
+  private int currentFlags = 0;
+  private long casValue = 0;
+  private byte[] data = null;
+  private int readOffset = 0;
+  private boolean hasValue;
+
+  /**
+   * Create a meta retrieval.
+   *
+   * @param k the keys to retrieve
+   * @param f the mg flags to send with every key
+   * @param cb the callback
+   */
+  protected BaseMetaGetOpImpl(Collection<String> k, String f,
+    OperationCallback cb) {
+    super(cb);
+    keys = k;
+    flags = f;
+  }
+
+  protected BaseMetaGetOpImpl(String k, String f, OperationCallback cb) {
+    this(Collections.singleton(k), f, cb);
+  }
+
+  /**
+   * Get the keys this operation is looking for.
+   */
+  public final Collection<String> getKeys() {
+    return keys;
+  }
+
+  /**
+   * Hand a retrieved value to the callback.
+   */
+  protected abstract void gotData(String key, int flags, long cas,
+    byte[] data);
+
+  @Override
+  public final void initialize() {
+    keyNames = keys.toArray(new String[keys.size()]);
+    pipelined = keyNames.length > 1;
+    byte[] flagBytes = (" " + flags).getBytes();
+    byte[][] keyBytes = new byte[keyNames.length][];
+    int size = pipelined ? MN_BYTES.length : 0;
+    for (int i = 0; i < keyNames.length; i++) {
+      keyBytes[i] = KeyUtil.getKeyBytes(keyNames[i]);
+      size += MG_BYTES.length + keyBytes[i].length + flagBytes.length
+        + QUIET_BYTES.length + OPAQUE_BYTES.length + 10 + CRLF.length;
+    }
+    ByteBuffer b = allocateBuffer(size);
+    for (int i = 0; i < keyNames.length; i++) {
+      b.put(MG_BYTES);
+      b.put(keyBytes[i]);
+      b.put(flagBytes);
+      if (pipelined) {
+        b.put(QUIET_BYTES);
+      }
+      b.put(OPAQUE_BYTES);
+      b.put(String.valueOf(i).getBytes());
+      b.put(CRLF);
+    }
+    if (pipelined) {
+      b.put(MN_BYTES);
+    }
+    b.flip();
+    setBuffer(b);
+  }
+
+  @Override
+  protected final void handleLine(byte[] line, int length)
+    throws IOException {
+    if (regionMatches(line, 0, length, VA_BYTES)) {
+      int pos = VA_BYTES.length;
+      int end = indexOf(line, pos, length, (byte) ' ');
+      data = new byte[(int) parseNumber(line, pos, end)];
+      currentKey = parseReturnFlags(line, end, length);
+      readOffset = 0;
+      hasValue = true;
+      getLogger().debug("Set read type to data");
+      setReadType(OperationReadType.DATA);
+    } else if (regionMatches(line, 0, length, HD_BYTES)) {
+      // A hit without a value, as answered to a touch.
+      hasValue = true;
+      if (!pipelined) {
+        complete();
+      }
+    } else if (regionMatches(line, 0, length, EN_BYTES)
+      && length == EN_BYTES.length) {
+      if (!pipelined) {
+        complete();
+      }
+    } else if (regionMatches(line, 0, length, MN_RESPONSE_BYTES)
+      && length == MN_RESPONSE_BYTES.length) {
+      assert pipelined : "Got MN for a single key";
+      complete();
+    } else {
+      super.handleLine(line, length);
+    }
+  }
+
+  /**
+   * Parse the returned flags following the given position, remembering the
+   * client flags and cas, and returns the key the opaque refers to.
+   */
+  private String parseReturnFlags(byte[] line, int pos, int length) {
+    int keyIndex = 0;
+    currentFlags = 0;
+    while (pos < length) {
+      int start = pos + 1;
+      pos = indexOf(line, start, length, (byte) ' ');
+      if (start == pos) {
+        continue;
+      }
+      switch (line[start]) {
+      case 'f':
+        currentFlags = (int) parseNumber(line, start + 1, pos);
+        break;
+      case 'c':
+        casValue = parseNumber(line, start + 1, pos);
+        break;
+      case 'O':
+        keyIndex = (int) parseNumber(line, start + 1, pos);
+        break;
+      default:
+        // Not asked for
+      }
+    }
+    assert keyIndex < keyNames.length : "Unknown opaque " + keyIndex;
+    return keyNames[keyIndex];
+  }
+
+  private void complete() {
+    getLogger().debug("Get complete!");
+    getCallback().receivedStatus(hasValue ? END : NOT_FOUND);
+    transitionState(OperationState.COMPLETE);
+    data = null;
+  }
+
+  @Override
+  public final void handleLine(String line) {
+    assert false : "Unknown line type: " + line;
+  }
+
+  @Override
+  public final void handleRead(ByteBuffer b) {
+    assert currentKey != null;
+    assert data != null;
+    // Read the value and its trailing \r\n.
+    if (readOffset < data.length) {
+      int toRead = Math.min(data.length - readOffset, b.remaining());
+      b.get(data, readOffset, toRead);
+      readOffset += toRead;
+    }
+    while (readOffset >= data.length && readOffset < data.length + 2
+      && b.hasRemaining()) {
+      byte tmp = b.get();
+      assert tmp == CRLF[readOffset - data.length] : "Expecting "
+        + (char) CRLF[readOffset - data.length] + ", got " + (char) tmp;
+      readOffset++;
+    }
+    if (readOffset == data.length + 2) {
+      gotData(currentKey, currentFlags, casValue, data);
+      currentKey = null;
+      data = null;
+      readOffset = 0;
+      getLogger().debug("Setting read type back to line.");
+      setReadType(OperationReadType.LINE);
+      if (!pipelined) {
+        complete();
+      }
+    }
+  }
+
+  @Override
+  protected final void wasCancelled() {
+    getCallback().receivedStatus(CANCELLED);
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: mg " + flags + " Keys: " + StringUtils.join(keys, " ");
+  }
+}
@@ -66,7 +66,7 @@ abstract class BaseStoreOperationImpl extends OperationImpl {
 
   @Override
   public void initialize() {
-    ByteBuffer bb = ByteBuffer.allocate(data.length
+    ByteBuffer bb = allocateBuffer(data.length
         + KeyUtil.getKeyBytes(key).length + OVERHEAD);
     setArguments(bb, type, key, flags, exp, data.length);
     assert bb.remaining() >= data.length + 2 : "Not enough room in buffer,"
@@ -76,7 +76,7 @@ class CASOperationImpl extends OperationImpl implements CASOperation {
 
   @Override
   public void initialize() {
-    ByteBuffer bb = ByteBuffer.allocate(data.length
+    ByteBuffer bb = allocateBuffer(data.length
         + KeyUtil.getKeyBytes(key).length + OVERHEAD);
     setArguments(bb, "cas", key, flags, exp, data.length, casValue);
     assert bb.remaining() >= data.length + 2 : "Not enough room in buffer,"
@@ -62,7 +62,7 @@ final class DeleteOperationImpl extends OperationImpl implements
 
   @Override
   public void initialize() {
-    ByteBuffer b = ByteBuffer.allocate(KeyUtil.getKeyBytes(key).length
+    ByteBuffer b = allocateBuffer(KeyUtil.getKeyBytes(key).length
         + OVERHEAD);
     setArguments(b, "delete", key);
     b.flip();
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.util.StringUtils;
+
+/**
+ * Base class for meta protocol operations pipelining the same command for a
+ * bunch of keys, followed by a meta noop.
+ *
+ * Every request carries the index of its key as opaque. Quiet requests only
+ * answer on failure, so keys that did not answer by the time the noop comes
+ * back get {@link #quietStatus()}.
+ */
+abstract class MetaBaseBulkMutationOperationImpl extends OperationImpl
+    implements BulkMutationOperation {
+
+  private static final OperationStatus DONE = new OperationStatus(true, "OK",
+      StatusCode.SUCCESS);
+  private static final byte[] MN = "mn\r\n".getBytes();
+
+  private final String cmd;
+  private final String[] keys;
+  private final boolean[] answered;
+  private int cursor = 0;
+
+  protected MetaBaseBulkMutationOperationImpl(String c, Collection<String> k,
+      OperationCallback cb) {
+    super(cb);
+    cmd = c;
+    keys = k.toArray(new String[k.size()]);
+    answered = new boolean[keys.length];
+  }
+
+  /**
+   * Get an upper bound of the bytes needed for the request of a key.
+   */
+  protected abstract int requestSize(String key);
+
+  /**
+   * Write the request for the given key, passing the opaque along.
+   */
+  protected abstract void putRequest(ByteBuffer bb, String key,
+      String opaque);
+
+  /**
+   * Get the status matching the return code of an answer.
+   */
+  protected abstract OperationStatus statusFor(String code, String line);
+
+  /**
+   * Get the status of a key that did not answer.
+   */
+  protected abstract OperationStatus quietStatus();
+
+  @Override
+  public void initialize() {
+    int size = MN.length;
+    for (String k : keys) {
+      size += requestSize(k);
+    }
+    ByteBuffer bb = allocateBuffer(size);
+    for (int i = 0; i < keys.length; i++) {
+      putRequest(bb, keys[i], "O" + i);
+    }
+    bb.put(MN);
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  @Override
+  public void handleLine(String line) {
+    BulkMutationOperation.Callback cb =
+      (BulkMutationOperation.Callback) getCallback();
+    if (line.equals("MN")) {
+      for (int i = 0; i < keys.length; i++) {
+        if (!answered[i]) {
+          cb.gotStatus(keys[i], quietStatus());
+        }
+      }
+      cb.receivedStatus(DONE);
+      transitionState(OperationState.COMPLETE);
+    } else {
+      int i = opaqueIndex(line);
+      answered[i] = true;
+      cb.gotStatus(keys[i], statusFor(metaReturnCode(line), line));
+    }
+  }
+
+  /**
+   * Find the key an answer belongs to, from its opaque or else from the
+   * order of the answers.
+   */
+  private int opaqueIndex(String line) {
+    for (String token : line.split(" ")) {
+      if (token.length() > 1 && token.charAt(0) == 'O') {
+        int i = Integer.parseInt(token.substring(1));
+        if (i >= 0 && i < keys.length) {
+          return i;
+        }
+      }
+    }
+    while (answered[cursor]) {
+      cursor++;
+    }
+    return cursor;
+  }
+
+  protected static int keyLength(String key) {
+    return KeyUtil.getKeyBytes(key).length;
+  }
+
+  public Collection<String> getKeys() {
+    return Arrays.asList(keys);
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: " + cmd + " Keys: " + StringUtils.join(getKeys(), " ");
+  }
+}
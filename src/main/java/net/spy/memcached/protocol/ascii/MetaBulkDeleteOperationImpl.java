@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Operation deleting a bunch of keys with quiet meta deletes (md q).
+ *
+ * Quiet deletes may hide a miss as well as a hit, so keys that did not
+ * answer count as deleted.
+ */
+final class MetaBulkDeleteOperationImpl extends
+    MetaBaseBulkMutationOperationImpl implements BulkDeleteOperation {
+
+  private static final int OVERHEAD = 32;
+
+  private static final OperationStatus DELETED = new OperationStatus(true,
+      "DELETED", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+
+  public MetaBulkDeleteOperationImpl(Collection<String> keys,
+      OperationCallback cb) {
+    super("md", keys, cb);
+  }
+
+  @Override
+  protected int requestSize(String key) {
+    return keyLength(key) + OVERHEAD;
+  }
+
+  @Override
+  protected void putRequest(ByteBuffer bb, String key, String opaque) {
+    setArguments(bb, "md", key, opaque, "q");
+  }
+
+  @Override
+  protected OperationStatus statusFor(String code, String line) {
+    if ("HD".equals(code)) {
+      return DELETED;
+    } else if ("NF".equals(code)) {
+      return NOT_FOUND;
+    }
+    return new OperationStatus(false, line, StatusCode.fromAsciiLine(line));
+  }
+
+  @Override
+  protected OperationStatus quietStatus() {
+    return DELETED;
+  }
+}
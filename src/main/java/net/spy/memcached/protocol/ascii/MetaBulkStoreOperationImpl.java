@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Operation storing a bunch of items with quiet meta sets (ms q).
+ */
+final class MetaBulkStoreOperationImpl extends
+    MetaBaseBulkMutationOperationImpl implements BulkStoreOperation {
+
+  private static final int OVERHEAD = 80;
+
+  private static final OperationStatus STORED = new OperationStatus(true,
+      "STORED", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_STORED = new OperationStatus(false,
+      "NOT_STORED", StatusCode.ERR_NOT_STORED);
+  private static final OperationStatus EXISTS = new OperationStatus(false,
+      "EXISTS", StatusCode.ERR_EXISTS);
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+
+  private final StoreType storeType;
+  private final Map<String, CachedData> values;
+  private final int exp;
+
+  public MetaBulkStoreOperationImpl(StoreType t, Map<String, CachedData> v,
+      int e, OperationCallback cb) {
+    super("ms", v.keySet(), cb);
+    storeType = t;
+    values = v;
+    exp = e;
+  }
+
+  @Override
+  protected int requestSize(String key) {
+    return keyLength(key) + values.get(key).getData().length + OVERHEAD;
+  }
+
+  @Override
+  protected void putRequest(ByteBuffer bb, String key, String opaque) {
+    CachedData co = values.get(key);
+    setArguments(bb, "ms", key, co.getData().length, "F" + co.getFlags(),
+      "T" + exp, "M" + mode(storeType), opaque, "q");
+    bb.put(co.getData());
+    bb.put(CRLF);
+  }
+
+  private static char mode(StoreType t) {
+    switch (t) {
+    case add:
+      return 'E';
+    case replace:
+      return 'R';
+    default:
+      return 'S';
+    }
+  }
+
+  @Override
+  protected OperationStatus statusFor(String code, String line) {
+    if ("HD".equals(code)) {
+      return STORED;
+    } else if ("NS".equals(code)) {
+      return NOT_STORED;
+    } else if ("EX".equals(code)) {
+      return EXISTS;
+    } else if ("NF".equals(code)) {
+      return NOT_FOUND;
+    }
+    return new OperationStatus(false, line, StatusCode.fromAsciiLine(line));
+  }
+
+  @Override
+  protected OperationStatus quietStatus() {
+    return STORED;
+  }
+
+  public StoreType getStoreType() {
+    return storeType;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public Map<String, CachedData> getValues() {
+    return values;
+  }
+}
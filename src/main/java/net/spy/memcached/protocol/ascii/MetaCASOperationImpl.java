@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Compare and set with the meta protocol (ms with a C flag).
+ */
+final class MetaCASOperationImpl extends MetaStoreOperationImpl implements
+    CASOperation {
+
+  private static final OperationStatus STORED = new CASOperationStatus(true,
+      "STORED", CASResponse.OK, StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND = new CASOperationStatus(
+      false, "NOT_FOUND", CASResponse.NOT_FOUND, StatusCode.ERR_NOT_FOUND);
+  private static final OperationStatus EXISTS = new CASOperationStatus(false,
+      "EXISTS", CASResponse.EXISTS, StatusCode.ERR_EXISTS);
+
+  private final long casValue;
+
+  public MetaCASOperationImpl(StoreType t, String k, long c, int f, int e,
+      byte[] d, OperationCallback cb) {
+    super(t, k, c, f, e, d, cb);
+    casValue = c;
+  }
+
+  @Override
+  protected OperationStatus stored() {
+    return STORED;
+  }
+
+  @Override
+  protected OperationStatus exists() {
+    return EXISTS;
+  }
+
+  @Override
+  protected OperationStatus notFound() {
+    return NOT_FOUND;
+  }
+
+  public long getCasValue() {
+    return casValue;
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: ms Mode: " + storeType + " Key: " + key + " Cas Value: "
+      + casValue + " Flags: " + flags + " Exp: " + exp + " Data Length: "
+      + data.length;
+  }
+}
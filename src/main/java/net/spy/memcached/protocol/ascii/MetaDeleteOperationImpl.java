@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Operation to delete an item with the meta protocol (md), optionally only
+ * if its cas matches.
+ */
+final class MetaDeleteOperationImpl extends OperationImpl implements
+    DeleteOperation {
+
+  private static final int OVERHEAD = 32;
+
+  private static final OperationStatus DELETED = new OperationStatus(true,
+      "DELETED", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+  private static final OperationStatus EXISTS = new OperationStatus(false,
+      "EXISTS", StatusCode.ERR_EXISTS);
+
+  private final String key;
+  private final long cas;
+
+  public MetaDeleteOperationImpl(String k, long c, OperationCallback cb) {
+    super(cb);
+    key = k;
+    cas = c;
+  }
+
+  @Override
+  public void handleLine(String line) {
+    getLogger().debug("Delete of %s returned %s", key, line);
+    String code = metaReturnCode(line);
+    OperationStatus status;
+    if ("HD".equals(code)) {
+      status = DELETED;
+    } else if ("NF".equals(code)) {
+      status = NOT_FOUND;
+    } else if ("EX".equals(code)) {
+      status = EXISTS;
+    } else {
+      status = new OperationStatus(false, line,
+        StatusCode.fromAsciiLine(line));
+    }
+    getCallback().receivedStatus(status);
+    transitionState(OperationState.COMPLETE);
+  }
+
+  @Override
+  public void initialize() {
+    ByteBuffer b = allocateBuffer(KeyUtil.getKeyBytes(key).length
+        + OVERHEAD);
+    if (cas != 0) {
+      setArguments(b, "md", key, "C" + cas);
+    } else {
+      setArguments(b, "md", key);
+    }
+    b.flip();
+    setBuffer(b);
+  }
+
+  public Collection<String> getKeys() {
+    return Collections.singleton(key);
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: md Key: " + key + " Cas: " + cas;
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import net.spy.memcached.ops.GetOperation;
+
+/**
+ * Operation for retrieving data with the meta protocol.
+ */
+class MetaGetOperationImpl extends BaseMetaGetOpImpl implements GetOperation {
+
+  private static final String FLAGS = "v f";
+
+  public MetaGetOperationImpl(String key, GetOperation.Callback c) {
+    super(key, FLAGS, c);
+  }
+
+  public MetaGetOperationImpl(Collection<String> k, GetOperation.Callback c) {
+    super(new HashSet<String>(k), FLAGS, c);
+  }
+
+  @Override
+  protected void gotData(String key, int flags, long cas, byte[] data) {
+    ((GetOperation.Callback) getCallback()).gotData(key, flags, data);
+  }
+}
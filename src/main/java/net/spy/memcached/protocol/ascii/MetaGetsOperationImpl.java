@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import net.spy.memcached.ops.GetsOperation;
+
+/**
+ * Implementation of the gets operation with the meta protocol.
+ */
+class MetaGetsOperationImpl extends BaseMetaGetOpImpl implements
+    GetsOperation {
+
+  private static final String FLAGS = "v f c";
+
+  public MetaGetsOperationImpl(String key, GetsOperation.Callback cb) {
+    super(key, FLAGS, cb);
+  }
+
+  @Override
+  protected void gotData(String key, int flags, long cas, byte[] data) {
+    ((GetsOperation.Callback) getCallback()).gotData(key, flags, cas, data);
+  }
+}
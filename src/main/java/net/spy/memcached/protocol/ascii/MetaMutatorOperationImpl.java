@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Operation for mutating integers with the meta protocol (ma).
+ *
+ * Unlike the classic incr and decr commands this supports creating the
+ * item with a default value and expiration when it does not exist.
+ */
+final class MetaMutatorOperationImpl extends OperationImpl implements
+    MutatorOperation {
+
+  private static final int OVERHEAD = 96;
+
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+  private static final byte[] VA_BYTES = "VA ".getBytes();
+
+  private final Mutator mutator;
+  private final String key;
+  private final long amount;
+  private final long def;
+  private final int exp;
+  private byte[] value = null;
+  private int readOffset = 0;
+
+  public MetaMutatorOperationImpl(Mutator m, String k, long amt, long d,
+      int e, OperationCallback c) {
+    super(c);
+    mutator = m;
+    key = k;
+    amount = amt;
+    def = d;
+    exp = e;
+  }
+
+  @Override
+  protected void handleLine(byte[] line, int length) throws IOException {
+    if (regionMatches(line, 0, length, VA_BYTES)) {
+      int pos = VA_BYTES.length;
+      value = new byte[(int) parseNumber(line, pos,
+        indexOf(line, pos, length, (byte) ' '))];
+      readOffset = 0;
+      setReadType(OperationReadType.DATA);
+    } else {
+      super.handleLine(line, length);
+    }
+  }
+
+  @Override
+  public void handleLine(String line) {
+    getLogger().debug("Result:  %s", line);
+    OperationStatus status;
+    if ("NF".equals(metaReturnCode(line))) {
+      status = NOT_FOUND;
+    } else {
+      status = new OperationStatus(false, line,
+        StatusCode.fromAsciiLine(line));
+    }
+    getCallback().receivedStatus(status);
+    transitionState(OperationState.COMPLETE);
+  }
+
+  @Override
+  public void handleRead(ByteBuffer b) {
+    // Read the new value and its trailing \r\n.
+    if (readOffset < value.length) {
+      int toRead = Math.min(value.length - readOffset, b.remaining());
+      b.get(value, readOffset, toRead);
+      readOffset += toRead;
+    }
+    while (readOffset >= value.length && readOffset < value.length + 2
+      && b.hasRemaining()) {
+      b.get();
+      readOffset++;
+    }
+    if (readOffset == value.length + 2) {
+      String result = new String(value);
+      getLogger().debug("Result:  %s", result);
+      getCallback().receivedStatus(new OperationStatus(true, result,
+        StatusCode.SUCCESS));
+      setReadType(OperationReadType.LINE);
+      transitionState(OperationState.COMPLETE);
+    }
+  }
+
+  @Override
+  public void initialize() {
+    int size = KeyUtil.getKeyBytes(key).length + OVERHEAD;
+    ByteBuffer b = allocateBuffer(size);
+    String mode = mutator == Mutator.incr ? "MI" : "MD";
+    if (exp != -1) {
+      setArguments(b, "ma", key, mode, "D" + amount, "N" + exp, "J" + def,
+        "v");
+    } else {
+      setArguments(b, "ma", key, mode, "D" + amount, "v");
+    }
+    b.flip();
+    setBuffer(b);
+  }
+
+  @Override
+  protected void wasCancelled() {
+    getCallback().receivedStatus(CANCELLED);
+  }
+
+  public Collection<String> getKeys() {
+    return Collections.singleton(key);
+  }
+
+  public long getBy() {
+    return amount;
+  }
+
+  public long getDefault() {
+    return def;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public Mutator getType() {
+    return mutator;
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: ma " + mutator.name() + " Key: " + key + " Amount: "
+      + amount + " Default: " + def + " Exp: " + exp;
+  }
+}
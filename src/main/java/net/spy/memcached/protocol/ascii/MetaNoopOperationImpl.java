@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+
+import net.spy.memcached.ops.NoopOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Meta protocol no-op (mn).
+ */
+final class MetaNoopOperationImpl extends OperationImpl implements
+    NoopOperation {
+
+  private static final OperationStatus OK = new OperationStatus(true, "MN",
+      StatusCode.SUCCESS);
+  private static final byte[] REQUEST = "mn\r\n".getBytes();
+
+  public MetaNoopOperationImpl(OperationCallback cb) {
+    super(cb);
+  }
+
+  @Override
+  public void handleLine(String line) {
+    getCallback().receivedStatus(matchStatus(line, OK));
+    transitionState(OperationState.COMPLETE);
+  }
+
+  @Override
+  public void initialize() {
+    setBuffer(ByteBuffer.wrap(REQUEST));
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: mn";
+  }
+}
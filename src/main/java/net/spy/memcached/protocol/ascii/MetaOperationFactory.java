@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.util.Collection;
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.NoopOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.ops.TouchOperation;
+
+/**
+ * Operation factory for the meta text protocol (mg, ms, md, ma, mn).
+ *
+ * Retrievals, stores, deletes, touches and arithmetic, single or in bulk,
+ * use the meta commands. Everything else falls back to the classic text
+ * commands, which servers speaking the meta protocol still understand.
+ */
+public class MetaOperationFactory extends AsciiOperationFactory {
+
+  @Override
+  public DeleteOperation delete(String key, DeleteOperation.Callback cb) {
+    return new MetaDeleteOperationImpl(key, 0, cb);
+  }
+
+  @Override
+  public DeleteOperation delete(String key, long cas,
+    DeleteOperation.Callback cb) {
+    return new MetaDeleteOperationImpl(key, cas, cb);
+  }
+
+  @Override
+  public GetAndTouchOperation getAndTouch(String key, int expiration,
+      GetAndTouchOperation.Callback cb) {
+    return new MetaGetAndTouchOperationImpl(key, expiration, cb);
+  }
+
+  @Override
+  public GetAndTouchOperation getAndTouch(Collection<String> keys,
+      int expiration, GetAndTouchOperation.Callback cb) {
+    return new MetaGetAndTouchOperationImpl(keys, expiration, cb);
+  }
+
+  @Override
+  public GetOperation get(String key, GetOperation.Callback cb) {
+    return new MetaGetOperationImpl(key, cb);
+  }
+
+  @Override
+  public GetOperation get(Collection<String> keys, GetOperation.Callback cb) {
+    return new MetaGetOperationImpl(keys, cb);
+  }
+
+  @Override
+  public GetsOperation gets(String key, GetsOperation.Callback cb) {
+    return new MetaGetsOperationImpl(key, cb);
+  }
+
+  @Override
+  public MutatorOperation mutate(Mutator m, String key, long by, long def,
+      int exp, OperationCallback cb) {
+    return new MetaMutatorOperationImpl(m, key, by, def, exp, cb);
+  }
+
+  @Override
+  public StoreOperation store(StoreType storeType, String key, int flags,
+      int exp, byte[] data, StoreOperation.Callback cb) {
+    return new MetaStoreOperationImpl(storeType, key, flags, exp, data, cb);
+  }
+
+  @Override
+  public TouchOperation touch(String key, int expiration,
+      OperationCallback cb) {
+    return new MetaTouchOperationImpl(key, expiration, cb);
+  }
+
+  @Override
+  public BulkStoreOperation storeBulk(StoreType storeType,
+      Map<String, CachedData> values, int exp,
+      BulkMutationOperation.Callback cb) {
+    return new MetaBulkStoreOperationImpl(storeType, values, exp, cb);
+  }
+
+  @Override
+  public BulkDeleteOperation deleteBulk(Collection<String> keys,
+      BulkMutationOperation.Callback cb) {
+    return new MetaBulkDeleteOperationImpl(keys, cb);
+  }
+
+  @Override
+  public BulkTouchOperation touchBulk(Collection<String> keys, int expiration,
+      BulkMutationOperation.Callback cb) {
+    return new MetaBulkTouchOperationImpl(keys, expiration, cb);
+  }
+
+  @Override
+  public NoopOperation noop(OperationCallback cb) {
+    return new MetaNoopOperationImpl(cb);
+  }
+
+  @Override
+  public CASOperation cas(StoreType type, String key, long casId, int flags,
+      int exp, byte[] data, StoreOperation.Callback cb) {
+    return new MetaCASOperationImpl(type, key, casId, flags, exp, data, cb);
+  }
+}
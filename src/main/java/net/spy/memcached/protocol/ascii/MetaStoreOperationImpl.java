@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Operation to store data with the meta protocol (ms).
+ */
+class MetaStoreOperationImpl extends OperationImpl implements StoreOperation {
+
+  private static final int OVERHEAD = 64;
+
+  private static final OperationStatus STORED = new OperationStatus(true,
+      "STORED", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_STORED = new OperationStatus(false,
+      "NOT_STORED", StatusCode.ERR_NOT_STORED);
+  private static final OperationStatus EXISTS = new OperationStatus(false,
+      "EXISTS", StatusCode.ERR_EXISTS);
+  private static final OperationStatus NOT_FOUND = new OperationStatus(false,
+      "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+
+  protected final StoreType storeType;
+  protected final String key;
+  protected final int flags;
+  protected final int exp;
+  protected final byte[] data;
+  private final long casValue;
+
+  public MetaStoreOperationImpl(StoreType t, String k, int f, int e,
+      byte[] d, OperationCallback cb) {
+    this(t, k, 0, f, e, d, cb);
+  }
+
+  protected MetaStoreOperationImpl(StoreType t, String k, long c, int f,
+      int e, byte[] d, OperationCallback cb) {
+    super(cb);
+    storeType = t;
+    key = k;
+    casValue = c;
+    flags = f;
+    exp = e;
+    data = d;
+  }
+
+  @Override
+  public void handleLine(String line) {
+    assert getState() == OperationState.READING : "Read ``" + line
+        + "'' when in " + getState() + " state";
+    String code = metaReturnCode(line);
+    OperationStatus status;
+    if ("HD".equals(code)) {
+      status = stored();
+    } else if ("NS".equals(code)) {
+      status = NOT_STORED;
+    } else if ("EX".equals(code)) {
+      status = exists();
+    } else if ("NF".equals(code)) {
+      status = notFound();
+    } else {
+      status = new OperationStatus(false, line,
+        StatusCode.fromAsciiLine(line));
+    }
+    getCallback().receivedStatus(status);
+    transitionState(OperationState.COMPLETE);
+  }
+
+  protected OperationStatus stored() {
+    return STORED;
+  }
+
+  protected OperationStatus exists() {
+    return EXISTS;
+  }
+
+  protected OperationStatus notFound() {
+    return NOT_FOUND;
+  }
+
+  @Override
+  public void initialize() {
+    ByteBuffer bb = allocateBuffer(data.length
+        + KeyUtil.getKeyBytes(key).length + OVERHEAD);
+    if (casValue != 0) {
+      setArguments(bb, "ms", key, data.length, "F" + flags, "T" + exp,
+        "M" + mode(storeType), "C" + casValue);
+    } else {
+      setArguments(bb, "ms", key, data.length, "F" + flags, "T" + exp,
+        "M" + mode(storeType));
+    }
+    assert bb.remaining() >= data.length + 2 : "Not enough room in buffer,"
+        + " need another " + (2 + data.length - bb.remaining());
+    bb.put(data);
+    bb.put(CRLF);
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  private static char mode(StoreType t) {
+    switch (t) {
+    case add:
+      return 'E';
+    case replace:
+      return 'R';
+    default:
+      return 'S';
+    }
+  }
+
+  @Override
+  protected void wasCancelled() {
+    getCallback().receivedStatus(CANCELLED);
+  }
+
+  public Collection<String> getKeys() {
+    return Collections.singleton(key);
+  }
+
+  public StoreType getStoreType() {
+    return storeType;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+
+  @Override
+  public String toString() {
+    return "Cmd: ms Mode: " + storeType + " Key: " + key + " Flags: " + flags
+      + " Exp: " + exp + " Data Length: " + data.length;
+  }
+}
@@ -22,9 +22,9 @@
 
 package net.spy.memcached.protocol.ascii;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.Operation;
@@ -43,9 +43,9 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
   protected static final byte[] CRLF = { '\r', '\n' };
   private static final String CHARSET = "UTF-8";
 
-  private final ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+  private byte[] lineBuffer = new byte[64];
+  private int lineLength;
   private OperationReadType readType = OperationReadType.LINE;
-  private boolean foundCr;
   private byte[] errorMsg;
 
   protected OperationImpl() {
@@ -128,36 +128,115 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
       if (readType == OperationReadType.DATA) {
         handleRead(data);
       } else {
-        int offset = -1;
-        for (int i = 0; data.remaining() > 0; i++) {
-          byte b = data.get();
-          if (b == '\r') {
-            foundCr = true;
-          } else if (b == '\n') {
-            assert foundCr : "got a \\n without a \\r";
-            offset = i;
-            foundCr = false;
-            break;
-          } else {
-            assert !foundCr : "got a \\r without a \\n";
-            byteBuffer.write(b);
-          }
+        // Scan for the end of the line in place and copy what we have of it
+        // in one go.
+        int start = data.position();
+        int end = start;
+        int limit = data.limit();
+        while (end < limit && data.get(end) != '\n') {
+          end++;
         }
-        if (offset >= 0) {
-          String line = new String(byteBuffer.toByteArray(), CHARSET);
-          byteBuffer.reset();
-          OperationErrorType eType = classifyError(line);
-          if (eType != null) {
-            errorMsg = line.getBytes();
-            handleError(eType, line);
-          } else {
-            handleLine(line);
-          }
+        int length = end - start;
+        if (lineLength + length > lineBuffer.length) {
+          lineBuffer = Arrays.copyOf(lineBuffer,
+            Math.max(lineBuffer.length * 2, lineLength + length));
+        }
+        data.get(lineBuffer, lineLength, length);
+        lineLength += length;
+        if (end < limit) {
+          // Skip the \n
+          data.get();
+          assert lineLength > 0 && lineBuffer[lineLength - 1] == '\r'
+            : "got a \\n without a \\r";
+          int lineEnd = lineLength - 1;
+          lineLength = 0;
+          handleLine(lineBuffer, lineEnd);
         }
       }
     }
   }
 
+  /**
+   * Handle a complete response line.
+   *
+   * The line is given as the first length bytes of the array, without the
+   * trailing \r\n. The array is reused for the next line, so it must not be
+   * kept. By default the line is decoded and dispatched to
+   * {@link #handleError} or {@link #handleLine(String)}; operations on a hot
+   * path may override this to parse the bytes directly.
+   *
+   * @param line the array holding the line
+   * @param length the length of the line
+   */
+  protected void handleLine(byte[] line, int length) throws IOException {
+    String s = new String(line, 0, length, CHARSET);
+    OperationErrorType eType = classifyError(s);
+    if (eType != null) {
+      errorMsg = s.getBytes();
+      handleError(eType, s);
+    } else {
+      handleLine(s);
+    }
+  }
+
+  /**
+   * Returns the two letter return code of a meta protocol response line, or
+   * null if the line is not one.
+   */
+  static String metaReturnCode(String line) {
+    if (line.length() == 2 || (line.length() > 2 && line.charAt(2) == ' ')) {
+      return line.substring(0, 2);
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if the given part of a line starts with the prefix.
+   */
+  static boolean regionMatches(byte[] line, int start, int end,
+    byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (line[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the index of the first occurrence of b in the given part of a
+   * line, or end if there is none.
+   */
+  static int indexOf(byte[] line, int start, int end, byte b) {
+    int i = start;
+    while (i < end && line[i] != b) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Parse the unsigned decimal number in the given part of a line.
+   */
+  static long parseNumber(byte[] line, int start, int end) {
+    if (start >= end) {
+      throw new NumberFormatException("Missing number in response line");
+    }
+    long rv = 0;
+    for (int i = start; i < end; i++) {
+      int digit = line[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("For input string: \""
+          + new String(line, start, end - start) + "\"");
+      }
+      rv = rv * 10 + digit;
+    }
+    return rv;
+  }
+
   /*
    * (non-Javadoc)
    *
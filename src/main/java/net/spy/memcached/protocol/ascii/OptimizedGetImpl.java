@@ -22,15 +22,18 @@
 
 package net.spy.memcached.protocol.ascii;
 
+import java.util.Collection;
 import java.util.HashSet;
 
 import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OptimizedOperation;
 import net.spy.memcached.protocol.ProxyCallback;
 
 /**
  * Optimized Get operation for folding a bunch of gets together.
  */
-final class OptimizedGetImpl extends GetOperationImpl {
+final class OptimizedGetImpl extends GetOperationImpl
+    implements OptimizedOperation {
 
   private final ProxyCallback pcb;
 
@@ -50,4 +53,8 @@ final class OptimizedGetImpl extends GetOperationImpl {
     getKeys().addAll(o.getKeys());
     pcb.addCallbacks(o);
   }
+
+  public Collection<GetOperation> getOptimizedOperations() {
+    return pcb.getOperations();
+  }
 }
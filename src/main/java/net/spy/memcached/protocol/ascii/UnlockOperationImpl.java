@@ -67,7 +67,7 @@ final class UnlockOperationImpl extends OperationImpl implements
 
   @Override
   public void initialize() {
-    ByteBuffer b = ByteBuffer.allocate(KeyUtil.getKeyBytes(key).length
+    ByteBuffer b = allocateBuffer(KeyUtil.getKeyBytes(key).length
         + OVERHEAD);
     setArguments(b, CMD, key, cas);
     b.flip();
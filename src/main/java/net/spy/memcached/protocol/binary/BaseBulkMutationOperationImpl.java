@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.spy.memcached.KeyUtil;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationErrorType;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Base class for operations sending the same command for a bunch of keys,
+ * followed by a noop.
+ *
+ * Every key gets its own request and opaque. Quiet commands only answer on
+ * failure, so keys that did not answer by the time the noop comes back
+ * succeeded.
+ */
+abstract class BaseBulkMutationOperationImpl extends MultiKeyOperationImpl
+    implements BulkMutationOperation {
+
+  private final int terminalOpaque = generateOpaque();
+  private final Map<Integer, String> pending = new HashMap<Integer, String>();
+
+  protected BaseBulkMutationOperationImpl(Collection<String> keys,
+      OperationCallback cb) {
+    super(DUMMY_OPCODE, -1, cb);
+    for (String k : keys) {
+      vbmap.put(k, Short.valueOf((short) 0));
+    }
+  }
+
+  /**
+   * Get the command sent for every key.
+   */
+  protected abstract byte command();
+
+  /**
+   * Get the length of the extras of every request.
+   */
+  protected int extraLength() {
+    return 0;
+  }
+
+  /**
+   * Write the extras of the request for the given key.
+   */
+  protected void putExtras(ByteBuffer bb, String key) {
+    // No extras by default
+  }
+
+  /**
+   * Get the value sent along with the given key.
+   */
+  protected byte[] value(String key) {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public void initialize() {
+    List<String> keys = new ArrayList<String>(getKeys());
+    List<byte[]> keyBytes = new ArrayList<byte[]>(keys.size());
+    int size = MIN_RECV_PACKET;
+    for (String k : keys) {
+      byte[] kb = KeyUtil.getKeyBytes(k);
+      keyBytes.add(kb);
+      size += MIN_RECV_PACKET + extraLength() + kb.length + value(k).length;
+    }
+
+    ByteBuffer bb = allocateBuffer(size);
+    byte cmd = command();
+    for (int i = 0; i < keys.size(); i++) {
+      String k = keys.get(i);
+      byte[] kb = keyBytes.get(i);
+      byte[] val = value(k);
+      int myOpaque = generateOpaque();
+      pending.put(myOpaque, k);
+
+      bb.put(REQ_MAGIC);
+      bb.put(cmd);
+      bb.putShort((short) kb.length);
+      bb.put((byte) extraLength()); // extralen
+      bb.put((byte) 0); // data type
+      bb.putShort(getVBucket(k)); // vbucket
+      bb.putInt(extraLength() + kb.length + val.length);
+      bb.putInt(myOpaque);
+      bb.putLong(0); // cas
+      putExtras(bb, k);
+      bb.put(kb);
+      bb.put(val);
+    }
+    // Add the noop
+    bb.put(REQ_MAGIC);
+    bb.put(NoopOperationImpl.CMD);
+    bb.putShort((short) 0);
+    bb.put((byte) 0); // extralen
+    bb.put((byte) 0); // data type
+    bb.putShort((short) 0); // reserved
+    bb.putInt(0);
+    bb.putInt(terminalOpaque);
+    bb.putLong(0); // cas
+
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  @Override
+  protected void finishedPayload(byte[] pl) throws IOException {
+    BulkMutationOperation.Callback cb =
+      (BulkMutationOperation.Callback) getCallback();
+    if (responseOpaque == terminalOpaque) {
+      for (String k : pending.values()) {
+        cb.gotStatus(k, STATUS_OK);
+      }
+      pending.clear();
+      cb.receivedStatus(STATUS_OK);
+      transitionState(OperationState.COMPLETE);
+    } else {
+      String key = pending.remove(responseOpaque);
+      assert key != null : "No key for " + responseOpaque;
+      OperationStatus status = getStatusForErrorCode(errorCode, pl);
+      if (status == null) {
+        handleError(OperationErrorType.SERVER, new String(pl));
+      } else {
+        cb.gotStatus(key, status);
+      }
+    }
+    resetInput();
+  }
+
+  @Override
+  protected boolean opaqueIsValid() {
+    return responseOpaque == terminalOpaque
+        || pending.containsKey(responseOpaque);
+  }
+}
@@ -80,6 +80,7 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
       }
 
       // Initialize the new mega get
+      optimizedOp.setHandlingNode(this);
       optimizedOp.initialize();
       assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
       ProxyCallback pcb = (ProxyCallback) og.getCallback();
@@ -106,6 +107,7 @@ public class BinaryMemcachedNodeImpl extends TCPMemcachedNodeImpl {
       }
 
       // Initialize the new mega set
+      optimizedOp.setHandlingNode(this);
       optimizedOp.initialize();
       assert optimizedOp.getState() == OperationState.WRITE_QUEUED;
     }
@@ -28,7 +28,12 @@
 
 package net.spy.memcached.protocol.binary;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -71,6 +76,7 @@ import net.spy.memcached.tapmessage.TapOpcode;
 import javax.security.sasl.SaslClient;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Factory for binary operations.
@@ -166,6 +172,22 @@ public class BinaryOperationFactory extends BaseOperationFactory {
     return new TouchOperationImpl(key, expiration, cb);
   }
 
+  public BulkStoreOperation storeBulk(StoreType storeType,
+      Map<String, CachedData> values, int exp,
+      BulkMutationOperation.Callback cb) {
+    return new BulkStoreOperationImpl(storeType, values, exp, cb);
+  }
+
+  public BulkDeleteOperation deleteBulk(Collection<String> keys,
+      BulkMutationOperation.Callback cb) {
+    return new BulkDeleteOperationImpl(keys, cb);
+  }
+
+  public BulkTouchOperation touchBulk(Collection<String> keys, int expiration,
+      BulkMutationOperation.Callback cb) {
+    return new BulkTouchOperationImpl(keys, expiration, cb);
+  }
+
   public Operation refreshCertificate(OperationCallback cb) {
     throw new UnsupportedOperationException("Certificate refresh is not supported in binary mode");
   }
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Operation storing a bunch of items with quiet sets, adds or replaces.
+ */
+class BulkStoreOperationImpl extends BaseBulkMutationOperationImpl implements
+    BulkStoreOperation {
+
+  private final StoreType storeType;
+  private final Map<String, CachedData> values;
+  private final int exp;
+
+  public BulkStoreOperationImpl(StoreType t, Map<String, CachedData> v,
+      int e, OperationCallback cb) {
+    super(v.keySet(), cb);
+    storeType = t;
+    values = v;
+    exp = e;
+  }
+
+  @Override
+  protected byte command() {
+    return OptimizedSetImpl.cmdMap(storeType);
+  }
+
+  @Override
+  protected int extraLength() {
+    return StoreOperationImpl.EXTRA_LEN;
+  }
+
+  @Override
+  protected void putExtras(ByteBuffer bb, String key) {
+    bb.putInt(values.get(key).getFlags());
+    bb.putInt(exp);
+  }
+
+  @Override
+  protected byte[] value(String key) {
+    return values.get(key).getData();
+  }
+
+  public StoreType getStoreType() {
+    return storeType;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public Map<String, CachedData> getValues() {
+    return values;
+  }
+}
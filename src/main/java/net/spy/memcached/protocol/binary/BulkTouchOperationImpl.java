@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import net.spy.memcached.ops.BulkTouchOperation;
+import net.spy.memcached.ops.OperationCallback;
+
+/**
+ * Operation touching a bunch of keys.
+ *
+ * There is no quiet touch, so every key gets an answer before the noop.
+ */
+class BulkTouchOperationImpl extends BaseBulkMutationOperationImpl implements
+    BulkTouchOperation {
+
+  private final int exp;
+
+  public BulkTouchOperationImpl(Collection<String> keys, int e,
+      OperationCallback cb) {
+    super(keys, cb);
+    exp = e;
+  }
+
+  @Override
+  protected byte command() {
+    return TouchOperationImpl.CMD;
+  }
+
+  @Override
+  protected int extraLength() {
+    return 4;
+  }
+
+  @Override
+  protected void putExtras(ByteBuffer bb, String key) {
+    bb.putInt(exp);
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+}
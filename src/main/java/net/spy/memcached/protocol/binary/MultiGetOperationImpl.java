@@ -85,7 +85,7 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
       size += b.length;
     }
     // set up the initial header stuff
-    ByteBuffer bb = ByteBuffer.allocate(size);
+    ByteBuffer bb = allocateBuffer(size);
     for (Map.Entry<Integer, byte[]> me : bkeys.entrySet()) {
       final byte[] keyBytes = me.getValue();
       final String key = keys.get(me.getKey());
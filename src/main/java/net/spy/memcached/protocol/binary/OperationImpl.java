@@ -332,7 +332,7 @@ public  abstract class OperationImpl extends BaseOperationImpl
     final byte[] keyBytes = KeyUtil.getKeyBytes(key);
     int bufSize = MIN_RECV_PACKET + keyBytes.length + val.length;
 
-    ByteBuffer bb = ByteBuffer.allocate(bufSize + extraLen);
+    ByteBuffer bb = allocateBuffer(bufSize + extraLen);
     assert bb.order() == ByteOrder.BIG_ENDIAN;
     bb.put(REQ_MAGIC);
     bb.put(cmd);
@@ -23,16 +23,19 @@
 
 package net.spy.memcached.protocol.binary;
 
+import java.util.Collection;
 import java.util.Collections;
 
 import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OptimizedOperation;
 import net.spy.memcached.ops.VBucketAware;
 import net.spy.memcached.protocol.ProxyCallback;
 
 /**
  * Optimized Get operation for folding a bunch of gets together.
  */
-final class OptimizedGetImpl extends MultiGetOperationImpl {
+final class OptimizedGetImpl extends MultiGetOperationImpl
+    implements OptimizedOperation {
 
   private final ProxyCallback pcb;
 
@@ -59,4 +62,8 @@ final class OptimizedGetImpl extends MultiGetOperationImpl {
   public int size() {
     return pcb.numKeys();
   }
+
+  public Collection<GetOperation> getOptimizedOperations() {
+    return pcb.getOperations();
+  }
 }
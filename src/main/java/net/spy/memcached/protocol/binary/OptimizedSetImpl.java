@@ -36,13 +36,15 @@ import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.OptimizedOperation;
 import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.ops.VBucketAware;
 
 /**
  * Optimized Set operation for folding a bunch of sets together.
  */
-public class OptimizedSetImpl extends MultiKeyOperationImpl {
+public class OptimizedSetImpl extends MultiKeyOperationImpl
+    implements OptimizedOperation {
 
   private static final OperationCallback NOOP_CALLBACK = new NoopCallback();
 
@@ -82,10 +84,14 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
     return byteCount;
   }
 
+  public List<CASOperation> getOptimizedOperations() {
+    return ops;
+  }
+
   @Override
   public void initialize() {
     // Now create a buffer.
-    ByteBuffer bb = ByteBuffer.allocate(byteCount);
+    ByteBuffer bb = allocateBuffer(byteCount);
     for (CASOperation so : ops) {
       Iterator<String> is = so.getKeys().iterator();
       String k = is.next();
@@ -129,7 +135,7 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
     setBuffer(bb);
   }
 
-  private static byte cmdMap(StoreType t) {
+  static byte cmdMap(StoreType t) {
     byte rv;
     switch (t) {
     case set:
@@ -24,19 +24,31 @@ package net.spy.memcached.util;
 
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.MemcachedClientIF;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.internal.ImmediateFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.StatusCode;
 
 /**
  * CacheLoader provides efficient mechanisms for storing lots of data.
  */
 public class CacheLoader extends SpyObject {
 
+  /**
+   * The longest time in milliseconds a push waits for room on a full queue
+   * before trying again, so a server that stopped draining its queue is left
+   * to the failure mode of the client.
+   */
+  private static final long MAX_CAPACITY_WAIT = 250;
+
   private final ExecutorService executorService;
   private final StorageListener storageListener;
   private final MemcachedClientIF client;
@@ -101,6 +113,8 @@ public class CacheLoader extends SpyObject {
    * Push a value into the cache.
    *
    * This is a wrapper around set that throttles and retries on full queues.
+   * With a {@link MemcachedClient} it waits for room on the queue of the
+   * server of the key instead of sleeping between retries.
    *
    * @param <T> the type being stored
    * @param k the key
@@ -108,6 +122,9 @@ public class CacheLoader extends SpyObject {
    * @return the future representing the stored data
    */
   public <T> Future<Boolean> push(String k, T value) {
+    if (client instanceof MemcachedClient) {
+      return push((MemcachedClient) client, k, value);
+    }
     Future<Boolean> rv = null;
     while (rv == null) {
       try {
@@ -132,6 +149,27 @@ public class CacheLoader extends SpyObject {
     return rv;
   }
 
+  private <T> Future<Boolean> push(MemcachedClient c, String k, T value) {
+    OperationFuture<Boolean> rv = c.trySet(k, expiration, value);
+    while (rv.isDone()
+        && rv.getStatus().getStatusCode() == StatusCode.REJECTED) {
+      try {
+        c.awaitCapacity(k).toCompletableFuture().get(MAX_CAPACITY_WAIT,
+          TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        // Give up on the value, the rejected future reports it as not stored.
+        Thread.currentThread().interrupt();
+        return rv;
+      } catch (ExecutionException e) {
+        // Never completed exceptionally, try again regardless.
+      } catch (TimeoutException e) {
+        // Try again, the key may be sent to another server by now.
+      }
+      rv = c.trySet(k, expiration, value);
+    }
+    return rv;
+  }
+
   private void watch(final String key, final Future<Boolean> f) {
     if (executorService != null && storageListener != null) {
       executorService.execute(new Runnable() {
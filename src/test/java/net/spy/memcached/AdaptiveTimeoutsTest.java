@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * Test the adaptive operation timeouts.
+ */
+public class AdaptiveTimeoutsTest extends TestCase {
+
+  private final SocketAddress sa = new InetSocketAddress("10.0.0.1", 11211);
+  private final SocketAddress other = new InetSocketAddress("10.0.0.2", 11211);
+  private final AdaptiveTimeouts timeouts = new AdaptiveTimeouts(4, 2, 1000);
+
+  public void testBuckets() {
+    int previous = -1;
+    for (long v = 0; v < 1L << 40; v = v < 64 ? v + 1 : v + v / 7) {
+      int b = AdaptiveTimeouts.bucketOf(v);
+      assertTrue(b >= previous);
+      long upper = AdaptiveTimeouts.upperBoundOf(b);
+      assertTrue(v + " in " + b, upper >= v);
+      assertTrue(v + " in " + b, upper - v <= v / 16);
+      assertEquals(b, AdaptiveTimeouts.bucketOf(upper));
+      previous = b;
+    }
+    assertEquals(Long.MAX_VALUE, AdaptiveTimeouts.upperBoundOf(
+      AdaptiveTimeouts.bucketOf(Long.MAX_VALUE)));
+  }
+
+  public void testCeilingUntilEnoughSamples() {
+    assertEquals(1000, timeouts.getTimeout(sa));
+    record(sa, 1, AdaptiveTimeouts.MIN_SAMPLES - 1);
+    assertEquals(1000, timeouts.getTimeout(sa));
+    record(sa, 1, AdaptiveTimeouts.MIN_SAMPLES);
+    assertEquals(5, timeouts.getTimeout(sa));
+    assertEquals(1000, timeouts.getTimeout(other));
+  }
+
+  public void testMultipleOfPercentile() {
+    for (int i = 0; i < 10; i++) {
+      record(sa, 1, 98);
+      record(sa, 40, 2);
+    }
+    long t = timeouts.getTimeout(sa);
+    assertTrue("Timeout " + t, t >= 160 && t <= 170);
+  }
+
+  public void testBounds() {
+    record(sa, 0, 200);
+    assertEquals(2, timeouts.getTimeout(sa));
+    record(other, 500, 200);
+    assertEquals(1000, timeouts.getTimeout(other));
+  }
+
+  public void testForgetsOldLatencies() {
+    record(sa, 300, 2 * AdaptiveTimeouts.WINDOW);
+    assertEquals(1000, timeouts.getTimeout(sa));
+    record(sa, 1, AdaptiveTimeouts.WINDOW);
+    assertEquals(1000, timeouts.getTimeout(sa));
+    record(sa, 1, AdaptiveTimeouts.WINDOW);
+    assertEquals(5, timeouts.getTimeout(sa));
+  }
+
+  public void testTimeoutsRaiseTimeout() {
+    record(sa, 1, 2 * AdaptiveTimeouts.WINDOW);
+    assertEquals(5, timeouts.getTimeout(sa));
+    for (int i = 0; i < AdaptiveTimeouts.WINDOW; i++) {
+      timeouts.timedOut(sa);
+    }
+    assertEquals(1000, timeouts.getTimeout(sa));
+  }
+
+  public void testDegradedServerTimesOutEarly() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setOpTimeout(10000)
+        .setAdaptiveTimeoutMultiplier(4).setAdaptiveTimeoutFloor(50)
+        .setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      for (int i = 0; i < 2 * AdaptiveTimeouts.MIN_SAMPLES; i++) {
+        client.get("warmup" + i);
+      }
+      MemcachedNode node = client.getNodeLocator().getPrimary("key");
+      assertEquals(50, client.mconn.timeoutFor(node));
+
+      server.setLatency(5, TimeUnit.SECONDS);
+      long start = System.nanoTime();
+      Future<Object> f = client.asyncGet("key");
+      try {
+        f.get(10, TimeUnit.SECONDS);
+        fail("Expected a timeout");
+      } catch (CheckedOperationTimeoutException e) {
+        assertEquals(node.getSocketAddress(),
+          e.getOperations().iterator().next().getHandlingNode()
+            .getSocketAddress());
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  private void record(SocketAddress addr, long millis, int count) {
+    for (int i = 0; i < count; i++) {
+      timeouts.record(addr, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+  }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the CompletionStage facade against a scripted text protocol server.
+ */
+public class AsyncMemcachedClientTest extends TestCase {
+
+  private ScriptedServer server;
+  private MemcachedClient client;
+  private AsyncMemcachedClient async;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new ScriptedServer();
+    server.start();
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.TEXT).setOpTimeout(1000).setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+    async = new AsyncMemcachedClient(client);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.shutdown();
+    server.close();
+    super.tearDown();
+  }
+
+  public void testSetAndGet() throws Exception {
+    assertTrue(get(async.set("key", 0, "value")));
+    assertEquals("value", get(async.get("key")));
+    assertNull(get(async.get("missing")));
+  }
+
+  public void testGetBulk() throws Exception {
+    assertTrue(get(async.set("k1", 0, "v1")));
+    assertTrue(get(async.set("k2", 0, "v2")));
+    Map<String, Object> values = get(async.getBulk(
+      Arrays.asList("k1", "k2", "k3")));
+    assertEquals(2, values.size());
+    assertEquals("v1", values.get("k1"));
+    assertEquals("v2", values.get("k2"));
+  }
+
+  public void testDeleteAndIncr() throws Exception {
+    assertTrue(get(async.set("counter", 0, "41")));
+    assertEquals(Long.valueOf(42), get(async.incr("counter", 1)));
+    assertTrue(get(async.delete("counter")));
+    assertFalse(get(async.delete("counter")));
+    assertEquals(Long.valueOf(-1), get(async.incr("counter", 1)));
+  }
+
+  public void testIncrWithDefaultUnsupportedOnText() throws Exception {
+    try {
+      async.incr("counter", 1, 5, 0);
+      fail("Expected the default value to be rejected");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      async.decr("counter", 1, 5, 0);
+      fail("Expected the default value to be rejected");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  public void testClientBulkMutations() throws Exception {
+    Map<String, String> items = new HashMap<String, String>();
+    items.put("k1", "v1");
+    items.put("k2", "v2");
+    Map<String, OperationStatus> stored =
+      client.asyncSetBulk(items, 0).get(5, TimeUnit.SECONDS);
+    assertEquals(2, stored.size());
+    assertTrue(stored.get("k1").isSuccess());
+    assertTrue(stored.get("k2").isSuccess());
+    assertEquals("v2", get(async.get("k2")));
+
+    Map<String, OperationStatus> deleted = client.asyncDeleteBulk(
+      Arrays.asList("k1", "missing")).get(5, TimeUnit.SECONDS);
+    assertTrue(deleted.get("k1").isSuccess());
+    assertSame(StatusCode.ERR_NOT_FOUND,
+      deleted.get("missing").getStatusCode());
+    assertNull(get(async.get("k1")));
+  }
+
+  public void testCompletesOnExecutor() throws Exception {
+    final AtomicInteger executed = new AtomicInteger();
+    AsyncMemcachedClient onExecutor = new AsyncMemcachedClient(client,
+      new Executor() {
+        public void execute(Runnable r) {
+          executed.incrementAndGet();
+          r.run();
+        }
+      });
+    assertTrue(get(onExecutor.set("key", 0, "value")));
+    assertEquals(1, executed.get());
+  }
+
+  public void testDecodesOnExecutor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Thread decoder = executor.submit(new Callable<Thread>() {
+        public Thread call() {
+          return Thread.currentThread();
+        }
+      }).get();
+      final AtomicInteger decodedElsewhere = new AtomicInteger();
+      Transcoder<Object> tc = new SerializingTranscoder() {
+        @Override
+        public Object decode(CachedData d) {
+          if (Thread.currentThread() != decoder) {
+            decodedElsewhere.incrementAndGet();
+          }
+          return super.decode(d);
+        }
+      };
+      AsyncMemcachedClient onExecutor =
+        new AsyncMemcachedClient(client, executor);
+      assertTrue(get(onExecutor.set("key", 0, "value", tc)));
+      assertEquals("value", get(onExecutor.get("key", tc)));
+      assertEquals("value", get(onExecutor.getBulk(
+        Collections.singletonList("key"), tc)).get("key"));
+      assertEquals(0, decodedElsewhere.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testFailedDecodeCompletesExceptionally() throws Exception {
+    Transcoder<Object> tc = new SerializingTranscoder() {
+      @Override
+      public Object decode(CachedData d) {
+        throw new IllegalStateException("Cannot decode");
+      }
+    };
+    assertTrue(get(async.set("key", 0, "value")));
+    try {
+      get(async.get("key", tc));
+      fail("Expected the decode to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    try {
+      get(async.getBulk(Collections.singletonList("key"), tc));
+      fail("Expected the decode to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    // The connection was not dropped.
+    assertEquals("value", get(async.get("key")));
+  }
+
+  public void testTimeout() throws Exception {
+    server.silent = true;
+    try {
+      get(async.get("key"));
+      fail("Expected a timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CheckedOperationTimeoutException);
+    }
+  }
+
+  private static <T> T get(java.util.concurrent.CompletionStage<T> stage)
+    throws Exception {
+    CompletableFuture<T> f = stage.toCompletableFuture();
+    return f.get(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Minimal text protocol server for get, set, delete and incr.
+   */
+  private static class ScriptedServer extends Thread {
+    private final ServerSocket socket;
+    private final Map<String, String> data =
+      new ConcurrentHashMap<String, String>();
+    private volatile boolean silent;
+
+    ScriptedServer() throws IOException {
+      super("scripted-memcached");
+      setDaemon(true);
+      socket = new ServerSocket(0, 50,
+        java.net.InetAddress.getByName("127.0.0.1"));
+    }
+
+    InetSocketAddress getAddress() {
+      return new InetSocketAddress("127.0.0.1", socket.getLocalPort());
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket s = socket.accept();
+          Thread t = new Thread() {
+            @Override
+            public void run() {
+              serve(s);
+            }
+          };
+          t.setDaemon(true);
+          t.start();
+        }
+      } catch (IOException e) {
+        // Closed
+      }
+    }
+
+    private void serve(Socket s) {
+      try {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+          s.getInputStream(), "ISO-8859-1"));
+        OutputStream out = s.getOutputStream();
+        String line;
+        while ((line = in.readLine()) != null) {
+          String[] parts = line.split(" ");
+          StringBuilder rv = new StringBuilder();
+          if (parts[0].equals("get")) {
+            for (int i = 1; i < parts.length; i++) {
+              String v = data.get(parts[i]);
+              if (v != null) {
+                rv.append("VALUE ").append(parts[i]).append(" 0 ")
+                  .append(v.length()).append("\r\n").append(v).append("\r\n");
+              }
+            }
+            rv.append("END\r\n");
+          } else if (parts[0].equals("set")) {
+            char[] value = new char[Integer.parseInt(parts[4])];
+            int read = 0;
+            while (read < value.length) {
+              read += in.read(value, read, value.length - read);
+            }
+            in.readLine();
+            data.put(parts[1], new String(value));
+            rv.append("STORED\r\n");
+          } else if (parts[0].equals("delete")) {
+            rv.append(data.remove(parts[1]) != null ? "DELETED\r\n"
+              : "NOT_FOUND\r\n");
+          } else if (parts[0].equals("incr")) {
+            String v = data.get(parts[1]);
+            if (v == null) {
+              rv.append("NOT_FOUND\r\n");
+            } else {
+              long n = Long.parseLong(v) + Long.parseLong(parts[2]);
+              data.put(parts[1], String.valueOf(n));
+              rv.append(n).append("\r\n");
+            }
+          } else {
+            rv.append("ERROR\r\n");
+          }
+          if (!silent) {
+            out.write(rv.toString().getBytes("ISO-8859-1"));
+            out.flush();
+          }
+        }
+      } catch (IOException e) {
+        // Closed
+      }
+    }
+  }
+}
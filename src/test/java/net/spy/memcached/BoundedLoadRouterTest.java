@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.spy.memcached.metrics.NoopMetricCollector;
+
+/**
+ * Test routing reads with bounded loads.
+ */
+public class BoundedLoadRouterTest extends TestCase {
+
+  private List<LoadedNode> nodes;
+  private NodeLocator locator;
+  private BoundedLoadRouter router;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    nodes = new ArrayList<LoadedNode>();
+    for (int i = 0; i < 4; i++) {
+      nodes.add(new LoadedNode(new InetSocketAddress("127.0.0.1",
+        10000 + i)));
+    }
+    locator = new RendezvousNodeLocator(
+      new ArrayList<MemcachedNode>(nodes), DefaultHashAlgorithm.KETAMA_HASH);
+    router = new BoundedLoadRouter(0.25, new NoopMetricCollector());
+  }
+
+  public void testLightLoadStaysOnPrimary() {
+    MemcachedNode primary = locator.getPrimary("key");
+    ((LoadedNode) primary).load = BoundedLoadRouter.MIN_LOAD;
+    assertSame(primary, router.route(locator, "key", primary));
+    assertTrue(router.getOverflowCounts().isEmpty());
+  }
+
+  public void testWithinBoundStaysOnPrimary() {
+    for (LoadedNode n : nodes) {
+      n.load = 100;
+    }
+    MemcachedNode primary = locator.getPrimary("key");
+    ((LoadedNode) primary).load = 120;
+    assertSame(primary, router.route(locator, "key", primary));
+  }
+
+  public void testOverloadMovesToSequence() {
+    MemcachedNode primary = locator.getPrimary("key");
+    LoadedNode first = (LoadedNode) locator.getSequence("key").next();
+    ((LoadedNode) primary).load = 1000;
+    MemcachedNode routed = router.route(locator, "key", primary);
+    assertSame(first, routed);
+    assertEquals(Collections.singletonMap(primary.getSocketAddress(), 1L),
+      router.getOverflowCounts());
+
+    // The first backup is overloaded as well, so the next one gets it.
+    first.load = 1000;
+    routed = router.route(locator, "key", primary);
+    assertNotSame(primary, routed);
+    assertNotSame(first, routed);
+    assertEquals(Long.valueOf(2),
+      router.getOverflowCounts().get(primary.getSocketAddress()));
+  }
+
+  public void testInactiveNodesAreSkipped() {
+    MemcachedNode primary = locator.getPrimary("key");
+    ((LoadedNode) primary).load = 1000;
+    for (LoadedNode n : nodes) {
+      if (n != primary) {
+        n.active = false;
+      }
+    }
+    assertSame(primary, router.route(locator, "key", primary));
+    assertTrue(router.getOverflowCounts().isEmpty());
+  }
+
+  public void testInvalidEpsilon() {
+    try {
+      new BoundedLoadRouter(0, new NoopMetricCollector());
+      fail("Expected a zero epsilon to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testDisabledByDefault() throws Exception {
+    ConnectionFactory cf = new ConnectionFactoryBuilder().build();
+    assertEquals(DefaultConnectionFactory.DEFAULT_BOUNDED_LOAD_EPSILON,
+      cf.getBoundedLoadEpsilon());
+    assertEquals(0.5, new ConnectionFactoryBuilder()
+      .setBoundedLoadEpsilon(0.5).build().getBoundedLoadEpsilon());
+    try {
+      new ConnectionFactoryBuilder().setBoundedLoadEpsilon(-1);
+      fail("Expected a negative epsilon to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static class LoadedNode extends MockMemcachedNode {
+    private int load;
+    private boolean active = true;
+
+    LoadedNode(InetSocketAddress sa) {
+      super(sa);
+    }
+
+    @Override
+    public int getOutstandingOperationCount() {
+      return load;
+    }
+
+    @Override
+    public boolean isActive() {
+      return active;
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * Test the circuit breakers of the servers.
+ */
+public class CircuitBreakersTest extends TestCase {
+
+  private final SocketAddress sa = new InetSocketAddress("10.0.0.1", 11211);
+  private final SocketAddress other = new InetSocketAddress("10.0.0.2", 11211);
+  private final List<CircuitState> transitions = new ArrayList<CircuitState>();
+  private final CircuitBreakers breakers = new CircuitBreakers(0.5, 1000,
+    new CircuitBreakers.Listener() {
+      public void stateChanged(SocketAddress addr, CircuitState from,
+          CircuitState to) {
+        assertEquals(sa, addr);
+        transitions.add(to);
+      }
+    });
+
+  public void testOpensAtFailureRatio() {
+    for (int i = 0; i < CircuitBreakers.WINDOW; i++) {
+      breakers.succeeded(sa);
+    }
+    for (int i = 0; i < CircuitBreakers.WINDOW / 2 - 1; i++) {
+      breakers.failed(sa);
+    }
+    assertTrue(breakers.allows(sa));
+    breakers.failed(sa);
+    assertFalse(breakers.allows(sa));
+    assertSame(CircuitState.OPEN, breakers.getState(sa));
+    assertTrue(breakers.allows(other));
+    assertEquals(Arrays.asList(CircuitState.OPEN), transitions);
+  }
+
+  public void testNeedsMinimumCalls() {
+    for (int i = 0; i < CircuitBreakers.MIN_CALLS - 1; i++) {
+      breakers.failed(sa);
+    }
+    assertTrue(breakers.allows(sa));
+    breakers.failed(sa);
+    assertFalse(breakers.allows(sa));
+  }
+
+  public void testProbeClosesOrReopens() {
+    open();
+    long now = System.nanoTime();
+    assertFalse(breakers.startProbe(sa, now));
+    long later = now + TimeUnit.SECONDS.toNanos(1);
+    assertTrue(breakers.startProbe(sa, later));
+    assertFalse(breakers.startProbe(sa, later));
+    assertSame(CircuitState.HALF_OPEN, breakers.getState(sa));
+    assertFalse(breakers.allows(sa));
+
+    // Regular outcomes are ignored until the probe is back.
+    breakers.succeeded(sa);
+    assertSame(CircuitState.HALF_OPEN, breakers.getState(sa));
+    breakers.probed(sa, false);
+    assertSame(CircuitState.OPEN, breakers.getState(sa));
+
+    assertTrue(breakers.startProbe(sa,
+      System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+    breakers.probed(sa, true);
+    assertTrue(breakers.allows(sa));
+    breakers.probed(sa, false);
+    assertTrue(breakers.allows(sa));
+    assertEquals(Arrays.asList(CircuitState.OPEN, CircuitState.HALF_OPEN,
+      CircuitState.OPEN, CircuitState.HALF_OPEN, CircuitState.CLOSED),
+      transitions);
+
+    // A closed circuit starts over with an empty window.
+    for (int i = 0; i < CircuitBreakers.MIN_CALLS - 1; i++) {
+      breakers.failed(sa);
+    }
+    assertTrue(breakers.allows(sa));
+  }
+
+  public void testForgetsServersLeavingTheCluster() {
+    open();
+    breakers.retain(new NodeIndex(Collections.<MemcachedNode>singletonList(
+      new MockMemcachedNode((InetSocketAddress) sa))));
+    assertSame(CircuitState.OPEN, breakers.getState(sa));
+    breakers.retain(new NodeIndex(Collections.<MemcachedNode>singletonList(
+      new MockMemcachedNode((InetSocketAddress) other))));
+    assertSame(CircuitState.CLOSED, breakers.getState(sa));
+    assertTrue(breakers.allows(sa));
+  }
+
+  public void testFailingServerFailsFast() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setOpTimeout(100)
+        .setCircuitBreakerFailureRatio(0.5).setCircuitBreakerOpenTime(300)
+        .setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+    final List<CircuitState> observed =
+      Collections.synchronizedList(new ArrayList<CircuitState>());
+    client.addObserver(new ConnectionObserver() {
+      public void connectionEstablished(SocketAddress addr, int count) {
+      }
+
+      public void connectionLost(SocketAddress addr) {
+      }
+
+      @Override
+      public void circuitStateChanged(SocketAddress addr, CircuitState to) {
+        observed.add(to);
+      }
+    });
+    try {
+      assertNull(client.get("warmup"));
+      server.setLatency(500, TimeUnit.MILLISECONDS);
+      for (int i = 0; i < 2 * CircuitBreakers.MIN_CALLS; i++) {
+        try {
+          client.asyncGet("key" + i).get(2, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          // timed out or, once the circuit opened, cancelled
+        }
+      }
+      assertSame(CircuitState.OPEN,
+        client.getCircuitStates().get(server.getAddress()));
+      assertTrue(client.asyncGet("key").isDone());
+
+      server.setLatency(0, TimeUnit.MILLISECONDS);
+      Thread.sleep(800);
+      Future<Object> probing = client.asyncGet("key");
+      assertTrue(probing.isDone());
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (client.getCircuitStates().get(server.getAddress())
+          != CircuitState.CLOSED && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(Arrays.asList(CircuitState.OPEN, CircuitState.HALF_OPEN,
+        CircuitState.CLOSED), observed);
+      assertTrue(client.set("key", 0, "value").get());
+      assertEquals("value", client.get("key"));
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  private void open() {
+    for (int i = 0; i < CircuitBreakers.MIN_CALLS; i++) {
+      breakers.failed(sa);
+    }
+    assertFalse(breakers.allows(sa));
+  }
+}
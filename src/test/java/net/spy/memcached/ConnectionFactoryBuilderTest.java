@@ -38,10 +38,15 @@ import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.auth.PlainCallbackHandler;
 import net.spy.memcached.compat.BaseMockCase;
+import net.spy.memcached.ops.BufferAllocator;
+import net.spy.memcached.ops.HeapBufferAllocator;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.ops.PooledBufferAllocator;
 import net.spy.memcached.protocol.ascii.AsciiMemcachedNodeImpl;
 import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.protocol.ascii.MetaMemcachedNodeImpl;
+import net.spy.memcached.protocol.ascii.MetaOperationFactory;
 import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.SerializingTranscoder;
@@ -99,7 +104,34 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     }
 
     assertFalse(f.isDaemon());
+    assertEquals(DefaultConnectionFactory.DEFAULT_IO_THREAD_COUNT,
+        f.getIoThreadCount());
+    assertEquals(DefaultConnectionFactory.DEFAULT_CONNECTIONS_PER_NODE,
+        f.getConnectionsPerNode());
+    assertEquals(DefaultConnectionFactory.DEFAULT_GATHERING_WRITE_LIMIT,
+        f.getGatheringWriteLimit());
+    assertEquals(DefaultConnectionFactory.DEFAULT_KEY_HASH_CACHE_SIZE,
+        f.getKeyHashCacheSize());
+    assertEquals(DefaultConnectionFactory.DEFAULT_NEAR_CACHE_MAX_BYTES,
+        f.getNearCacheMaxBytes());
+    assertEquals(DefaultConnectionFactory.DEFAULT_NEAR_CACHE_MAX_STALENESS,
+        f.getNearCacheMaxStaleness());
+    assertEquals(DefaultConnectionFactory.DEFAULT_HEDGE_PERCENTILE,
+        f.getHedgePercentile());
+    assertEquals(DefaultConnectionFactory.DEFAULT_HEDGE_BUDGET,
+        f.getHedgeBudget());
+    assertEquals(DefaultConnectionFactory.DEFAULT_ADAPTIVE_TIMEOUT_MULTIPLIER,
+        f.getAdaptiveTimeoutMultiplier());
+    assertEquals(DefaultConnectionFactory.DEFAULT_ADAPTIVE_TIMEOUT_FLOOR,
+        f.getAdaptiveTimeoutFloor());
+    assertEquals(
+        DefaultConnectionFactory.DEFAULT_CIRCUIT_BREAKER_FAILURE_RATIO,
+        f.getCircuitBreakerFailureRatio());
+    assertEquals(DefaultConnectionFactory.DEFAULT_CIRCUIT_BREAKER_OPEN_TIME,
+        f.getCircuitBreakerOpenTime());
+    assertTrue(f.getBufferAllocator() instanceof HeapBufferAllocator);
     assertFalse(f.shouldOptimize());
+    assertFalse(f.shouldCoalesceGets());
     assertFalse(f.useNagleAlgorithm());
     assertFalse(f.getKeepAlive());
     assertEquals(f.getOpQueueMaxBlockTime(),
@@ -129,6 +161,8 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         new String[] { "PLAIN" }, new PlainCallbackHandler("username",
           "password"));
 
+    BufferAllocator allocator = new PooledBufferAllocator(16, 256, 1024);
+
     ConnectionFactory f = b.setDaemon(true).setShouldOptimize(false)
         .setFailureMode(FailureMode.Redistribute)
         .setHashAlg(DefaultHashAlgorithm.KETAMA_HASH)
@@ -142,6 +176,20 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         .setAuthDescriptor(anAuthDescriptor)
         .setAuthWaitTime(3000)
         .setKeepAlive(true)
+        .setIoThreadCount(4)
+        .setConnectionsPerNode(3)
+        .setGatheringWriteLimit(4096)
+        .setKeyHashCacheSize(1024)
+        .setNearCacheMaxBytes(1 << 20)
+        .setNearCacheMaxStaleness(250)
+        .setCoalesceGets(true)
+        .setHedgePercentile(95)
+        .setHedgeBudget(0.1)
+        .setAdaptiveTimeoutMultiplier(5)
+        .setAdaptiveTimeoutFloor(20)
+        .setCircuitBreakerFailureRatio(0.5)
+        .setCircuitBreakerOpenTime(2500)
+        .setBufferAllocator(allocator)
         .build();
 
     assertEquals(4225, f.getOperationTimeout());
@@ -156,7 +204,21 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     assertSame(rQueue, f.createReadOperationQueue());
     assertSame(wQueue, f.createWriteOperationQueue());
     assertTrue(f.isDaemon());
+    assertEquals(4, f.getIoThreadCount());
+    assertEquals(3, f.getConnectionsPerNode());
+    assertEquals(4096, f.getGatheringWriteLimit());
+    assertEquals(1024, f.getKeyHashCacheSize());
+    assertEquals(1 << 20, f.getNearCacheMaxBytes());
+    assertEquals(250, f.getNearCacheMaxStaleness());
+    assertEquals(95.0, f.getHedgePercentile());
+    assertEquals(0.1, f.getHedgeBudget());
+    assertEquals(5.0, f.getAdaptiveTimeoutMultiplier());
+    assertEquals(20, f.getAdaptiveTimeoutFloor());
+    assertEquals(0.5, f.getCircuitBreakerFailureRatio());
+    assertEquals(2500, f.getCircuitBreakerOpenTime());
+    assertSame(allocator, f.getBufferAllocator());
     assertFalse(f.shouldOptimize());
+    assertTrue(f.shouldCoalesceGets());
     assertTrue(f.useNagleAlgorithm());
     assertTrue(f.getKeepAlive());
     assertEquals(f.getOpQueueMaxBlockTime(), 19);
@@ -168,6 +230,12 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
             UnitTestConfig.PORT_NUMBER));
     assertTrue(f.createLocator(Collections.singletonList(n))
         instanceof KetamaNodeLocator);
+    assertTrue(b.setLocatorType(Locator.JUMP).build()
+        .createLocator(Collections.singletonList(n))
+        instanceof JumpHashNodeLocator);
+    assertTrue(b.setLocatorType(Locator.RENDEZVOUS).build()
+        .createLocator(Collections.singletonList(n))
+        instanceof RendezvousNodeLocator);
 
     SocketChannel sc = SocketChannel.open();
     try {
@@ -191,6 +259,21 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
 
   }
 
+  public void testProtocolSetterMeta() throws Exception {
+    ConnectionFactory f = b.setProtocol(Protocol.META).build();
+    assertTrue(f.getOperationFactory() instanceof MetaOperationFactory);
+
+    SocketChannel sc = SocketChannel.open();
+    try {
+      assertTrue(f.createMemcachedNode(
+          InetSocketAddress.createUnresolved("localhost",
+              UnitTestConfig.PORT_NUMBER), sc, 1)
+          instanceof MetaMemcachedNodeImpl);
+    } finally {
+      sc.close();
+    }
+  }
+
   public void testOverridingExecutorService() {
     ConnectionFactory factory = b.build();
     assertTrue(factory.isDefaultExecutorService());
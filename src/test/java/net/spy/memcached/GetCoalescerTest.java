@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+import net.spy.memcached.transcoders.IntegerTranscoder;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the coalescing of concurrent gets.
+ */
+public class GetCoalescerTest extends TestCase {
+
+  private static final OperationStatus OK =
+    new OperationStatus(true, "END", StatusCode.SUCCESS);
+
+  private final GetCoalescer coalescer =
+    new GetCoalescer(new NoopMetricCollector());
+  private final Transcoder<Object> tc = new SerializingTranscoder();
+
+  public void testJoinUntilComplete() throws Exception {
+    GetCoalescer.Flight<Object> first = flight("key", tc);
+    assertTrue(coalescer.start(first));
+    GetCoalescer.Flight<Object> second = flight("key", tc);
+    assertFalse(coalescer.start(second));
+    assertTrue(coalescer.start(flight("other", tc)));
+    assertEquals(2, coalescer.size());
+
+    first.complete(null, OK);
+    assertEquals(1, coalescer.size());
+    assertTrue(coalescer.start(flight("key", tc)));
+    assertEquals(3, coalescer.getIssuedCount());
+    assertEquals(1, coalescer.getJoinedCount());
+  }
+
+  public void testOtherTranscoderNotJoined() {
+    assertTrue(coalescer.start(flight("key", tc)));
+    GetCoalescer.Flight<Integer> other =
+      flight("key", new IntegerTranscoder());
+    assertTrue(coalescer.start(other));
+    other.complete(null, OK);
+    assertEquals(1, coalescer.size());
+  }
+
+  public void testClient() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.TEXT)
+        .setCoalesceGets(true).setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertTrue(client.set("key", 0, "value").get());
+      server.setLatency(200, TimeUnit.MILLISECONDS);
+      long requests = server.getRequestCount();
+      List<GetFuture<Object>> gets = new ArrayList<GetFuture<Object>>();
+      for (int i = 0; i < 50; i++) {
+        gets.add(client.asyncGet("key"));
+      }
+      for (GetFuture<Object> f : gets) {
+        assertEquals("value", f.get());
+        assertTrue(f.getStatus().isSuccess());
+      }
+      assertEquals(requests + 1, server.getRequestCount());
+
+      server.setLatency(0, TimeUnit.MILLISECONDS);
+      assertNull(client.get("missing"));
+      assertEquals("value", client.get("key"));
+      try {
+        client.asyncGet("bad key");
+        fail("Invalid key accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testGetAfterWriteNotJoined() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = coalescingClient(server);
+    try {
+      assertTrue(client.set("key", 0, "old").get());
+      server.setLatency(200, TimeUnit.MILLISECONDS);
+      GetFuture<Object> before = client.asyncGet("key");
+      Future<Boolean> set = client.set("key", 0, "new");
+      GetFuture<Object> after = client.asyncGet("key");
+      assertEquals("old", before.get());
+      assertTrue(set.get());
+      assertEquals("new", after.get());
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testCancelLeavesOtherGets() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = coalescingClient(server);
+    try {
+      assertTrue(client.set("key", 0, "value").get());
+      server.setLatency(200, TimeUnit.MILLISECONDS);
+      GetFuture<Object> kept = client.asyncGet("key");
+      GetFuture<Object> cancelled = client.asyncGet("key");
+      cancelled.cancel(true);
+      assertTrue(cancelled.isCancelled());
+      assertTrue(cancelled.isDone());
+      try {
+        cancelled.get();
+        fail("Cancelled get returned a value");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof CancellationException);
+      }
+      assertEquals("value", kept.get());
+      assertFalse(kept.isCancelled());
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testTimeoutLeavesOtherGets() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = coalescingClient(server);
+    try {
+      assertTrue(client.set("key", 0, "value").get());
+      server.setLatency(300, TimeUnit.MILLISECONDS);
+      GetFuture<Object> patient = client.asyncGet("key");
+      GetFuture<Object> impatient = client.asyncGet("key");
+      try {
+        impatient.get(10, TimeUnit.MILLISECONDS);
+        fail("Get did not time out");
+      } catch (TimeoutException e) {
+        // expected
+      }
+      assertEquals("value", patient.get());
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  private MemcachedClient coalescingClient(EmbeddedMemcachedServer server)
+    throws Exception {
+    return new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.TEXT)
+        .setCoalesceGets(true).setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+  }
+
+  private <T> GetCoalescer.Flight<T> flight(String key, Transcoder<T> t) {
+    CountDownLatch latch = new CountDownLatch(1);
+    GetFuture<T> rv = new GetFuture<T>(latch, 1000, key, null);
+    GetCoalescer.Flight<T> flight = coalescer.newFlight(key, t, rv, latch);
+    flight.setOperation(null);
+    return flight;
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.server.EmbeddedMemcachedCluster;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * Test hedged gets.
+ */
+public class HedgedGetsTest extends TestCase {
+
+  private static final OperationStatus HIT =
+    new OperationStatus(true, "END", StatusCode.SUCCESS);
+  private static final OperationStatus MISS =
+    new OperationStatus(false, "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+
+  private HedgedGets hedging;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    hedging = new HedgedGets(90, 0.5, new NoopMetricCollector(), true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    hedging.shutdown();
+    super.tearDown();
+  }
+
+  public void testDelayIsPercentile() {
+    for (int i = 1; i < HedgedGets.MIN_SAMPLES; i++) {
+      hedging.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(-1, hedging.getDelay());
+    for (int i = HedgedGets.MIN_SAMPLES; i <= HedgedGets.WINDOW; i++) {
+      hedging.record(TimeUnit.MILLISECONDS.toNanos(i % 100 + 1));
+    }
+    long delay = TimeUnit.NANOSECONDS.toMillis(hedging.getDelay());
+    assertTrue("Delay " + delay, delay >= 85 && delay <= 95);
+    for (int i = 0; i < HedgedGets.WINDOW; i++) {
+      hedging.record(1);
+    }
+    assertEquals(HedgedGets.MIN_DELAY, hedging.getDelay());
+  }
+
+  public void testBudget() {
+    HedgedGets h = new HedgedGets(90, 0.25, new NoopMetricCollector(), true);
+    try {
+      Recorder<Object> first = new Recorder<Object>(h);
+      assertTrue(first.startHedge());
+      assertFalse(first.startHedge());
+      // A quarter of a token per race, the first hedge spent the rest.
+      assertFalse(new Recorder<Object>(h).startHedge());
+      assertFalse(new Recorder<Object>(h).startHedge());
+      assertTrue(new Recorder<Object>(h).startHedge());
+      assertEquals(2, h.getSentCount());
+    } finally {
+      h.shutdown();
+    }
+  }
+
+  public void testFirstHitWins() {
+    Recorder<Object> race = new Recorder<Object>(hedging);
+    assertTrue(race.startHedge());
+    race.answer(value("hedge"), 5, HIT, false);
+    assertEquals("hedge", race.result);
+    race.answer(value("first"), 5, HIT, true);
+    assertEquals("hedge", race.result);
+    assertEquals(1, race.calls);
+    assertEquals(1, hedging.getWonCount());
+  }
+
+  public void testMissWaitsForHedge() {
+    Recorder<Object> race = new Recorder<Object>(hedging);
+    assertTrue(race.startHedge());
+    race.answer(null, 0, MISS, true);
+    assertEquals(0, race.calls);
+    race.answer(value("hedge"), 5, HIT, false);
+    assertEquals("hedge", race.result);
+
+    race = new Recorder<Object>(hedging);
+    assertTrue(race.startHedge());
+    race.answer(null, 0, MISS, false);
+    race.answer(null, 0, MISS, true);
+    assertEquals(1, race.calls);
+    assertSame(MISS, race.status);
+
+    race = new Recorder<Object>(hedging);
+    race.answer(null, 0, MISS, true);
+    assertEquals(1, race.calls);
+    assertFalse(race.startHedge());
+  }
+
+  public void testSlowNodeHedged() throws Exception {
+    EmbeddedMemcachedServer a = new EmbeddedMemcachedServer().start();
+    EmbeddedMemcachedServer b = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setHedgePercentile(90).setHedgeBudget(0.5).setDaemon(true).build(),
+      Arrays.asList(a.getAddress(), b.getAddress()));
+    try {
+      for (int i = 0; i < 2 * HedgedGets.MIN_SAMPLES; i++) {
+        client.get("warmup" + i);
+      }
+      for (EmbeddedMemcachedServer server : Arrays.asList(a, b)) {
+        MemcachedClient c = new MemcachedClient(Collections.singletonList(
+          server.getAddress()));
+        assertTrue(c.set("key", 0, "value").get());
+        c.shutdown();
+      }
+      InetSocketAddress primary = (InetSocketAddress) client.getNodeLocator()
+        .getPrimary("key").getSocketAddress();
+      EmbeddedMemcachedServer slow = a.getAddress().equals(primary) ? a : b;
+      slow.setLatency(2, TimeUnit.SECONDS);
+
+      long start = System.nanoTime();
+      assertEquals("value", client.get("key"));
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    } finally {
+      client.shutdown();
+      a.close();
+      b.close();
+    }
+  }
+
+  public void testWonHedgeOutlivesFirstGet() throws Exception {
+    EmbeddedMemcachedCluster cluster = new EmbeddedMemcachedCluster(2);
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+        .setOpTimeout(1000).setHedgePercentile(90).setHedgeBudget(0.5)
+        .setDaemon(true).build(),
+      cluster.getAddresses());
+    try {
+      for (int i = 0; i < 2 * HedgedGets.MIN_SAMPLES; i++) {
+        client.get("warmup" + i);
+      }
+      for (EmbeddedMemcachedServer server : cluster.getNodes()) {
+        MemcachedClient c = new MemcachedClient(Collections.singletonList(
+          server.getAddress()));
+        assertTrue(c.set("key", 0, "v").get());
+        c.shutdown();
+      }
+      InetSocketAddress primary = (InetSocketAddress) client.getNodeLocator()
+        .getPrimary("key").getSocketAddress();
+      for (EmbeddedMemcachedServer server : cluster.getNodes()) {
+        if (server.getAddress().equals(primary)) {
+          server.setLatency(3, TimeUnit.SECONDS);
+        }
+      }
+
+      GetFuture<Object> f = client.asyncGet("key");
+      assertEquals("v", f.get());
+      // The first get times out in the meantime.
+      Thread.sleep(1500);
+      assertEquals("v", f.get());
+      assertTrue(f.getStatus().isSuccess());
+    } finally {
+      client.shutdown();
+      cluster.close();
+    }
+  }
+
+  private static Future<Object> value(Object v) {
+    return CompletableFuture.completedFuture(v);
+  }
+
+  private static final class Recorder<T> extends HedgedGets.Race<T> {
+    private int calls;
+    private T result;
+    private OperationStatus status;
+
+    Recorder(HedgedGets h) {
+      super(h);
+    }
+
+    @Override
+    void finish(Future<T> val, int size, OperationStatus s, boolean first) {
+      calls++;
+      status = s;
+      try {
+        result = val == null ? null : val.get();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
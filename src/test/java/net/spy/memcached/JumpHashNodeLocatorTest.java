@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the jump consistent hash node locator.
+ */
+public class JumpHashNodeLocatorTest extends TestCase {
+
+  private static final int KEYS = 10000;
+
+  public void testJump() {
+    // A single bucket takes every key.
+    assertEquals(0, JumpHashNodeLocator.jump(0, 1));
+    assertEquals(0, JumpHashNodeLocator.jump(12345, 1));
+    for (long key = 0; key < 1000; key++) {
+      int b = JumpHashNodeLocator.jump(key, 10);
+      assertTrue(b >= 0 && b < 10);
+      // Growing only ever moves a key to the new bucket.
+      int grown = JumpHashNodeLocator.jump(key, 11);
+      assertTrue(grown == b || grown == 10);
+    }
+  }
+
+  public void testDistribution() {
+    List<MemcachedNode> nodes = createNodes(0, 10);
+    NodeLocator locator = new JumpHashNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    int[] counts = new int[nodes.size()];
+    for (int i = 0; i < KEYS; i++) {
+      counts[nodes.indexOf(locator.getPrimary("key" + i))]++;
+    }
+    for (int c : counts) {
+      assertTrue("Unbalanced: " + c, c > KEYS / 10 * 0.8
+        && c < KEYS / 10 * 1.2);
+    }
+  }
+
+  public void testAddingMovesKeysToNewNodeOnly() {
+    List<MemcachedNode> nodes = createNodes(0, 10);
+    JumpHashNodeLocator locator = new JumpHashNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    MemcachedNode[] before = primaries(locator);
+    List<MemcachedNode> grown = new ArrayList<MemcachedNode>(nodes);
+    MemcachedNode added = createNodes(10, 1).get(0);
+    grown.add(3, added);
+    locator.updateLocator(grown);
+    assertEquals(11, locator.getAll().size());
+    MemcachedNode[] after = primaries(locator);
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      if (after[i] != before[i]) {
+        assertSame(added, after[i]);
+        moved++;
+      }
+    }
+    assertTrue("Moved " + moved, moved > 0 && moved < KEYS / 11 * 1.3);
+  }
+
+  public void testRemovingMovesKeysOfRemovedAndLastNode() {
+    List<MemcachedNode> nodes = createNodes(0, 10);
+    JumpHashNodeLocator locator = new JumpHashNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    MemcachedNode[] before = primaries(locator);
+    List<MemcachedNode> shrunk = new ArrayList<MemcachedNode>(nodes);
+    MemcachedNode removed = shrunk.remove(4);
+    locator.updateLocator(shrunk);
+    assertEquals(9, locator.getAll().size());
+    assertFalse(locator.getAll().contains(removed));
+    MemcachedNode[] after = primaries(locator);
+    for (int i = 0; i < KEYS; i++) {
+      if (before[i] != removed && before[i] != nodes.get(9)) {
+        assertSame(before[i], after[i]);
+      }
+    }
+  }
+
+  public void testReplacingMovesKeysOfReplacedNodeOnly() {
+    List<MemcachedNode> nodes = createNodes(0, 10);
+    JumpHashNodeLocator locator = new JumpHashNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    MemcachedNode[] before = primaries(locator);
+    List<MemcachedNode> replaced = new ArrayList<MemcachedNode>(nodes);
+    MemcachedNode removed = replaced.remove(2);
+    MemcachedNode added = createNodes(10, 1).get(0);
+    replaced.add(added);
+    locator.updateLocator(replaced);
+    MemcachedNode[] after = primaries(locator);
+    for (int i = 0; i < KEYS; i++) {
+      assertSame(before[i] == removed ? added : before[i], after[i]);
+    }
+  }
+
+  public void testSequence() {
+    List<MemcachedNode> nodes = createNodes(0, 5);
+    JumpHashNodeLocator locator = new JumpHashNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    for (int i = 0; i < 100; i++) {
+      String key = "key" + i;
+      MemcachedNode primary = locator.getPrimary(key);
+      Set<MemcachedNode> seen = new HashSet<MemcachedNode>();
+      Iterator<MemcachedNode> it = locator.getSequence(key);
+      MemcachedNode backup = it.next();
+      seen.add(backup);
+      while (it.hasNext()) {
+        assertTrue(seen.add(it.next()));
+      }
+      assertFalse(seen.contains(primary));
+      assertEquals(4, seen.size());
+
+      // The first backup is where the key goes without its primary.
+      List<MemcachedNode> without = new ArrayList<MemcachedNode>(nodes);
+      without.remove(primary);
+      JumpHashNodeLocator shrunk = new JumpHashNodeLocator(nodes,
+        DefaultHashAlgorithm.KETAMA_HASH);
+      shrunk.updateLocator(without);
+      assertSame(backup, shrunk.getPrimary(key));
+    }
+  }
+
+  public void testReadonlyCopy() {
+    JumpHashNodeLocator locator = new JumpHashNodeLocator(createNodes(0, 5),
+      DefaultHashAlgorithm.KETAMA_HASH);
+    NodeLocator copy = locator.getReadonlyCopy();
+    for (MemcachedNode n : copy.getAll()) {
+      assertTrue(n instanceof MemcachedNodeROImpl);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(locator.getPrimary("key" + i).getSocketAddress(),
+        copy.getPrimary("key" + i).getSocketAddress());
+    }
+  }
+
+  private static MemcachedNode[] primaries(NodeLocator locator) {
+    MemcachedNode[] rv = new MemcachedNode[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      rv[i] = locator.getPrimary("key" + i);
+    }
+    return rv;
+  }
+
+  static List<MemcachedNode> createNodes(int first, int n) {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>(n);
+    for (int i = first; i < first + n; i++) {
+      nodes.add(new MockMemcachedNode(
+        new InetSocketAddress("127.0.0.1", 10000 + i)));
+    }
+    return nodes;
+  }
+}
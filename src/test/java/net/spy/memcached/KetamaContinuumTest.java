@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the array backed Ketama continuum against the sorted map lookups it
+ * replaced.
+ */
+public class KetamaContinuumTest extends TestCase {
+
+  private final Random random = new Random(42);
+
+  public void testMatchesSortedMapLookup() {
+    List<MemcachedNode> nodes = createNodes(100);
+    assertSamePlacement(new KetamaNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH));
+    assertSamePlacement(new KetamaNodeLocator(nodes,
+      DefaultHashAlgorithm.FNV1A_32_HASH));
+  }
+
+  public void testMatchesSortedMapLookupWeighted() {
+    List<MemcachedNode> nodes = createNodes(4);
+    int[] weight = {1, 1, 2, 4};
+    Map<InetSocketAddress, Integer> weights =
+      new HashMap<InetSocketAddress, Integer>();
+    for (int i = 0; i < nodes.size(); i++) {
+      weights.put((InetSocketAddress) nodes.get(i).getSocketAddress(),
+        weight[i]);
+    }
+    assertSamePlacement(new KetamaNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH,
+      KetamaNodeKeyFormatter.Format.LIBMEMCACHED, weights));
+  }
+
+  public void testSequenceMatchesSortedMapLookup() {
+    KetamaNodeLocator locator = new KetamaNodeLocator(createNodes(20),
+      DefaultHashAlgorithm.KETAMA_HASH);
+    TreeMap<Long, MemcachedNode> map = locator.getKetamaNodes();
+    HashAlgorithm alg = DefaultHashAlgorithm.KETAMA_HASH;
+    for (int k = 0; k < 100; k++) {
+      String key = "key" + k;
+      long hash = alg.hash(key);
+      Iterator<MemcachedNode> it = locator.getSequence(key);
+      for (int tries = 0; it.hasNext(); tries++) {
+        assertSame(lookup(map, hash), it.next());
+        long tmpKey = alg.hash(tries + key);
+        hash += (int) (tmpKey ^ (tmpKey >>> 32));
+        hash &= 0xffffffffL;
+      }
+    }
+  }
+
+  public void testReadonlyCopy() {
+    KetamaNodeLocator locator = new KetamaNodeLocator(createNodes(5),
+      DefaultHashAlgorithm.KETAMA_HASH);
+    KetamaNodeLocator copy = (KetamaNodeLocator) locator.getReadonlyCopy();
+    assertEquals(locator.getMaxKey(), copy.getMaxKey());
+    for (int i = 0; i < 1000; i++) {
+      long hash = random.nextLong() & 0xffffffffL;
+      assertEquals(locator.getNodeForKey(hash).getSocketAddress(),
+        copy.getNodeForKey(hash).getSocketAddress());
+      assertTrue(copy.getNodeForKey(hash) instanceof MemcachedNodeROImpl);
+    }
+  }
+
+  private void assertSamePlacement(KetamaNodeLocator locator) {
+    TreeMap<Long, MemcachedNode> map = locator.getKetamaNodes();
+    assertEquals(map.lastKey().longValue(), locator.getMaxKey());
+    for (Map.Entry<Long, MemcachedNode> me : map.entrySet()) {
+      assertSame(me.getValue(), locator.getNodeForKey(me.getKey()));
+      assertSame(lookup(map, me.getKey() + 1),
+        locator.getNodeForKey(me.getKey() + 1));
+    }
+    assertSame(map.firstEntry().getValue(), locator.getNodeForKey(0));
+    assertSame(map.firstEntry().getValue(),
+      locator.getNodeForKey(0xffffffffL));
+    for (int i = 0; i < 10000; i++) {
+      long hash = random.nextLong() & 0xffffffffL;
+      assertSame(lookup(map, hash), locator.getNodeForKey(hash));
+    }
+  }
+
+  private static MemcachedNode lookup(SortedMap<Long, MemcachedNode> map,
+    long hash) {
+    SortedMap<Long, MemcachedNode> tailMap = map.tailMap(hash);
+    return tailMap.isEmpty() ? map.get(map.firstKey())
+      : tailMap.get(tailMap.firstKey());
+  }
+
+  private static List<MemcachedNode> createNodes(int n) {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>(n);
+    for (int i = 0; i < n; i++) {
+      nodes.add(new MockMemcachedNode(
+        new InetSocketAddress("127.0.0.1", 10000 + i)));
+    }
+    return Collections.unmodifiableList(nodes);
+  }
+}
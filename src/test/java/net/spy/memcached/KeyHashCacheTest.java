@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.spy.memcached.metrics.AbstractMetricCollector;
+
+/**
+ * Test the key hash cache.
+ */
+public class KeyHashCacheTest extends TestCase {
+
+  public void testSameHashes() {
+    for (DefaultHashAlgorithm alg : DefaultHashAlgorithm.values()) {
+      KeyHashCache cache = new KeyHashCache(alg, 64);
+      for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < 100; i++) {
+          assertEquals(alg.hash("key" + i), cache.hash("key" + i));
+        }
+      }
+    }
+  }
+
+  public void testHitsAndMisses() {
+    KeyHashCache cache = new KeyHashCache(DefaultHashAlgorithm.KETAMA_HASH,
+      16);
+    assertEquals(0.0, cache.getHitRate());
+    cache.hash("a");
+    cache.hash("a");
+    cache.hash("a");
+    cache.hash("b");
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0.5, cache.getHitRate());
+    assertEquals(2, cache.size());
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  public void testBounded() {
+    KeyHashCache cache = new KeyHashCache(DefaultHashAlgorithm.FNV1A_32_HASH,
+      100);
+    for (int i = 0; i < 10000; i++) {
+      cache.hash("key" + i);
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(10000, cache.getMissCount());
+  }
+
+  public void testHotKeysSurviveRotation() {
+    KeyHashCache cache = new KeyHashCache(DefaultHashAlgorithm.FNV1A_32_HASH,
+      10);
+    for (int i = 0; i < 1000; i++) {
+      cache.hash("hot");
+      cache.hash("cold" + i);
+    }
+    assertEquals(999, cache.getHitCount());
+  }
+
+  public void testInvalidArguments() {
+    try {
+      new KeyHashCache(DefaultHashAlgorithm.KETAMA_HASH, 1);
+      fail("Expected a cache without room to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new KeyHashCache(null, 16);
+      fail("Expected a missing hash algorithm to be rejected");
+    } catch (NullPointerException e) {
+      // expected
+    }
+  }
+
+  public void testUnwrap() {
+    KeyHashCache cache = new KeyHashCache(DefaultHashAlgorithm.KETAMA_HASH,
+      16);
+    assertSame(DefaultHashAlgorithm.KETAMA_HASH, KeyHashCache.unwrap(cache));
+    assertSame(DefaultHashAlgorithm.KETAMA_HASH,
+      KeyHashCache.unwrap(DefaultHashAlgorithm.KETAMA_HASH));
+    assertSame(DefaultHashAlgorithm.KETAMA_HASH,
+      new KeyHashCache(cache, 16).getHashAlgorithm());
+  }
+
+  public void testMetrics() {
+    CountingCollector metrics = new CountingCollector();
+    KeyHashCache cache = new KeyHashCache(DefaultHashAlgorithm.KETAMA_HASH,
+      4, metrics);
+    cache.hash("a");
+    cache.hash("a");
+    cache.hash("b");
+    assertEquals(1, metrics.get(KeyHashCache.HIT_METRIC));
+    assertEquals(2, metrics.get(KeyHashCache.MISS_METRIC));
+    assertEquals(cache.size(), metrics.get(KeyHashCache.SIZE_METRIC));
+    for (int i = 0; i < 20; i++) {
+      cache.hash("key" + i);
+    }
+    assertEquals(cache.size(), metrics.get(KeyHashCache.SIZE_METRIC));
+  }
+
+  public void testKetamaPlacementUnchanged() {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+    Map<InetSocketAddress, Integer> weights =
+      new HashMap<InetSocketAddress, Integer>();
+    for (int i = 0; i < 10; i++) {
+      InetSocketAddress sa = new InetSocketAddress("127.0.0.1", 10000 + i);
+      nodes.add(new MockMemcachedNode(sa));
+      weights.put(sa, 1);
+    }
+    for (DefaultHashAlgorithm alg : new DefaultHashAlgorithm[] {
+      DefaultHashAlgorithm.KETAMA_HASH, DefaultHashAlgorithm.FNV1A_32_HASH}) {
+      KetamaNodeLocator plain = new KetamaNodeLocator(nodes, alg);
+      KetamaNodeLocator cached =
+        new KetamaNodeLocator(nodes, new KeyHashCache(alg, 64));
+      assertEquals(plain.getKetamaNodes(), cached.getKetamaNodes());
+      for (int i = 0; i < 1000; i++) {
+        assertSame(plain.getPrimary("key" + i), cached.getPrimary("key" + i));
+      }
+    }
+    KetamaNodeLocator plain = new KetamaNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH,
+      KetamaNodeKeyFormatter.Format.LIBMEMCACHED, weights);
+    KetamaNodeLocator cached = new KetamaNodeLocator(nodes,
+      new KeyHashCache(DefaultHashAlgorithm.KETAMA_HASH, 64),
+      KetamaNodeKeyFormatter.Format.LIBMEMCACHED, weights);
+    assertEquals(plain.getKetamaNodes(), cached.getKetamaNodes());
+  }
+
+  private static class CountingCollector extends AbstractMetricCollector {
+    private final Map<String, Integer> values =
+      new HashMap<String, Integer>();
+
+    int get(String name) {
+      Integer v = values.get(name);
+      return v == null ? 0 : v;
+    }
+
+    private void add(String name, int amount) {
+      values.put(name, get(name) + amount);
+    }
+
+    public void addCounter(String name) {
+    }
+
+    public void removeCounter(String name) {
+    }
+
+    public void incrementCounter(String name, int amount) {
+      add(name, amount);
+    }
+
+    public void decrementCounter(String name, int amount) {
+      add(name, -amount);
+    }
+
+    public void addMeter(String name) {
+    }
+
+    public void removeMeter(String name) {
+    }
+
+    public void markMeter(String name) {
+      add(name, 1);
+    }
+
+    public void addHistogram(String name) {
+    }
+
+    public void removeHistogram(String name) {
+    }
+
+    public void updateHistogram(String name, int amount) {
+    }
+  }
+}
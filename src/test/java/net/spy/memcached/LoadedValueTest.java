@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test loaded values and getOrLoad.
+ */
+public class LoadedValueTest extends TestCase {
+
+  private final Transcoder<Object> tc = new SerializingTranscoder();
+
+  private EmbeddedMemcachedServer server;
+  private MemcachedClient client;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new EmbeddedMemcachedServer().start();
+    client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY).setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.shutdown();
+    server.close();
+    super.tearDown();
+  }
+
+  public void testShouldRefresh() {
+    LoadedValue<String> v = new LoadedValue<String>("v", 10000, 100);
+    assertFalse(v.shouldRefresh(5000, 0.5));
+    assertFalse(v.shouldRefresh(9900, 0.5));
+    // Unlikely draws refresh early, the more so the longer loads take.
+    assertTrue(v.shouldRefresh(9900, 0.3));
+    assertTrue(v.shouldRefresh(10000, 1.0));
+    assertFalse(new LoadedValue<String>("v", 0, 100).shouldRefresh(
+      Long.MAX_VALUE, 1e-9));
+  }
+
+  public void testCodec() {
+    LoadedValue.Codec<Object> codec = new LoadedValue.Codec<Object>(tc);
+    LoadedValue<Object> v = codec.decode(codec.encode(
+      new LoadedValue<Object>("value", 1234, 56)));
+    assertEquals("value", v.getValue());
+    assertEquals(1234, v.getExpiresAt());
+    assertEquals(56, v.getDelta());
+    assertNull(codec.decode(tc.encode("plain value written by a set")));
+    assertNull(codec.decode(tc.encode("x")));
+  }
+
+  public void testLeaseTime() {
+    assertEquals(LoadedValue.MIN_LEASE_TIME, LoadedValue.leaseTime(null));
+    assertEquals(LoadedValue.MIN_LEASE_TIME,
+      LoadedValue.leaseTime(new LoadedValue<String>("v", 1, 10)));
+    assertEquals(30,
+      LoadedValue.leaseTime(new LoadedValue<String>("v", 1, 10000)));
+    assertEquals(LoadedValue.MAX_EXPIRATION,
+      LoadedValue.storedExpiration(LoadedValue.MAX_EXPIRATION));
+  }
+
+  public void testLoadOnce() {
+    CountingLoader loader = new CountingLoader("value", 0);
+    assertEquals("value", client.getOrLoad("key", 60, loader));
+    assertEquals("value", client.getOrLoad("key", 60, loader));
+    assertEquals(1, loader.calls.get());
+    assertNull(client.getOrLoad("null", 60, new CountingLoader(null, 0)));
+    assertNull(client.get("null"));
+  }
+
+  public void testLoadLongestKey() {
+    char[] c = new char[MemcachedClientIF.MAX_KEY_LENGTH];
+    Arrays.fill(c, 'k');
+    String key = new String(c);
+    assertEquals("value", client.getOrLoad(key, 60,
+      new CountingLoader("value", 0)));
+    assertEquals(LoadedValue.leaseKey("key").length(),
+      LoadedValue.leaseKey(key).length());
+    assertFalse(LoadedValue.leaseKey("key").equals(
+      LoadedValue.leaseKey("key2")));
+  }
+
+  public void testOneCodecPerTranscoder() {
+    assertSame(client.loadedCodec(tc), client.loadedCodec(tc));
+    assertNotSame(client.loadedCodec(tc),
+      client.loadedCodec(new SerializingTranscoder()));
+  }
+
+  public void testConcurrentFirstLoad() throws Exception {
+    final CountingLoader loader = new CountingLoader("value", 200);
+    ExecutorService pool = Executors.newFixedThreadPool(20);
+    try {
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (int i = 0; i < 20; i++) {
+        results.add(pool.submit(new Callable<Object>() {
+          public Object call() {
+            return client.getOrLoad("cold", 60, loader);
+          }
+        }));
+      }
+      for (Future<Object> f : results) {
+        assertEquals("value", f.get());
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(1, loader.calls.get());
+  }
+
+  public void testStaleWhileRefreshing() throws Exception {
+    LoadedValue.Codec<Object> codec = new LoadedValue.Codec<Object>(tc);
+    assertTrue(client.set("key", 60, new LoadedValue<Object>("stale",
+      System.currentTimeMillis() - 1, 10), codec).get());
+    assertTrue(client.add(LoadedValue.leaseKey("key"), 60, "1").get());
+
+    CountingLoader loader = new CountingLoader("fresh", 0);
+    assertEquals("stale", client.getOrLoad("key", 60, loader));
+    assertEquals(0, loader.calls.get());
+
+    assertTrue(client.delete(LoadedValue.leaseKey("key")).get());
+    assertEquals("fresh", client.getOrLoad("key", 60, loader));
+    assertEquals(1, loader.calls.get());
+    assertNull(client.get(LoadedValue.leaseKey("key")));
+  }
+
+  public void testLoaderException() {
+    try {
+      client.getOrLoad("key", 60, new Callable<Object>() {
+        public Object call() throws Exception {
+          throw new Exception("backend down");
+        }
+      });
+      fail("Loader exception swallowed");
+    } catch (RuntimeException e) {
+      assertEquals("backend down", e.getCause().getMessage());
+    }
+    assertNull(client.get(LoadedValue.leaseKey("key")));
+  }
+
+  private static final class CountingLoader implements Callable<Object> {
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Object value;
+    private final long delay;
+
+    CountingLoader(Object v, long d) {
+      value = v;
+      delay = d;
+    }
+
+    public Object call() throws Exception {
+      calls.incrementAndGet();
+      Thread.sleep(delay);
+      return value;
+    }
+  }
+}
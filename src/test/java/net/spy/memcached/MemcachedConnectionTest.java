@@ -23,13 +23,34 @@
 package net.spy.memcached;
 
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
+import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.auth.PlainCallbackHandler;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
 
 /**
  * Test stuff that can be tested within a MemcachedConnection separately.
@@ -54,6 +75,303 @@ public class MemcachedConnectionTest extends TestCase {
     assertNotNull(mcc.connectionsStatus());
   }
 
+  public void testNodesSpreadAcrossIoThreads() throws Exception {
+    ConnectionFactory factory = new ConnectionFactoryBuilder()
+      .setIoThreadCount(2).build();
+    List<InetSocketAddress> addresses = AddrUtil.getAddresses(
+      UnitTestConfig.IPV4_ADDR + ":11211 " + UnitTestConfig.IPV4_ADDR
+      + ":11212 " + UnitTestConfig.IPV4_ADDR + ":11213 "
+      + UnitTestConfig.IPV4_ADDR + ":11214");
+    MemcachedConnection mcc = new MemcachedConnection(10240, factory,
+      addresses, new ArrayList<ConnectionObserver>(), FailureMode.Retry,
+      new BinaryOperationFactory());
+    try {
+      assertEquals(2, mcc.getIoThreadCount());
+      int[] perLoop = new int[2];
+      for (MemcachedNode node : mcc.getLocator().getAll()) {
+        perLoop[mcc.getIoLoopIndex(node)]++;
+      }
+      assertEquals(2, perLoop[0]);
+      assertEquals(2, perLoop[1]);
+    } finally {
+      mcc.shutdown();
+    }
+    mcc.join(5000);
+    assertFalse(mcc.isAlive());
+  }
+
+  public void testConnectionsPerNode() throws Exception {
+    ConnectionFactory factory = new ConnectionFactoryBuilder()
+      .setConnectionsPerNode(3).setIoThreadCount(3).build();
+    List<InetSocketAddress> addresses = AddrUtil.getAddresses(
+      UnitTestConfig.IPV4_ADDR + ":11211 " + UnitTestConfig.IPV4_ADDR
+      + ":11212");
+    MemcachedConnection mcc = new MemcachedConnection(10240, factory,
+      addresses, new ArrayList<ConnectionObserver>(), FailureMode.Retry,
+      new BinaryOperationFactory());
+    try {
+      assertEquals(2, mcc.getLocator().getAll().size());
+      for (MemcachedNode node : mcc.getLocator().getAll()) {
+        List<MemcachedNode> pool = mcc.getPool(node);
+        assertEquals(3, pool.size());
+        assertSame(node, pool.get(0));
+        for (MemcachedNode member : pool) {
+          assertEquals(node.getSocketAddress(), member.getSocketAddress());
+          assertTrue(mcc.belongsToCluster(member));
+        }
+        assertNotSame(pool.get(1), pool.get(2));
+      }
+    } finally {
+      mcc.shutdown();
+    }
+  }
+
+  public void testEveryPoolMemberAuthenticates() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setConnectionsPerNode(3)
+      .setAuthDescriptor(new AuthDescriptor(new String[] { "PLAIN" },
+        new PlainCallbackHandler("user", "password"))).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      MemcachedNode node = client.mconn.getLocator().getAll().iterator().next();
+      List<MemcachedNode> pool = client.mconn.getPool(node);
+      assertEquals(3, pool.size());
+      long deadline = System.currentTimeMillis() + 10000;
+      for (MemcachedNode member : pool) {
+        while (!member.isAuthenticated()
+          && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertTrue(member + " is not authenticated", member.isAuthenticated());
+      }
+      assertTrue(client.set("key", 0, "value").get());
+      assertEquals("value", client.get("key"));
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testEnqueueBatchWakesUpOnce() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertNull(client.get("warmup"));
+      final CountDownLatch latch = new CountDownLatch(500);
+      final AtomicInteger stored = new AtomicInteger();
+      StoreOperation.Callback cb = new StoreOperation.Callback() {
+        public void gotData(String key, long cas) {
+        }
+
+        public void receivedStatus(OperationStatus status) {
+          if (status.isSuccess()) {
+            stored.incrementAndGet();
+          }
+        }
+
+        public void complete() {
+          latch.countDown();
+        }
+      };
+      List<KeyedOperation> ops = new ArrayList<KeyedOperation>();
+      for (int i = 0; i < 500; i++) {
+        ops.add(client.opFact.store(StoreType.set, "key" + i, 0, 0,
+          "value".getBytes(), cb));
+      }
+
+      long wakeups = client.mconn.getWakeupCount();
+      client.mconn.enqueueBatch(ops);
+      assertTrue(client.mconn.getWakeupCount() - wakeups <= 1);
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+      assertEquals(500, stored.get());
+      assertEquals("value", client.get("key499"));
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testOptimizedGetsDoNotTimeOutAfterCompleting()
+    throws Exception {
+    for (ConnectionFactoryBuilder.Protocol protocol
+      : ConnectionFactoryBuilder.Protocol.values()) {
+      EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+      MemcachedClient client = new MemcachedClient(
+        new ConnectionFactoryBuilder().setProtocol(protocol)
+          .setShouldOptimize(true).setOpTimeout(300).build(),
+        Collections.singletonList(server.getAddress()));
+      try {
+        assertTrue(client.set("key", 0, "value").get());
+        List<GetFuture<Object>> gets = new ArrayList<GetFuture<Object>>();
+        for (int i = 0; i < 200; i++) {
+          gets.add(client.asyncGet("key"));
+        }
+        for (GetFuture<Object> f : gets) {
+          assertEquals("value", f.get());
+        }
+        // Give the folded gets time to reach their deadline.
+        Thread.sleep(1000);
+        for (GetFuture<Object> f : gets) {
+          assertEquals(protocol + " get timed out after completing", "value",
+            f.get());
+          assertTrue(f.getStatus().isSuccess());
+        }
+      } finally {
+        client.shutdown();
+        server.close();
+      }
+    }
+  }
+
+  public void testRetriedGetDoesNotTimeOutAfterItsClone() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(
+        ConnectionFactoryBuilder.Protocol.BINARY).setOpTimeout(300).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertTrue(client.set("key", 0, "value").get());
+      // The get is written and retried, its clone answers it.
+      server.rejectNotMyVbucket(1);
+      CountingCallback cb = new CountingCallback();
+      Operation op = client.opFact.get("key", cb);
+      client.mconn.enqueueOperation("key", op);
+      assertTrue(cb.completed.await(5, TimeUnit.SECONDS));
+      assertEquals(OperationState.RETRY, op.getState());
+      assertTrue(cb.status.isSuccess());
+      // Give the retried get time to reach its deadline.
+      Thread.sleep(1000);
+      assertEquals(1, cb.completions.get());
+      assertTrue(cb.status.isSuccess());
+      assertFalse(op.isTimedOut());
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testDroppedReadingGetCompletesOnce() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(
+        ConnectionFactoryBuilder.Protocol.BINARY).setOpTimeout(300)
+        .setFailureMode(FailureMode.Redistribute).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      assertTrue(client.set("key", 0, "value").get());
+      server.setSilent(true);
+      CountingCallback cb = new CountingCallback();
+      Operation op = client.opFact.get("key", cb);
+      client.mconn.enqueueOperation("key", op);
+      awaitState(op, OperationState.READING);
+      server.dropConnections();
+      assertTrue(cb.completed.await(5, TimeUnit.SECONDS));
+      // Give the get time to reach its deadline.
+      Thread.sleep(1000);
+      assertEquals(1, cb.completions.get());
+      assertFalse(op.isTimedOut());
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  private static void awaitState(Operation op, OperationState state)
+    throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (op.getState() != state && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(state, op.getState());
+  }
+
+  private static final class CountingCallback
+    implements GetOperation.Callback {
+    private final AtomicInteger completions = new AtomicInteger();
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile OperationStatus status;
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void gotData(String key, int flags, byte[] data) {
+      // Only the status matters.
+    }
+
+    public void complete() {
+      completions.incrementAndGet();
+      completed.countDown();
+    }
+  }
+
+  public void testEnqueueBatchRejectsMultiKeyOperations() throws Exception {
+    ConnectionFactory factory = new DefaultConnectionFactory();
+    MemcachedConnection mcc = new MemcachedConnection(10240, factory,
+      AddrUtil.getAddresses(UnitTestConfig.IPV4_ADDR + ":11211"),
+      new ArrayList<ConnectionObserver>(), FailureMode.Retry,
+      factory.getOperationFactory());
+    try {
+      KeyedOperation single = factory.getOperationFactory().get("a", null);
+      KeyedOperation multi = factory.getOperationFactory().get(
+        Arrays.asList("a", "b"), null);
+      try {
+        mcc.enqueueBatch(Arrays.asList(single, multi));
+        fail("Expected a multi-key operation to be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      assertNull(single.getHandlingNode());
+    } finally {
+      mcc.shutdown();
+    }
+  }
+
+  public void testTrySetRejectsWhenQueueIsFull() throws Exception {
+    // Nothing listens on the port, so the operations stay queued.
+    ServerSocket unused = new ServerSocket(0);
+    int port = unused.getLocalPort();
+    unused.close();
+    // Retry keeps the queued operations when the connect attempts fail.
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setFailureMode(FailureMode.Retry)
+      .setOpQueueFactory(new ArrayOperationQueueFactory(4))
+      .setWriteOpQueueFactory(new ArrayOperationQueueFactory(1)).build(),
+      AddrUtil.getAddresses(UnitTestConfig.IPV4_ADDR + ":" + port));
+    try {
+      // Wait for the IO thread to move the first operation into the write
+      // queue, after that nothing leaves the input queue.
+      assertFalse(client.trySet("key0", 0, "value").isDone());
+      long deadline = System.currentTimeMillis() + 5000;
+      while (client.getQueueDepths().values().iterator().next() > 0
+        && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      OperationFuture<Boolean> rejected = null;
+      for (int i = 1; i < 10 && rejected == null; i++) {
+        OperationFuture<Boolean> f = client.trySet("key" + i, 0, "value");
+        if (f.isDone()) {
+          rejected = f;
+        }
+      }
+      assertNotNull(rejected);
+      assertEquals(StatusCode.REJECTED,
+        rejected.getStatus().getStatusCode());
+      assertFalse(rejected.get());
+      assertEquals(Integer.valueOf(4), client.getQueueDepths().values()
+        .iterator().next());
+      CompletableFuture<Void> room =
+        client.awaitCapacity("key0").toCompletableFuture();
+      assertFalse(room.isDone());
+      assertFalse(client.trySet("another", 0, "value").get());
+    } finally {
+      client.shutdown();
+    }
+  }
+
   public void testBelongsToCluster() throws Exception {
     ConnectionFactory factory = new DefaultConnectionFactory();
     Collection<ConnectionObserver> observers =
@@ -34,8 +34,11 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import net.spy.memcached.config.NodeEndPoint;
+import net.spy.memcached.ops.BufferAllocator;
 import net.spy.memcached.ops.Operation;
 
 /**
@@ -130,10 +133,26 @@ public class MockMemcachedNode implements MemcachedNode {
     return false;
   }
 
+  public int getOutstandingOperationCount() {
+    return 0;
+  }
+
   public void addOp(Operation op) {
     // noop
   }
 
+  public boolean tryAddOp(Operation op) {
+    return true;
+  }
+
+  public int getInputQueueDepth() {
+    return 0;
+  }
+
+  public CompletionStage<Void> awaitInputQueueCapacity() {
+    return CompletableFuture.completedFuture(null);
+  }
+
   public void insertOp(Operation op) {
     // noop
   }
@@ -150,6 +169,10 @@ public class MockMemcachedNode implements MemcachedNode {
     return null;
   }
 
+  public BufferAllocator getBufferAllocator() {
+    return null;
+  }
+
   public boolean doTlsHandshake(long timeoutInMillis) throws IOException {
     return false;
   }
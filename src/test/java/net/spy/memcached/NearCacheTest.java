@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+import net.spy.memcached.transcoders.IntegerTranscoder;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the near cache on its own and in front of a client.
+ */
+public class NearCacheTest extends TestCase {
+
+  private final Transcoder<Object> tc = new SerializingTranscoder();
+
+  public void testHitsAndMisses() throws Exception {
+    NearCache cache = new NearCache(1 << 20, 1000);
+    assertNull(cache.get("a", tc));
+    assertTrue(cache.put("a", tc, value("A"), 1, cache.stamp("a")));
+    assertEquals("A", cache.get("a", tc).get());
+    assertNull(cache.get("a", new IntegerTranscoder()));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(1, cache.size());
+    assertEquals(NearCache.ENTRY_OVERHEAD + 3, cache.getBytes());
+  }
+
+  public void testInvalidate() throws Exception {
+    NearCache cache = new NearCache(1 << 20, 1000);
+    cache.put("a", tc, value("A"), 1, cache.stamp("a"));
+    cache.invalidate("a");
+    assertNull(cache.get("a", tc));
+    assertEquals(0, cache.getBytes());
+
+    cache.put("a", tc, value("A"), 1, cache.stamp("a"));
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  public void testInvalidatedFetchNotCached() {
+    NearCache cache = new NearCache(1 << 20, 1000);
+    long stamp = cache.stamp("a");
+    cache.invalidate("a");
+    assertFalse(cache.put("a", tc, value("old"), 3, stamp));
+    assertNull(cache.get("a", tc));
+  }
+
+  public void testOtherKeysInvalidatedWhileFetching() throws Exception {
+    // A single stripe, all keys share it.
+    NearCache cache = new NearCache(64 * 1024, 1000);
+    long stamp = cache.stamp("a");
+    cache.invalidate("b");
+    assertTrue(cache.put("a", tc, value("A"), 1, stamp));
+    assertEquals("A", cache.get("a", tc).get());
+    cache.invalidate("a");
+    assertFalse(cache.put("a", tc, value("A"), 1, stamp));
+  }
+
+  public void testFetchesOlderThanRememberedInvalidations() {
+    NearCache cache = new NearCache(64 * 1024, 1000);
+    long stamp = cache.stamp("a");
+    cache.invalidate("a");
+    for (int i = 0; i < 2000; i++) {
+      cache.invalidate("other" + i);
+    }
+    assertFalse(cache.put("a", tc, value("old"), 3, stamp));
+    assertTrue(cache.put("a", tc, value("new"), 3, cache.stamp("a")));
+  }
+
+  public void testExpiration() {
+    final long[] now = {0};
+    NearCache cache = new NearCache(1 << 20, 100) {
+      @Override
+      protected long nanoTime() {
+        return now[0];
+      }
+    };
+    cache.put("a", tc, value("A"), 1, cache.stamp("a"));
+    now[0] = TimeUnit.MILLISECONDS.toNanos(99);
+    assertNotNull(cache.get("a", tc));
+    now[0] = TimeUnit.MILLISECONDS.toNanos(100);
+    assertNull(cache.get("a", tc));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  public void testBounded() {
+    int max = 64 * 1024;
+    NearCache cache = new NearCache(max, 1000);
+    for (int i = 0; i < 10000; i++) {
+      String key = "key" + i;
+      cache.put(key, tc, value(key), 100, cache.stamp(key));
+      assertTrue(cache.getBytes() <= max);
+    }
+    assertTrue(cache.getEvictionCount() > 0);
+    assertFalse(cache.put("big", tc, value("big"), max, cache.stamp("big")));
+  }
+
+  public void testHotKeysSurviveScans() {
+    NearCache cache = new NearCache(64 * 1024, 1000);
+    for (int i = 0; i < 100; i++) {
+      String key = "hot" + i;
+      cache.put(key, tc, value(key), 100, cache.stamp(key));
+      assertNotNull(cache.get(key, tc));
+    }
+    for (int i = 0; i < 10000; i++) {
+      String key = "scan" + i;
+      cache.put(key, tc, value(key), 100, cache.stamp(key));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertNotNull("hot" + i, cache.get("hot" + i, tc));
+    }
+  }
+
+  public void testHitsCannotBeCancelled() throws Exception {
+    NearCache cache = new NearCache(1 << 20, 1000);
+    cache.put("a", tc, value("A"), 1, cache.stamp("a"));
+    Future<Object> hit = cache.get("a", tc);
+    assertFalse(hit.cancel(true));
+    assertEquals("A", cache.get("a", tc).get());
+  }
+
+  public void testClient() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = connect(server, 60000);
+    try {
+      assertTrue(client.set("key", 0, "v1").get());
+      assertEquals("v1", client.get("key"));
+      long requests = server.getRequestCount();
+      assertEquals("v1", client.get("key"));
+      assertSame(NearCache.HIT_STATUS, client.asyncGet("key").getStatus());
+      assertEquals(requests, server.getRequestCount());
+
+      assertTrue(client.set("key", 0, "v2").get());
+      assertEquals("v2", client.get("key"));
+      assertTrue(client.delete("key").get());
+      assertNull(client.get("key"));
+
+      assertTrue(client.set("counter", 0, "1").get());
+      assertEquals("1", client.get("counter"));
+      assertEquals(2, client.incr("counter", 1));
+      assertEquals("2", client.get("counter"));
+
+      assertTrue(client.set("other", 0, "o1").get());
+      Map<String, Object> bulk = client.getBulk(Arrays.asList("counter",
+        "other"));
+      assertEquals("2", bulk.get("counter"));
+      assertEquals("o1", bulk.get("other"));
+      requests = server.getRequestCount();
+      assertEquals(bulk, client.getBulk(Arrays.asList("counter", "other")));
+      assertEquals(requests, server.getRequestCount());
+      client.asyncSetBulk(Collections.singletonMap("other", "o2"), 0).get();
+      assertEquals("o2", client.get("other"));
+      assertTrue(client.getNearCache().getHitCount() > 0);
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testFetchAnsweredBeforeWriteAppliedNotServed()
+    throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = connect(server, 60000);
+    try {
+      assertTrue(client.set("key", 0, "v1").get());
+      server.setLatency(200, TimeUnit.MILLISECONDS);
+      Future<Boolean> write = client.set("key", 0, "v2");
+      // A fetch sent on another connection after the write, but answered
+      // before the server applied it, caches the old value.
+      NearCache cache = client.getNearCache();
+      assertTrue(cache.put("key", client.getTranscoder(),
+        value((Object) "v1"), 2, cache.stamp("key")));
+      assertTrue(write.get());
+      assertEquals("v2", client.get("key"));
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testOtherWritersBoundedByStaleness() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = connect(server, 200);
+    MemcachedClient writer = connect(server, 0);
+    try {
+      assertTrue(client.set("key", 0, "v1").get());
+      assertEquals("v1", client.get("key"));
+      assertTrue(writer.set("key", 0, "v2").get());
+      assertEquals("v1", client.get("key"));
+      Thread.sleep(300);
+      assertEquals("v2", client.get("key"));
+    } finally {
+      client.shutdown();
+      writer.shutdown();
+      server.close();
+    }
+  }
+
+  private static MemcachedClient connect(EmbeddedMemcachedServer server,
+    long staleness) throws Exception {
+    ConnectionFactoryBuilder b = new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY).setDaemon(true);
+    if (staleness > 0) {
+      b.setNearCacheMaxBytes(1 << 20).setNearCacheMaxStaleness(staleness);
+    }
+    return new MemcachedClient(b.build(),
+      Collections.singletonList(server.getAddress()));
+  }
+
+  private static <T> Future<T> value(final T v) {
+    FutureTask<T> rv = new FutureTask<T>(new Callable<T>() {
+      public T call() {
+        return v;
+      }
+    });
+    rv.run();
+    return rv;
+  }
+}
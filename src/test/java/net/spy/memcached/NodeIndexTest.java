@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.spy.memcached.config.NodeEndPoint;
+
+/**
+ * Test the node index of a connection.
+ */
+public class NodeIndexTest extends TestCase {
+
+  private final MemcachedNode first =
+    new MockMemcachedNode(new NodeEndPoint("cache1", "10.0.0.1", 11211));
+  private final MemcachedNode second =
+    new MockMemcachedNode(new NodeEndPoint("cache2", "10.0.0.2", 11211));
+  private final MemcachedNode samePort =
+    new MockMemcachedNode(new NodeEndPoint("cache1", "10.0.0.1", 11212));
+  private final MemcachedNode noEndPoint =
+    new MockMemcachedNode(new InetSocketAddress("10.0.0.3", 11211));
+  private final NodeIndex index = new NodeIndex(
+    Arrays.asList(first, second, samePort, noEndPoint));
+
+  public void testContainsByIdentity() {
+    assertTrue(index.contains(first));
+    assertTrue(index.contains(noEndPoint));
+    MemcachedNode copy = new MockMemcachedNode(first.getNodeEndPoint());
+    assertEquals(first, copy);
+    assertFalse(index.contains(copy));
+    assertTrue(index.containsAddress(copy.getSocketAddress()));
+    assertFalse(index.containsAddress(
+      new InetSocketAddress("10.0.0.4", 11211)));
+  }
+
+  public void testFindByHostName() {
+    assertSame(second, index.find(
+      InetSocketAddress.createUnresolved("cache2", 11211)));
+    // The first node of a host wins, whatever the port.
+    assertSame(first, index.find(
+      InetSocketAddress.createUnresolved("cache1", 11212)));
+    assertNull(index.find(
+      InetSocketAddress.createUnresolved("cache3", 11211)));
+  }
+
+  public void testFindByIpAddress() throws Exception {
+    InetAddress ip = InetAddress.getByAddress("elsewhere",
+      new byte[] {10, 0, 0, 2});
+    assertSame(second, index.find(new InetSocketAddress(ip, 11211)));
+    assertSame(first, index.find(new InetSocketAddress("10.0.0.1", 11211)));
+    assertNull(index.find(new InetSocketAddress("10.0.0.3", 11211)));
+  }
+
+  public void testEmpty() {
+    NodeIndex empty = new NodeIndex(Arrays.<MemcachedNode>asList());
+    assertFalse(empty.contains(first));
+    assertNull(empty.find(new InetSocketAddress("10.0.0.1", 11211)));
+  }
+}
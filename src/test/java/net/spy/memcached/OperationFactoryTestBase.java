@@ -25,12 +25,18 @@ package net.spy.memcached;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkTouchOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -280,6 +286,52 @@ public abstract class OperationFactoryTestBase extends MockObjectTestCase {
     }
   }
 
+  public void testBulkStoreOperationFanout() {
+    Map<String, CachedData> items = new LinkedHashMap<String, CachedData>();
+    items.put("k1", new CachedData(1, testData, testData.length));
+    items.put("k2", new CachedData(2, testData, testData.length));
+    Mock m = mock(BulkMutationOperation.Callback.class);
+    OperationStatus st = new OperationStatus(true, "blah", StatusCode.SUCCESS);
+    m.expects(once()).method("complete");
+    m.expects(once()).method("receivedStatus").with(same(st));
+    m.expects(once()).method("gotStatus").with(eq("k1"), same(st));
+    m.expects(once()).method("gotStatus").with(eq("k2"), same(st));
+
+    BulkStoreOperation op = ofact.storeBulk(StoreType.set, items, 60,
+        (BulkMutationOperation.Callback) m.proxy());
+
+    Collection<Operation> ops = ofact.clone(op);
+    assertEquals(2, ops.size());
+    for (Operation o : ops) {
+      BulkStoreOperation so = (BulkStoreOperation) o;
+      assertEquals(1, so.getKeys().size());
+      String k = so.getKeys().iterator().next();
+      assertSame(items.get(k), so.getValues().get(k));
+      assertSame(StoreType.set, so.getStoreType());
+      assertEquals(60, so.getExpiration());
+      BulkMutationOperation.Callback cb =
+        (BulkMutationOperation.Callback) o.getCallback();
+      cb.gotStatus(k, st);
+      cb.receivedStatus(st);
+      cb.complete();
+    }
+  }
+
+  public void testBulkTouchOperationCloning() {
+    Collection<String> keys = Arrays.asList("k1", "k2", "k3");
+    BulkMutationOperation.Callback callback = (BulkMutationOperation.Callback)
+      mock(BulkMutationOperation.Callback.class).proxy();
+    BulkTouchOperation op = ofact.touchBulk(keys, 300, callback);
+
+    Collection<String> cloned = new ArrayList<String>();
+    for (Operation o : ofact.clone(op)) {
+      BulkTouchOperation to = (BulkTouchOperation) o;
+      assertEquals(300, to.getExpiration());
+      cloned.addAll(to.getKeys());
+    }
+    assertEquals(new HashSet<String>(keys), new HashSet<String>(cloned));
+  }
+
   public void testNotGrowingCallstack() throws Exception {
     final CountDownLatch latch = new CountDownLatch(1);
     GetOperation.Callback cb = new GetOperation.Callback() {
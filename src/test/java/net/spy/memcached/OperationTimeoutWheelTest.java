@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * Test the operation timeout wheel.
+ */
+public class OperationTimeoutWheelTest extends TestCase {
+
+  private final OperationFactory ofact = new BinaryOperationFactory();
+
+  public void testSlotCountRoundedUp() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(5, 3);
+    assertEquals(5, wheel.getTickMillis());
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testInvalidArguments() {
+    try {
+      new OperationTimeoutWheel(0, 8);
+      fail("Expected a bad tick to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new OperationTimeoutWheel(1, 0);
+      fail("Expected a wheel without slots to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testExpiresAfterDeadline() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 8);
+    Operation op = newOp();
+    long now = System.nanoTime();
+    wheel.schedule(op, 50);
+    assertFalse(wheel.isEmpty());
+    assertEquals(Collections.<Operation>emptyList(), wheel.expire(now));
+    assertEquals(Collections.<Operation>emptyList(),
+      wheel.expire(now + millis(10)));
+    assertEquals(Collections.singletonList(op),
+      wheel.expire(now + millis(200)));
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testCompletedOperationsAreForgotten() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 8);
+    Operation op = newOp();
+    Operation other = newOp();
+    long now = System.nanoTime();
+    wheel.schedule(op, 5);
+    wheel.schedule(other, 5);
+    wheel.expire(now);
+    wheel.completed(op);
+    assertEquals(Collections.singletonList(other),
+      wheel.expire(now + millis(100)));
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testCompletedReturnsScheduleTime() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 8);
+    Operation op = newOp();
+    long before = System.nanoTime();
+    wheel.schedule(op, 5);
+    long after = System.nanoTime();
+    long scheduled = wheel.completed(op);
+    assertTrue(scheduled >= before && scheduled <= after);
+    assertEquals(-1, wheel.completed(op));
+    assertEquals(-1, wheel.completed(newOp()));
+  }
+
+  public void testCompletedBeforeBeingLinkedIn() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 8);
+    Operation op = newOp();
+    long now = System.nanoTime();
+    wheel.schedule(op, 5);
+    wheel.completed(op);
+    assertEquals(Collections.<Operation>emptyList(),
+      wheel.expire(now + millis(100)));
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testForgottenOperationsAreNotExpired() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 8);
+    Operation op = newOp();
+    Operation other = newOp();
+    long now = System.nanoTime();
+    wheel.schedule(op, 5);
+    wheel.schedule(other, 5);
+    wheel.forget(op);
+    assertFalse(wheel.isEmpty());
+    assertEquals(Collections.singletonList(other),
+      wheel.expire(now + millis(100)));
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testFinishedOperationsAreNotExpired() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 8);
+    Operation cancelled = newOp();
+    Operation timedOut = newOp();
+    long now = System.nanoTime();
+    wheel.schedule(cancelled, 5);
+    wheel.schedule(timedOut, 5);
+    wheel.expire(now);
+    cancelled.cancel();
+    timedOut.timeOut();
+    assertEquals(Collections.<Operation>emptyList(),
+      wheel.expire(now + millis(100)));
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testDeadlinesBeyondOneRound() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 4);
+    Operation soon = newOp();
+    Operation late = newOp();
+    long now = System.nanoTime();
+    wheel.schedule(soon, 2);
+    wheel.schedule(late, 100);
+    List<Operation> expired = wheel.expire(now + millis(50));
+    assertEquals(Collections.singletonList(soon), expired);
+    assertFalse(wheel.isEmpty());
+    assertEquals(Collections.singletonList(late),
+      wheel.expire(now + millis(500)));
+    assertTrue(wheel.isEmpty());
+  }
+
+  public void testHugeTimeoutsAreNotTracked() {
+    OperationTimeoutWheel wheel = new OperationTimeoutWheel(1, 8);
+    wheel.schedule(newOp(), Long.MAX_VALUE);
+    assertTrue(wheel.isEmpty());
+  }
+
+  private static long millis(long ms) {
+    return TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  private Operation newOp() {
+    return ofact.noop(new OperationCallback() {
+      public void receivedStatus(OperationStatus status) {
+        // nothing
+      }
+
+      public void complete() {
+        // nothing
+      }
+    });
+  }
+}
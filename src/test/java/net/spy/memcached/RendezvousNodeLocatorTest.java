@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the rendezvous hashing node locator.
+ */
+public class RendezvousNodeLocatorTest extends TestCase {
+
+  private static final int KEYS = 10000;
+
+  public void testDistribution() {
+    List<MemcachedNode> nodes = JumpHashNodeLocatorTest.createNodes(0, 10);
+    NodeLocator locator = new RendezvousNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    int[] counts = new int[nodes.size()];
+    for (int i = 0; i < KEYS; i++) {
+      counts[nodes.indexOf(locator.getPrimary("key" + i))]++;
+    }
+    for (int c : counts) {
+      assertTrue("Unbalanced: " + c, c > KEYS / 10 * 0.8
+        && c < KEYS / 10 * 1.2);
+    }
+  }
+
+  public void testWeightedDistribution() {
+    List<MemcachedNode> nodes = JumpHashNodeLocatorTest.createNodes(0, 3);
+    Map<InetSocketAddress, Integer> weights =
+      new HashMap<InetSocketAddress, Integer>();
+    weights.put((InetSocketAddress) nodes.get(0).getSocketAddress(), 1);
+    weights.put((InetSocketAddress) nodes.get(1).getSocketAddress(), 1);
+    weights.put((InetSocketAddress) nodes.get(2).getSocketAddress(), 2);
+    NodeLocator locator = new RendezvousNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH, weights);
+    int[] counts = new int[nodes.size()];
+    for (int i = 0; i < KEYS; i++) {
+      counts[nodes.indexOf(locator.getPrimary("key" + i))]++;
+    }
+    assertTrue("Unbalanced: " + counts[2], counts[2] > KEYS / 2 * 0.9
+      && counts[2] < KEYS / 2 * 1.1);
+  }
+
+  public void testResizingMovesMinimumKeys() {
+    List<MemcachedNode> nodes = JumpHashNodeLocatorTest.createNodes(0, 10);
+    RendezvousNodeLocator locator = new RendezvousNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    MemcachedNode[] before = primaries(locator);
+
+    List<MemcachedNode> grown = new ArrayList<MemcachedNode>(nodes);
+    MemcachedNode added = JumpHashNodeLocatorTest.createNodes(10, 1).get(0);
+    grown.add(0, added);
+    locator.updateLocator(grown);
+    MemcachedNode[] after = primaries(locator);
+    for (int i = 0; i < KEYS; i++) {
+      assertTrue(after[i] == before[i] || after[i] == added);
+    }
+
+    List<MemcachedNode> shrunk = new ArrayList<MemcachedNode>(nodes);
+    MemcachedNode removed = shrunk.remove(5);
+    locator.updateLocator(shrunk);
+    after = primaries(locator);
+    for (int i = 0; i < KEYS; i++) {
+      if (before[i] != removed) {
+        assertSame(before[i], after[i]);
+      }
+    }
+  }
+
+  public void testSequence() {
+    List<MemcachedNode> nodes = JumpHashNodeLocatorTest.createNodes(0, 5);
+    RendezvousNodeLocator locator = new RendezvousNodeLocator(nodes,
+      DefaultHashAlgorithm.KETAMA_HASH);
+    for (int i = 0; i < 100; i++) {
+      String key = "key" + i;
+      MemcachedNode primary = locator.getPrimary(key);
+      Set<MemcachedNode> seen = new HashSet<MemcachedNode>();
+      Iterator<MemcachedNode> it = locator.getSequence(key);
+      MemcachedNode backup = it.next();
+      seen.add(backup);
+      while (it.hasNext()) {
+        assertTrue(seen.add(it.next()));
+      }
+      assertFalse(seen.contains(primary));
+      assertEquals(4, seen.size());
+
+      // The first backup is where the key goes without its primary.
+      List<MemcachedNode> without = new ArrayList<MemcachedNode>(nodes);
+      without.remove(primary);
+      assertSame(backup, new RendezvousNodeLocator(without,
+        DefaultHashAlgorithm.KETAMA_HASH).getPrimary(key));
+    }
+  }
+
+  public void testReadonlyCopy() {
+    RendezvousNodeLocator locator = new RendezvousNodeLocator(
+      JumpHashNodeLocatorTest.createNodes(0, 5),
+      DefaultHashAlgorithm.KETAMA_HASH);
+    NodeLocator copy = locator.getReadonlyCopy();
+    for (MemcachedNode n : copy.getAll()) {
+      assertTrue(n instanceof MemcachedNodeROImpl);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(locator.getPrimary("key" + i).getSocketAddress(),
+        copy.getPrimary("key" + i).getSocketAddress());
+    }
+  }
+
+  private static MemcachedNode[] primaries(NodeLocator locator) {
+    MemcachedNode[] rv = new MemcachedNode[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      rv[i] = locator.getPrimary("key" + i);
+    }
+    return rv;
+  }
+}
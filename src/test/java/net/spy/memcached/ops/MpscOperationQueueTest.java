@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
+
+/**
+ * Test the lock-free input queue.
+ */
+public class MpscOperationQueueTest extends TestCase {
+
+  private final OperationFactory opFact = new BinaryOperationFactory();
+
+  public void testFifoAndCapacity() {
+    MpscOperationQueue q = new MpscOperationQueue(3);
+    Operation a = opFact.noop(null);
+    Operation b = opFact.noop(null);
+    Operation c = opFact.noop(null);
+    assertTrue(q.isEmpty());
+    assertNull(q.peek());
+    assertTrue(q.offer(a));
+    assertTrue(q.offer(b));
+    assertTrue(q.offer(c));
+    assertFalse(q.offer(opFact.noop(null)));
+    assertEquals(3, q.size());
+    assertEquals(0, q.remainingCapacity());
+    assertSame(a, q.peek());
+    assertSame(a, q.poll());
+    assertEquals(1, q.remainingCapacity());
+    Operation d = opFact.noop(null);
+    assertTrue(q.offer(d));
+    List<Operation> drained = new ArrayList<Operation>();
+    assertEquals(2, q.drainTo(drained, 2));
+    assertEquals(2, drained.size());
+    assertSame(b, drained.get(0));
+    assertSame(c, drained.get(1));
+    assertSame(d, q.poll());
+    assertNull(q.poll());
+    assertEquals(0, q.size());
+  }
+
+  public void testWrapsAround() {
+    MpscOperationQueue q = new MpscOperationQueue(4);
+    for (int i = 0; i < 100; i++) {
+      Operation o = opFact.noop(null);
+      assertTrue(q.offer(o));
+      assertTrue(q.offer(opFact.noop(null)));
+      assertSame(o, q.poll());
+      assertNotNull(q.poll());
+    }
+    assertTrue(q.isEmpty());
+  }
+
+  public void testInsertAtHead() {
+    // The way a node inserts an operation in front of the others.
+    MpscOperationQueue q = new MpscOperationQueue(8);
+    Operation queued = opFact.noop(null);
+    Operation inserted = opFact.noop(null);
+    q.add(queued);
+    List<Operation> tmp = new ArrayList<Operation>();
+    tmp.add(inserted);
+    q.drainTo(tmp);
+    q.addAll(tmp);
+    assertSame(inserted, q.poll());
+    assertSame(queued, q.poll());
+  }
+
+  public void testBlockingOfferTimesOut() throws Exception {
+    MpscOperationQueue q = new MpscOperationQueue(1);
+    q.add(opFact.noop(null));
+    long start = System.nanoTime();
+    assertFalse(q.offer(opFact.noop(null), 50, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  public void testBlockingOfferWaitsForSpace() throws Exception {
+    final MpscOperationQueue q = new MpscOperationQueue(1);
+    final Operation first = opFact.noop(null);
+    q.add(first);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        q.poll();
+      }
+    };
+    consumer.start();
+    Operation second = opFact.noop(null);
+    assertTrue(q.offer(second, 5, TimeUnit.SECONDS));
+    consumer.join();
+    assertSame(second, q.poll());
+  }
+
+  public void testBlockingOfferInterrupted() throws Exception {
+    MpscOperationQueue q = new MpscOperationQueue(1);
+    q.add(opFact.noop(null));
+    Thread.currentThread().interrupt();
+    try {
+      q.offer(opFact.noop(null), 1, TimeUnit.SECONDS);
+      fail("Expected an interruption");
+    } catch (InterruptedException e) {
+      assertFalse(Thread.currentThread().isInterrupted());
+    }
+  }
+
+  public void testConcurrentProducers() throws Exception {
+    final MpscOperationQueue q = new MpscOperationQueue(64);
+    final int producers = 8;
+    final int perProducer = 10000;
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < perProducer; i++) {
+              assertTrue(q.offer(opFact.noop(null), 10, TimeUnit.SECONDS));
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+    start.countDown();
+    Set<Operation> seen = Collections.newSetFromMap(
+      new IdentityHashMap<Operation, Boolean>());
+    List<Operation> batch = new ArrayList<Operation>();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (seen.size() < producers * perProducer
+      && System.nanoTime() < deadline) {
+      batch.clear();
+      q.drainTo(batch, 16);
+      for (Operation o : batch) {
+        assertTrue(seen.add(o));
+      }
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(producers * perProducer, seen.size());
+    assertTrue(q.isEmpty());
+  }
+
+  public void testClientRoundTrips() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder()
+        .setOpQueueFactory(new MpscOperationQueueFactory(16384))
+        .setReadOpQueueFactory(new UnsynchronizedOperationQueueFactory())
+        .setWriteOpQueueFactory(new UnsynchronizedOperationQueueFactory())
+        .setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      Set<String> keys = new HashSet<String>();
+      for (int i = 0; i < 500; i++) {
+        client.set("key" + i, 0, "value" + i);
+        keys.add("key" + i);
+      }
+      assertEquals(500, client.getBulk(keys).size());
+      assertEquals("value499", client.get("key499"));
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+}
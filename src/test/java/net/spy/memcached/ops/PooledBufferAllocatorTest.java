@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the {@link PooledBufferAllocator}.
+ */
+public class PooledBufferAllocatorTest extends TestCase {
+
+  private PooledBufferAllocator allocator;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    allocator = new PooledBufferAllocator(64, 1024, 2048);
+  }
+
+  public void testSizeClasses() {
+    assertEquals(64, allocator.allocate(1).capacity());
+    assertEquals(64, allocator.allocate(64).capacity());
+    assertEquals(128, allocator.allocate(65).capacity());
+    assertEquals(1024, allocator.allocate(1000).capacity());
+  }
+
+  public void testAllocatedBufferIsReadyForWriting() {
+    ByteBuffer b = allocator.allocate(100);
+    b.put(new byte[30]);
+    b.order(ByteOrder.LITTLE_ENDIAN);
+    allocator.release(b);
+
+    ByteBuffer again = allocator.allocate(90);
+    assertSame(b, again);
+    assertEquals(0, again.position());
+    assertEquals(90, again.limit());
+    assertEquals(90, again.remaining());
+    assertSame(ByteOrder.BIG_ENDIAN, again.order());
+  }
+
+  public void testReleasedBufferIsReused() {
+    ByteBuffer b = allocator.allocate(200);
+    allocator.release(b);
+    assertSame(b, allocator.allocate(256));
+    assertNotSame(b, allocator.allocate(256));
+  }
+
+  public void testOversizedIsNotPooled() {
+    ByteBuffer b = allocator.allocate(4096);
+    assertEquals(4096, b.capacity());
+    allocator.release(b);
+    assertNotSame(b, allocator.allocate(4096));
+  }
+
+  public void testForeignBuffersAreIgnored() {
+    ByteBuffer odd = ByteBuffer.allocate(100);
+    allocator.release(odd);
+    ByteBuffer direct = ByteBuffer.allocateDirect(128);
+    allocator.release(direct);
+    ByteBuffer b = allocator.allocate(100);
+    assertNotSame(odd, b);
+    assertNotSame(direct, b);
+    assertFalse(b.isDirect());
+  }
+
+  public void testPooledBytesAreBounded() {
+    ByteBuffer[] buffers = new ByteBuffer[3];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = allocator.allocate(1024);
+    }
+    for (ByteBuffer b : buffers) {
+      allocator.release(b);
+    }
+    assertSame(buffers[0], allocator.allocate(1024));
+    assertSame(buffers[1], allocator.allocate(1024));
+    ByteBuffer fresh = allocator.allocate(1024);
+    for (ByteBuffer b : buffers) {
+      assertNotSame(b, fresh);
+    }
+  }
+
+  public void testInvalidSizes() {
+    try {
+      new PooledBufferAllocator(100, 1024, 2048);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new PooledBufferAllocator(1024, 64, 2048);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
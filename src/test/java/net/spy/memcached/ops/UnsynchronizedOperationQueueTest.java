@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.ops;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * Test the unsynchronized read and write queue.
+ */
+public class UnsynchronizedOperationQueueTest extends TestCase {
+
+  private final OperationFactory opFact = new BinaryOperationFactory();
+  private final UnsynchronizedOperationQueue q =
+    new UnsynchronizedOperationQueue();
+
+  public void testFifoWhileGrowing() {
+    List<Operation> ops = new ArrayList<Operation>();
+    for (int i = 0; i < 100; i++) {
+      ops.add(opFact.noop(null));
+    }
+    // Start off the array's first slot, so growing has to unwrap it.
+    for (int i = 0; i < 10; i++) {
+      q.add(ops.get(i));
+    }
+    for (int i = 0; i < 5; i++) {
+      assertSame(ops.get(i), q.poll());
+    }
+    for (int i = 10; i < 100; i++) {
+      q.add(ops.get(i));
+    }
+    assertEquals(95, q.size());
+    Iterator<Operation> it = q.iterator();
+    for (int i = 5; i < 100; i++) {
+      assertSame(ops.get(i), it.next());
+    }
+    assertFalse(it.hasNext());
+    for (int i = 5; i < 100; i++) {
+      assertSame(ops.get(i), q.peek());
+      assertSame(ops.get(i), q.remove());
+    }
+    assertTrue(q.isEmpty());
+    assertNull(q.poll());
+    assertNull(q.peek());
+  }
+
+  public void testDrainTo() {
+    for (int i = 0; i < 20; i++) {
+      q.add(opFact.noop(null));
+    }
+    List<Operation> drained = new ArrayList<Operation>();
+    assertEquals(5, q.drainTo(drained, 5));
+    assertEquals(15, q.size());
+    assertEquals(15, q.drainTo(drained));
+    assertEquals(20, drained.size());
+    assertTrue(q.isEmpty());
+    assertEquals(Integer.MAX_VALUE, q.remainingCapacity());
+  }
+
+  public void testNeverWaits() throws Exception {
+    assertNull(q.poll(1, TimeUnit.HOURS));
+    try {
+      q.take();
+      fail("Expected take to be unsupported");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+}
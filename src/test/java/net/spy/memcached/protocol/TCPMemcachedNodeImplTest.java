@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.BufferAllocator;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.PooledBufferAllocator;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the write path of a {@link TCPMemcachedNodeImpl}.
+ */
+public class TCPMemcachedNodeImplTest extends TestCase {
+
+  private ServerSocketChannel server;
+  private SocketChannel client;
+  private SocketChannel accepted;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    client = SocketChannel.open(server.socket().getLocalSocketAddress());
+    accepted = server.accept();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    client.close();
+    accepted.close();
+    server.close();
+    super.tearDown();
+  }
+
+  public void testGatheringWriteSplitsOperations() throws Exception {
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY).setGatheringWriteLimit(100).build();
+    MemcachedNode node = cf.createMemcachedNode(
+      server.socket().getLocalSocketAddress(), client, 1024);
+
+    List<Operation> ops = new ArrayList<Operation>();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      byte[] value = new byte[150];
+      Arrays.fill(value, (byte) ('a' + i));
+      Operation op = cf.getOperationFactory().store(StoreType.set, "key" + i,
+        0, 0, value, new StoreOperation.Callback() {
+          public void gotData(String key, long cas) {
+          }
+
+          public void receivedStatus(OperationStatus status) {
+          }
+
+          public void complete() {
+          }
+        });
+      op.initialize();
+      ByteBuffer b = op.getBuffer().duplicate();
+      byte[] bytes = new byte[b.remaining()];
+      b.get(bytes);
+      expected.write(bytes);
+      ops.add(op);
+      node.addOp(op);
+    }
+    node.copyInputQueue();
+
+    node.fillWriteBuffer(false);
+    while (node.getBytesRemainingToWrite() > 0) {
+      assertTrue(node.getBytesRemainingToWrite() <= 100);
+      assertTrue(node.writeSome() > 0);
+      node.fillWriteBuffer(false);
+    }
+
+    for (Operation op : ops) {
+      assertSame(OperationState.READING, op.getState());
+    }
+    assertFalse(node.getWbuf().hasRemaining());
+
+    ByteBuffer received = ByteBuffer.allocate(expected.size());
+    while (received.hasRemaining()) {
+      assertTrue(accepted.read(received) > 0);
+    }
+    assertTrue(Arrays.equals(expected.toByteArray(), received.array()));
+  }
+
+  public void testWrittenBuffersAreReleased() throws Exception {
+    final List<ByteBuffer> allocated = new ArrayList<ByteBuffer>();
+    final List<ByteBuffer> released = new ArrayList<ByteBuffer>();
+    BufferAllocator allocator = new PooledBufferAllocator() {
+      @Override
+      public ByteBuffer allocate(int size) {
+        ByteBuffer b = super.allocate(size);
+        allocated.add(b);
+        return b;
+      }
+
+      @Override
+      public void release(ByteBuffer buffer) {
+        released.add(buffer);
+        super.release(buffer);
+      }
+    };
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY).setGatheringWriteLimit(100)
+      .setBufferAllocator(allocator).build();
+    MemcachedNode node = cf.createMemcachedNode(
+      server.socket().getLocalSocketAddress(), client, 1024);
+
+    for (int i = 0; i < 3; i++) {
+      Operation op = cf.getOperationFactory().store(StoreType.set, "key" + i,
+        0, 0, new byte[150], new StoreOperation.Callback() {
+          public void gotData(String key, long cas) {
+          }
+
+          public void receivedStatus(OperationStatus status) {
+          }
+
+          public void complete() {
+          }
+        });
+      op.setHandlingNode(node);
+      op.initialize();
+      node.addOp(op);
+    }
+    assertEquals(3, allocated.size());
+    node.copyInputQueue();
+
+    node.fillWriteBuffer(false);
+    while (node.getBytesRemainingToWrite() > 0) {
+      node.writeSome();
+      node.fillWriteBuffer(false);
+      for (ByteBuffer b : released) {
+        assertTrue(allocated.contains(b));
+      }
+    }
+    assertEquals(allocated, released);
+  }
+
+  public void testTryAddOpOnFullQueue() throws Exception {
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY)
+      .setOpQueueFactory(new ArrayOperationQueueFactory(2)).build();
+    MemcachedNode node = cf.createMemcachedNode(
+      server.socket().getLocalSocketAddress(), client, 1024);
+
+    assertTrue(node.awaitInputQueueCapacity().toCompletableFuture()
+      .isDone());
+    assertTrue(node.tryAddOp(cf.getOperationFactory().noop(null)));
+    assertTrue(node.tryAddOp(cf.getOperationFactory().noop(null)));
+    Operation rejected = cf.getOperationFactory().noop(null);
+    assertFalse(node.tryAddOp(rejected));
+    assertSame(OperationState.WRITE_QUEUED, rejected.getState());
+    assertEquals(2, node.getInputQueueDepth());
+
+    CompletableFuture<Void> room =
+      node.awaitInputQueueCapacity().toCompletableFuture();
+    assertFalse(room.isDone());
+    node.copyInputQueue();
+    assertTrue(room.isDone());
+    assertEquals(0, node.getInputQueueDepth());
+    assertTrue(node.tryAddOp(rejected));
+  }
+}
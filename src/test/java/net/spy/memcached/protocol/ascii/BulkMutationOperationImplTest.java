@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the requests and response handling of the pipelined bulk mutations.
+ */
+public class BulkMutationOperationImplTest extends TestCase {
+
+  private final AsciiOperationFactory factory = new AsciiOperationFactory();
+  private final Map<String, OperationStatus> statuses =
+    new LinkedHashMap<String, OperationStatus>();
+  private OperationStatus status;
+  private boolean completed;
+
+  private final BulkMutationOperation.Callback callback =
+    new BulkMutationOperation.Callback() {
+      public void gotStatus(String key, OperationStatus s) {
+        statuses.put(key, s);
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+        completed = true;
+      }
+    };
+
+  public void testStore() throws Exception {
+    Map<String, CachedData> items = new LinkedHashMap<String, CachedData>();
+    items.put("a", new CachedData(1, "x".getBytes(), 1024));
+    items.put("b", new CachedData(0, "yy".getBytes(), 1024));
+    items.put("c", new CachedData(2, "z".getBytes(), 1024));
+    Operation op = factory.storeBulk(StoreType.set, items, 60, callback);
+    assertRequest("set a 1 60 1\r\nx\r\nset b 0 60 2\r\nyy\r\n"
+      + "set c 2 60 1\r\nz\r\n", op);
+    feed(op, "STORED\r\nSERVER_ERROR out of memory storing object\r\n"
+      + "STORED\r\n");
+
+    assertTrue(statuses.get("a").isSuccess());
+    assertFalse(statuses.get("b").isSuccess());
+    assertSame(StatusCode.ERR_INTERNAL, statuses.get("b").getStatusCode());
+    assertTrue(statuses.get("c").isSuccess());
+    assertTrue(status.isSuccess());
+    assertTrue(completed);
+  }
+
+  public void testDelete() throws Exception {
+    Operation op = factory.deleteBulk(Arrays.asList("a", "b"), callback);
+    assertRequest("delete a\r\ndelete b\r\n", op);
+    feed(op, "NOT_FOUND\r\nDELETED\r\n");
+
+    assertSame(StatusCode.ERR_NOT_FOUND,
+      statuses.get("a").getStatusCode());
+    assertTrue(statuses.get("b").isSuccess());
+  }
+
+  public void testTouch() throws Exception {
+    Operation op = factory.touchBulk(Arrays.asList("a", "b"), 300, callback);
+    assertRequest("touch a 300\r\ntouch b 300\r\n", op);
+    op.writing();
+    op.writeComplete();
+    // Replies may be split across reads.
+    op.readFromBuffer(ByteBuffer.wrap("TOUCHED\r\nNOT_F".getBytes()));
+    assertSame(OperationState.READING, op.getState());
+    op.readFromBuffer(ByteBuffer.wrap("OUND\r\n".getBytes()));
+    assertSame(OperationState.COMPLETE, op.getState());
+
+    assertTrue(statuses.get("a").isSuccess());
+    assertSame(StatusCode.ERR_NOT_FOUND,
+      statuses.get("b").getStatusCode());
+  }
+
+  private void assertRequest(String expected, Operation op) {
+    op.initialize();
+    ByteBuffer b = op.getBuffer().duplicate();
+    byte[] bytes = new byte[b.remaining()];
+    b.get(bytes);
+    assertEquals(expected, new String(bytes));
+  }
+
+  private void feed(Operation op, String response) throws Exception {
+    op.writing();
+    op.writeComplete();
+    op.readFromBuffer(ByteBuffer.wrap(response.getBytes()));
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Test the parsing of get responses.
+ */
+public class GetOperationImplTest extends TestCase {
+
+  private final List<String> keys = new ArrayList<String>();
+  private final List<Integer> flags = new ArrayList<Integer>();
+  private final List<String> values = new ArrayList<String>();
+  private final List<Long> casValues = new ArrayList<Long>();
+  private OperationStatus status;
+
+  private final GetOperation.Callback getCallback =
+    new GetOperation.Callback() {
+      public void gotData(String key, int f, byte[] data) {
+        keys.add(key);
+        flags.add(f);
+        values.add(new String(data));
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+      }
+    };
+
+  public void testMultiGet() throws Exception {
+    GetOperationImpl op = new GetOperationImpl(
+      Arrays.asList("k1", "key2", "k3"), getCallback);
+    op.initialize();
+    feed(op, "VALUE key2 5 3\r\nabc\r\nVALUE k1 0 0\r\n\r\n"
+      + "VALUE k3 4294967295 2\r\nxy\r\nEND\r\n", 1000);
+
+    assertEquals(Arrays.asList("key2", "k1", "k3"), keys);
+    assertEquals(Arrays.asList(5, 0, -1), flags);
+    assertEquals(Arrays.asList("abc", "", "xy"), values);
+    assertTrue(status.isSuccess());
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testKeysAreTheRequestedInstances() throws Exception {
+    String key = new String("somekey");
+    GetOperationImpl op = new GetOperationImpl(key, getCallback);
+    op.initialize();
+    feed(op, "VALUE somekey 1 1\r\nx\r\nEND\r\n", 1000);
+    assertSame(key, keys.get(0));
+  }
+
+  public void testUnrequestedKey() throws Exception {
+    GetOperationImpl op = new GetOperationImpl("a", getCallback);
+    op.initialize();
+    feed(op, "VALUE b 1 1\r\nx\r\nEND\r\n", 1000);
+    assertEquals(Arrays.asList("b"), keys);
+  }
+
+  public void testSplitAcrossReads() throws Exception {
+    GetOperationImpl op = new GetOperationImpl(
+      Arrays.asList("first", "second"), getCallback);
+    op.initialize();
+    feed(op, "VALUE first 12 5\r\nhello\r\nVALUE second 34 5\r\nworld\r\n"
+      + "END\r\n", 1);
+
+    assertEquals(Arrays.asList("first", "second"), keys);
+    assertEquals(Arrays.asList(12, 34), flags);
+    assertEquals(Arrays.asList("hello", "world"), values);
+    assertTrue(status.isSuccess());
+  }
+
+  public void testNotFound() throws Exception {
+    GetOperationImpl op = new GetOperationImpl("missing", getCallback);
+    op.initialize();
+    feed(op, "END\r\n", 2);
+    assertTrue(keys.isEmpty());
+    assertFalse(status.isSuccess());
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testGetsWithCas() throws Exception {
+    GetsOperationImpl op = new GetsOperationImpl("key",
+      new GetsOperation.Callback() {
+        public void gotData(String key, int f, long cas, byte[] data) {
+          keys.add(key);
+          flags.add(f);
+          casValues.add(cas);
+          values.add(new String(data));
+        }
+
+        public void receivedStatus(OperationStatus s) {
+          status = s;
+        }
+
+        public void complete() {
+        }
+      });
+    op.initialize();
+    feed(op, "VALUE key 3 4 9876543210123\r\nabcd\r\nEND\r\n", 7);
+
+    assertEquals(Arrays.asList("key"), keys);
+    assertEquals(Arrays.asList(3), flags);
+    assertEquals(Arrays.asList(9876543210123L), casValues);
+    assertEquals(Arrays.asList("abcd"), values);
+  }
+
+  private void feed(OperationImpl op, String response, int chunk)
+    throws Exception {
+    byte[] bytes = response.getBytes();
+    for (int i = 0; i < bytes.length; i += chunk) {
+      ByteBuffer b = ByteBuffer.allocateDirect(chunk);
+      b.put(bytes, i, Math.min(chunk, bytes.length - i));
+      b.flip();
+      op.readFromBuffer(b);
+      assertFalse(b.hasRemaining());
+    }
+  }
+}
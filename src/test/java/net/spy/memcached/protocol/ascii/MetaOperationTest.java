@@ -0,0 +1,353 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the requests and response handling of the meta protocol operations.
+ */
+public class MetaOperationTest extends TestCase {
+
+  private final MetaOperationFactory factory = new MetaOperationFactory();
+  private final List<String> keys = new ArrayList<String>();
+  private final List<String> values = new ArrayList<String>();
+  private final List<Long> casValues = new ArrayList<Long>();
+  private OperationStatus status;
+  private boolean completed;
+
+  private final OperationCallback callback = new StoreCallback();
+
+  private final Map<String, OperationStatus> bulkStatuses =
+    new LinkedHashMap<String, OperationStatus>();
+
+  private final BulkMutationOperation.Callback bulkCallback =
+    new BulkMutationOperation.Callback() {
+      public void gotStatus(String key, OperationStatus s) {
+        bulkStatuses.put(key, s);
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+        completed = true;
+      }
+    };
+
+  private final GetOperation.Callback getCallback =
+    new GetOperation.Callback() {
+      public void gotData(String key, int flags, byte[] data) {
+        keys.add(key + "/" + flags);
+        values.add(new String(data));
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+        completed = true;
+      }
+    };
+
+  public void testSingleGet() throws Exception {
+    Operation op = factory.get("key", getCallback);
+    assertRequest("mg key v f O0\r\n", op);
+    feed(op, "VA 5 f42 O0\r\nhello\r\n");
+
+    assertEquals(Arrays.asList("key/42"), keys);
+    assertEquals(Arrays.asList("hello"), values);
+    assertTrue(status.isSuccess());
+    assertTrue(completed);
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testSingleGetMiss() throws Exception {
+    Operation op = factory.get("key", getCallback);
+    op.initialize();
+    feed(op, "EN\r\n");
+
+    assertTrue(keys.isEmpty());
+    assertSame(StatusCode.ERR_NOT_FOUND, status.getStatusCode());
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testPipelinedGet() throws Exception {
+    Operation op = factory.get(Arrays.asList("a", "b", "c"), getCallback);
+    assertRequest("mg a v f q O0\r\nmg b v f q O1\r\nmg c v f q O2\r\n"
+      + "mn\r\n", op);
+    // The miss on b is not answered in quiet mode.
+    feed(op, "VA 2 f1 O2\r\ncc\r\nVA 1 f0 O0\r\na\r\nMN\r\n");
+
+    assertEquals(Arrays.asList("c/1", "a/0"), keys);
+    assertEquals(Arrays.asList("cc", "a"), values);
+    assertTrue(status.isSuccess());
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testGets() throws Exception {
+    Operation op = factory.gets("key", new GetsOperation.Callback() {
+      public void gotData(String key, int flags, long cas, byte[] data) {
+        keys.add(key);
+        casValues.add(cas);
+        values.add(new String(data));
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+      }
+    });
+    assertRequest("mg key v f c O0\r\n", op);
+    feed(op, "VA 3 f0 c123456789012 O0\r\nabc\r\n");
+
+    assertEquals(Arrays.asList("key"), keys);
+    assertEquals(Arrays.asList(123456789012L), casValues);
+    assertEquals(Arrays.asList("abc"), values);
+  }
+
+  public void testTouch() throws Exception {
+    Operation op = factory.touch("key", 300, callback);
+    assertRequest("mg key T300 O0\r\n", op);
+    feed(op, "HD O0\r\n");
+    assertTrue(status.isSuccess());
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testStore() throws Exception {
+    Operation op = factory.store(StoreType.add, "key", 5, 60,
+      "data".getBytes(), new StoreCallback());
+    assertRequest("ms key 4 F5 T60 ME\r\ndata\r\n", op);
+    feed(op, "NS\r\n");
+    assertFalse(status.isSuccess());
+    assertSame(StatusCode.ERR_NOT_STORED, status.getStatusCode());
+
+    op = factory.store(StoreType.set, "key", 0, 0, "data".getBytes(),
+      new StoreCallback());
+    assertRequest("ms key 4 F0 T0 MS\r\ndata\r\n", op);
+    feed(op, "HD\r\n");
+    assertTrue(status.isSuccess());
+  }
+
+  public void testCas() throws Exception {
+    Operation op = factory.cas(StoreType.set, "key", 99, 0, 0,
+      "data".getBytes(), new StoreCallback());
+    assertRequest("ms key 4 F0 T0 MS C99\r\ndata\r\n", op);
+    feed(op, "EX\r\n");
+    assertSame(CASResponse.EXISTS,
+      ((CASOperationStatus) status).getCASResponse());
+  }
+
+  public void testDelete() throws Exception {
+    DeleteOperation.Callback cb = new DeleteOperation.Callback() {
+      public void gotData(long cas) {
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+      }
+    };
+    Operation op = factory.delete("key", cb);
+    assertRequest("md key\r\n", op);
+    feed(op, "NF\r\n");
+    assertSame(StatusCode.ERR_NOT_FOUND, status.getStatusCode());
+
+    op = factory.delete("key", 42, cb);
+    assertRequest("md key C42\r\n", op);
+    feed(op, "HD\r\n");
+    assertTrue(status.isSuccess());
+  }
+
+  public void testMutate() throws Exception {
+    Operation op = factory.mutate(Mutator.incr, "key", 2, 0, -1, callback);
+    assertRequest("ma key MI D2 v\r\n", op);
+    feed(op, "VA 2\r\n12\r\n");
+    assertTrue(status.isSuccess());
+    assertEquals("12", status.getMessage());
+
+    op = factory.mutate(Mutator.decr, "key", 1, 10, 60, callback);
+    assertRequest("ma key MD D1 N60 J10 v\r\n", op);
+    feed(op, "NF\r\n");
+    assertSame(StatusCode.ERR_NOT_FOUND, status.getStatusCode());
+  }
+
+  public void testBulkStore() throws Exception {
+    Map<String, CachedData> items = new LinkedHashMap<String, CachedData>();
+    items.put("a", new CachedData(1, "x".getBytes(), 1024));
+    items.put("b", new CachedData(0, "yy".getBytes(), 1024));
+    items.put("c", new CachedData(2, "z".getBytes(), 1024));
+    Operation op = factory.storeBulk(StoreType.add, items, 60, bulkCallback);
+    assertRequest("ms a 1 F1 T60 ME O0 q\r\nx\r\n"
+      + "ms b 2 F0 T60 ME O1 q\r\nyy\r\n"
+      + "ms c 1 F2 T60 ME O2 q\r\nz\r\nmn\r\n", op);
+    // Only the failure is answered in quiet mode.
+    feed(op, "NS O1\r\nMN\r\n");
+
+    assertEquals(Arrays.asList("b", "a", "c"),
+      new ArrayList<String>(bulkStatuses.keySet()));
+    assertSame(StatusCode.ERR_NOT_STORED,
+      bulkStatuses.get("b").getStatusCode());
+    assertTrue(bulkStatuses.get("a").isSuccess());
+    assertTrue(bulkStatuses.get("c").isSuccess());
+    assertTrue(status.isSuccess());
+    assertTrue(completed);
+  }
+
+  public void testBulkDelete() throws Exception {
+    Operation op = factory.deleteBulk(Arrays.asList("a", "b"), bulkCallback);
+    assertRequest("md a O0 q\r\nmd b O1 q\r\nmn\r\n", op);
+    feed(op, "NF O0\r\nMN\r\n");
+
+    assertSame(StatusCode.ERR_NOT_FOUND,
+      bulkStatuses.get("a").getStatusCode());
+    assertTrue(bulkStatuses.get("b").isSuccess());
+  }
+
+  public void testBulkTouch() throws Exception {
+    Operation op = factory.touchBulk(Arrays.asList("a", "b"), 300,
+      bulkCallback);
+    assertRequest("mg a T300 O0\r\nmg b T300 O1\r\nmn\r\n", op);
+    feed(op, "HD O0\r\nEN\r\nMN\r\n");
+
+    assertTrue(bulkStatuses.get("a").isSuccess());
+    assertSame(StatusCode.ERR_NOT_FOUND,
+      bulkStatuses.get("b").getStatusCode());
+  }
+
+  public void testNoop() throws Exception {
+    Operation op = factory.noop(callback);
+    assertRequest("mn\r\n", op);
+    feed(op, "MN\r\n");
+    assertTrue(status.isSuccess());
+  }
+
+  public void testNodePipelinesGets() throws Exception {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    SocketChannel client =
+      SocketChannel.open(server.socket().getLocalSocketAddress());
+    SocketChannel accepted = server.accept();
+    try {
+      ConnectionFactory cf = new ConnectionFactoryBuilder()
+        .setProtocol(Protocol.META).setShouldOptimize(true).build();
+      MemcachedNode node = cf.createMemcachedNode(
+        server.socket().getLocalSocketAddress(), client, 1024);
+      assertTrue(node instanceof MetaMemcachedNodeImpl);
+      for (String key : Arrays.asList("a", "b", "c")) {
+        Operation op = cf.getOperationFactory().get(key, getCallback);
+        op.initialize();
+        node.addOp(op);
+      }
+      node.copyInputQueue();
+
+      node.fillWriteBuffer(true);
+      while (node.getBytesRemainingToWrite() > 0) {
+        node.writeSome();
+        node.fillWriteBuffer(true);
+      }
+
+      // The first get goes out on its own, the ones queued behind it are
+      // pipelined.
+      String expected = "mg a v f O0\r\nmg b v f q O0\r\nmg c v f q O1\r\n"
+        + "mn\r\n";
+      ByteBuffer received = ByteBuffer.allocate(expected.length());
+      while (received.hasRemaining()) {
+        assertTrue(accepted.read(received) > 0);
+      }
+      assertEquals(expected, new String(received.array()));
+
+      node.removeCurrentReadOp();
+      Operation op = node.getCurrentReadOp();
+      feed(op, "VA 1 f0 O1\r\nc\r\nMN\r\n");
+      assertEquals(Arrays.asList("c/0"), keys);
+      assertTrue(completed);
+    } finally {
+      client.close();
+      accepted.close();
+      server.close();
+    }
+  }
+
+  private void assertRequest(String expected, Operation op) {
+    op.initialize();
+    ByteBuffer b = op.getBuffer().duplicate();
+    byte[] bytes = new byte[b.remaining()];
+    b.get(bytes);
+    assertEquals(expected, new String(bytes));
+  }
+
+  private void feed(Operation op, String response) throws Exception {
+    op.writing();
+    op.writeComplete();
+    op.readFromBuffer(ByteBuffer.wrap(response.getBytes()));
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  private class StoreCallback implements StoreOperation.Callback {
+    public void gotData(String key, long cas) {
+    }
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void complete() {
+    }
+  }
+}
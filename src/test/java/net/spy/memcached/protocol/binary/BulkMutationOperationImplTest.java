@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkMutationOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the requests and response handling of the binary bulk mutations.
+ */
+public class BulkMutationOperationImplTest extends TestCase {
+
+  private final BinaryOperationFactory factory = new BinaryOperationFactory();
+  private final Map<String, OperationStatus> statuses =
+    new HashMap<String, OperationStatus>();
+  private final Map<String, Integer> opaques = new HashMap<String, Integer>();
+  private final Map<String, Byte> commands = new HashMap<String, Byte>();
+  private int noopOpaque;
+  private OperationStatus status;
+  private boolean completed;
+
+  private final BulkMutationOperation.Callback callback =
+    new BulkMutationOperation.Callback() {
+      public void gotStatus(String key, OperationStatus s) {
+        statuses.put(key, s);
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+        completed = true;
+      }
+    };
+
+  public void testStore() throws Exception {
+    Map<String, CachedData> items = new LinkedHashMap<String, CachedData>();
+    items.put("a", new CachedData(1, "x".getBytes(), 1024));
+    items.put("b", new CachedData(0, "yy".getBytes(), 1024));
+    items.put("c", new CachedData(2, "z".getBytes(), 1024));
+    Operation op = factory.storeBulk(StoreType.add, items, 60, callback);
+    parseRequest(op);
+    assertEquals(3, opaques.size());
+    assertEquals(Byte.valueOf(StoreOperationImpl.ADDQ), commands.get("b"));
+
+    // Quiet adds only answer on failure.
+    feed(op, response(StoreOperationImpl.ADDQ, 0x02, opaques.get("b")),
+      response(NoopOperationImpl.CMD, 0, noopOpaque));
+
+    assertSame(StatusCode.ERR_EXISTS, statuses.get("b").getStatusCode());
+    assertTrue(statuses.get("a").isSuccess());
+    assertTrue(statuses.get("c").isSuccess());
+    assertTrue(status.isSuccess());
+    assertTrue(completed);
+  }
+
+  public void testDelete() throws Exception {
+    Operation op = factory.deleteBulk(Arrays.asList("a", "b"), callback);
+    parseRequest(op);
+    assertEquals(Byte.valueOf(BulkDeleteOperationImpl.DELETEQ),
+      commands.get("a"));
+
+    feed(op, response(BulkDeleteOperationImpl.DELETEQ, 0x01,
+      opaques.get("a")), response(NoopOperationImpl.CMD, 0, noopOpaque));
+
+    assertSame(StatusCode.ERR_NOT_FOUND, statuses.get("a").getStatusCode());
+    assertTrue(statuses.get("b").isSuccess());
+  }
+
+  public void testTouch() throws Exception {
+    Operation op = factory.touchBulk(Arrays.asList("a", "b"), 300, callback);
+    parseRequest(op);
+    assertEquals(Byte.valueOf(TouchOperationImpl.CMD), commands.get("a"));
+
+    feed(op, response(TouchOperationImpl.CMD, 0, opaques.get("a")),
+      response(TouchOperationImpl.CMD, 0x01, opaques.get("b")),
+      response(NoopOperationImpl.CMD, 0, noopOpaque));
+
+    assertTrue(statuses.get("a").isSuccess());
+    assertSame(StatusCode.ERR_NOT_FOUND, statuses.get("b").getStatusCode());
+  }
+
+  /**
+   * Record the command and opaque of every key, and the opaque of the
+   * trailing noop.
+   */
+  private void parseRequest(Operation op) {
+    op.initialize();
+    ByteBuffer b = op.getBuffer().duplicate();
+    while (b.hasRemaining()) {
+      assertEquals(OperationImpl.REQ_MAGIC, b.get());
+      byte cmd = b.get();
+      int keyLength = b.getShort();
+      int extraLength = b.get();
+      b.get(); // data type
+      b.getShort(); // vbucket
+      int bodyLength = b.getInt();
+      int opaque = b.getInt();
+      b.getLong(); // cas
+      b.position(b.position() + extraLength);
+      byte[] key = new byte[keyLength];
+      b.get(key);
+      b.position(b.position() + bodyLength - extraLength - keyLength);
+      if (cmd == NoopOperationImpl.CMD) {
+        assertFalse(b.hasRemaining());
+        noopOpaque = opaque;
+      } else {
+        opaques.put(new String(key), opaque);
+        commands.put(new String(key), cmd);
+      }
+    }
+  }
+
+  private static ByteBuffer response(byte cmd, int errorCode, int opaque) {
+    byte[] body = errorCode == 0 ? new byte[0] : "Failed".getBytes();
+    ByteBuffer b = ByteBuffer.allocate(OperationImpl.MIN_RECV_PACKET
+      + body.length);
+    b.put(OperationImpl.RES_MAGIC);
+    b.put(cmd);
+    b.putShort((short) 0); // key length
+    b.put((byte) 0); // extra length
+    b.put((byte) 0); // data type
+    b.putShort((short) errorCode);
+    b.putInt(body.length);
+    b.putInt(opaque);
+    b.putLong(0); // cas
+    b.put(body);
+    b.flip();
+    return b;
+  }
+
+  private void feed(Operation op, ByteBuffer... responses) throws Exception {
+    op.writing();
+    op.writeComplete();
+    for (ByteBuffer b : responses) {
+      assertSame(OperationState.READING, op.getState());
+      while (b.hasRemaining()) {
+        op.readFromBuffer(b);
+      }
+    }
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+}
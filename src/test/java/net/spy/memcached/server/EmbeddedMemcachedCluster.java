@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several {@link EmbeddedMemcachedServer}s behind a configuration endpoint
+ * handing out their node list the way ElastiCache does, for clients in
+ * dynamic mode.
+ *
+ * Adding and removing nodes publishes a new configuration version on the
+ * configuration endpoint and on every node, which the configuration poller
+ * of the client picks up.
+ */
+public class EmbeddedMemcachedCluster implements Closeable {
+
+  private final EmbeddedMemcachedServer configEndpoint;
+  private final List<EmbeddedMemcachedServer> nodes =
+    new ArrayList<EmbeddedMemcachedServer>();
+  private long version;
+
+  /**
+   * Start a cluster with the given number of nodes.
+   */
+  public EmbeddedMemcachedCluster(int nodeCount) throws IOException {
+    configEndpoint = new EmbeddedMemcachedServer().start();
+    for (int i = 0; i < nodeCount; i++) {
+      nodes.add(new EmbeddedMemcachedServer().start());
+    }
+    publish();
+  }
+
+  /**
+   * Get the address of the configuration endpoint.
+   */
+  public InetSocketAddress getConfigurationEndpoint() {
+    return configEndpoint.getAddress();
+  }
+
+  /**
+   * Get the server acting as the configuration endpoint.
+   */
+  public EmbeddedMemcachedServer getConfigurationServer() {
+    return configEndpoint;
+  }
+
+  /**
+   * Get the current nodes.
+   */
+  public synchronized List<EmbeddedMemcachedServer> getNodes() {
+    return Collections.unmodifiableList(
+      new ArrayList<EmbeddedMemcachedServer>(nodes));
+  }
+
+  /**
+   * Get the addresses of the current nodes, for clients in static mode.
+   */
+  public synchronized List<InetSocketAddress> getAddresses() {
+    List<InetSocketAddress> rv = new ArrayList<InetSocketAddress>();
+    for (EmbeddedMemcachedServer node : nodes) {
+      rv.add(node.getAddress());
+    }
+    return rv;
+  }
+
+  /**
+   * Get the version of the published configuration.
+   */
+  public synchronized long getConfigurationVersion() {
+    return version;
+  }
+
+  /**
+   * Start a new node and publish it.
+   *
+   * @return the new node
+   */
+  public synchronized EmbeddedMemcachedServer addNode() throws IOException {
+    EmbeddedMemcachedServer node = new EmbeddedMemcachedServer().start();
+    nodes.add(node);
+    publish();
+    return node;
+  }
+
+  /**
+   * Remove a node from the published configuration and stop it.
+   */
+  public synchronized void removeNode(EmbeddedMemcachedServer node)
+    throws IOException {
+    if (nodes.remove(node)) {
+      publish();
+      node.close();
+    }
+  }
+
+  /**
+   * Stop the configuration endpoint and all nodes.
+   */
+  public synchronized void close() throws IOException {
+    for (EmbeddedMemcachedServer node : nodes) {
+      node.close();
+    }
+    nodes.clear();
+    configEndpoint.close();
+  }
+
+  private void publish() {
+    version++;
+    StringBuilder sb = new StringBuilder();
+    sb.append(version).append('\n');
+    for (EmbeddedMemcachedServer node : nodes) {
+      if (sb.charAt(sb.length() - 1) != '\n') {
+        sb.append(' ');
+      }
+      sb.append("localhost|127.0.0.1|").append(node.getPort());
+    }
+    sb.append('\n');
+    String config = sb.toString();
+    configEndpoint.setClusterConfiguration(config);
+    for (EmbeddedMemcachedServer node : nodes) {
+      node.setClusterConfiguration(config);
+    }
+  }
+}
@@ -0,0 +1,409 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for a memcached server, for tests and load
+ * benchmarks that cannot rely on a real server.
+ *
+ * <p>
+ * It speaks the ascii protocol including the meta commands, the binary
+ * protocol with SASL authentication accepting any credentials and the
+ * ElastiCache "config get cluster" command, on a single
+ * selector thread. Its behaviour can be changed while running to exercise
+ * the failure handling of the client:
+ * </p>
+ *
+ * <ul>
+ * <li>{@link #setLatency(long, TimeUnit)} delays every response, to simulate
+ * a slow node.</li>
+ * <li>{@link #setSilent(boolean)} reads requests without ever answering
+ * them, so operations time out.</li>
+ * <li>{@link #rejectNotMyVbucket(int)} answers binary requests with
+ * NOT_MY_VBUCKET, so operations are retried.</li>
+ * <li>{@link #dropConnections()} closes all client connections and
+ * {@link #setRefuseConnections(boolean)} closes new ones right away.</li>
+ * <li>{@link #setClusterConfiguration(String)} changes the node list handed
+ * out, see {@link EmbeddedMemcachedCluster}.</li>
+ * </ul>
+ *
+ * <pre>
+ * EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+ * MemcachedClient client = new MemcachedClient(server.getAddress());
+ * </pre>
+ */
+public class EmbeddedMemcachedServer implements Closeable {
+
+  private static final AtomicInteger SERVER_IDS = new AtomicInteger();
+
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final ItemStore store = new ItemStore();
+  private final List<ServerConnection> connections =
+    new ArrayList<ServerConnection>();
+  private final ConcurrentLinkedQueue<Runnable> tasks =
+    new ConcurrentLinkedQueue<Runnable>();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final Thread thread;
+  private volatile boolean running = true;
+  private volatile long latencyNanos;
+  private volatile boolean silent;
+  private final AtomicInteger notMyVbucket = new AtomicInteger();
+  private volatile boolean refuseConnections;
+  private volatile String clusterConfiguration;
+
+  /**
+   * Create a server listening on an ephemeral port of the loopback
+   * interface.
+   */
+  public EmbeddedMemcachedServer() throws IOException {
+    this(0);
+  }
+
+  /**
+   * Create a server listening on the given port of the loopback interface.
+   *
+   * @param port the port, or 0 for an ephemeral one
+   */
+  public EmbeddedMemcachedServer(int port) throws IOException {
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(new InetSocketAddress(
+      InetAddress.getByName("127.0.0.1"), port));
+    serverChannel.configureBlocking(false);
+    selector = Selector.open();
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    thread = new Thread(new Runnable() {
+      public void run() {
+        loop();
+      }
+    }, "embedded-memcached-" + SERVER_IDS.incrementAndGet() + "-"
+      + getPort());
+    thread.setDaemon(true);
+  }
+
+  /**
+   * Start serving.
+   *
+   * @return this server
+   */
+  public EmbeddedMemcachedServer start() {
+    thread.start();
+    return this;
+  }
+
+  /**
+   * Get the address the server listens on.
+   */
+  public InetSocketAddress getAddress() {
+    return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+  }
+
+  /**
+   * Get the port the server listens on.
+   */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Delay every response by the given time, 0 answers right away.
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    latencyNanos = unit.toNanos(latency);
+    selector.wakeup();
+  }
+
+  /**
+   * If true, requests are read but never answered.
+   */
+  public void setSilent(boolean to) {
+    silent = to;
+  }
+
+  /**
+   * Answer the next given number of binary requests with NOT_MY_VBUCKET
+   * instead of handling them.
+   */
+  public void rejectNotMyVbucket(int count) {
+    notMyVbucket.set(count);
+  }
+
+  /**
+   * If true, new connections are closed as soon as they are accepted.
+   */
+  public void setRefuseConnections(boolean to) {
+    refuseConnections = to;
+  }
+
+  /**
+   * Close all current client connections.
+   */
+  public void dropConnections() {
+    final CountDownLatch done = new CountDownLatch(1);
+    runOnLoop(new Runnable() {
+      public void run() {
+        for (ServerConnection c : connections) {
+          c.close();
+        }
+        connections.clear();
+        connectionCount.set(0);
+        done.countDown();
+      }
+    });
+    awaitQuietly(done);
+  }
+
+  /**
+   * Set the value returned by "config get cluster", in the format of
+   * ElastiCache: the configuration version and the space separated
+   * host|ip|port list, each on its own line. The command is rejected as
+   * unknown while no configuration is set.
+   */
+  public void setClusterConfiguration(String config) {
+    clusterConfiguration = config;
+  }
+
+  /**
+   * Get the value returned by "config get cluster".
+   */
+  public String getClusterConfiguration() {
+    return clusterConfiguration;
+  }
+
+  /**
+   * Get the number of currently open client connections.
+   */
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  /**
+   * Get the number of requests received so far.
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Remove all items.
+   */
+  public void clear() {
+    store.clear();
+  }
+
+  /**
+   * Stop serving and close all connections.
+   */
+  public void close() throws IOException {
+    running = false;
+    selector.wakeup();
+    if (thread.isAlive() && thread != Thread.currentThread()) {
+      try {
+        thread.join(5000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (!thread.isAlive()) {
+      closeAll();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{EmbeddedMemcachedServer " + getAddress() + "}";
+  }
+
+  long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  boolean isSilent() {
+    return silent;
+  }
+
+  boolean takeNotMyVbucket() {
+    int n;
+    do {
+      n = notMyVbucket.get();
+      if (n <= 0) {
+        return false;
+      }
+    } while (!notMyVbucket.compareAndSet(n, n - 1));
+    return true;
+  }
+
+  void requestReceived() {
+    requests.incrementAndGet();
+  }
+
+  private void runOnLoop(Runnable r) {
+    if (!thread.isAlive() || thread == Thread.currentThread()) {
+      r.run();
+    } else {
+      tasks.add(r);
+      selector.wakeup();
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void loop() {
+    try {
+      while (running) {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        long now = System.nanoTime();
+        long timeout = 0;
+        for (ServerConnection c : connections) {
+          long due = c.nextDue();
+          if (due != -1) {
+            long wait = Math.max(1, TimeUnit.NANOSECONDS.toMillis(due - now));
+            timeout = timeout == 0 ? wait : Math.min(timeout, wait);
+          }
+        }
+        selector.select(timeout);
+        Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+        while (i.hasNext()) {
+          SelectionKey k = i.next();
+          i.remove();
+          if (!k.isValid()) {
+            continue;
+          }
+          if (k.isAcceptable()) {
+            accept();
+          } else {
+            handle(k);
+          }
+        }
+        now = System.nanoTime();
+        List<ServerConnection> closed = null;
+        for (ServerConnection c : connections) {
+          if (c.nextDue() != -1 && !flush(c, now)) {
+            if (closed == null) {
+              closed = new ArrayList<ServerConnection>();
+            }
+            closed.add(c);
+          }
+        }
+        if (closed != null) {
+          for (ServerConnection c : closed) {
+            disconnect(c);
+          }
+        }
+      }
+    } catch (IOException e) {
+      // The selector failed, nothing left to serve
+    } finally {
+      closeAll();
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel ch;
+    while ((ch = serverChannel.accept()) != null) {
+      if (refuseConnections) {
+        ch.close();
+        continue;
+      }
+      ch.configureBlocking(false);
+      ch.socket().setTcpNoDelay(true);
+      SelectionKey k = ch.register(selector, SelectionKey.OP_READ);
+      ServerConnection c = new ServerConnection(this, store, ch, k);
+      k.attach(c);
+      connections.add(c);
+      connectionCount.incrementAndGet();
+    }
+  }
+
+  private void handle(SelectionKey k) {
+    ServerConnection c = (ServerConnection) k.attachment();
+    boolean open;
+    try {
+      open = (!k.isReadable() || c.read()) && flush(c, System.nanoTime());
+    } catch (IOException e) {
+      open = false;
+    }
+    if (!open) {
+      disconnect(c);
+    }
+  }
+
+  private static boolean flush(ServerConnection c, long now) {
+    try {
+      return c.flush(now);
+    } catch (IOException e) {
+      // Closed by the client
+      return false;
+    }
+  }
+
+  private void disconnect(ServerConnection c) {
+    if (connections.remove(c)) {
+      c.close();
+      connectionCount.decrementAndGet();
+    }
+  }
+
+  private void closeAll() {
+    for (ServerConnection c : connections) {
+      c.close();
+    }
+    connections.clear();
+    connectionCount.set(0);
+    try {
+      selector.close();
+      serverChannel.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.ClientMode;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.OperationTimeoutException;
+import net.spy.memcached.ops.ConfigurationType;
+
+/**
+ * Test the embedded server through the client.
+ */
+public class EmbeddedMemcachedServerTest extends TestCase {
+
+  private EmbeddedMemcachedServer server;
+  private final List<MemcachedClient> clients =
+    new ArrayList<MemcachedClient>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new EmbeddedMemcachedServer().start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (MemcachedClient c : clients) {
+      c.shutdown();
+    }
+    server.close();
+    super.tearDown();
+  }
+
+  public void testTextProtocol() throws Exception {
+    assertCommands(connect(Protocol.TEXT, 1000));
+  }
+
+  public void testBinaryProtocol() throws Exception {
+    assertCommands(connect(Protocol.BINARY, 1000));
+  }
+
+  public void testMetaProtocol() throws Exception {
+    assertCommands(connect(Protocol.META, 1000));
+  }
+
+  public void testPipelinedOperations() throws Exception {
+    MemcachedClient client = connect(Protocol.BINARY, 5000);
+    List<Future<Boolean>> sets = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 5000; i++) {
+      sets.add(client.set("k" + i, 0, "v" + i));
+    }
+    for (Future<Boolean> f : sets) {
+      assertTrue(f.get());
+    }
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 5000; i += 10) {
+      keys.add("k" + i);
+    }
+    Map<String, Object> values = client.getBulk(keys);
+    assertEquals(keys.size(), values.size());
+    assertEquals("v4990", values.get("k4990"));
+    assertTrue(server.getRequestCount() >= 5000);
+  }
+
+  public void testLatency() throws Exception {
+    MemcachedClient client = connect(Protocol.TEXT, 200);
+    assertTrue(client.set("key", 0, "value").get());
+    server.setLatency(50, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    assertEquals("value", client.get("key"));
+    assertTrue(System.nanoTime() - start
+      >= TimeUnit.MILLISECONDS.toNanos(50));
+    server.setLatency(1, TimeUnit.SECONDS);
+    try {
+      client.get("key");
+      fail("Expected a timeout from the slow server");
+    } catch (OperationTimeoutException e) {
+      // expected
+    }
+  }
+
+  public void testSilent() throws Exception {
+    MemcachedClient client = connect(Protocol.BINARY, 200);
+    assertTrue(client.set("key", 0, "value").get());
+    server.setSilent(true);
+    long before = server.getRequestCount();
+    try {
+      client.get("key");
+      fail("Expected a timeout from the silent server");
+    } catch (OperationTimeoutException e) {
+      // expected
+    }
+    assertTrue(server.getRequestCount() > before);
+  }
+
+  public void testDroppedConnections() throws Exception {
+    MemcachedClient client = connect(Protocol.BINARY, 500);
+    assertTrue(client.set("key", 0, "value").get());
+    assertEquals(1, server.getConnectionCount());
+    server.dropConnections();
+    assertEquals(0, server.getConnectionCount());
+    long deadline = System.currentTimeMillis() + 10000;
+    Object value = null;
+    while (value == null && System.currentTimeMillis() < deadline) {
+      try {
+        value = client.get("key");
+      } catch (RuntimeException e) {
+        Thread.sleep(100);
+      }
+    }
+    assertEquals("value", value);
+    assertEquals(1, server.getConnectionCount());
+  }
+
+  public void testClusterConfiguration() throws Exception {
+    EmbeddedMemcachedCluster cluster = new EmbeddedMemcachedCluster(2);
+    try {
+      MemcachedClient client = new MemcachedClient(
+        new ConnectionFactoryBuilder().setClientMode(ClientMode.Dynamic)
+          .setProtocol(Protocol.TEXT).setDaemon(true).build(),
+        Collections.singletonList(cluster.getConfigurationEndpoint()));
+      clients.add(client);
+      assertEquals(2, client.getAllNodeEndPoints().size());
+      assertTrue(client.set("key", 0, "value").get());
+      assertEquals("value", client.get("key"));
+
+      cluster.addNode();
+      assertEquals(2, cluster.getConfigurationVersion());
+      String config = (String) client.getConfig(
+        cluster.getConfigurationEndpoint(), ConfigurationType.CLUSTER);
+      assertTrue(config, config.startsWith("2\n"));
+      for (InetSocketAddress sa : cluster.getAddresses()) {
+        assertTrue(config, config.contains("|127.0.0.1|" + sa.getPort()));
+      }
+      cluster.removeNode(cluster.getNodes().get(0));
+      assertEquals(2, cluster.getNodes().size());
+      assertEquals(3, cluster.getConfigurationVersion());
+    } finally {
+      cluster.close();
+    }
+  }
+
+  private MemcachedClient connect(Protocol protocol, long timeout)
+    throws Exception {
+    MemcachedClient client = new MemcachedClient(
+      new ConnectionFactoryBuilder().setProtocol(protocol)
+        .setOpTimeout(timeout).setDaemon(true).build(),
+      Collections.singletonList(server.getAddress()));
+    clients.add(client);
+    return client;
+  }
+
+  private void assertCommands(MemcachedClient client) throws Exception {
+    assertTrue(client.set("key", 0, "value").get());
+    assertEquals("value", client.get("key"));
+    assertNull(client.get("missing"));
+    assertFalse(client.add("key", 0, "other").get());
+    assertTrue(client.add("added", 0, "new").get());
+    assertTrue(client.replace("added", 0, "replaced").get());
+    assertFalse(client.replace("missing", 0, "replaced").get());
+    assertTrue(client.append(0, "key", "-end").get());
+    assertTrue(client.prepend(0, "key", "start-").get());
+    assertEquals("start-value-end", client.get("key"));
+
+    CASValue<Object> cas = client.gets("key");
+    assertEquals("start-value-end", cas.getValue());
+    assertEquals(CASResponse.OK, client.cas("key", cas.getCas(), "swapped"));
+    assertEquals(CASResponse.EXISTS,
+      client.cas("key", cas.getCas(), "again"));
+    assertEquals("swapped", client.get("key"));
+
+    assertEquals(5, client.incr("counter", 1, 5));
+    assertEquals(8, client.incr("counter", 3));
+    assertEquals(6, client.decr("counter", 2));
+    assertEquals(0, client.decr("counter", 10));
+    assertTrue(client.touch("key", 100).get());
+
+    Map<String, Object> values =
+      client.getBulk(Arrays.asList("key", "added", "missing"));
+    assertEquals(2, values.size());
+    assertEquals("replaced", values.get("added"));
+
+    assertTrue(client.delete("key").get());
+    assertFalse(client.delete("key").get());
+    assertNull(client.get("key"));
+  }
+}
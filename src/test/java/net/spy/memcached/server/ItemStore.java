@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The items of an {@link EmbeddedMemcachedServer}.
+ *
+ * Items are only modified from the thread of the server, reads from other
+ * threads see a consistent item but may miss concurrent updates.
+ */
+final class ItemStore {
+
+  /**
+   * Expirations above this many seconds are absolute unix times.
+   */
+  private static final long MAX_RELATIVE_EXPIRATION =
+    TimeUnit.DAYS.toSeconds(30);
+
+  private final ConcurrentMap<String, Item> items =
+    new ConcurrentHashMap<String, Item>();
+  private final AtomicLong casCounter = new AtomicLong();
+
+  /**
+   * Get a live item, or null if there is none.
+   */
+  Item get(String key) {
+    Item item = items.get(key);
+    if (item != null && item.isExpired()) {
+      items.remove(key, item);
+      return null;
+    }
+    return item;
+  }
+
+  /**
+   * Store an item unconditionally.
+   */
+  Item set(String key, int flags, long exp, byte[] data) {
+    Item item = new Item(flags, data, casCounter.incrementAndGet(),
+      expiresAt(exp));
+    items.put(key, item);
+    return item;
+  }
+
+  /**
+   * Replace the value of an existing item keeping its flags and
+   * expiration.
+   */
+  Item update(String key, Item old, byte[] data) {
+    Item item = new Item(old.flags, data, casCounter.incrementAndGet(),
+      old.expiresAt);
+    items.put(key, item);
+    return item;
+  }
+
+  /**
+   * Change the expiration of an existing item.
+   */
+  Item touch(String key, Item old, long exp) {
+    Item item = new Item(old.flags, old.data, old.cas, expiresAt(exp));
+    items.put(key, item);
+    return item;
+  }
+
+  boolean delete(String key) {
+    return get(key) != null && items.remove(key) != null;
+  }
+
+  void clear() {
+    items.clear();
+  }
+
+  int size() {
+    return items.size();
+  }
+
+  private static long expiresAt(long exp) {
+    if (exp == 0) {
+      return 0;
+    } else if (exp < 0) {
+      return 1;
+    } else if (exp > MAX_RELATIVE_EXPIRATION) {
+      return TimeUnit.SECONDS.toMillis(exp);
+    }
+    return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(exp);
+  }
+
+  /**
+   * A stored value.
+   */
+  static final class Item {
+    final int flags;
+    final byte[] data;
+    final long cas;
+    final long expiresAt;
+
+    Item(int f, byte[] d, long c, long e) {
+      flags = f;
+      data = d;
+      cas = c;
+      expiresAt = e;
+    }
+
+    boolean isExpired() {
+      return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+    }
+  }
+}
@@ -0,0 +1,876 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+
+import net.spy.memcached.server.ItemStore.Item;
+
+/**
+ * A client connection of an {@link EmbeddedMemcachedServer}.
+ *
+ * The protocol is picked from the first byte received: binary requests start
+ * with the request magic, anything else is handled as the ascii protocol,
+ * including the meta commands. All requests read so far are answered before
+ * the responses are written, so pipelined and quiet requests work as they
+ * do against memcached.
+ */
+final class ServerConnection {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final byte REQ_MAGIC = (byte) 0x80;
+  private static final byte RES_MAGIC = (byte) 0x81;
+  private static final int MIN_PACKET = 24;
+
+  // Binary opcodes
+  private static final int GET = 0x00;
+  private static final int SET = 0x01;
+  private static final int ADD = 0x02;
+  private static final int REPLACE = 0x03;
+  private static final int DELETE = 0x04;
+  private static final int INCR = 0x05;
+  private static final int DECR = 0x06;
+  private static final int QUIT = 0x07;
+  private static final int FLUSH = 0x08;
+  private static final int GETQ = 0x09;
+  private static final int NOOP = 0x0a;
+  private static final int VERSION = 0x0b;
+  private static final int GETK = 0x0c;
+  private static final int GETKQ = 0x0d;
+  private static final int APPEND = 0x0e;
+  private static final int PREPEND = 0x0f;
+  private static final int SETQ = 0x11;
+  private static final int ADDQ = 0x12;
+  private static final int REPLACEQ = 0x13;
+  private static final int DELETEQ = 0x14;
+  private static final int INCRQ = 0x15;
+  private static final int DECRQ = 0x16;
+  private static final int QUITQ = 0x17;
+  private static final int FLUSHQ = 0x18;
+  private static final int APPENDQ = 0x19;
+  private static final int PREPENDQ = 0x1a;
+  private static final int TOUCH = 0x1c;
+  private static final int GAT = 0x1d;
+  private static final int GATQ = 0x1e;
+  private static final int SASL_LIST_MECHS = 0x20;
+  private static final int SASL_AUTH = 0x21;
+  private static final int SASL_STEP = 0x22;
+  private static final int CONFIG_GET = 0x60;
+
+  // Binary status codes
+  private static final int SUCCESS = 0x00;
+  private static final int KEY_NOT_FOUND = 0x01;
+  private static final int KEY_EXISTS = 0x02;
+  private static final int NOT_STORED = 0x05;
+  private static final int NON_NUMERIC = 0x06;
+  private static final int NOT_MY_VBUCKET = 0x07;
+  private static final int UNKNOWN_COMMAND = 0x81;
+
+  private static final byte[] NO_BYTES = new byte[0];
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final String VERSION_STRING = "1.6.21";
+
+  private final EmbeddedMemcachedServer server;
+  private final ItemStore store;
+  private final SocketChannel channel;
+  private final SelectionKey key;
+  private ByteBuffer in = ByteBuffer.allocate(16384);
+  private ByteBuffer out = ByteBuffer.allocate(16384);
+  private final ArrayDeque<Chunk> delayed = new ArrayDeque<Chunk>();
+  private ByteBuffer writing;
+  private Boolean binary;
+  private boolean closing;
+
+  ServerConnection(EmbeddedMemcachedServer s, ItemStore st, SocketChannel c,
+      SelectionKey k) {
+    server = s;
+    store = st;
+    channel = c;
+    key = k;
+  }
+
+  /**
+   * Read and answer whatever the client sent.
+   *
+   * @return false if the connection got closed
+   */
+  boolean read() throws IOException {
+    int n;
+    do {
+      if (!in.hasRemaining()) {
+        in = grow(in, in.capacity());
+      }
+      n = channel.read(in);
+    } while (n > 0 && !in.hasRemaining());
+    if (n < 0) {
+      return false;
+    }
+    in.flip();
+    if (binary == null && in.hasRemaining()) {
+      binary = in.get(in.position()) == REQ_MAGIC;
+    }
+    boolean complete = true;
+    while (in.hasRemaining() && complete && !closing) {
+      complete = binary ? processBinary() : processAscii();
+    }
+    in.compact();
+    return true;
+  }
+
+  /**
+   * Hand the responses produced so far to the socket, after the latency of
+   * the server if there is one.
+   *
+   * @return false if the connection got closed
+   */
+  boolean flush(long now) throws IOException {
+    long latency = server.getLatencyNanos();
+    if (out.position() > 0) {
+      out.flip();
+      ByteBuffer chunk = ByteBuffer.allocate(out.remaining());
+      chunk.put(out).flip();
+      out.clear();
+      delayed.add(new Chunk(now + latency, chunk));
+    }
+    while (true) {
+      if (writing == null) {
+        Chunk c = delayed.peek();
+        if (c == null || c.due - now > 0) {
+          break;
+        }
+        writing = delayed.poll().data;
+      }
+      channel.write(writing);
+      if (writing.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return true;
+      }
+      writing = null;
+    }
+    key.interestOps(SelectionKey.OP_READ);
+    if (closing && delayed.isEmpty()) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * The time the next delayed response is due, or -1 if there is none.
+   */
+  long nextDue() {
+    Chunk c = delayed.peek();
+    return writing != null || c == null ? -1 : c.due;
+  }
+
+  void close() {
+    key.cancel();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+  }
+
+  // Ascii protocol
+
+  private boolean processAscii() {
+    int start = in.position();
+    int eol = -1;
+    for (int i = start; i < in.limit(); i++) {
+      if (in.get(i) == '\n') {
+        eol = i;
+        break;
+      }
+    }
+    if (eol < 0) {
+      return false;
+    }
+    int end = eol > start && in.get(eol - 1) == '\r' ? eol - 1 : eol;
+    String line = new String(in.array(), in.arrayOffset() + start,
+      end - start, UTF8);
+    String[] args = line.trim().split(" +");
+    String cmd = args[0];
+    byte[] data = null;
+    int dataLength = dataLength(cmd, args);
+    if (dataLength >= 0) {
+      if (in.limit() - eol - 1 < dataLength + 2) {
+        return false;
+      }
+      data = new byte[dataLength];
+      in.position(eol + 1);
+      in.get(data);
+      in.position(in.position() + 2);
+    } else {
+      in.position(eol + 1);
+    }
+    server.requestReceived();
+    if (!server.isSilent()) {
+      try {
+        handleAscii(cmd, args, data);
+      } catch (RuntimeException e) {
+        writeLine("CLIENT_ERROR bad command line format");
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The length of the data block following the command line, or -1 if the
+   * command has none.
+   */
+  private static int dataLength(String cmd, String[] args) {
+    try {
+      if ((cmd.equals("set") || cmd.equals("add") || cmd.equals("replace")
+        || cmd.equals("append") || cmd.equals("prepend")
+        || cmd.equals("cas")) && args.length > 4) {
+        return Integer.parseInt(args[4]);
+      } else if (cmd.equals("ms") && args.length > 2) {
+        return Integer.parseInt(args[2]);
+      }
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+    return -1;
+  }
+
+  private void handleAscii(String cmd, String[] args, byte[] data) {
+    if (cmd.equals("get") || cmd.equals("gets")) {
+      retrieve(args, 1, cmd.equals("gets"), null);
+    } else if (cmd.equals("gat") || cmd.equals("gats")) {
+      retrieve(args, 2, cmd.equals("gats"), Long.valueOf(args[1]));
+    } else if (cmd.equals("set") || cmd.equals("add")
+      || cmd.equals("replace") || cmd.equals("append")
+      || cmd.equals("prepend") || cmd.equals("cas")) {
+      String result = store(cmd, args[1], Integer.parseInt(args[2]),
+        Long.parseLong(args[3]), data,
+        cmd.equals("cas") ? Long.parseLong(args[5]) : 0);
+      reply(args, result);
+    } else if (cmd.equals("delete")) {
+      reply(args, store.delete(args[1]) ? "DELETED" : "NOT_FOUND");
+    } else if (cmd.equals("incr") || cmd.equals("decr")) {
+      Item item = store.get(args[1]);
+      if (item == null) {
+        reply(args, "NOT_FOUND");
+      } else {
+        Long v = mutate(args[1], item, cmd.equals("incr"),
+          Long.parseLong(args[2]));
+        reply(args, v == null ? "CLIENT_ERROR cannot increment or decrement"
+          + " non-numeric value" : Long.toUnsignedString(v));
+      }
+    } else if (cmd.equals("touch")) {
+      Item item = store.get(args[1]);
+      if (item != null) {
+        store.touch(args[1], item, Long.parseLong(args[2]));
+      }
+      reply(args, item == null ? "NOT_FOUND" : "TOUCHED");
+    } else if (cmd.equals("flush_all")) {
+      store.clear();
+      reply(args, "OK");
+    } else if (cmd.equals("version")) {
+      writeLine("VERSION " + VERSION_STRING);
+    } else if (cmd.equals("verbosity")) {
+      reply(args, "OK");
+    } else if (cmd.equals("stats")) {
+      writeLine("STAT pid 0");
+      writeLine("STAT version " + VERSION_STRING);
+      writeLine("STAT curr_items " + store.size());
+      writeLine("END");
+    } else if (cmd.equals("config") && args.length > 2
+      && args[1].equals("get")) {
+      String config = server.getClusterConfiguration();
+      if (config == null || !args[2].equals("cluster")) {
+        writeLine("ERROR");
+      } else {
+        byte[] b = config.getBytes(UTF8);
+        writeLine("CONFIG cluster 0 " + b.length);
+        write(b);
+        write(CRLF);
+        writeLine("END");
+      }
+    } else if (cmd.equals("quit")) {
+      closing = true;
+    } else if (cmd.equals("mn")) {
+      writeLine("MN");
+    } else if (cmd.equals("mg")) {
+      metaGet(args);
+    } else if (cmd.equals("ms")) {
+      metaSet(args, data);
+    } else if (cmd.equals("md")) {
+      metaDelete(args);
+    } else if (cmd.equals("ma")) {
+      metaArithmetic(args);
+    } else {
+      writeLine("ERROR");
+    }
+  }
+
+  private void retrieve(String[] args, int first, boolean withCas,
+      Long touch) {
+    for (int i = first; i < args.length; i++) {
+      Item item = store.get(args[i]);
+      if (item == null) {
+        continue;
+      }
+      if (touch != null) {
+        item = store.touch(args[i], item, touch.longValue());
+      }
+      writeLine("VALUE " + args[i] + " " + flags(item) + " "
+        + item.data.length + (withCas ? " " + item.cas : ""));
+      write(item.data);
+      write(CRLF);
+    }
+    writeLine("END");
+  }
+
+  /**
+   * Apply a storage command.
+   *
+   * @return the ascii result of the command
+   */
+  private String store(String cmd, String k, int flags, long exp,
+      byte[] data, long cas) {
+    Item item = store.get(k);
+    if (cmd.equals("set")) {
+      store.set(k, flags, exp, data);
+    } else if (cmd.equals("add")) {
+      if (item != null) {
+        return "NOT_STORED";
+      }
+      store.set(k, flags, exp, data);
+    } else if (cmd.equals("replace")) {
+      if (item == null) {
+        return "NOT_STORED";
+      }
+      store.set(k, flags, exp, data);
+    } else if (cmd.equals("append") || cmd.equals("prepend")) {
+      if (item == null) {
+        return "NOT_STORED";
+      }
+      byte[] joined = new byte[item.data.length + data.length];
+      boolean append = cmd.equals("append");
+      System.arraycopy(append ? item.data : data, 0, joined, 0,
+        append ? item.data.length : data.length);
+      System.arraycopy(append ? data : item.data, 0, joined,
+        append ? item.data.length : data.length,
+        append ? data.length : item.data.length);
+      store.update(k, item, joined);
+    } else if (cmd.equals("cas")) {
+      if (item == null) {
+        return "NOT_FOUND";
+      } else if (item.cas != cas) {
+        return "EXISTS";
+      }
+      store.set(k, flags, exp, data);
+    }
+    return "STORED";
+  }
+
+  /**
+   * Increment or decrement the numeric value of an item.
+   *
+   * @return the new value, or null if the value is not a number
+   */
+  private Long mutate(String k, Item item, boolean incr, long by) {
+    long v;
+    try {
+      v = Long.parseUnsignedLong(new String(item.data, UTF8).trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (incr) {
+      v += by;
+    } else {
+      v = Long.compareUnsigned(v, by) < 0 ? 0 : v - by;
+    }
+    store.update(k, item, Long.toUnsignedString(v).getBytes(UTF8));
+    return v;
+  }
+
+  private void reply(String[] args, String result) {
+    if (!args[args.length - 1].equals("noreply")) {
+      writeLine(result);
+    }
+  }
+
+  // Meta commands
+
+  private void metaGet(String[] args) {
+    String k = args[1];
+    Item item = store.get(k);
+    if (item == null) {
+      if (!hasFlag(args, 2, 'q')) {
+        writeLine("EN");
+      }
+      return;
+    }
+    String ttl = flagValue(args, 2, 'T');
+    if (ttl != null) {
+      item = store.touch(k, item, Long.parseLong(ttl));
+    }
+    StringBuilder flags = new StringBuilder();
+    for (int i = 2; i < args.length; i++) {
+      char f = args[i].charAt(0);
+      if (f == 'f') {
+        flags.append(" f").append(flags(item));
+      } else if (f == 'c') {
+        flags.append(" c").append(item.cas);
+      } else if (f == 's') {
+        flags.append(" s").append(item.data.length);
+      } else if (f == 't') {
+        flags.append(" t").append(item.expiresAt == 0 ? -1
+          : Math.max(0, (item.expiresAt - System.currentTimeMillis())
+            / 1000));
+      }
+    }
+    flags.append(echoFlags(args, 2, k));
+    if (hasFlag(args, 2, 'v')) {
+      writeLine("VA " + item.data.length + flags);
+      write(item.data);
+      write(CRLF);
+    } else {
+      writeLine("HD" + flags);
+    }
+  }
+
+  private void metaSet(String[] args, byte[] data) {
+    String k = args[1];
+    String mode = flagValue(args, 3, 'M');
+    String f = flagValue(args, 3, 'F');
+    String t = flagValue(args, 3, 'T');
+    String c = flagValue(args, 3, 'C');
+    int flags = f == null ? 0 : (int) Long.parseLong(f);
+    long exp = t == null ? 0 : Long.parseLong(t);
+    char m = mode == null ? 'S' : Character.toUpperCase(mode.charAt(0));
+    String result;
+    if (c != null) {
+      result = store("cas", k, flags, exp, data, Long.parseLong(c));
+    } else if (m == 'E') {
+      result = store("add", k, flags, exp, data, 0);
+    } else if (m == 'R') {
+      result = store("replace", k, flags, exp, data, 0);
+    } else if (m == 'A') {
+      result = store("append", k, flags, exp, data, 0);
+    } else if (m == 'P') {
+      result = store("prepend", k, flags, exp, data, 0);
+    } else {
+      result = store("set", k, flags, exp, data, 0);
+    }
+    if (result.equals("STORED")) {
+      metaReply(args, 3, k, "HD");
+    } else if (result.equals("EXISTS")) {
+      metaReply(args, 3, k, "EX");
+    } else if (result.equals("NOT_FOUND")) {
+      metaReply(args, 3, k, "NF");
+    } else {
+      metaReply(args, 3, k, "NS");
+    }
+  }
+
+  private void metaDelete(String[] args) {
+    String k = args[1];
+    Item item = store.get(k);
+    String c = flagValue(args, 2, 'C');
+    if (item == null) {
+      metaReply(args, 2, k, "NF");
+    } else if (c != null && item.cas != Long.parseLong(c)) {
+      metaReply(args, 2, k, "EX");
+    } else {
+      store.delete(k);
+      metaReply(args, 2, k, "HD");
+    }
+  }
+
+  private void metaArithmetic(String[] args) {
+    String k = args[1];
+    String mode = flagValue(args, 2, 'M');
+    String d = flagValue(args, 2, 'D');
+    String n = flagValue(args, 2, 'N');
+    String j = flagValue(args, 2, 'J');
+    boolean incr = mode == null || "I".equalsIgnoreCase(mode)
+      || "+".equals(mode);
+    Item item = store.get(k);
+    Long v;
+    if (item == null) {
+      if (n == null) {
+        metaReply(args, 2, k, "NF");
+        return;
+      }
+      v = j == null ? 0 : Long.parseUnsignedLong(j);
+      store.set(k, 0, Long.parseLong(n),
+        Long.toUnsignedString(v).getBytes(UTF8));
+    } else {
+      v = mutate(k, item, incr, d == null ? 1 : Long.parseUnsignedLong(d));
+      if (v == null) {
+        writeLine("CLIENT_ERROR cannot increment or decrement non-numeric"
+          + " value");
+        return;
+      }
+    }
+    if (hasFlag(args, 2, 'v')) {
+      byte[] b = Long.toUnsignedString(v).getBytes(UTF8);
+      writeLine("VA " + b.length + echoFlags(args, 2, k));
+      write(b);
+      write(CRLF);
+    } else {
+      metaReply(args, 2, k, "HD");
+    }
+  }
+
+  /**
+   * Answer a meta command, leaving out HD for quiet commands.
+   */
+  private void metaReply(String[] args, int first, String k, String code) {
+    if (!(code.equals("HD") && hasFlag(args, first, 'q'))) {
+      writeLine(code + echoFlags(args, first, k));
+    }
+  }
+
+  /**
+   * The opaque and key flags that are echoed back.
+   */
+  private static String echoFlags(String[] args, int first, String k) {
+    StringBuilder sb = new StringBuilder();
+    String opaque = flagValue(args, first, 'O');
+    if (opaque != null) {
+      sb.append(" O").append(opaque);
+    }
+    if (hasFlag(args, first, 'k')) {
+      sb.append(" k").append(k);
+    }
+    return sb.toString();
+  }
+
+  private static boolean hasFlag(String[] args, int first, char f) {
+    return flagValue(args, first, f) != null;
+  }
+
+  private static String flagValue(String[] args, int first, char f) {
+    for (int i = first; i < args.length; i++) {
+      if (args[i].length() > 0 && args[i].charAt(0) == f) {
+        return args[i].substring(1);
+      }
+    }
+    return null;
+  }
+
+  private static long flags(Item item) {
+    return item.flags & 0xffffffffL;
+  }
+
+  // Binary protocol
+
+  private boolean processBinary() {
+    int start = in.position();
+    if (in.remaining() < MIN_PACKET) {
+      return false;
+    }
+    int bodyLength = in.getInt(start + 8);
+    if (in.remaining() < MIN_PACKET + bodyLength) {
+      return false;
+    }
+    int opcode = in.get(start + 1) & 0xff;
+    int keyLength = in.getShort(start + 2) & 0xffff;
+    int extLength = in.get(start + 4) & 0xff;
+    int opaque = in.getInt(start + 12);
+    long cas = in.getLong(start + 16);
+    in.position(start + MIN_PACKET);
+    ByteBuffer extras = in.slice();
+    extras.limit(extLength);
+    in.position(in.position() + extLength);
+    byte[] k = new byte[keyLength];
+    in.get(k);
+    byte[] value = new byte[bodyLength - extLength - keyLength];
+    in.get(value);
+    server.requestReceived();
+    if (server.isSilent()) {
+      return true;
+    }
+    if (server.takeNotMyVbucket()) {
+      binaryResponse(opcode, NOT_MY_VBUCKET, opaque, 0, NO_BYTES, NO_BYTES,
+        NO_BYTES);
+    } else {
+      handleBinary(opcode, opaque, cas, extras, k, value);
+    }
+    return true;
+  }
+
+  private void handleBinary(int opcode, int opaque, long cas,
+      ByteBuffer extras, byte[] k, byte[] value) {
+    String key = new String(k, UTF8);
+    switch (opcode) {
+    case GET:
+    case GETQ:
+    case GETK:
+    case GETKQ:
+    case GAT:
+    case GATQ:
+      Item item = store.get(key);
+      boolean quiet = opcode == GETQ || opcode == GETKQ || opcode == GATQ;
+      boolean withKey = opcode == GETK || opcode == GETKQ;
+      if (item == null) {
+        if (!quiet) {
+          binaryResponse(opcode, KEY_NOT_FOUND, opaque, 0, NO_BYTES,
+            withKey ? k : NO_BYTES, NO_BYTES);
+        }
+        return;
+      }
+      if (opcode == GAT || opcode == GATQ) {
+        item = store.touch(key, item, extras.getInt(0));
+      }
+      binaryResponse(opcode, SUCCESS, opaque, item.cas,
+        intBytes(item.flags), withKey ? k : NO_BYTES, item.data);
+      return;
+    case SET:
+    case SETQ:
+    case ADD:
+    case ADDQ:
+    case REPLACE:
+    case REPLACEQ:
+      binaryStore(opcode, opaque, cas, extras, key, value);
+      return;
+    case APPEND:
+    case APPENDQ:
+    case PREPEND:
+    case PREPENDQ:
+      boolean append = opcode == APPEND || opcode == APPENDQ;
+      String r = store(append ? "append" : "prepend", key, 0, 0, value, 0);
+      binaryResult(opcode, opcode == APPENDQ || opcode == PREPENDQ,
+        r.equals("STORED") ? SUCCESS : NOT_STORED, opaque, key);
+      return;
+    case DELETE:
+    case DELETEQ:
+      Item existing = store.get(key);
+      int status;
+      if (existing == null) {
+        status = KEY_NOT_FOUND;
+      } else if (cas != 0 && existing.cas != cas) {
+        status = KEY_EXISTS;
+      } else {
+        store.delete(key);
+        status = SUCCESS;
+      }
+      binaryResult(opcode, opcode == DELETEQ, status, opaque, key);
+      return;
+    case INCR:
+    case INCRQ:
+    case DECR:
+    case DECRQ:
+      binaryMutate(opcode, opaque, extras, key);
+      return;
+    case TOUCH:
+      Item touched = store.get(key);
+      if (touched != null) {
+        touched = store.touch(key, touched, extras.getInt(0));
+      }
+      binaryResponse(opcode, touched == null ? KEY_NOT_FOUND : SUCCESS,
+        opaque, touched == null ? 0 : touched.cas, NO_BYTES, NO_BYTES,
+        NO_BYTES);
+      return;
+    case FLUSH:
+    case FLUSHQ:
+      store.clear();
+      if (opcode == FLUSH) {
+        binaryResponse(opcode, SUCCESS, opaque, 0, NO_BYTES, NO_BYTES,
+          NO_BYTES);
+      }
+      return;
+    case NOOP:
+      binaryResponse(opcode, SUCCESS, opaque, 0, NO_BYTES, NO_BYTES,
+        NO_BYTES);
+      return;
+    case VERSION:
+      binaryResponse(opcode, SUCCESS, opaque, 0, NO_BYTES, NO_BYTES,
+        VERSION_STRING.getBytes(UTF8));
+      return;
+    case QUIT:
+    case QUITQ:
+      if (opcode == QUIT) {
+        binaryResponse(opcode, SUCCESS, opaque, 0, NO_BYTES, NO_BYTES,
+          NO_BYTES);
+      }
+      closing = true;
+      return;
+    case SASL_LIST_MECHS:
+      binaryResponse(opcode, SUCCESS, opaque, 0, NO_BYTES, NO_BYTES,
+        "PLAIN".getBytes(UTF8));
+      return;
+    case SASL_AUTH:
+    case SASL_STEP:
+      // Any credentials are accepted.
+      binaryResponse(opcode, SUCCESS, opaque, 0, NO_BYTES, NO_BYTES,
+        NO_BYTES);
+      return;
+    case CONFIG_GET:
+      String config = server.getClusterConfiguration();
+      if (config == null || !key.equals("cluster")) {
+        binaryResponse(opcode, UNKNOWN_COMMAND, opaque, 0, NO_BYTES, NO_BYTES,
+          NO_BYTES);
+      } else {
+        binaryResponse(opcode, SUCCESS, opaque, 0, intBytes(0), NO_BYTES,
+          config.getBytes(UTF8));
+      }
+      return;
+    default:
+      binaryResponse(opcode, UNKNOWN_COMMAND, opaque, 0, NO_BYTES, NO_BYTES,
+        NO_BYTES);
+    }
+  }
+
+  private void binaryStore(int opcode, int opaque, long cas,
+      ByteBuffer extras, String key, byte[] value) {
+    int flags = extras.getInt(0);
+    long exp = extras.getInt(4);
+    Item item = store.get(key);
+    int status = SUCCESS;
+    if (cas != 0) {
+      if (item == null) {
+        status = KEY_NOT_FOUND;
+      } else if (item.cas != cas) {
+        status = KEY_EXISTS;
+      }
+    } else if ((opcode == ADD || opcode == ADDQ) && item != null) {
+      status = KEY_EXISTS;
+    } else if ((opcode == REPLACE || opcode == REPLACEQ) && item == null) {
+      status = KEY_NOT_FOUND;
+    }
+    long newCas = 0;
+    if (status == SUCCESS) {
+      newCas = store.set(key, flags, exp, value).cas;
+    }
+    boolean quiet = opcode == SETQ || opcode == ADDQ || opcode == REPLACEQ;
+    if (!quiet || status != SUCCESS) {
+      binaryResponse(opcode, status, opaque, newCas, NO_BYTES, NO_BYTES,
+        NO_BYTES);
+    }
+  }
+
+  private void binaryMutate(int opcode, int opaque, ByteBuffer extras,
+      String key) {
+    long delta = extras.getLong(0);
+    long initial = extras.getLong(8);
+    int exp = extras.getInt(16);
+    boolean quiet = opcode == INCRQ || opcode == DECRQ;
+    Item item = store.get(key);
+    Long v;
+    if (item == null) {
+      if (exp == -1) {
+        binaryResponse(opcode, KEY_NOT_FOUND, opaque, 0, NO_BYTES, NO_BYTES,
+          NO_BYTES);
+        return;
+      }
+      v = initial;
+      item = store.set(key, 0, exp, Long.toUnsignedString(v).getBytes(UTF8));
+    } else {
+      v = mutate(key, item, opcode == INCR || opcode == INCRQ, delta);
+      if (v == null) {
+        binaryResponse(opcode, NON_NUMERIC, opaque, 0, NO_BYTES, NO_BYTES,
+          NO_BYTES);
+        return;
+      }
+      item = store.get(key);
+    }
+    if (!quiet) {
+      ByteBuffer b = ByteBuffer.allocate(8);
+      b.putLong(v);
+      binaryResponse(opcode, SUCCESS, opaque, item.cas, NO_BYTES, NO_BYTES,
+        b.array());
+    }
+  }
+
+  private void binaryResult(int opcode, boolean quiet, int status,
+      int opaque, String key) {
+    if (!quiet || status != SUCCESS) {
+      Item item = store.get(key);
+      binaryResponse(opcode, status, opaque, item == null ? 0 : item.cas,
+        NO_BYTES, NO_BYTES, NO_BYTES);
+    }
+  }
+
+  private void binaryResponse(int opcode, int status, int opaque, long cas,
+      byte[] extras, byte[] k, byte[] value) {
+    int bodyLength = extras.length + k.length + value.length;
+    ensureOut(MIN_PACKET + bodyLength);
+    out.put(RES_MAGIC);
+    out.put((byte) opcode);
+    out.putShort((short) k.length);
+    out.put((byte) extras.length);
+    out.put((byte) 0); // data type
+    out.putShort((short) status);
+    out.putInt(bodyLength);
+    out.putInt(opaque);
+    out.putLong(cas);
+    out.put(extras);
+    out.put(k);
+    out.put(value);
+  }
+
+  private static byte[] intBytes(int i) {
+    return new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8),
+      (byte) i};
+  }
+
+  // Output
+
+  private void writeLine(String s) {
+    write(s.getBytes(UTF8));
+    write(CRLF);
+  }
+
+  private void write(byte[] b) {
+    ensureOut(b.length);
+    out.put(b);
+  }
+
+  private void ensureOut(int n) {
+    if (out.remaining() < n) {
+      out = grow(out, n);
+    }
+  }
+
+  private static ByteBuffer grow(ByteBuffer b, int extra) {
+    ByteBuffer bigger = ByteBuffer.allocate(Math.max(b.capacity() * 2,
+      b.capacity() + extra));
+    b.flip();
+    bigger.put(b);
+    return bigger;
+  }
+
+  /**
+   * Responses waiting for the latency of the server to pass.
+   */
+  private static final class Chunk {
+    private final long due;
+    private final ByteBuffer data;
+
+    Chunk(long d, ByteBuffer b) {
+      due = d;
+      data = b;
+    }
+  }
+}
@@ -23,6 +23,7 @@
 
 package net.spy.memcached.util;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -32,9 +33,13 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.MemcachedClientIF;
 import net.spy.memcached.compat.BaseMockCase;
 import net.spy.memcached.internal.ImmediateFuture;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.server.EmbeddedMemcachedServer;
 
 import org.jmock.Mock;
 
@@ -88,6 +93,34 @@ public class CacheLoaderTest extends BaseMockCase {
     assertEquals(1, sl.failure.get());
   }
 
+  public void testLoadingThroughFullQueues() throws Exception {
+    EmbeddedMemcachedServer server = new EmbeddedMemcachedServer().start();
+    // The blocking path would throw after a millisecond on a full queue.
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setOpQueueFactory(new ArrayOperationQueueFactory(4))
+      .setOpQueueMaxBlockTime(1).build(),
+      Collections.singletonList(server.getAddress()));
+    try {
+      LoadCounter sl = new LoadCounter();
+      CacheLoader cl = new CacheLoader(client, es, sl, 0);
+      Map<String, Object> map = new HashMap<String, Object>();
+      for (int i = 0; i < 2000; i++) {
+        map.put("key" + i, i);
+      }
+
+      cl.loadData(map).get();
+      es.shutdown();
+      assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+
+      assertEquals(2000, sl.success.get());
+      assertEquals(0, sl.exceptions.get());
+      assertEquals(1999, client.get("key1999"));
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
   static class LoadCounter implements CacheLoader.StorageListener {
 
     private AtomicInteger exceptions = new AtomicInteger(0);
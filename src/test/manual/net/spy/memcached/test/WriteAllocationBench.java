@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2009-2011 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Measure the bytes allocated on the writing thread per set operation.
+ *
+ * The "gathering" run pushes sets through a node's write path, the "staged"
+ * run copies the same operation buffers through an intermediate byte[] into a
+ * direct buffer the way the write path used to. Operation creation is
+ * excluded from the measurement in both cases.
+ *
+ * Usage: java WriteAllocationBench [sets] [value size]
+ */
+public final class WriteAllocationBench {
+
+  private WriteAllocationBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    int sets = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024;
+
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    SocketChannel client =
+      SocketChannel.open(server.socket().getLocalSocketAddress());
+    final SocketChannel accepted = server.accept();
+    Thread drain = new Thread("drain") {
+      @Override
+      public void run() {
+        ByteBuffer b = ByteBuffer.allocateDirect(256 * 1024);
+        try {
+          while (accepted.read(b) >= 0) {
+            b.clear();
+          }
+        } catch (Exception e) {
+          // Closed
+        }
+      }
+    };
+    drain.setDaemon(true);
+    drain.start();
+
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setProtocol(Protocol.BINARY).build();
+    MemcachedNode node = cf.createMemcachedNode(
+      server.socket().getLocalSocketAddress(), client, cf.getReadBufSize());
+    byte[] value = new byte[size];
+
+    for (int round = 0; round < 3; round++) {
+      long gathering = 0;
+      long staged = 0;
+      ByteBuffer wbuf = ByteBuffer.allocateDirect(cf.getReadBufSize());
+      for (int i = 0; i < sets; i++) {
+        Operation op = newSet(cf, "key" + i, value);
+        long before = allocatedBytes();
+        node.addOp(op);
+        node.copyInputQueue();
+        node.fillWriteBuffer(false);
+        while (node.getBytesRemainingToWrite() > 0) {
+          node.writeSome();
+          node.fillWriteBuffer(false);
+        }
+        gathering += allocatedBytes() - before;
+        node.removeCurrentReadOp();
+
+        op = newSet(cf, "key" + i, value);
+        ByteBuffer obuf = op.getBuffer();
+        before = allocatedBytes();
+        while (obuf.hasRemaining()) {
+          wbuf.clear();
+          byte[] b = new byte[Math.min(wbuf.remaining(), obuf.remaining())];
+          obuf.get(b);
+          wbuf.put(b);
+          wbuf.flip();
+          while (wbuf.hasRemaining()) {
+            client.write(wbuf);
+          }
+        }
+        staged += allocatedBytes() - before;
+      }
+      System.out.printf("round %d: %d byte sets, gathering %d B/set, "
+        + "staged %d B/set%n", round, size, gathering / sets, staged / sets);
+    }
+    client.close();
+    server.close();
+  }
+
+  private static Operation newSet(ConnectionFactory cf, String key,
+    byte[] value) {
+    Operation op = cf.getOperationFactory().store(StoreType.set, key, 0, 0,
+      value, new StoreOperation.Callback() {
+        public void gotData(String k, long cas) {
+        }
+
+        public void receivedStatus(OperationStatus status) {
+        }
+
+        public void complete() {
+        }
+      });
+    op.initialize();
+    return op;
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory
+      .getThreadMXBean()).getThreadAllocatedBytes(
+        Thread.currentThread().getId());
+  }
+}